@@ -1,12 +1,15 @@
 package com.cloudstore;
 
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CloudstoreBackendApplication {
     public static void main(String[] args) {
         SpringApplication.run(CloudstoreBackendApplication.class, args);
@@ -22,4 +25,115 @@ public class CloudstoreBackendApplication {
             }
         };
     }
-} 
\ No newline at end of file
+
+    // files.id moved from an identity column to the pooled files_seq; start the sequence past existing rows.
+    // Runs after Hibernate has updated the schema but before the web server starts, since an upload
+    // taking ids from an unaligned sequence would collide with existing rows; failing here fails startup.
+    @Bean
+    public SmartInitializingSingleton alignFilesSequence(JdbcTemplate jdbcTemplate) {
+        return () -> {
+            try {
+                jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS files_seq INCREMENT BY 50");
+                jdbcTemplate.queryForObject(
+                        "SELECT setval('files_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM files) + 50, "
+                                + "(SELECT last_value FROM files_seq)))", Long.class);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to align files_seq", e);
+            }
+        };
+    }
+
+    // Trash from before deletedAt existed starts its retention period at its last update
+    @Bean
+    public CommandLineRunner backfillTrashTimestamps(JdbcTemplate jdbcTemplate) {
+        return args -> {
+            try {
+                int updated = jdbcTemplate.update(
+                        "UPDATE files SET deleted_at = COALESCE(updated_at, now()) WHERE deleted = true AND deleted_at IS NULL");
+                if (updated > 0) {
+                    System.out.println("Backfilled trash timestamps for " + updated + " files");
+                }
+            } catch (Exception e) {
+                System.out.println("Failed to backfill trash timestamps: " + e.getMessage());
+            }
+        };
+    }
+
+    // Change feed for /api/sync: every insert, delete and client-visible update of a file or folder is
+    // logged with its transaction id by a trigger, so bulk SQL and cascades are covered too. Folder
+    // rollup columns (total_size, file_count) change constantly and are deliberately not tracked.
+    // Installed once the schema exists but before the web server starts; a write made without the
+    // triggers would never reach a client, so failing to install them fails startup.
+    @Bean
+    public SmartInitializingSingleton installChangeLog(JdbcTemplate jdbcTemplate) {
+        return () -> {
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS change_log ("
+                        + " seq bigserial PRIMARY KEY,"
+                        + " user_id bigint NOT NULL,"
+                        + " entity_type varchar(8) NOT NULL,"
+                        + " entity_id bigint NOT NULL,"
+                        + " txid bigint NOT NULL,"
+                        + " changed_at timestamp NOT NULL DEFAULT now())");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_change_log_user_position ON change_log (user_id, txid, seq)");
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS change_log_horizon (id int PRIMARY KEY, txid bigint NOT NULL, seq bigint NOT NULL)");
+                jdbcTemplate.execute("CREATE OR REPLACE FUNCTION log_change() RETURNS trigger AS $$"
+                        + " BEGIN"
+                        + "  IF TG_OP = 'DELETE' THEN"
+                        + "   IF OLD.user_id IS NOT NULL THEN"
+                        + "    INSERT INTO change_log (user_id, entity_type, entity_id, txid) VALUES (OLD.user_id, TG_ARGV[0], OLD.id, txid_current());"
+                        + "   END IF;"
+                        + "  ELSIF NEW.user_id IS NOT NULL THEN"
+                        + "   INSERT INTO change_log (user_id, entity_type, entity_id, txid) VALUES (NEW.user_id, TG_ARGV[0], NEW.id, txid_current());"
+                        + "   IF TG_OP = 'UPDATE' AND OLD.user_id IS DISTINCT FROM NEW.user_id AND OLD.user_id IS NOT NULL THEN"
+                        + "    INSERT INTO change_log (user_id, entity_type, entity_id, txid) VALUES (OLD.user_id, TG_ARGV[0], OLD.id, txid_current());"
+                        + "   END IF;"
+                        + "  END IF;"
+                        + "  RETURN NULL;"
+                        + " END $$ LANGUAGE plpgsql");
+                jdbcTemplate.execute("DROP TRIGGER IF EXISTS files_change_log ON files");
+                jdbcTemplate.execute("CREATE TRIGGER files_change_log AFTER INSERT OR DELETE ON files"
+                        + " FOR EACH ROW EXECUTE PROCEDURE log_change('file')");
+                jdbcTemplate.execute("DROP TRIGGER IF EXISTS files_change_log_update ON files");
+                jdbcTemplate.execute("CREATE TRIGGER files_change_log_update AFTER UPDATE ON files FOR EACH ROW"
+                        + " WHEN (OLD.name IS DISTINCT FROM NEW.name OR OLD.deleted IS DISTINCT FROM NEW.deleted"
+                        + " OR OLD.favourite IS DISTINCT FROM NEW.favourite OR OLD.folder_id IS DISTINCT FROM NEW.folder_id"
+                        + " OR OLD.size IS DISTINCT FROM NEW.size OR OLD.url IS DISTINCT FROM NEW.url"
+                        + " OR OLD.blob_hash IS DISTINCT FROM NEW.blob_hash OR OLD.user_id IS DISTINCT FROM NEW.user_id)"
+                        + " EXECUTE PROCEDURE log_change('file')");
+                jdbcTemplate.execute("DROP TRIGGER IF EXISTS folders_change_log ON folders");
+                jdbcTemplate.execute("CREATE TRIGGER folders_change_log AFTER INSERT OR DELETE ON folders"
+                        + " FOR EACH ROW EXECUTE PROCEDURE log_change('folder')");
+                jdbcTemplate.execute("DROP TRIGGER IF EXISTS folders_change_log_update ON folders");
+                jdbcTemplate.execute("CREATE TRIGGER folders_change_log_update AFTER UPDATE ON folders FOR EACH ROW"
+                        + " WHEN (OLD.name IS DISTINCT FROM NEW.name OR OLD.parent_id IS DISTINCT FROM NEW.parent_id"
+                        + " OR OLD.user_id IS DISTINCT FROM NEW.user_id)"
+                        + " EXECUTE PROCEDURE log_change('folder')");
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to install change log triggers", e);
+            }
+        };
+    }
+
+    // Folders created before materialized paths existed get theirs from one recursive walk down parent_id
+    @Bean
+    public CommandLineRunner backfillFolderPaths(JdbcTemplate jdbcTemplate) {
+        return args -> {
+            try {
+                int updated = jdbcTemplate.update(
+                        "WITH RECURSIVE tree (id, path, depth) AS ("
+                                + " SELECT id, '/' || id || '/', 0 FROM folders WHERE parent_id IS NULL"
+                                + " UNION ALL"
+                                + " SELECT f.id, t.path || f.id || '/', t.depth + 1 FROM folders f JOIN tree t ON f.parent_id = t.id)"
+                                + " UPDATE folders SET path = tree.path, depth = tree.depth FROM tree"
+                                + " WHERE folders.id = tree.id AND folders.path IS DISTINCT FROM tree.path"
+                                + " AND EXISTS (SELECT 1 FROM folders WHERE path IS NULL)");
+                if (updated > 0) {
+                    System.out.println("Backfilled paths for " + updated + " folders");
+                }
+            } catch (Exception e) {
+                System.out.println("Failed to backfill folder paths: " + e.getMessage());
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package com.cloudstore.config;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.utils.ObjectUtils;
+import com.cloudstore.storage.CloudinaryStorageBackend;
+import com.cloudstore.storage.LocalDiskStorageBackend;
+import com.cloudstore.storage.RemoteFileCache;
+import com.cloudstore.storage.RemoteUrlStorageBackend;
+import com.cloudstore.storage.S3StorageBackend;
+import com.cloudstore.storage.StorageBackend;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Picks the blob storage backend for this deployment: storage.backend=local|s3|cloudinary
+@Configuration
+public class StorageConfig {
+
+    // Bounded pool for staging and storing multi-file uploads; when it is saturated the request thread does the work itself
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService uploadExecutor(@Value("${file.upload.parallelism:8}") int parallelism) {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "upload-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Bean
+    public RemoteUrlStorageBackend remoteUrlStorageBackend(RemoteFileCache remoteFileCache) {
+        return new RemoteUrlStorageBackend(remoteFileCache);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "local", matchIfMissing = true)
+    public StorageBackend localStorageBackend(@Value("${storage.local.root:${file.upload-dir:uploads}/blobs}") String root) {
+        return new LocalDiskStorageBackend(Paths.get(root), true);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+    public StorageBackend s3StorageBackend(
+            @Value("${storage.s3.endpoint}") String endpoint,
+            @Value("${storage.s3.region:us-east-1}") String region,
+            @Value("${storage.s3.bucket}") String bucket,
+            @Value("${storage.s3.access-key}") String accessKey,
+            @Value("${storage.s3.secret-key}") String secretKey) {
+        return new S3StorageBackend(endpoint, region, bucket, accessKey, secretKey);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "cloudinary")
+    public StorageBackend cloudinaryStorageBackend(
+            @Value("${CLOUDINARY_URL:}") String cloudinaryUrl,
+            @Value("${cloudinary.cloud-name:}") String cloudName,
+            @Value("${cloudinary.api-key:}") String apiKey,
+            @Value("${cloudinary.api-secret:}") String apiSecret,
+            RemoteUrlStorageBackend remoteUrlStorageBackend) {
+        return new CloudinaryStorageBackend(cloudinary(cloudinaryUrl, cloudName, apiKey, apiSecret), remoteUrlStorageBackend);
+    }
+
+    private Cloudinary cloudinary(String cloudinaryUrl, String cloudName, String apiKey, String apiSecret) {
+        if (cloudinaryUrl != null && !cloudinaryUrl.isEmpty()) {
+            return new Cloudinary(cloudinaryUrl);
+        }
+        // fallback to explicit config if env var is not set
+        if (cloudName.isEmpty() || apiKey.isEmpty() || apiSecret.isEmpty()) {
+            throw new IllegalStateException("Set CLOUDINARY_URL or cloudinary.cloud-name, cloudinary.api-key and cloudinary.api-secret");
+        }
+        return new Cloudinary(ObjectUtils.asMap(
+            "cloud_name", cloudName,
+            "api_key", apiKey,
+            "api_secret", apiSecret
+        ));
+    }
+}
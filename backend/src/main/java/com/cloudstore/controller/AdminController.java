@@ -0,0 +1,39 @@
+package com.cloudstore.controller;
+
+import com.cloudstore.dto.StorageUsageResponse;
+import com.cloudstore.service.UserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+// Back-office calls (e.g. from the payment flow) authenticated with a shared token rather than
+// a user's JWT. Leaving admin.api-token empty turns them off.
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+public class AdminController {
+    private final UserService userService;
+
+    @Value("${admin.api-token:}")
+    private String apiToken;
+
+    @PutMapping("/users/{id}/plan")
+    public ResponseEntity<StorageUsageResponse> updatePlan(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                                           @PathVariable Long id, @RequestBody Map<String, String> body) {
+        if (!authorized(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(userService.setPlan(id, body.get("plan")));
+    }
+
+    private boolean authorized(String token) {
+        return !apiToken.isEmpty() && token != null
+                && MessageDigest.isEqual(apiToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
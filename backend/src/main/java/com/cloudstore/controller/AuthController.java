@@ -1,9 +1,13 @@
 package com.cloudstore.controller;
 
 import com.cloudstore.dto.*;
+import com.cloudstore.model.User;
+import com.cloudstore.security.PasswordHashingBusyException;
 import com.cloudstore.service.AuthService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,7 +27,10 @@ public class AuthController {
             resp.put("token", result.getToken());
             resp.put("email", result.getEmail());
             resp.put("name", result.getName());
+            resp.put("refreshToken", result.getRefreshToken());
             return ResponseEntity.ok(resp);
+        } catch (PasswordHashingBusyException e) {
+            throw e;
         } catch (Exception e) {
             resp.put("success", false);
             resp.put("message", e.getMessage());
@@ -40,7 +47,10 @@ public class AuthController {
             resp.put("token", result.getToken());
             resp.put("email", result.getEmail());
             resp.put("name", result.getName());
+            resp.put("refreshToken", result.getRefreshToken());
             return ResponseEntity.ok(resp);
+        } catch (PasswordHashingBusyException e) {
+            throw e;
         } catch (Exception e) {
             resp.put("success", false);
             resp.put("message", e.getMessage());
@@ -86,10 +96,44 @@ public class AuthController {
             resp.put("success", true);
             resp.put("message", "Password reset successful");
             return ResponseEntity.ok(resp);
+        } catch (PasswordHashingBusyException e) {
+            throw e;
         } catch (Exception e) {
             resp.put("success", false);
             resp.put("message", e.getMessage());
             return ResponseEntity.badRequest().body(resp);
         }
     }
+
+    @PostMapping("/refresh")
+    public ResponseEntity<Map<String, Object>> refresh(@RequestBody Map<String, String> request) {
+        Map<String, Object> resp = new HashMap<>();
+        try {
+            AuthResponse result = authService.refresh(request.get("refreshToken"));
+            resp.put("success", true);
+            resp.put("token", result.getToken());
+            resp.put("email", result.getEmail());
+            resp.put("name", result.getName());
+            resp.put("refreshToken", result.getRefreshToken());
+            return ResponseEntity.ok(resp);
+        } catch (Exception e) {
+            resp.put("success", false);
+            resp.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(resp);
+        }
+    }
+
+    @PostMapping("/logout")
+    public ResponseEntity<Map<String, Object>> logout(@AuthenticationPrincipal User user) {
+        Map<String, Object> resp = new HashMap<>();
+        if (user == null) {
+            resp.put("success", false);
+            resp.put("message", "Not authenticated");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(resp);
+        }
+        authService.logout(user);
+        resp.put("success", true);
+        resp.put("message", "Logged out");
+        return ResponseEntity.ok(resp);
+    }
 } 
\ No newline at end of file
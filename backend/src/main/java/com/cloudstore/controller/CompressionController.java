@@ -0,0 +1,58 @@
+package com.cloudstore.controller;
+
+import com.cloudstore.dto.ArchiveRequest;
+import com.cloudstore.dto.CompressionJobResponse;
+import com.cloudstore.dto.CompressionRequest;
+import com.cloudstore.model.User;
+import com.cloudstore.service.CompressionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class CompressionController {
+    private final CompressionService compressionService;
+
+    // Queue a compression job; poll the returned job for progress and the resulting file
+    @PostMapping("/{id}/compress")
+    public ResponseEntity<CompressionJobResponse> compressFile(
+            @AuthenticationPrincipal User user,
+            @PathVariable Long id,
+            @RequestBody CompressionRequest request) {
+        return ResponseEntity.accepted().body(compressionService.submit(user, id, request));
+    }
+
+    // Queue a zip of several files or of a whole folder
+    @PostMapping("/archive")
+    public ResponseEntity<CompressionJobResponse> archive(
+            @AuthenticationPrincipal User user,
+            @RequestBody ArchiveRequest request) {
+        return ResponseEntity.accepted().body(compressionService.submitArchive(user, request));
+    }
+
+    // Recent compression jobs for the authenticated user
+    @GetMapping("/compress-jobs")
+    public ResponseEntity<List<CompressionJobResponse>> listJobs(@AuthenticationPrincipal User user) {
+        return ResponseEntity.ok(compressionService.listJobs(user));
+    }
+
+    @GetMapping("/compress-jobs/{jobId}")
+    public ResponseEntity<CompressionJobResponse> getJob(
+            @AuthenticationPrincipal User user,
+            @PathVariable Long jobId) {
+        return ResponseEntity.ok(compressionService.getJob(user, jobId));
+    }
+
+    // Cancel a queued or running job
+    @DeleteMapping("/compress-jobs/{jobId}")
+    public ResponseEntity<CompressionJobResponse> cancelJob(
+            @AuthenticationPrincipal User user,
+            @PathVariable Long jobId) {
+        return ResponseEntity.ok(compressionService.cancel(user, jobId));
+    }
+}
@@ -1,26 +1,37 @@
 package com.cloudstore.controller;
 
-import com.cloudstore.dto.CompressionRequest;
-import com.cloudstore.dto.CompressionResponse;
+import com.cloudstore.dto.BulkFileRequest;
+import com.cloudstore.dto.BulkFileResponse;
+import com.cloudstore.dto.ContentSearchResult;
+import com.cloudstore.dto.FilePageResponse;
 import com.cloudstore.dto.FileResponse;
 import com.cloudstore.dto.RegisterCloudFileRequest;
+import com.cloudstore.model.File;
 import com.cloudstore.model.User;
 import com.cloudstore.service.FileService;
+import com.cloudstore.service.ThumbnailService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/files")
 @RequiredArgsConstructor
 public class FileController {
     private final FileService fileService;
+    private final ThumbnailService thumbnailService;
 
     // List all files for the authenticated user
     @GetMapping("")
@@ -30,6 +41,23 @@ public class FileController {
         return ResponseEntity.ok(fileService.listFilesByUser(user, Optional.ofNullable(folderId)));
     }
 
+    // Paged listing with keyset cursors; sort is createdAt (default), name or size.
+    // With recursive=true the files of every folder below folderId are included as well.
+    @GetMapping("/page")
+    public ResponseEntity<FilePageResponse> listFilesPage(
+            @AuthenticationPrincipal User user,
+            @RequestParam(required = false) Long folderId,
+            @RequestParam(defaultValue = "false") boolean recursive,
+            @RequestParam(defaultValue = "false") boolean deleted,
+            @RequestParam(required = false) Boolean favourite,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String direction,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(fileService.listFilesPage(user, folderId, recursive, deleted, favourite, type, sort, direction, cursor, limit));
+    }
+
     // Upload multiple files for the authenticated user
     @PostMapping("/upload")
     public ResponseEntity<List<FileResponse>> uploadFiles(
@@ -65,15 +93,40 @@ public class FileController {
         return ResponseEntity.ok(fileService.toggleFavouriteByUser(user, id));
     }
 
-    // Download a file (only if owned by user)
+    // JPEG thumbnail of an image file; size snaps to the nearest generated size
+    @GetMapping("/{id}/thumbnail")
+    public ResponseEntity<Resource> thumbnail(
+            @AuthenticationPrincipal User user,
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer size,
+            WebRequest request) throws java.io.IOException {
+        File file = fileService.getFileByUser(user, id);
+        int snapped = thumbnailService.snapSize(size);
+        String etag = thumbnailService.etag(file, snapped);
+        // Thumbnails of a given content never change, so clients may keep them for a long time
+        CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).eTag(etag).build();
+        }
+        return thumbnailService.thumbnail(file, snapped)
+                .map(resource -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .cacheControl(cacheControl)
+                        .eTag(etag)
+                        .body(resource))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Download a file (only if owned by user). Range requests get 206 Partial Content.
     @GetMapping("/{id}/download")
-    public org.springframework.http.ResponseEntity<byte[]> downloadFile(
+    public ResponseEntity<Resource> downloadFile(
             @AuthenticationPrincipal User user,
             @PathVariable Long id) throws java.io.IOException {
-        byte[] data = fileService.downloadFileByUser(user, id);
-        return org.springframework.http.ResponseEntity.ok()
+        File file = fileService.getFileByUser(user, id);
+        return ResponseEntity.ok()
+                .contentType(fileService.getMediaType(file))
                 .header("Content-Disposition", "attachment; filename=\"file_" + id + "\"")
-                .body(data);
+                .body(fileService.loadResource(file));
     }
 
     // Get download URL for a file (only if owned by user)
@@ -106,17 +159,35 @@ public class FileController {
     @DeleteMapping("/permanent/{id}")
     public ResponseEntity<Void> permanentlyDeleteFile(
             @AuthenticationPrincipal User user,
-            @PathVariable Long id) {
+            @PathVariable Long id) throws java.io.IOException {
         fileService.permanentlyDeleteFileByUser(user, id);
         return ResponseEntity.ok().build();
     }
 
+    // One operation over many files (trash, restore, (un)favourite, move, permanent delete), with a result per id
+    @PostMapping("/bulk")
+    public ResponseEntity<BulkFileResponse> bulkUpdate(
+            @AuthenticationPrincipal User user,
+            @RequestBody BulkFileRequest request) throws java.io.IOException {
+        return ResponseEntity.ok(fileService.bulkUpdateForUser(user, request));
+    }
+
     // Search files by name (only for authenticated user)
     @GetMapping("/search")
     public ResponseEntity<List<FileResponse>> searchFiles(
             @AuthenticationPrincipal User user,
-            @RequestParam("query") String query) {
-        return ResponseEntity.ok(fileService.searchFilesByNameForUser(user, query));
+            @RequestParam("query") String query,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(fileService.searchFilesByNameForUser(user, query, limit));
+    }
+
+    // Full-text search over the contents of text, PDF and Office files
+    @GetMapping("/search/content")
+    public ResponseEntity<List<ContentSearchResult>> searchFileContents(
+            @AuthenticationPrincipal User user,
+            @RequestParam("query") String query,
+            @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(fileService.searchFileContentsForUser(user, query, limit));
     }
 
     // Register a cloud file for the authenticated user
@@ -143,26 +214,18 @@ public class FileController {
         if (file == null) {
             return org.springframework.http.ResponseEntity.notFound().build();
         }
-        if (file.getUrl() != null && !file.getUrl().isEmpty()) {
-            // Redirect to cloud URL
+        var publicUrl = fileService.getPublicUrl(file);
+        if (publicUrl.isPresent()) {
+            // Redirect to the storage backend's URL
             return org.springframework.http.ResponseEntity.status(302)
-                .header("Location", file.getUrl())
+                .header("Location", publicUrl.get())
                 .build();
         } else {
-            // Serve local file bytes
-            byte[] data = fileService.downloadFile(id);
+            // Stream local file content, honouring Range for seeking/resuming
             return org.springframework.http.ResponseEntity.ok()
+                .contentType(fileService.getMediaType(file))
                 .header("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"")
-                .body(data);
+                .body(fileService.loadResource(file));
         }
     }
-
-    @PostMapping("/{id}/compress")
-    public ResponseEntity<CompressionResponse> compressFile(
-            @AuthenticationPrincipal User user,
-            @PathVariable Long id,
-            @RequestBody CompressionRequest request) {
-        CompressionResponse response = fileService.compressFile(user, id, request);
-        return ResponseEntity.ok(response);
-    }
 } 
\ No newline at end of file
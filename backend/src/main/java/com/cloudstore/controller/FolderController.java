@@ -2,6 +2,8 @@ package com.cloudstore.controller;
 
 import com.cloudstore.dto.CreateFolderRequest;
 import com.cloudstore.dto.FolderResponse;
+import com.cloudstore.dto.FolderTreeNode;
+import com.cloudstore.dto.MoveFolderRequest;
 import com.cloudstore.service.FolderService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -38,6 +40,29 @@ public class FolderController {
         return ResponseEntity.ok(folderService.renameFolder(id, request.getName()));
     }
 
+    // Whole hierarchy as nested nodes
+    @GetMapping("/tree")
+    public ResponseEntity<List<FolderTreeNode>> getTree() {
+        return ResponseEntity.ok(folderService.getTree());
+    }
+
+    // Every folder below this one, parents before children
+    @GetMapping("/{id}/subtree")
+    public ResponseEntity<List<FolderResponse>> listSubtree(@PathVariable Long id) {
+        return ResponseEntity.ok(folderService.listSubtree(id));
+    }
+
+    // Ancestors from the top level down to (and including) this folder
+    @GetMapping("/{id}/breadcrumbs")
+    public ResponseEntity<List<FolderResponse>> breadcrumbs(@PathVariable Long id) {
+        return ResponseEntity.ok(folderService.breadcrumbs(id));
+    }
+
+    @PutMapping("/{id}/move")
+    public ResponseEntity<FolderResponse> moveFolder(@PathVariable Long id, @RequestBody MoveFolderRequest request) {
+        return ResponseEntity.ok(folderService.moveFolder(id, request.getParentId()));
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteFolder(@PathVariable Long id) {
         folderService.deleteFolder(id);
@@ -0,0 +1,59 @@
+package com.cloudstore.controller;
+
+import com.cloudstore.dto.NotificationPageResponse;
+import com.cloudstore.model.User;
+import com.cloudstore.service.NotificationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/notifications")
+@RequiredArgsConstructor
+public class NotificationController {
+    private final NotificationService notificationService;
+
+    // Newest first; pass nextBefore back as ?before= for older ones
+    @GetMapping("")
+    public ResponseEntity<NotificationPageResponse> list(
+            @AuthenticationPrincipal User user,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "false") boolean unreadOnly,
+            @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(notificationService.list(user.getId(), before, unreadOnly, limit));
+    }
+
+    // Live notifications as Server-Sent Events; reconnecting with Last-Event-ID replays what was missed
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @AuthenticationPrincipal User user,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return notificationService.subscribe(user.getId(), lastEventId);
+    }
+
+    @PostMapping("/read")
+    public ResponseEntity<Map<String, Integer>> markRead(
+            @AuthenticationPrincipal User user,
+            @RequestBody Map<String, List<Long>> body) {
+        return ResponseEntity.ok(Map.of("updated", notificationService.markRead(user.getId(), body.get("ids"))));
+    }
+
+    @PostMapping("/read-all")
+    public ResponseEntity<Map<String, Integer>> markAllRead(@AuthenticationPrincipal User user) {
+        return ResponseEntity.ok(Map.of("updated", notificationService.markAllRead(user.getId())));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(
+            @AuthenticationPrincipal User user,
+            @PathVariable Long id) {
+        notificationService.delete(user.getId(), id);
+        return ResponseEntity.ok().build();
+    }
+}
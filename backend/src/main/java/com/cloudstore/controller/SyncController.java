@@ -0,0 +1,28 @@
+package com.cloudstore.controller;
+
+import com.cloudstore.dto.SyncResponse;
+import com.cloudstore.model.User;
+import com.cloudstore.service.SyncService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/sync")
+@RequiredArgsConstructor
+public class SyncController {
+    private final SyncService syncService;
+
+    // Changes to the caller's files and folders since the cursor; without one, returns a starting cursor
+    @GetMapping("")
+    public ResponseEntity<SyncResponse> sync(
+            @AuthenticationPrincipal User user,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "500") int limit) {
+        return ResponseEntity.ok(syncService.sync(user, cursor, limit));
+    }
+}
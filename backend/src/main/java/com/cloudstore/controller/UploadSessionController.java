@@ -0,0 +1,64 @@
+package com.cloudstore.controller;
+
+import com.cloudstore.dto.CreateUploadSessionRequest;
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.dto.UploadSessionResponse;
+import com.cloudstore.model.User;
+import com.cloudstore.service.UploadSessionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/files/upload-sessions")
+@RequiredArgsConstructor
+public class UploadSessionController {
+    private final UploadSessionService uploadSessionService;
+
+    // Start a resumable upload
+    @PostMapping("")
+    public ResponseEntity<UploadSessionResponse> createSession(
+            @AuthenticationPrincipal User user,
+            @RequestBody CreateUploadSessionRequest request) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.createSession(user, request));
+    }
+
+    // Which chunks have arrived and how many contiguous bytes the server holds
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionResponse> getSession(
+            @AuthenticationPrincipal User user,
+            @PathVariable String sessionId) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.getSession(user, sessionId));
+    }
+
+    // Upload one chunk as the raw request body; X-Chunk-Checksum is its hex SHA-256
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<UploadSessionResponse> putChunk(
+            @AuthenticationPrincipal User user,
+            @PathVariable String sessionId,
+            @PathVariable int index,
+            @RequestHeader("X-Chunk-Checksum") String checksum,
+            InputStream body) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.putChunk(user, sessionId, index, checksum, body));
+    }
+
+    // Assemble all chunks into a file
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<FileResponse> completeSession(
+            @AuthenticationPrincipal User user,
+            @PathVariable String sessionId) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.completeSession(user, sessionId));
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abortSession(
+            @AuthenticationPrincipal User user,
+            @PathVariable String sessionId) throws IOException {
+        uploadSessionService.abortSession(user, sessionId);
+        return ResponseEntity.ok().build();
+    }
+}
@@ -1,7 +1,10 @@
 package com.cloudstore.controller;
 
+import com.cloudstore.dto.AuthResponse;
+import com.cloudstore.dto.StorageUsageResponse;
 import com.cloudstore.dto.UpdateUserProfileRequest;
 import com.cloudstore.dto.UserProfileResponse;
+import com.cloudstore.security.PasswordHashingBusyException;
 import com.cloudstore.service.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -28,6 +31,16 @@ public class UserController {
         return ResponseEntity.ok(userService.updateProfile(request));
     }
 
+    @GetMapping("/storage")
+    public ResponseEntity<StorageUsageResponse> getStorageUsage() {
+        return ResponseEntity.ok(userService.getStorageUsage());
+    }
+
+    @PutMapping("/plan")
+    public ResponseEntity<StorageUsageResponse> updatePlan(@RequestBody Map<String, String> body) {
+        return ResponseEntity.ok(userService.updatePlan(body.get("plan")));
+    }
+
     @DeleteMapping("/me")
     public ResponseEntity<String> deleteAccount() {
         userService.deleteAccount();
@@ -40,10 +53,15 @@ public class UserController {
         try {
             String currentPassword = body.get("currentPassword");
             String newPassword = body.get("newPassword");
-            userService.changePassword(currentPassword, newPassword);
+            AuthResponse tokens = userService.changePassword(currentPassword, newPassword);
             resp.put("success", true);
             resp.put("message", "Password changed successfully");
+            // Older tokens no longer work after the change
+            resp.put("token", tokens.getToken());
+            resp.put("refreshToken", tokens.getRefreshToken());
             return ResponseEntity.ok(resp);
+        } catch (PasswordHashingBusyException e) {
+            throw e;
         } catch (Exception e) {
             resp.put("success", false);
             resp.put("message", e.getMessage());
@@ -0,0 +1,15 @@
+package com.cloudstore.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ArchiveRequest {
+    private List<Long> fileIds; // files to archive, or
+    private Long folderId; // a folder to archive with everything below it
+    private String name; // archive file name; defaults to the folder or first file name
+    private Long targetFolderId; // where the archive is saved; defaults next to the source
+    private Integer level; // deflate level 0-9, defaults to 6
+    private Integer priority;
+}
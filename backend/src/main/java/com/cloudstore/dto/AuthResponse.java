@@ -9,4 +9,5 @@ public class AuthResponse {
     private String token;
     private String email;
     private String name;
+    private String refreshToken;
 } 
\ No newline at end of file
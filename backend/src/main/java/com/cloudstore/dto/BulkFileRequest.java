@@ -0,0 +1,14 @@
+package com.cloudstore.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkFileRequest {
+    public enum Operation { DELETE, RESTORE, FAVOURITE, UNFAVOURITE, MOVE, PERMANENT_DELETE }
+
+    private Operation operation;
+    private List<Long> fileIds;
+    private Long folderId; // MOVE target; null moves the files to the top level
+}
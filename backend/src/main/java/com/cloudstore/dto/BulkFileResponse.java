@@ -0,0 +1,16 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class BulkFileResponse {
+    private BulkFileRequest.Operation operation;
+    private int updated;
+    private int unchanged;
+    private int notFound;
+    private List<BulkFileResult> results; // one per requested id, in request order
+}
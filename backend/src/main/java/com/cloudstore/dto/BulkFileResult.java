@@ -0,0 +1,13 @@
+package com.cloudstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BulkFileResult {
+    public enum Status { UPDATED, UNCHANGED, NOT_FOUND }
+
+    private Long fileId;
+    private Status status;
+}
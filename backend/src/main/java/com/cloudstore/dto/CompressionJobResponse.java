@@ -0,0 +1,24 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class CompressionJobResponse {
+    private Long jobId;
+    private Long fileId;
+    private String type;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    private int progress;
+    private Double speed; // video only
+    private Long throughput; // video only, bytes per second
+    private int priority;
+    private String error;
+    private CompressionResponse result; // set once COMPLETED
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -8,4 +8,6 @@ public class CompressionRequest {
     private Float quality; // for images (0.3–0.9)
     private Integer bitrate; // for videos (kbps)
     private String format; // output format (jpg, png, mp4, zip, etc.)
+    private Integer priority; // higher runs first; defaults to 0, clients may only lower it
+    private Integer level; // archive deflate level 0-9
 } 
\ No newline at end of file
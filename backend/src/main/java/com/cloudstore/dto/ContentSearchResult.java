@@ -0,0 +1,14 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.List;
+
+@Data
+@Builder
+public class ContentSearchResult {
+    private FileResponse file;
+    private double score;
+    private String snippet; // plain text around the best matching passage
+    private List<int[]> highlights; // [start, end) offsets of matched words within the snippet
+}
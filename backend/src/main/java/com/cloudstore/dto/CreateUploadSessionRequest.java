@@ -0,0 +1,11 @@
+package com.cloudstore.dto;
+
+import lombok.Data;
+
+@Data
+public class CreateUploadSessionRequest {
+    private String fileName;
+    private Long totalSize;
+    private Integer chunkSize; // optional, server default when omitted
+    private Long folderId;
+}
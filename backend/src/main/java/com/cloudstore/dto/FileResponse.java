@@ -1,5 +1,6 @@
 package com.cloudstore.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -19,4 +20,14 @@ public class FileResponse {
     private LocalDateTime updatedAt;
     private String url;
     private boolean isCompressed;
+
+    @JsonIgnore
+    private String blobHash; // set by listing projections so the URL can be presigned afterwards
+
+    // JPQL constructor projection used by the paged listing
+    public FileResponse(Long id, String name, Long size, boolean favourite, boolean deleted, Long folderId,
+                        LocalDateTime createdAt, LocalDateTime updatedAt, String url, String blobHash) {
+        this(id, name, size, favourite, deleted, folderId, createdAt, updatedAt, url,
+                name != null && name.contains("_compressed"), blobHash);
+    }
 } 
\ No newline at end of file
@@ -12,4 +12,6 @@ public class FolderResponse {
     private Long parentId;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    private long totalSize; // bytes in live files anywhere below this folder
+    private long fileCount;
 } 
\ No newline at end of file
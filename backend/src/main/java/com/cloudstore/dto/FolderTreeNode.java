@@ -0,0 +1,19 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+public class FolderTreeNode {
+    private Long id;
+    private String name;
+    private Long parentId;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private long totalSize;
+    private long fileCount;
+    private List<FolderTreeNode> children;
+}
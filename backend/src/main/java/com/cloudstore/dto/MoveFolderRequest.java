@@ -0,0 +1,8 @@
+package com.cloudstore.dto;
+
+import lombok.Data;
+
+@Data
+public class MoveFolderRequest {
+    private Long parentId; // null moves the folder to the top level
+}
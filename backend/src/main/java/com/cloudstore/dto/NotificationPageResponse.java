@@ -0,0 +1,14 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class NotificationPageResponse {
+    private List<NotificationResponse> items;
+    private Long nextBefore; // pass as ?before= for the next page; null on the last page
+    private long unreadCount;
+}
@@ -0,0 +1,17 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class NotificationResponse {
+    private Long id;
+    private String type;
+    private String message;
+    private String fileName;
+    private boolean read;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,13 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class StorageUsageResponse {
+    private String plan;
+    private long usedBytes;
+    private long reservedBytes;
+    private long limitBytes;
+}
@@ -0,0 +1,18 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class SyncResponse {
+    private String cursor; // pass back as ?cursor= for the next call
+    private boolean hasMore; // more changes are ready right now; call again without waiting
+    private boolean reset; // the client must reload everything (first sync), then continue from cursor
+    private List<FileResponse> files; // created or changed since the cursor, trashed ones included
+    private List<FolderResponse> folders;
+    private List<Long> deletedFileIds;
+    private List<Long> deletedFolderIds;
+}
@@ -0,0 +1,20 @@
+package com.cloudstore.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+public class UploadSessionResponse {
+    private String sessionId;
+    private String fileName;
+    private long totalSize;
+    private int chunkSize;
+    private int chunkCount;
+    private List<Integer> receivedChunks;
+    private long receivedBytes; // contiguous bytes received from offset 0
+    private String status;
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,29 @@
+package com.cloudstore.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Content-addressed file body shared by every File row with the same SHA-256
+@Entity
+@Table(name = "blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    private long size;
+
+    private long refCount;
+
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,76 @@
+package com.cloudstore.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "compression_jobs", indexes = @Index(name = "idx_compression_jobs_status", columnList = "status"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CompressionJob {
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    private Long fileId; // single-file jobs
+
+    // Archive jobs may take several files or a whole folder instead
+    @Column(columnDefinition = "text")
+    private String sourceFileIds; // comma separated
+    private Long sourceFolderId;
+    private Long targetFolderId;
+    private Integer level; // deflate level 0-9
+
+    @Column(nullable = false, length = 16)
+    private String type; // image, video, archive
+    private String format;
+    private Float quality;
+    private Integer bitrate;
+
+    private int priority; // higher runs first
+
+    // Instance that has the job queued or running; it renews the lease while it holds the job
+    @Column(length = 36)
+    private String owner;
+    private LocalDateTime leaseUntil;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    private int progress; // percent
+    private Double speed; // video: multiple of real time
+    private Long throughput; // video: output bytes per second
+
+    private Long resultFileId;
+    private String resultName;
+    private Long originalSize;
+    private Long compressedSize;
+
+    @Column(length = 1000)
+    private String error;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -5,15 +5,24 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "files")
+@EntityListeners(com.cloudstore.service.FileNameIndexListener.class)
+@Table(name = "files", indexes = {
+        // Keyset pagination: equality columns first, then (sort value, id)
+        @Index(name = "idx_files_user_created", columnList = "user_id, deleted, createdAt, id"),
+        @Index(name = "idx_files_user_name", columnList = "user_id, deleted, name, id"),
+        @Index(name = "idx_files_folder", columnList = "folder_id, deleted"),
+        @Index(name = "idx_files_trash", columnList = "deleted, deletedAt"),
+        @Index(name = "idx_files_blob", columnList = "blob_hash")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 public class File {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_seq")
+    @SequenceGenerator(name = "files_seq", sequenceName = "files_seq", allocationSize = 50)
+    private Long id; // pooled sequence so inserts can be batched
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
@@ -29,8 +38,16 @@ public class File {
     private String url; // Cloudinary or external URL
 
     private Long size;
+
+    @Column(length = 64)
+    private String checksum; // SHA-256 of the stored content, hex encoded
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_hash")
+    private Blob blob; // content-addressed body; null for legacy path rows and URL files
     private boolean favourite = false;
     private boolean deleted = false;
+    private LocalDateTime deletedAt; // when it went to the trash; purged after the retention period
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "folder_id")
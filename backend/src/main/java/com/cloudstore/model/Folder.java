@@ -2,10 +2,16 @@ package com.cloudstore.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
 import java.time.LocalDateTime;
 
+// Dynamic updates: paths and totals are also changed by bulk statements, so a rename must not
+// write back the values it happened to load
 @Entity
-@Table(name = "folders")
+@DynamicUpdate
+@Table(name = "folders", indexes = {
+        @Index(name = "idx_folders_user_path", columnList = "user_id, path")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -26,6 +32,21 @@ public class Folder {
     @JoinColumn(name = "parent_id")
     private Folder parent;
 
+    // Materialized path of folder ids from the root down to this one, e.g. "/3/17/42/". The C collation
+    // keeps comparisons bytewise, so a subtree is the index range [path, subtreeEnd(path)).
+    @Column(length = 2048, columnDefinition = "varchar(2048) collate \"C\"")
+    private String path;
+
+    private Integer depth; // 0 for top-level folders
+
+    // Live (not trashed) files in this folder and everything below it; only ever changed in SQL,
+    // see FolderStatsService
+    @Column(nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long totalSize;
+
+    @Column(nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long fileCount;
+
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -38,4 +59,9 @@ public class Folder {
     protected void onUpdate() {
         updatedAt = LocalDateTime.now();
     }
+
+    // Smallest string after every path that starts with the given one: "/3/17/" -> "/3/170"
+    public static String subtreeEnd(String path) {
+        return path.substring(0, path.length() - 1) + (char) ('/' + 1);
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.cloudstore.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Rows are written in batches by NotificationService through JDBC; the entity is only read
+@Entity
+@Table(name = "notifications", indexes = {
+        @Index(name = "idx_notifications_user_recent", columnList = "user_id, id"),
+        @Index(name = "idx_notifications_user_unread", columnList = "user_id, is_read")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Notification {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    @Column(nullable = false, length = 500)
+    private String message;
+
+    @Column(nullable = false, length = 50)
+    private String type;
+
+    private String fileName;
+
+    @Column(name = "is_read", nullable = false)
+    private boolean read;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -5,7 +5,9 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_token_version_changed", columnList = "token_version_changed_at")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -28,6 +30,19 @@ public class User {
     private String emailVerificationCode;
     private LocalDateTime emailVerificationExpiry;
 
+    private String plan; // free when null
+
+    // Maintained by QuotaService with SQL; never written from the entity
+    @Column(insertable = false, updatable = false)
+    private Long storageUsed;
+
+    // Bumped with SQL to revoke every token issued before; see TokenVersionService
+    @Column(insertable = false, updatable = false, columnDefinition = "integer not null default 0")
+    private int tokenVersion;
+
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime tokenVersionChangedAt;
+
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
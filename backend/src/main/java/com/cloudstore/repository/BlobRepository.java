@@ -0,0 +1,43 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.model.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface BlobRepository extends JpaRepository<Blob, String> {
+    // Inserts the blob or bumps its refcount; holds the row lock until the caller commits
+    @Modifying
+    @Query(value = "INSERT INTO blobs (hash, size, ref_count, created_at) VALUES (:hash, :size, 1, now()) " +
+            "ON CONFLICT (hash) DO UPDATE SET ref_count = blobs.ref_count + 1", nativeQuery = true)
+    int acquire(@Param("hash") String hash, @Param("size") long size);
+
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount - 1 where b.hash = :hash and b.refCount > 0")
+    int release(@Param("hash") String hash);
+
+    // Locks the row only while it is unreferenced, so a concurrent acquire waits for the reclaim to finish
+    @Query(value = "SELECT hash FROM blobs WHERE hash = :hash AND ref_count <= 0 FOR UPDATE", nativeQuery = true)
+    Optional<String> lockUnreferenced(@Param("hash") String hash);
+
+    @Query(value = "SELECT hash FROM blobs WHERE hash = :hash FOR UPDATE", nativeQuery = true)
+    Optional<String> lockForUpdate(@Param("hash") String hash);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE blobs SET ref_count = (SELECT count(*) FROM files WHERE blob_hash = :hash) WHERE hash = :hash", nativeQuery = true)
+    int resetRefCount(@Param("hash") String hash);
+
+    // Bodies whose last reference went away without being reclaimed (deferred releases, failed deletes)
+    @Query(value = "SELECT * FROM blobs WHERE ref_count <= 0 ORDER BY hash LIMIT :limit", nativeQuery = true)
+    List<Blob> findUnreferenced(@Param("limit") int limit);
+
+    // Blobs that claim references no file row holds, e.g. rows removed along with their user or
+    // folder without going through FileStorage.release. Keyset-paged by hash.
+    @Query(value = "SELECT * FROM blobs b WHERE b.hash > :after AND b.ref_count > 0 AND b.created_at < :before" +
+            " AND NOT EXISTS (SELECT 1 FROM files f WHERE f.blob_hash = b.hash) ORDER BY b.hash LIMIT :limit", nativeQuery = true)
+    List<Blob> findDanglingReferences(@Param("after") String after, @Param("before") LocalDateTime before, @Param("limit") int limit);
+}
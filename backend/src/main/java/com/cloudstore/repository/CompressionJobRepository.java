@@ -0,0 +1,82 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.model.CompressionJob;
+import com.cloudstore.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface CompressionJobRepository extends JpaRepository<CompressionJob, Long> {
+    Optional<CompressionJob> findByIdAndUser(Long id, User user);
+    List<CompressionJob> findTop50ByUserOrderByCreatedAtDesc(User user);
+    List<CompressionJob> findAllByOwnerAndStatusOrderByPriorityDescIdAsc(String owner, CompressionJob.Status status);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.status = :to, j.updatedAt = :now where j.id = :id and j.status = :from")
+    int transition(@Param("id") Long id, @Param("from") CompressionJob.Status from,
+                   @Param("to") CompressionJob.Status to, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.status = RUNNING, j.startedAt = :now, j.updatedAt = :now " +
+            "where j.id = :id and j.owner = :owner and j.status = QUEUED")
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.progress = :progress, j.updatedAt = :now " +
+            "where j.id = :id and j.status = RUNNING")
+    int updateProgress(@Param("id") Long id, @Param("progress") int progress, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.progress = :progress, j.speed = :speed, j.throughput = :throughput, j.updatedAt = :now " +
+            "where j.id = :id and j.status = RUNNING")
+    int updateTranscodeProgress(@Param("id") Long id, @Param("progress") int progress, @Param("speed") Double speed,
+                                @Param("throughput") Long throughput, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.status = COMPLETED, j.progress = 100, " +
+            "j.resultFileId = :resultFileId, j.resultName = :resultName, j.compressedSize = :compressedSize, " +
+            "j.finishedAt = :now, j.updatedAt = :now " +
+            "where j.id = :id and j.status = RUNNING")
+    int complete(@Param("id") Long id, @Param("resultFileId") Long resultFileId, @Param("resultName") String resultName,
+                 @Param("compressedSize") Long compressedSize, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.status = :to, j.error = :error, j.finishedAt = :now, j.updatedAt = :now " +
+            "where j.id = :id and j.status = :from")
+    int finish(@Param("id") Long id, @Param("from") CompressionJob.Status from, @Param("to") CompressionJob.Status to,
+               @Param("error") String error, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.leaseUntil = :until where j.owner = :owner " +
+            "and j.status in (QUEUED, RUNNING)")
+    int renewLeases(@Param("owner") String owner, @Param("until") LocalDateTime until);
+
+    // Jobs whose holder stopped renewing (crashed or shut down) are taken over and queued again from
+    // the start. The lease check is re-evaluated under the row lock, so only one instance adopts each job.
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.status = QUEUED, j.progress = 0, " +
+            "j.owner = :owner, j.leaseUntil = :until " +
+            "where j.status in (QUEUED, RUNNING) " +
+            "and (j.leaseUntil is null or j.leaseUntil < :now)")
+    int adoptExpired(@Param("owner") String owner, @Param("until") LocalDateTime until, @Param("now") LocalDateTime now);
+
+    // On shutdown, so another instance (or the next start) can adopt the jobs right away
+    @Modifying
+    @Transactional
+    @Query("update CompressionJob j set j.leaseUntil = null where j.owner = :owner " +
+            "and j.status in (QUEUED, RUNNING)")
+    int releaseLeases(@Param("owner") String owner);
+}
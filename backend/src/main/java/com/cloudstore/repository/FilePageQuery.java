@@ -0,0 +1,22 @@
+package com.cloudstore.repository;
+
+import lombok.Builder;
+import lombok.Data;
+
+// Filters and keyset position for FileRepository.findPage
+@Data
+@Builder
+public class FilePageQuery {
+    public enum Sort { CREATED_AT, NAME, SIZE }
+
+    private Sort sort;
+    private boolean ascending;
+    private Long folderId;
+    private String subtreePath; // instead of folderId: files anywhere below the folder with this path
+    private boolean deleted;
+    private Boolean favourite;
+    private String type; // image, video, audio, document, archive
+    private Object afterValue; // sort value of the last row already returned, with afterId
+    private Long afterId;
+    private int limit;
+}
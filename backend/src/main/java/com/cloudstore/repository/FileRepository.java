@@ -3,14 +3,58 @@ package com.cloudstore.repository;
 import com.cloudstore.model.File;
 import com.cloudstore.model.User;
 import com.cloudstore.model.Folder;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
-public interface FileRepository extends JpaRepository<File, Long> {
-    List<File> findAllByUser(User user);
+public interface FileRepository extends JpaRepository<File, Long>, FileRepositoryCustom {
+    List<File> findAllByUserAndDeletedFalse(User user);
     List<File> findAllByFolder(Folder folder);
     List<File> findAllByUserAndDeletedTrue(User user);
     List<File> findAllByFolderAndDeletedTrue(Folder folder);
     Optional<File> findByIdAndUser(Long id, User user);
+    List<File> findAllByIdInAndUserAndDeletedFalse(Collection<Long> ids, User user);
+    List<File> findAllByIdInAndUser(Collection<Long> ids, User user);
+    List<File> findAllByFolderAndDeletedFalse(Folder folder);
+
+    // (id, name) pairs for building the in-memory name index
+    @Query("select f.id, f.name from File f where f.user.id = :userId and f.deleted = false")
+    List<Object[]> findLiveNamesByUserId(@Param("userId") Long userId);
+
+    // Current state of the rows a bulk operation touches, locked so the per-item outcome and the
+    // stats/quota adjustments derived from it cannot race a concurrent change
+    @Query(value = "SELECT id, deleted, favourite, size, folder_id, name, blob_hash FROM files" +
+            " WHERE id IN (:ids) AND user_id = :userId ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Object[]> lockForBulk(@Param("ids") Collection<Long> ids, @Param("userId") Long userId);
+
+    @Modifying
+    @Query("update File f set f.deleted = :deleted, f.deletedAt = :deletedAt, f.updatedAt = :now where f.id in :ids")
+    int bulkSetDeleted(@Param("ids") Collection<Long> ids, @Param("deleted") boolean deleted,
+                       @Param("deletedAt") LocalDateTime deletedAt, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update File f set f.favourite = :favourite, f.updatedAt = :now where f.id in :ids")
+    int bulkSetFavourite(@Param("ids") Collection<Long> ids, @Param("favourite") boolean favourite, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update File f set f.folder = :folder, f.updatedAt = :now where f.id in :ids")
+    int bulkMove(@Param("ids") Collection<Long> ids, @Param("folder") Folder folder, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("delete from File f where f.id in :ids")
+    int bulkDelete(@Param("ids") Collection<Long> ids);
+
+    // Oldest trash first, one batch at a time
+    @Query("select f.id from File f where f.deleted = true and f.deletedAt < :cutoff order by f.deletedAt, f.id")
+    List<Long> findExpiredTrashIds(@Param("cutoff") LocalDateTime cutoff, Pageable page);
+
+    // Per user: [userId, count] of trashed files deleted within [from, to)
+    @Query("select f.user.id, count(f) from File f where f.deleted = true and f.deletedAt >= :from and f.deletedAt < :to group by f.user.id")
+    List<Object[]> countTrashDeletedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 } 
\ No newline at end of file
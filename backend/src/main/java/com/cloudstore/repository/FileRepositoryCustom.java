@@ -0,0 +1,10 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.model.User;
+
+import java.util.List;
+
+public interface FileRepositoryCustom {
+    List<FileResponse> findPage(User user, FilePageQuery query);
+}
@@ -0,0 +1,93 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.model.Folder;
+import com.cloudstore.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import java.util.List;
+import java.util.Map;
+
+// Keyset pagination projected straight into FileResponse, so no File entities are hydrated.
+// Rows are ordered by (sort value, id); the cursor is the last row's pair.
+public class FileRepositoryImpl implements FileRepositoryCustom {
+    private static final Map<String, List<String>> TYPE_EXTENSIONS = Map.of(
+            "image", List.of("jpg", "jpeg", "png", "gif", "webp", "bmp", "heic", "svg"),
+            "video", List.of("mp4", "mov", "avi", "mkv", "webm", "m4v", "wmv", "flv"),
+            "audio", List.of("mp3", "wav", "aac", "flac", "ogg", "m4a"),
+            "document", List.of("pdf", "doc", "docx", "xls", "xlsx", "ppt", "pptx", "txt", "md", "csv", "rtf", "odt"),
+            "archive", List.of("zip", "rar", "7z", "tar", "gz"));
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<FileResponse> findPage(User user, FilePageQuery query) {
+        String sortExpression = switch (query.getSort()) {
+            case CREATED_AT -> "f.createdAt";
+            case NAME -> "f.name";
+            case SIZE -> "coalesce(f.size, 0)";
+        };
+        String direction = query.isAscending() ? "asc" : "desc";
+        String comparison = query.isAscending() ? ">" : "<";
+
+        StringBuilder jpql = new StringBuilder(
+                "select new com.cloudstore.dto.FileResponse(f.id, f.name, f.size, f.favourite, f.deleted, fo.id, " +
+                "f.createdAt, f.updatedAt, f.url, b.hash) " +
+                "from File f left join f.folder fo left join f.blob b " +
+                "where f.user = :user and f.deleted = :deleted");
+        if (query.getSubtreePath() != null) {
+            jpql.append(" and fo.path >= :path and fo.path < :pathEnd");
+        } else if (query.getFolderId() != null) {
+            jpql.append(" and fo.id = :folderId");
+        }
+        if (query.getFavourite() != null) {
+            jpql.append(" and f.favourite = :favourite");
+        }
+        List<String> extensions = null;
+        if (query.getType() != null) {
+            extensions = TYPE_EXTENSIONS.get(query.getType());
+            if (extensions == null) {
+                throw new RuntimeException("Unsupported file type filter");
+            }
+            jpql.append(" and (");
+            for (int i = 0; i < extensions.size(); i++) {
+                jpql.append(i > 0 ? " or " : "").append("lower(f.name) like :ext").append(i);
+            }
+            jpql.append(")");
+        }
+        if (query.getAfterId() != null) {
+            jpql.append(" and (").append(sortExpression).append(' ').append(comparison).append(" :afterValue")
+                    .append(" or (").append(sortExpression).append(" = :afterValue and f.id ").append(comparison)
+                    .append(" :afterId))");
+        }
+        jpql.append(" order by ").append(sortExpression).append(' ').append(direction)
+                .append(", f.id ").append(direction);
+
+        TypedQuery<FileResponse> typed = entityManager.createQuery(jpql.toString(), FileResponse.class)
+                .setParameter("user", user)
+                .setParameter("deleted", query.isDeleted())
+                .setMaxResults(query.getLimit());
+        if (query.getSubtreePath() != null) {
+            typed.setParameter("path", query.getSubtreePath());
+            typed.setParameter("pathEnd", Folder.subtreeEnd(query.getSubtreePath()));
+        } else if (query.getFolderId() != null) {
+            typed.setParameter("folderId", query.getFolderId());
+        }
+        if (query.getFavourite() != null) {
+            typed.setParameter("favourite", query.getFavourite());
+        }
+        if (extensions != null) {
+            for (int i = 0; i < extensions.size(); i++) {
+                typed.setParameter("ext" + i, "%." + extensions.get(i));
+            }
+        }
+        if (query.getAfterId() != null) {
+            typed.setParameter("afterValue", query.getAfterValue());
+            typed.setParameter("afterId", query.getAfterId());
+        }
+        return typed.getResultList();
+    }
+}
@@ -3,9 +3,55 @@ package com.cloudstore.repository;
 import com.cloudstore.model.Folder;
 import com.cloudstore.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface FolderRepository extends JpaRepository<Folder, Long> {
+    // First key of the two-key advisory lock on a user's folder tree, so it cannot collide with
+    // single-key locks or other namespaces taken on the same database
+    int TREE_LOCK_NAMESPACE = 0x46545245;
+
     List<Folder> findAllByUser(User user);
     List<Folder> findAllByParent(Folder parent);
-} 
\ No newline at end of file
+    Optional<Folder> findByIdAndUser(Long id, User user);
+
+    // Parents sort before their children, so callers can assemble the tree in one pass
+    List<Folder> findAllByUserOrderByPathAsc(User user);
+
+    List<Folder> findAllByIdInAndUser(Collection<Long> ids, User user);
+
+    @Query("select f from Folder f where f.user = :user and f.path > :path and f.path < :end order by f.path")
+    List<Folder> findDescendants(@Param("user") User user, @Param("path") String path, @Param("end") String end);
+
+    // Re-roots every folder below oldPath in one statement; the moved folder itself is updated by the caller
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Folder f set f.path = concat(:newPath, substring(f.path, :oldLength + 1)), f.depth = f.depth + :depthDelta " +
+            "where f.user = :user and f.path > :oldPath and f.path < :end")
+    int moveDescendants(@Param("user") User user, @Param("oldPath") String oldPath, @Param("end") String end,
+                        @Param("newPath") String newPath, @Param("oldLength") int oldLength,
+                        @Param("depthDelta") int depthDelta);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Folder f set f.totalSize = f.totalSize + :size, f.fileCount = f.fileCount + :count where f.id in :ids")
+    int addToTotals(@Param("ids") Collection<Long> ids, @Param("size") long size, @Param("count") long count);
+
+    // Serializes moves within one user's tree for the rest of the transaction, so two concurrent
+    // moves cannot each pass the cycle check and together make a loop. Folder creation and folder
+    // stats flushes take the same lock (see FolderStatsService).
+    default void lockTree(Long userId) {
+        lockTreeKey(treeLockKey(userId));
+    }
+
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(" + TREE_LOCK_NAMESPACE + ", :key)) l", nativeQuery = true)
+    int lockTreeKey(@Param("key") int key);
+
+    // The second key is only 32 bits; ids past that share a lock with another user, which serializes
+    // them needlessly but is still correct
+    static int treeLockKey(Long userId) {
+        return Long.hashCode(userId);
+    }
+}
@@ -0,0 +1,35 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.model.Notification;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.util.Collection;
+import java.util.List;
+
+public interface NotificationRepository extends JpaRepository<Notification, Long> {
+    // Newest first, keyset-paged by id
+    @Query("select n from Notification n where n.userId = :userId and n.id < :before" +
+            " and (:unreadOnly = false or n.read = false) order by n.id desc")
+    List<Notification> findPage(@Param("userId") Long userId, @Param("before") Long before,
+                                @Param("unreadOnly") boolean unreadOnly, Pageable page);
+
+    // What a reconnecting stream missed, oldest first
+    List<Notification> findByUserIdAndIdGreaterThanOrderByIdAsc(Long userId, Long after, Pageable page);
+
+    long countByUserIdAndReadFalse(Long userId);
+
+    @Modifying
+    @Query("update Notification n set n.read = true where n.userId = :userId and n.id in :ids and n.read = false")
+    int markRead(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("update Notification n set n.read = true where n.userId = :userId and n.read = false")
+    int markAllRead(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("delete from Notification n where n.userId = :userId and n.id = :id")
+    int deleteByUserIdAndId(@Param("userId") Long userId, @Param("id") Long id);
+}
@@ -0,0 +1,8 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.model.OutboxEmail;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+// Delivery bookkeeping is done with JDBC in EmailDispatcher; this only enqueues
+public interface OutboxEmailRepository extends JpaRepository<OutboxEmail, Long> {
+}
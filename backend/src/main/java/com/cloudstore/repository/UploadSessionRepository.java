@@ -0,0 +1,27 @@
+package com.cloudstore.repository;
+
+import com.cloudstore.model.UploadSession;
+import com.cloudstore.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    Optional<UploadSession> findByIdAndUser(String id, User user);
+    List<UploadSession> findAllByExpiresAtBefore(LocalDateTime time);
+
+    @Modifying
+    @Query("update UploadSession s set s.status = :to, s.updatedAt = :now where s.id = :id and s.status = :from")
+    int transition(@Param("id") String id, @Param("from") UploadSession.Status from, @Param("to") UploadSession.Status to,
+                   @Param("now") LocalDateTime now);
+
+    // Like transition, but only if the session hasn't changed status since the cutoff
+    @Modifying
+    @Query("update UploadSession s set s.status = :to, s.updatedAt = :now where s.id = :id and s.status = :from and s.updatedAt < :cutoff")
+    int transitionIfStale(@Param("id") String id, @Param("from") UploadSession.Status from, @Param("to") UploadSession.Status to,
+                          @Param("cutoff") LocalDateTime cutoff, @Param("now") LocalDateTime now);
+}
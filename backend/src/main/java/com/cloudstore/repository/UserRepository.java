@@ -2,9 +2,32 @@ package com.cloudstore.repository;
 
 import com.cloudstore.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
- 
+
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     Optional<User> findByName(String name);
+
+    @Query("select u.tokenVersion from User u where u.id = :id")
+    Optional<Integer> findTokenVersion(@Param("id") Long id);
+
+    @Modifying
+    @Query("update User u set u.tokenVersion = u.tokenVersion + 1, u.tokenVersionChangedAt = :now where u.id = :id")
+    int bumpTokenVersion(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.password = :password where u.id = :id and u.password = :expected")
+    int updatePasswordIfUnchanged(@Param("id") Long id, @Param("expected") String expected, @Param("password") String password);
+
+    // [id, tokenVersion] of users whose tokens were revoked since the given time
+    @Query("select u.id, u.tokenVersion from User u where u.tokenVersionChangedAt >= :since")
+    List<Object[]> findTokenVersionsChangedSince(@Param("since") LocalDateTime since);
 } 
\ No newline at end of file
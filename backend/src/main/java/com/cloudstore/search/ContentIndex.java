@@ -0,0 +1,326 @@
+package com.cloudstore.search;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk inverted index of file contents, one {@link UserShard} per user under
+ * {@code <dir>/<userId>}. Documents are buffered and flushed into new segments every refresh
+ * interval (or once the buffer is full); small segments are merged in the background.
+ * Queries are ranked with BM25 using statistics across all of the user's segments.
+ */
+@Component
+public class ContentIndex {
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int SNIPPET_CHARS = 200;
+
+    @Value("${search.content.dir:${file.upload-dir:uploads}/.search}")
+    private String indexDir;
+
+    @Value("${search.content.max-buffered-docs:1000}")
+    private int maxBufferedDocs;
+
+    @Value("${search.content.merge-factor:10}")
+    private int mergeFactor;
+
+    @Value("${search.content.max-segment-mb:1024}")
+    private long maxSegmentMb;
+
+    @Value("${search.content.stored-chars:65536}")
+    private int storedChars;
+
+    @Value("${search.content.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final ConcurrentHashMap<Long, UserShard> shards = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor merger;
+
+    @Data
+    @AllArgsConstructor
+    public static class Hit {
+        private long fileId;
+        private double score;
+        private String snippet;
+        private List<int[]> highlights; // [start, end) offsets of matched terms within the snippet
+    }
+
+    @PostConstruct
+    void start() {
+        // One merge at a time is plenty; further requests are rejected and picked up after the next flush
+        merger = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "content-merge");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    void stop() {
+        merger.shutdownNow();
+        flushAll();
+    }
+
+    public void add(Long userId, Long fileId, String text) throws IOException {
+        while (true) {
+            UserShard shard = shard(userId);
+            int buffered = shard.add(fileId, text, storedChars);
+            if (buffered < 0) {
+                continue; // evicted since the lookup; the next one reopens it
+            }
+            if (buffered >= maxBufferedDocs) {
+                shard.flush();
+                scheduleMerge(shard);
+            }
+            return;
+        }
+    }
+
+    public void delete(Long userId, Long fileId) throws IOException {
+        while (!shard(userId).delete(fileId)) {
+            // evicted since the lookup; the next one reopens it
+        }
+    }
+
+    public boolean contains(Long userId, Long fileId) throws IOException {
+        return shard(userId).contains(fileId);
+    }
+
+    @Scheduled(fixedDelayString = "${search.content.refresh-ms:5000}")
+    public void refresh() {
+        long idleCutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(idleMinutes);
+        shards.forEach((userId, shard) -> {
+            try {
+                if (shard.needsFlush()) {
+                    shard.flush();
+                    scheduleMerge(shard);
+                }
+                // Closing inside computeIfPresent keeps a reopen of the same directory waiting until
+                // the old shard is done; busy shards stay until their buffer and merges are written
+                shards.computeIfPresent(userId, (id, current) ->
+                        current.lastAccess < idleCutoff && current.close() ? null : current);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Content index flush failed for user " + userId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public List<Hit> search(Long userId, String query, int limit) throws IOException {
+        List<String> terms = TextAnalyzer.queryTerms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        UserShard shard = shard(userId);
+        List<Segment> segments = shard.segments();
+
+        long docCount = 0;
+        long totalLength = 0;
+        for (Segment segment : segments) {
+            docCount += segment.docCount();
+            totalLength += segment.totalLength;
+        }
+        if (docCount == 0) {
+            return List.of();
+        }
+        float averageLength = (float) totalLength / docCount;
+        long liveCount = Math.max(1, docCount - shard.deletedCount());
+        float[] idf = new float[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            long df = 0;
+            for (Segment segment : segments) {
+                int index = segment.find(terms.get(t));
+                if (index >= 0) {
+                    df += segment.dfs[index];
+                }
+            }
+            idf[t] = (float) Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+        }
+
+        // Term-at-a-time per segment, keeping the best `limit` documents overall
+        PriorityQueue<ScoredDoc> top = new PriorityQueue<>(Comparator.comparingDouble((ScoredDoc d) -> d.score));
+        for (Segment segment : segments) {
+            float[] scores = null;
+            int[] touched = null;
+            int touchedCount = 0;
+            for (int t = 0; t < terms.size(); t++) {
+                int index = segment.find(terms.get(t));
+                if (index < 0) {
+                    continue;
+                }
+                if (scores == null) {
+                    scores = new float[segment.docCount()];
+                    touched = new int[Math.min(segment.docCount(), 1024)];
+                }
+                Segment.Postings postings = segment.postings(index);
+                while (postings.next()) {
+                    int ordinal = postings.ordinal;
+                    float tf = postings.frequency;
+                    float norm = K1 * (1 - B + B * segment.docLengths[ordinal] / averageLength);
+                    if (scores[ordinal] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, Math.min(segment.docCount(), touched.length * 2));
+                        }
+                        touched[touchedCount++] = ordinal;
+                    }
+                    scores[ordinal] += idf[t] * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                int ordinal = touched[i];
+                float score = scores[ordinal];
+                if (top.size() == limit && top.peek().score >= score) {
+                    continue;
+                }
+                if (shard.isDeleted(segment.fileIds[ordinal])) {
+                    continue;
+                }
+                top.add(new ScoredDoc(segment, ordinal, score));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+
+        List<ScoredDoc> ranked = new ArrayList<>(top);
+        ranked.sort(Comparator.comparingDouble((ScoredDoc d) -> -d.score));
+        List<Hit> hits = new ArrayList<>(ranked.size());
+        for (ScoredDoc doc : ranked) {
+            Hit hit = snippet(doc.segment.stored(doc.ordinal), terms);
+            hit.setFileId(doc.segment.fileIds[doc.ordinal]);
+            hit.setScore(doc.score);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    // Picks the window of the stored text with the most distinct query terms, earliest first
+    static Hit snippet(String text, List<String> terms) {
+        List<int[]> matches = new ArrayList<>(); // start, end, term index
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                int term = terms.indexOf(TextAnalyzer.fold(text.substring(start, i)));
+                if (term >= 0) {
+                    matches.add(new int[]{start, i, term});
+                }
+                start = -1;
+            }
+        }
+        int windowStart = 0;
+        int best = -1;
+        for (int first = 0; first < matches.size(); first++) {
+            long seen = 0;
+            for (int j = first; j < matches.size() && matches.get(j)[1] - matches.get(first)[0] <= SNIPPET_CHARS; j++) {
+                seen |= 1L << Math.min(63, matches.get(j)[2]);
+            }
+            int distinct = Long.bitCount(seen);
+            if (distinct > best) {
+                best = distinct;
+                // Start a little before the first match, on a word boundary
+                windowStart = Math.max(0, matches.get(first)[0] - 40);
+                while (windowStart > 0 && Character.isLetterOrDigit(text.charAt(windowStart - 1))) {
+                    windowStart--;
+                }
+            }
+        }
+        int windowEnd = Math.min(text.length(), windowStart + SNIPPET_CHARS);
+        while (windowEnd < text.length() && windowEnd > windowStart && Character.isLetterOrDigit(text.charAt(windowEnd))) {
+            windowEnd--;
+        }
+        String prefix = windowStart > 0 ? "..." : "";
+        String body = text.substring(windowStart, windowEnd).replaceAll("\\s", " ");
+        String snippet = prefix + body + (windowEnd < text.length() ? "..." : "");
+        List<int[]> highlights = new ArrayList<>();
+        for (int[] match : matches) {
+            if (match[0] >= windowStart && match[1] <= windowEnd) {
+                highlights.add(new int[]{match[0] - windowStart + prefix.length(), match[1] - windowStart + prefix.length()});
+            }
+        }
+        return new Hit(0, 0, snippet, highlights);
+    }
+
+    private UserShard shard(Long userId) throws IOException {
+        try {
+            UserShard shard = shards.computeIfAbsent(userId, id -> {
+                try {
+                    return UserShard.open(Paths.get(indexDir, String.valueOf(id)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            shard.lastAccess = System.nanoTime();
+            return shard;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void scheduleMerge(UserShard shard) {
+        List<Segment> inputs = shard.claimMerge(mergeFactor, maxSegmentMb * 1024 * 1024);
+        if (inputs == null) {
+            return;
+        }
+        try {
+            merger.execute(() -> {
+                try {
+                    shard.merge(inputs);
+                    scheduleMerge(shard); // merging may have produced enough segments for another round
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Content index merge failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            shard.releaseMerge(); // picked up again after the next flush
+        }
+    }
+
+    private void flushAll() {
+        shards.forEach((userId, shard) -> {
+            try {
+                shard.flush();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Content index flush failed for user " + userId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    Path directory() {
+        return Paths.get(indexDir);
+    }
+
+    private static final class ScoredDoc {
+        final Segment segment;
+        final int ordinal;
+        final float score;
+
+        ScoredDoc(Segment segment, int ordinal, float score) {
+            this.segment = segment;
+            this.ordinal = ordinal;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.cloudstore.search;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Read side of a segment written by SegmentWriter. The file is memory mapped; the term
+// dictionary and document table are loaded onto the heap, postings and stored text are read
+// from the mapping on demand.
+final class Segment {
+    final String name;
+    final Path path;
+    final String[] terms;
+    final int[] dfs;
+    final long[] termOffsets;
+    final int[] termLengths;
+    final long[] fileIds;
+    final int[] docLengths;
+    final long[] storedOffsets;
+    final int[] storedLengths;
+    final long totalLength;
+    private final MappedByteBuffer data;
+
+    private Segment(String name, Path path, MappedByteBuffer data) throws IOException {
+        this.name = name;
+        this.path = path;
+        this.data = data;
+        int footer = data.capacity() - 20;
+        if (footer < 0 || data.getInt(footer + 16) != SegmentWriter.MAGIC) {
+            throw new IOException("Corrupt search segment " + path);
+        }
+        int dictionaryOffset = (int) data.getLong(footer);
+        int documentsOffset = (int) data.getLong(footer + 8);
+
+        DataInputStream dictionary = new DataInputStream(stream(dictionaryOffset, documentsOffset - dictionaryOffset));
+        int termCount = dictionary.readInt();
+        terms = new String[termCount];
+        dfs = new int[termCount];
+        termOffsets = new long[termCount];
+        termLengths = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = dictionary.readUTF();
+            dfs[i] = dictionary.readInt();
+            termOffsets[i] = dictionary.readLong();
+            termLengths[i] = dictionary.readInt();
+        }
+
+        ByteBuffer documents = data.duplicate().position(documentsOffset);
+        int docCount = documents.getInt();
+        fileIds = new long[docCount];
+        docLengths = new int[docCount];
+        storedOffsets = new long[docCount];
+        storedLengths = new int[docCount];
+        long total = 0;
+        for (int i = 0; i < docCount; i++) {
+            fileIds[i] = documents.getLong();
+            docLengths[i] = documents.getInt();
+            storedOffsets[i] = documents.getLong();
+            storedLengths[i] = documents.getInt();
+            total += docLengths[i];
+        }
+        totalLength = total;
+    }
+
+    static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Search segment too large: " + path);
+            }
+            String file = path.getFileName().toString();
+            return new Segment(file.substring(0, file.length() - ".idx".length()), path,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    long sizeBytes() {
+        return data.capacity();
+    }
+
+    int docCount() {
+        return fileIds.length;
+    }
+
+    int find(String term) {
+        return Arrays.binarySearch(terms, term);
+    }
+
+    Postings postings(int termIndex) {
+        return new Postings(data.duplicate().position((int) termOffsets[termIndex])
+                .limit((int) (termOffsets[termIndex] + termLengths[termIndex])));
+    }
+
+    byte[] storedBytes(int ordinal) {
+        byte[] bytes = new byte[storedLengths[ordinal]];
+        data.get((int) storedOffsets[ordinal], bytes);
+        return bytes;
+    }
+
+    String stored(int ordinal) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(storedBytes(ordinal));
+            byte[] buffer = new byte[Math.max(1024, storedLengths[ordinal] * 4)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += n;
+            }
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return "";
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private InputStream stream(int offset, int length) {
+        ByteBuffer slice = data.slice(offset, length);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return slice.hasRemaining() ? slice.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!slice.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, slice.remaining());
+                slice.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    // Iterates (ordinal, frequency) pairs of one term in ordinal order
+    static final class Postings {
+        private final ByteBuffer buffer;
+        int ordinal = -1;
+        int frequency;
+
+        Postings(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean next() {
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            ordinal += readVarInt();
+            frequency = readVarInt();
+            return true;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
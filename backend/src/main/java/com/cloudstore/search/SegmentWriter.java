@@ -0,0 +1,241 @@
+package com.cloudstore.search;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes one immutable segment file. Terms must be added in sorted order, then documents in
+ * ordinal order. Layout:
+ * <pre>
+ *   postings   per term: (ordinal delta, term frequency) varint pairs
+ *   stored     per doc: deflated UTF-8 text used for snippets
+ *   dictionary count, then (term, df, postings offset, postings length)
+ *   documents  count, then (file id, token count, stored offset, stored length)
+ *   footer     dictionary offset, documents offset, magic
+ * </pre>
+ */
+final class SegmentWriter implements Closeable {
+    static final int MAGIC = 0x43534958; // "CSIX"
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+
+    private final List<String> terms = new ArrayList<>();
+    private final IntList dfs = new IntList();
+    private final LongList termOffsets = new LongList();
+    private final IntList termLengths = new IntList();
+
+    private final LongList fileIds = new LongList();
+    private final IntList docLengths = new IntList();
+    private final LongList storedOffsets = new LongList();
+    private final IntList storedLengths = new IntList();
+
+    private long termStart = -1;
+    private int lastOrdinal;
+    private int df;
+
+    SegmentWriter(Path path) throws IOException {
+        counter = new CountingOutputStream(Files.newOutputStream(path));
+        out = new DataOutputStream(counter);
+    }
+
+    void startTerm(String term) throws IOException {
+        endTerm();
+        terms.add(term);
+        termStart = counter.count;
+        lastOrdinal = -1;
+        df = 0;
+    }
+
+    void addPosting(int ordinal, int frequency) throws IOException {
+        writeVarInt(ordinal - lastOrdinal);
+        writeVarInt(frequency);
+        lastOrdinal = ordinal;
+        df++;
+    }
+
+    // A term that ended up with no postings (all its documents were deleted) is dropped
+    private void endTerm() {
+        if (termStart < 0) {
+            return;
+        }
+        if (df == 0) {
+            terms.remove(terms.size() - 1);
+        } else {
+            dfs.add(df);
+            termOffsets.add(termStart);
+            termLengths.add((int) (counter.count - termStart));
+        }
+        termStart = -1;
+    }
+
+    void addDocument(long fileId, int length, String storedText) throws IOException {
+        endTerm();
+        deflater.reset();
+        deflater.setInput(storedText.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        long start = counter.count;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer);
+            out.write(deflateBuffer, 0, n);
+        }
+        addDocument(fileId, length, start, (int) (counter.count - start));
+    }
+
+    // For merges: the stored bytes are copied as they are
+    void addDocument(long fileId, int length, byte[] storedDeflated) throws IOException {
+        endTerm();
+        long start = counter.count;
+        out.write(storedDeflated);
+        addDocument(fileId, length, start, storedDeflated.length);
+    }
+
+    private void addDocument(long fileId, int length, long storedOffset, int storedLength) {
+        fileIds.add(fileId);
+        docLengths.add(length);
+        storedOffsets.add(storedOffset);
+        storedLengths.add(storedLength);
+    }
+
+    void finish() throws IOException {
+        endTerm();
+        long dictionaryOffset = counter.count;
+        out.writeInt(terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            out.writeUTF(terms.get(i));
+            out.writeInt(dfs.get(i));
+            out.writeLong(termOffsets.get(i));
+            out.writeInt(termLengths.get(i));
+        }
+        long documentsOffset = counter.count;
+        out.writeInt(fileIds.size());
+        for (int i = 0; i < fileIds.size(); i++) {
+            out.writeLong(fileIds.get(i));
+            out.writeInt(docLengths.get(i));
+            out.writeLong(storedOffsets.get(i));
+            out.writeInt(storedLengths.get(i));
+        }
+        out.writeLong(dictionaryOffset);
+        out.writeLong(documentsOffset);
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    long size() {
+        return counter.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        out.close();
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Buffers without locking (most writes are single varint bytes) and tracks the file offset
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private final byte[] buffer = new byte[1 << 16];
+        private int buffered;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == buffer.length) {
+                drain();
+            }
+            buffer[buffered++] = (byte) b;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.length - buffered) {
+                drain();
+                if (len > buffer.length) {
+                    out.write(b, off, len);
+                    count += len;
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buffer, buffered, len);
+            buffered += len;
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            if (buffered > 0) {
+                out.write(buffer, 0, buffered);
+                buffered = 0;
+            }
+        }
+    }
+
+    static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    static final class LongList {
+        long[] values = new long[16];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
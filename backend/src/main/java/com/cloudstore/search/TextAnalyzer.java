@@ -0,0 +1,57 @@
+package com.cloudstore.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+// Shared by indexing and querying so both see the same terms: case and accents are folded,
+// tokens are runs of letters and digits between 2 and 40 characters long.
+public final class TextAnalyzer {
+    static final int MIN_TOKEN = 2;
+    static final int MAX_TOKEN = 40;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private TextAnalyzer() {
+    }
+
+    public static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return text.toLowerCase(Locale.ROOT);
+        }
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // Tokens of already folded text, in order
+    public static void tokens(String folded, Consumer<String> sink) {
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TOKEN && length <= MAX_TOKEN) {
+                    sink.accept(folded.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    public static List<String> queryTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        tokens(fold(query), term -> {
+            if (!terms.contains(term)) {
+                terms.add(term);
+            }
+        });
+        return terms;
+    }
+}
@@ -0,0 +1,260 @@
+package com.cloudstore.search;
+
+import com.cloudstore.model.File;
+import com.cloudstore.storage.FileStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Pulls plain text out of the formats we can read without extra libraries: text-like files,
+// Office Open XML and OpenDocument (XML inside a zip), and PDF content streams. PDF support
+// is best effort: text drawn with simple fonts comes out, CID/Type3 fonts and scans do not.
+@Component
+@RequiredArgsConstructor
+public class TextExtractor {
+    private static final Set<String> TEXT = Set.of("txt", "text", "csv", "tsv", "json", "md", "markdown", "log",
+            "xml", "yaml", "yml", "html", "htm");
+    private static final Set<String> OFFICE = Set.of("docx", "xlsx", "pptx", "odt", "ods", "odp");
+    // Elements that end a paragraph, cell or line in the Office and OpenDocument schemas
+    private static final Set<String> BREAKS = Set.of("p", "br", "tab", "si", "c", "row", "tr", "tc", "s", "line-break");
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern PDF_STREAM = Pattern.compile("stream\\r?\\n");
+
+    private final FileStorage fileStorage;
+
+    @Value("${search.content.max-source-bytes:20971520}")
+    private long maxSourceBytes;
+
+    @Value("${search.content.max-chars:1000000}")
+    private int maxChars;
+
+    public boolean supports(String name) {
+        String extension = extension(name);
+        return TEXT.contains(extension) || OFFICE.contains(extension) || "pdf".equals(extension);
+    }
+
+    public boolean supports(File file) {
+        return supports(file.getName()) && (file.getSize() == null || file.getSize() <= maxSourceBytes);
+    }
+
+    public Optional<String> extract(File file) throws IOException {
+        if (!supports(file)) {
+            return Optional.empty();
+        }
+        String extension = extension(file.getName());
+        try (InputStream in = fileStorage.open(file)) {
+            String text;
+            if (TEXT.contains(extension)) {
+                text = new String(in.readNBytes(maxChars * 2), StandardCharsets.UTF_8);
+                if (extension.startsWith("htm")) {
+                    text = HTML_TAG.matcher(text).replaceAll(" ");
+                }
+            } else if (OFFICE.contains(extension)) {
+                text = office(in);
+            } else {
+                text = pdf(in.readNBytes((int) Math.min(maxSourceBytes, Integer.MAX_VALUE - 8)));
+            }
+            return Optional.of(text.length() > maxChars ? text.substring(0, maxChars) : text);
+        }
+    }
+
+    private String office(InputStream in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (ZipInputStream zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null && text.length() < maxChars) {
+                String name = entry.getName();
+                if (name.equals("word/document.xml") || name.equals("xl/sharedStrings.xml") || name.equals("content.xml")
+                        || (name.startsWith("ppt/slides/slide") && name.endsWith(".xml"))) {
+                    xmlText(zip, text);
+                    text.append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private void xmlText(InputStream in, StringBuilder text) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            // The stream belongs to the zip, so the reader must not close it
+            XMLStreamReader reader = factory.createXMLStreamReader(new FilterInputStream(in) {
+                @Override
+                public void close() {
+                }
+            });
+            while (reader.hasNext() && text.length() < maxChars) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT && BREAKS.contains(reader.getLocalName())) {
+                    text.append(' ');
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unreadable document XML: " + e.getMessage(), e);
+        }
+    }
+
+    // Inflates each content stream and collects the strings shown by Tj, TJ, ' and "
+    private String pdf(byte[] bytes) {
+        String raw = new String(bytes, StandardCharsets.ISO_8859_1);
+        StringBuilder text = new StringBuilder();
+        Matcher stream = PDF_STREAM.matcher(raw);
+        int from = 0;
+        while (text.length() < maxChars && stream.find(from)) {
+            int start = stream.end();
+            int end = raw.indexOf("endstream", start);
+            if (end < 0) {
+                break;
+            }
+            int dictStart = raw.lastIndexOf("<<", stream.start());
+            String dictionary = dictStart >= 0 ? raw.substring(dictStart, stream.start()) : "";
+            from = end + 9;
+            if (dictionary.contains("/Image") || dictionary.contains("/FontFile") || dictionary.contains("/Length1")) {
+                continue;
+            }
+            byte[] data = Arrays.copyOfRange(bytes, start, end);
+            if (dictionary.contains("/FlateDecode")) {
+                data = inflate(data);
+                if (data == null) {
+                    continue;
+                }
+            } else if (dictionary.contains("/Filter")) {
+                continue; // other filters (DCT, LZW, ...) are not text we can read
+            }
+            contentText(new String(data, StandardCharsets.ISO_8859_1), text);
+        }
+        return text.toString();
+    }
+
+    private byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            while (!inflater.finished() && out.size() < maxChars * 8) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void contentText(String content, StringBuilder text) {
+        boolean inText = false;
+        StringBuilder pending = new StringBuilder();
+        for (int i = 0; i < content.length() && text.length() < maxChars; i++) {
+            char c = content.charAt(i);
+            if (c == '(' && inText) {
+                i = literal(content, i + 1, pending);
+            } else if (c == 'B' && content.startsWith("BT", i) && isOperator(content, i, 2)) {
+                inText = true;
+            } else if (c == 'E' && content.startsWith("ET", i) && isOperator(content, i, 2)) {
+                inText = false;
+                flush(pending, text, '\n');
+            } else if (inText && (c == 'T' || c == '\'' || c == '"')) {
+                // Td, TD, T* and ' move to a new line; Tj and TJ just show the pending strings
+                if (content.startsWith("Tj", i) || content.startsWith("TJ", i)) {
+                    flush(pending, text, ' ');
+                } else if (content.startsWith("Td", i) || content.startsWith("TD", i) || content.startsWith("T*", i)
+                        || c == '\'' || c == '"') {
+                    flush(pending, text, '\n');
+                }
+            }
+        }
+        flush(pending, text, '\n');
+    }
+
+    // Reads a PDF literal string starting after its '('; returns the index of the closing ')'
+    private static int literal(String content, int i, StringBuilder out) {
+        int depth = 1;
+        for (; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == '\\' && i + 1 < content.length()) {
+                char next = content.charAt(++i);
+                switch (next) {
+                    case 'n', 'r' -> out.append(' ');
+                    case 't' -> out.append(' ');
+                    case 'b', 'f' -> {
+                    }
+                    default -> {
+                        if (next >= '0' && next <= '7') {
+                            int end = i;
+                            while (end < content.length() && end < i + 3 && content.charAt(end) >= '0' && content.charAt(end) <= '7') {
+                                end++;
+                            }
+                            out.append((char) Integer.parseInt(content.substring(i, end), 8));
+                            i = end - 1;
+                        } else {
+                            out.append(next);
+                        }
+                    }
+                }
+            } else if (c == '(') {
+                depth++;
+                out.append(c);
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    return i;
+                }
+                out.append(c);
+            } else {
+                out.append(c);
+            }
+        }
+        return i;
+    }
+
+    private static boolean isOperator(String content, int at, int length) {
+        boolean before = at == 0 || Character.isWhitespace(content.charAt(at - 1));
+        boolean after = at + length >= content.length() || Character.isWhitespace(content.charAt(at + length));
+        return before && after;
+    }
+
+    private static void flush(StringBuilder pending, StringBuilder text, char separator) {
+        if (pending.length() > 0) {
+            text.append(pending).append(separator);
+            pending.setLength(0);
+        }
+    }
+
+    private static String extension(String name) {
+        if (name == null) {
+            return "";
+        }
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+}
@@ -0,0 +1,379 @@
+package com.cloudstore.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One user's content index: immutable segments on disk plus a buffer of documents not yet
+ * flushed. The manifest file names the live segments and the ids of deleted files whose
+ * documents are still inside them; anything else in the directory is left over from a crash and
+ * removed on open. New documents become searchable when the buffer is flushed into a segment.
+ * Small segments are merged in the background, which also drops deleted documents for good.
+ */
+final class UserShard {
+    private static final String MANIFEST = "manifest";
+
+    private final Path dir;
+    private final Object flushLock = new Object();
+    private volatile List<Segment> segments = List.of();
+    private final Set<Long> deleted = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this
+    private final Set<Long> indexed = new HashSet<>();
+    private List<PendingDocument> buffer = new ArrayList<>();
+    private boolean manifestDirty;
+    private boolean merging;
+    private boolean flushing;
+    private boolean closed;
+    private long nextSegment;
+
+    volatile long lastAccess = System.nanoTime();
+
+    private UserShard(Path dir) {
+        this.dir = dir;
+    }
+
+    static UserShard open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        UserShard shard = new UserShard(dir);
+        Set<String> live = new HashSet<>();
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            List<Segment> opened = new ArrayList<>();
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                int space = line.indexOf(' ');
+                String key = space > 0 ? line.substring(0, space) : line;
+                String value = space > 0 ? line.substring(space + 1) : "";
+                switch (key) {
+                    case "next" -> shard.nextSegment = Long.parseLong(value);
+                    case "segment" -> {
+                        opened.add(Segment.open(dir.resolve(value + ".idx")));
+                        live.add(value + ".idx");
+                    }
+                    case "deleted" -> shard.deleted.add(Long.parseLong(value));
+                    default -> {
+                    }
+                }
+            }
+            shard.segments = List.copyOf(opened);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.idx")) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        for (Segment segment : shard.segments) {
+            for (long fileId : segment.fileIds) {
+                if (!shard.deleted.contains(fileId)) {
+                    shard.indexed.add(fileId);
+                }
+            }
+        }
+        return shard;
+    }
+
+    synchronized boolean contains(long fileId) {
+        return indexed.contains(fileId);
+    }
+
+    // Returns the number of buffered documents, so the caller can flush when it grows too large,
+    // or -1 once the shard is closed and the caller has to reopen it
+    synchronized int add(long fileId, String text, int storedChars) {
+        if (closed) {
+            return -1;
+        }
+        if (!indexed.add(fileId)) {
+            return buffer.size(); // file contents never change, so one document per file is enough
+        }
+        Map<String, int[]> frequencies = new HashMap<>();
+        int[] length = {0};
+        TextAnalyzer.tokens(TextAnalyzer.fold(text), term -> {
+            frequencies.computeIfAbsent(term, t -> new int[1])[0]++;
+            length[0]++;
+        });
+        String stored = text.length() > storedChars ? text.substring(0, storedChars) : text;
+        buffer.add(new PendingDocument(fileId, length[0], stored, frequencies));
+        return buffer.size();
+    }
+
+    // Returns false once the shard is closed and the caller has to reopen it
+    synchronized boolean delete(long fileId) {
+        if (closed) {
+            return false;
+        }
+        if (indexed.remove(fileId) && !buffer.removeIf(doc -> doc.fileId == fileId)) {
+            deleted.add(fileId);
+            manifestDirty = true;
+        }
+        return true;
+    }
+
+    synchronized boolean needsFlush() {
+        return !buffer.isEmpty() || manifestDirty;
+    }
+
+    /**
+     * Closes the shard if nothing is buffered, being flushed or merged, so that nothing else
+     * writes to the directory once another shard is opened on it. Returns false if it is busy.
+     */
+    synchronized boolean close() {
+        if (merging || flushing || needsFlush()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    // Writes buffered documents into a new segment and persists the manifest
+    void flush() throws IOException {
+        synchronized (flushLock) {
+            List<PendingDocument> docs;
+            String name;
+            synchronized (this) {
+                if (buffer.isEmpty() && !manifestDirty) {
+                    return;
+                }
+                docs = buffer;
+                buffer = new ArrayList<>();
+                name = "seg-" + nextSegment++;
+                flushing = true;
+            }
+            try {
+                Segment created;
+                try {
+                    created = docs.isEmpty() ? null : write(name, docs);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        docs.addAll(buffer);
+                        buffer = docs; // keep them for the next attempt
+                    }
+                    Files.deleteIfExists(dir.resolve(name + ".idx"));
+                    throw e;
+                }
+                synchronized (this) {
+                    if (created != null) {
+                        List<Segment> next = new ArrayList<>(segments);
+                        next.add(created);
+                        segments = List.copyOf(next);
+                    }
+                    writeManifest();
+                }
+            } finally {
+                synchronized (this) {
+                    flushing = false;
+                }
+            }
+        }
+    }
+
+    private Segment write(String name, List<PendingDocument> docs) throws IOException {
+        // Postings per term as flat (ordinal, frequency) pairs; terms are sorted once at the end
+        HashMap<String, SegmentWriter.IntList> postings = new HashMap<>();
+        for (int ordinal = 0; ordinal < docs.size(); ordinal++) {
+            for (Map.Entry<String, int[]> term : docs.get(ordinal).frequencies.entrySet()) {
+                SegmentWriter.IntList list = postings.computeIfAbsent(term.getKey(), t -> new SegmentWriter.IntList());
+                list.add(ordinal);
+                list.add(term.getValue()[0]);
+            }
+        }
+        String[] terms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        Path path = dir.resolve(name + ".idx");
+        try (SegmentWriter writer = new SegmentWriter(path)) {
+            for (String term : terms) {
+                writer.startTerm(term);
+                SegmentWriter.IntList list = postings.get(term);
+                for (int i = 0; i < list.size(); i += 2) {
+                    writer.addPosting(list.get(i), list.get(i + 1));
+                }
+            }
+            for (PendingDocument doc : docs) {
+                writer.addDocument(doc.fileId, doc.length, doc.stored);
+            }
+            writer.finish();
+        }
+        return Segment.open(path);
+    }
+
+    /**
+     * Picks the {@code factor} smallest segments when there are at least that many, skipping
+     * any that would make the result larger than {@code maxBytes}. Returns null when there is
+     * nothing to merge or a merge is already running.
+     */
+    synchronized List<Segment> claimMerge(int factor, long maxBytes) {
+        if (closed || merging || segments.size() < factor) {
+            return null;
+        }
+        List<Segment> bySize = new ArrayList<>(segments);
+        bySize.sort(Comparator.comparingLong(Segment::sizeBytes));
+        List<Segment> picked = new ArrayList<>();
+        long total = 0;
+        for (Segment segment : bySize) {
+            if (picked.size() == factor) {
+                break;
+            }
+            if (total + segment.sizeBytes() > maxBytes) {
+                break;
+            }
+            picked.add(segment);
+            total += segment.sizeBytes();
+        }
+        if (picked.size() < 2) {
+            return null;
+        }
+        merging = true;
+        return picked;
+    }
+
+    // Gives back a claim whose merge never ran
+    synchronized void releaseMerge() {
+        merging = false;
+    }
+
+    void merge(List<Segment> inputs) throws IOException {
+        String name;
+        synchronized (this) {
+            name = "seg-" + nextSegment++;
+        }
+        Set<Long> dropped = new HashSet<>(deleted); // deletes after this point stay as tombstones
+        Path path = dir.resolve(name + ".idx");
+        Segment merged;
+        try {
+            merged = writeMerged(path, inputs, dropped);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                merging = false;
+            }
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        synchronized (this) {
+            List<Segment> next = new ArrayList<>(segments);
+            next.removeAll(inputs);
+            next.add(merged);
+            segments = List.copyOf(next);
+            for (Segment input : inputs) {
+                for (long fileId : input.fileIds) {
+                    if (dropped.contains(fileId)) {
+                        deleted.remove(fileId);
+                    }
+                }
+            }
+            writeManifest();
+            merging = false;
+        }
+        // Searches still holding the old segments keep their mappings; only the names go away
+        for (Segment input : inputs) {
+            Files.deleteIfExists(input.path);
+        }
+    }
+
+    private static Segment writeMerged(Path path, List<Segment> inputs, Set<Long> dropped) throws IOException {
+        int[][] remap = new int[inputs.size()][];
+        int next = 0;
+        for (int s = 0; s < inputs.size(); s++) {
+            Segment input = inputs.get(s);
+            remap[s] = new int[input.docCount()];
+            for (int ordinal = 0; ordinal < input.docCount(); ordinal++) {
+                remap[s][ordinal] = dropped.contains(input.fileIds[ordinal]) ? -1 : next++;
+            }
+        }
+        // k-way merge over the sorted term dictionaries
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(
+                Comparator.comparing((int[] c) -> inputs.get(c[0]).terms[c[1]]).thenComparingInt(c -> c[0]));
+        for (int s = 0; s < inputs.size(); s++) {
+            if (inputs.get(s).terms.length > 0) {
+                cursors.add(new int[]{s, 0});
+            }
+        }
+        try (SegmentWriter writer = new SegmentWriter(path)) {
+            while (!cursors.isEmpty()) {
+                String term = inputs.get(cursors.peek()[0]).terms[cursors.peek()[1]];
+                writer.startTerm(term);
+                // Cursors for the same term come out in segment order, so new ordinals stay ascending
+                while (!cursors.isEmpty() && inputs.get(cursors.peek()[0]).terms[cursors.peek()[1]].equals(term)) {
+                    int[] cursor = cursors.poll();
+                    Segment input = inputs.get(cursor[0]);
+                    Segment.Postings postings = input.postings(cursor[1]);
+                    while (postings.next()) {
+                        int mapped = remap[cursor[0]][postings.ordinal];
+                        if (mapped >= 0) {
+                            writer.addPosting(mapped, postings.frequency);
+                        }
+                    }
+                    if (++cursor[1] < input.terms.length) {
+                        cursors.add(cursor);
+                    }
+                }
+            }
+            for (int s = 0; s < inputs.size(); s++) {
+                Segment input = inputs.get(s);
+                for (int ordinal = 0; ordinal < input.docCount(); ordinal++) {
+                    if (remap[s][ordinal] >= 0) {
+                        writer.addDocument(input.fileIds[ordinal], input.docLengths[ordinal], input.storedBytes(ordinal));
+                    }
+                }
+            }
+            writer.finish();
+        }
+        return Segment.open(path);
+    }
+
+    // Caller holds the monitor
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("next ").append(nextSegment).append('\n');
+        for (Segment segment : segments) {
+            manifest.append("segment ").append(segment.name).append('\n');
+        }
+        for (Long fileId : deleted) {
+            manifest.append("deleted ").append(fileId).append('\n');
+        }
+        Path temp = dir.resolve(MANIFEST + ".tmp");
+        Files.writeString(temp, manifest, StandardCharsets.UTF_8);
+        Files.move(temp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        manifestDirty = false;
+    }
+
+    List<Segment> segments() {
+        return segments;
+    }
+
+    boolean isDeleted(long fileId) {
+        return !deleted.isEmpty() && deleted.contains(fileId);
+    }
+
+    int deletedCount() {
+        return deleted.size();
+    }
+
+    private static final class PendingDocument {
+        final long fileId;
+        final int length;
+        final String stored;
+        final Map<String, int[]> frequencies;
+
+        PendingDocument(long fileId, int length, String stored, Map<String, int[]> frequencies) {
+            this.fileId = fileId;
+            this.length = length;
+            this.stored = stored;
+            this.frequencies = frequencies;
+        }
+    }
+}
@@ -1,63 +1,69 @@
 package com.cloudstore.security;
 
 import com.cloudstore.model.User;
-import com.cloudstore.repository.UserRepository;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 
 @Component
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
+    private static final List<GrantedAuthority> AUTHORITIES = Collections.singletonList(new SimpleGrantedAuthority("USER"));
+
     private final JwtUtil jwtUtil;
-    private final CustomUserDetailsService userDetailsService;
-    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
+    private final TokenVersionService tokenVersionService;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
         String authHeader = request.getHeader("Authorization");
-        String token = null;
-        String email = null;
-
-        if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            token = authHeader.substring(7);
-            email = jwtUtil.getEmailFromToken(token);
-            System.out.println("JWT Filter - Token: " + token);
-            System.out.println("JWT Filter - Email: " + email);
-        }
-
-        if (email != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            System.out.println("JWT Filter - Processing authentication for email: " + email);
-            if (jwtUtil.validateToken(token)) {
-                System.out.println("JWT Filter - Token is valid");
-                UserDetails userDetails = userDetailsService.loadUserByUsername(email);
-                // Get our custom User object
-                User user = userRepository.findByEmail(email)
-                        .orElseThrow(() -> new RuntimeException("User not found"));
-                System.out.println("JWT Filter - Found user: " + user.getEmail());
-                
+        if (authHeader != null && authHeader.startsWith("Bearer ")
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            // Parsed and verified once; everything else comes from the claims
+            Claims claims = null;
+            try {
+                claims = jwtUtil.getClaimsFromToken(authHeader.substring(7));
+            } catch (JwtException | IllegalArgumentException e) {
+                System.out.println("JWT Filter - Token is invalid");
+            }
+            Optional<User> user = claims != null ? resolve(claims) : Optional.empty();
+            if (user.isPresent()) {
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        user, null, userDetails.getAuthorities());
+                        user.get(), null, AUTHORITIES);
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
-                System.out.println("JWT Filter - Authentication set in context");
-            } else {
-                System.out.println("JWT Filter - Token is invalid");
+            } else if (claims != null) {
+                System.out.println("JWT Filter - Token rejected for subject: " + claims.getSubject());
             }
-        } else {
-            System.out.println("JWT Filter - Email is null or authentication already exists");
         }
         filterChain.doFilter(request, response);
     }
-} 
\ No newline at end of file
+
+    // Only access tokens whose version is still the user's current one; no query once both are cached
+    private Optional<User> resolve(Claims claims) {
+        String email = claims.getSubject();
+        Long userId = JwtUtil.userIdOf(claims);
+        if (email == null || userId == null || !JwtUtil.ACCESS.equals(JwtUtil.typeOf(claims))
+                || !tokenVersionService.isCurrent(userId, JwtUtil.versionOf(claims))) {
+            return Optional.empty();
+        }
+        return principalCache.get(userId, email);
+    }
+}
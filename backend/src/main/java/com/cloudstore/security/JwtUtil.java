@@ -2,41 +2,76 @@ package com.cloudstore.security;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.security.Key;
 import java.util.Date;
-import java.util.Map;
 
 @Component
 public class JwtUtil {
+    // Values of the "typ" claim; tokens issued before it existed are access tokens
+    public static final String ACCESS = "access";
+    public static final String REFRESH = "refresh";
+    public static final String RESET = "reset";
+
     @Value("${jwt.secret}")
     private String jwtSecret;
 
     @Value("${jwt.expiration}")
     private long jwtExpirationMs;
 
-    private Key getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    @Value("${jwt.refresh-expiration:2592000000}")
+    private long refreshExpirationMs;
+
+    @Value("${jwt.reset-expiration:3600000}")
+    private long resetExpirationMs;
+
+    // Both are immutable and thread-safe, so they are built once instead of per call
+    private Key signingKey;
+    private JwtParser parser;
+
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+    }
+
+    // The version must match the user's current token version for the token to be accepted
+    public String generateToken(Long userId, String email, int version) {
+        return build(userId, email, version, ACCESS, jwtExpirationMs, null);
+    }
+
+    // The id ("jti") is what makes a refresh token single-use; see AuthService.refresh
+    public String generateRefreshToken(Long userId, String email, int version, String id) {
+        return build(userId, email, version, REFRESH, refreshExpirationMs, id);
+    }
+
+    public long getRefreshExpirationMs() {
+        return refreshExpirationMs;
+    }
+
+    public String generateResetToken(Long userId, String email, int version) {
+        return build(userId, email, version, RESET, resetExpirationMs, null);
     }
 
-    public String generateToken(Long userId, String email) {
+    private String build(Long userId, String email, int version, String type, long expirationMs, String id) {
         return Jwts.builder()
                 .setSubject(email)
+                .setId(id)
                 .claim("userId", userId)
+                .claim("ver", version)
+                .claim("typ", type)
                 .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + jwtExpirationMs))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .setExpiration(new Date(System.currentTimeMillis() + expirationMs))
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
+    // Verifies the signature and expiry; throws JwtException or IllegalArgumentException otherwise
     public Claims getClaimsFromToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
 
     public boolean validateToken(String token) {
@@ -53,7 +88,21 @@ public class JwtUtil {
     }
 
     public Long getUserIdFromToken(String token) {
-        Object userId = getClaimsFromToken(token).get("userId");
+        return userIdOf(getClaimsFromToken(token));
+    }
+
+    public static Long userIdOf(Claims claims) {
+        Object userId = claims.get("userId");
         return userId != null ? Long.valueOf(userId.toString()) : null;
     }
-} 
\ No newline at end of file
+
+    public static int versionOf(Claims claims) {
+        Object version = claims.get("ver");
+        return version != null ? Integer.parseInt(version.toString()) : 0;
+    }
+
+    public static String typeOf(Claims claims) {
+        Object type = claims.get("typ");
+        return type != null ? type.toString() : ACCESS;
+    }
+}
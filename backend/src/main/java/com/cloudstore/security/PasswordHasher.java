@@ -0,0 +1,162 @@
+package com.cloudstore.security;
+
+import com.cloudstore.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// BCrypt hashing and verification on a small bounded pool, so a login burst uses at most that many
+// cores and a bounded number of waiting request threads instead of every Tomcat thread. When the
+// queue is full callers are rejected immediately (PasswordHashingBusyException -> 503).
+// The cost is password.bcrypt-cost, or calibrated at startup to password.bcrypt-target-ms; hashes
+// made with a lower cost are upgraded in the background after a successful login.
+// Timings and rejections are published as cloudstore.auth.password.*.
+@Component
+public class PasswordHasher {
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 16;
+
+    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+    private final Counter rejected;
+    private final Counter upgraded;
+
+    @Value("${password.bcrypt-cost:0}")
+    private int configuredCost;
+
+    @Value("${password.bcrypt-target-ms:250}")
+    private long targetMs;
+
+    @Value("${password.hash-threads:0}")
+    private int threads;
+
+    @Value("${password.hash-queue-size:32}")
+    private int queueSize;
+
+    @Value("${password.hash-timeout-ms:10000}")
+    private long timeoutMs;
+
+    private int cost;
+    private BCryptPasswordEncoder encoder;
+    private ThreadPoolExecutor executor;
+
+    public PasswordHasher(UserRepository userRepository, PrincipalCache principalCache, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.principalCache = principalCache;
+        this.hashTimer = Timer.builder("cloudstore.auth.password.hash")
+                .description("Time to hash a password, excluding queueing").register(meterRegistry);
+        this.verifyTimer = Timer.builder("cloudstore.auth.password.verify")
+                .description("Time to verify a password, excluding queueing").register(meterRegistry);
+        this.rejected = Counter.builder("cloudstore.auth.password.rejected")
+                .description("Password operations rejected because the hashing pool was full").register(meterRegistry);
+        this.upgraded = Counter.builder("cloudstore.auth.password.upgraded")
+                .description("Stored hashes re-hashed at the current cost after login").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        cost = configuredCost > 0 ? Math.max(4, Math.min(31, configuredCost)) : calibrate();
+        encoder = new BCryptPasswordEncoder(cost);
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        System.out.println("Password hashing: bcrypt cost " + cost + ", " + poolSize + " threads, queue " + queueSize);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    // Each cost step doubles the work, so one measurement at the minimum cost is enough to extrapolate
+    private int calibrate() {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(MIN_COST);
+        probe.encode("calibration"); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long started = System.nanoTime();
+            probe.encode("calibration");
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        double millis = best / 1_000_000.0;
+        int calibrated = MIN_COST;
+        while (calibrated < MAX_COST && millis * 2 <= targetMs) {
+            millis *= 2;
+            calibrated++;
+        }
+        return calibrated;
+    }
+
+    public String encode(String rawPassword) {
+        return run(() -> hashTimer.record(() -> encoder.encode(rawPassword)));
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return run(() -> verifyTimer.record(() -> encoder.matches(rawPassword, encodedPassword)));
+    }
+
+    // After a successful login. Best effort: skipped when the pool is busy and retried on a later login
+    public void upgradeIfNeeded(Long userId, String rawPassword, String encodedPassword) {
+        if (!encoder.upgradeEncoding(encodedPassword)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                String rehashed = hashTimer.record(() -> encoder.encode(rawPassword));
+                // Only if the password wasn't changed in the meantime
+                if (userRepository.updatePasswordIfUnchanged(userId, encodedPassword, rehashed) > 0) {
+                    principalCache.invalidate(userId);
+                    upgraded.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // next login tries again
+        }
+    }
+
+    private <T> T run(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingBusyException();
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new PasswordHashingBusyException();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while hashing password");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Password hashing failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
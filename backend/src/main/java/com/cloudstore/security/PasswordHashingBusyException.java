@@ -0,0 +1,8 @@
+package com.cloudstore.security;
+
+// Thrown when the password hashing pool is saturated; mapped to 503 with Retry-After
+public class PasswordHashingBusyException extends RuntimeException {
+    public PasswordHashingBusyException() {
+        super("Too many sign-in requests, please try again shortly");
+    }
+}
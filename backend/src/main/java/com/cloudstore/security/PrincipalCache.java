@@ -0,0 +1,129 @@
+package com.cloudstore.security;
+
+import com.cloudstore.model.User;
+import com.cloudstore.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.cloudstore.config.Transactions.afterCompletion;
+
+// Users resolved from JWTs, keyed by the token's userId claim, so authenticated requests don't
+// hit the users table every time. Entries expire after principal-cache.ttl-ms and are dropped
+// explicitly (after commit) whenever the user row changes. Callers get their own copy, so code
+// that modifies the request principal can't change what other requests see.
+// Hit/miss counts and load times are published as cloudstore.auth.principal.*.
+@Component
+public class PrincipalCache {
+    private final UserRepository userRepository;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // Bumped by every invalidation; a load that overlapped one is returned but not cached
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer loadTimer;
+
+    @Value("${principal-cache.ttl-ms:300000}")
+    private long ttlMs;
+
+    @Value("${principal-cache.max-size:10000}")
+    private int maxSize;
+
+    public PrincipalCache(UserRepository userRepository, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.hits = Counter.builder("cloudstore.auth.principal.cache").tag("result", "hit")
+                .description("Authenticated requests resolved from the principal cache").register(meterRegistry);
+        this.misses = Counter.builder("cloudstore.auth.principal.cache").tag("result", "miss")
+                .description("Authenticated requests resolved from the principal cache").register(meterRegistry);
+        this.loadTimer = Timer.builder("cloudstore.auth.principal.load")
+                .description("Time to load a principal from the database on a cache miss").register(meterRegistry);
+        Gauge.builder("cloudstore.auth.principal.cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    // The email must still match the token's subject; a changed or reused account is not this token's user
+    public Optional<User> get(Long userId, String email) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(userId);
+        if (entry != null && now - entry.loadedAt < TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+            hits.increment();
+            return entry.user.getEmail().equals(email) ? Optional.of(copy(entry.user)) : Optional.empty();
+        }
+        misses.increment();
+        long seen = epoch.get();
+        User user = loadTimer.record(() -> userRepository.findById(userId).orElse(null));
+        if (user == null) {
+            entries.remove(userId);
+            return Optional.empty();
+        }
+        if (epoch.get() == seen) {
+            if (entries.size() >= maxSize) {
+                evict(now);
+            }
+            entries.put(userId, new Entry(copy(user), now));
+        }
+        return user.getEmail().equals(email) ? Optional.of(copy(user)) : Optional.empty();
+    }
+
+    // Call from the transaction that changes the user; the entry goes once it has committed
+    public void invalidate(Long userId) {
+        afterCompletion(committed -> drop(userId));
+    }
+
+    private void drop(Long userId) {
+        epoch.incrementAndGet();
+        entries.remove(userId);
+    }
+
+    // Expired entries first; if that frees nothing, the oldest tenth
+    private synchronized void evict(long now) {
+        long ttl = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        entries.values().removeIf(entry -> now - entry.loadedAt >= ttl);
+        if (entries.size() >= maxSize) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().loadedAt))
+                    .limit(Math.max(1, maxSize / 10))
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(entries::remove);
+        }
+    }
+
+    private static User copy(User user) {
+        return User.builder()
+                .id(user.getId())
+                .email(user.getEmail())
+                .password(user.getPassword())
+                .name(user.getName())
+                .emailVerified(user.isEmailVerified())
+                .emailVerificationCode(user.getEmailVerificationCode())
+                .emailVerificationExpiry(user.getEmailVerificationExpiry())
+                .plan(user.getPlan())
+                .storageUsed(user.getStorageUsed())
+                .tokenVersion(user.getTokenVersion())
+                .tokenVersionChangedAt(user.getTokenVersionChangedAt())
+                .createdAt(user.getCreatedAt())
+                .updatedAt(user.getUpdatedAt())
+                .build();
+    }
+
+    private static final class Entry {
+        final User user;
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
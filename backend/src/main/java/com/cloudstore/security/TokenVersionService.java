@@ -0,0 +1,72 @@
+package com.cloudstore.security;
+
+import com.cloudstore.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Token revocation. Every token carries the user's token version ("ver" claim) from when it was
+// issued; bumping the version in the users table revokes all of them at once. Current versions are
+// kept in memory so checking a token costs no query: a user's version is loaded the first time one
+// of their tokens is seen, revocations here update it after commit, and a short poll picks up
+// revocations made by other instances. Versions only ever go up, so stale reads can't undo one.
+@Component
+public class TokenVersionService {
+    private final UserRepository userRepository;
+    private final Map<Long, Integer> versions = new ConcurrentHashMap<>();
+    private volatile LocalDateTime polledAt = LocalDateTime.now();
+
+    // Re-reads this much before the previous poll, covering clock skew and slow commits elsewhere
+    @Value("${jwt.version-refresh-overlap-ms:60000}")
+    private long overlapMs;
+
+    @Value("${jwt.version-cache-max-size:100000}")
+    private int maxSize;
+
+    public TokenVersionService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    public boolean isCurrent(Long userId, int version) {
+        Integer current = versions.get(userId);
+        // A newer version than ours means another instance revoked and re-issued before our next poll
+        if (current == null || version > current) {
+            Integer loaded = userRepository.findTokenVersion(userId).orElse(null);
+            if (loaded == null) {
+                return false;
+            }
+            if (versions.size() >= maxSize) {
+                versions.clear(); // entries are reloaded on demand
+            }
+            current = versions.merge(userId, loaded, Math::max);
+        }
+        return current == version;
+    }
+
+    // Returns the new version, which tokens issued from now on must carry
+    @Transactional
+    public int revoke(Long userId) {
+        userRepository.bumpTokenVersion(userId, LocalDateTime.now());
+        int version = userRepository.findTokenVersion(userId).orElseThrow(() -> new RuntimeException("User not found"));
+        afterCommit(() -> versions.merge(userId, version, Math::max));
+        return version;
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.version-refresh-ms:5000}")
+    public void refresh() {
+        LocalDateTime started = LocalDateTime.now();
+        for (Object[] row : userRepository.findTokenVersionsChangedSince(polledAt.minusNanos(overlapMs * 1_000_000L))) {
+            int version = (Integer) row[1];
+            // Users not in the map load the current version when next seen
+            versions.computeIfPresent((Long) row[0], (id, current) -> Math.max(current, version));
+        }
+        polledAt = started;
+    }
+}
@@ -1,58 +1,145 @@
 package com.cloudstore.service;
 
 import com.cloudstore.dto.*;
+import com.cloudstore.model.RefreshToken;
 import com.cloudstore.model.User;
+import com.cloudstore.repository.RefreshTokenRepository;
 import com.cloudstore.repository.UserRepository;
 import com.cloudstore.security.JwtUtil;
+import com.cloudstore.security.PasswordHasher;
+import com.cloudstore.security.PrincipalCache;
+import com.cloudstore.security.TokenVersionService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.Random;
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
 public class AuthService {
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final JwtUtil jwtUtil;
     private final EmailService emailService;
+    private final PrincipalCache principalCache;
+    private final TokenVersionService tokenVersionService;
+    private final TransactionTemplate transactionTemplate;
+    private final RefreshTokenRepository refreshTokenRepository;
 
-    @Transactional
+    // Hashing happens before the transaction so no connection is held while waiting for the hashing pool
     public AuthResponse register(RegisterRequest request) {
         if (userRepository.findByEmail(request.getEmail()).isPresent()) {
             throw new RuntimeException("Email already registered");
         }
+        String hash = passwordHasher.encode(request.getPassword());
+        return transactionTemplate.execute(status -> createUser(request, hash));
+    }
+
+    private AuthResponse createUser(RegisterRequest request, String hash) {
         String code = String.format("%06d", new Random().nextInt(1000000));
         LocalDateTime expiry = LocalDateTime.now().plusMinutes(10);
         User user = User.builder()
                 .email(request.getEmail())
-                .password(passwordEncoder.encode(request.getPassword()))
+                .password(hash)
                 .name(request.getName())
                 .emailVerified(false)
                 .emailVerificationCode(code)
                 .emailVerificationExpiry(expiry)
                 .build();
         userRepository.save(user);
+        // Queued in this transaction and sent after commit; an SMTP outage no longer fails sign-up
         emailService.sendVerificationEmail(user.getEmail(), code);
-        String token = jwtUtil.generateToken(user.getId(), user.getEmail());
-        return new AuthResponse(token, user.getEmail(), user.getName());
+        return issueTokens(user);
     }
 
     public AuthResponse login(LoginRequest request) {
         User user = userRepository.findByEmail(request.getIdentifier())
                 .orElseGet(() -> userRepository.findByName(request.getIdentifier())
                         .orElseThrow(() -> new RuntimeException("Invalid credentials")));
-        if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
+        if (!passwordHasher.matches(request.getPassword(), user.getPassword())) {
             throw new RuntimeException("Invalid credentials");
         }
         if (!user.isEmailVerified()) {
             throw new RuntimeException("Email not verified");
         }
-        String token = jwtUtil.generateToken(user.getId(), user.getEmail());
-        return new AuthResponse(token, user.getEmail(), user.getName());
+        passwordHasher.upgradeIfNeeded(user.getId(), request.getPassword(), user.getPassword());
+        return issueTokens(user);
+    }
+
+    // Trades a refresh token for a new access/refresh pair. Each refresh token works once: a second
+    // use means it was copied, so every token of the user is revoked and they have to log in again.
+    public AuthResponse refresh(String refreshToken) {
+        Claims claims = verify(refreshToken, JwtUtil.REFRESH);
+        Long userId = JwtUtil.userIdOf(claims);
+        if (claims.getId() == null) {
+            throw new RuntimeException("Invalid or expired token"); // issued before refresh tokens were single-use
+        }
+        if (refreshTokenRepository.consume(claims.getId(), userId) == 0) {
+            System.out.println("Refresh token reused for user " + userId + ", revoking all of their tokens");
+            tokenVersionService.revoke(userId);
+            throw new RuntimeException("Invalid or expired token");
+        }
+        User user = userRepository.findById(userId)
+                .filter(found -> found.getEmail().equals(claims.getSubject()))
+                .orElseThrow(() -> new RuntimeException("Invalid or expired token"));
+        return issueTokens(user);
+    }
+
+    // Revokes every access and refresh token of the user, on all devices
+    @Transactional
+    public void logout(User user) {
+        tokenVersionService.revoke(user.getId());
+        refreshTokenRepository.deleteAllByUserId(user.getId());
+    }
+
+    // Same revocation as logout, then a fresh pair for the device that asked for it
+    @Transactional
+    public AuthResponse reissueAfterRevoking(User user) {
+        user.setTokenVersion(tokenVersionService.revoke(user.getId()));
+        refreshTokenRepository.deleteAllByUserId(user.getId());
+        return issueTokens(user);
+    }
+
+    private AuthResponse issueTokens(User user) {
+        String refreshId = UUID.randomUUID().toString();
+        refreshTokenRepository.save(RefreshToken.builder()
+                .id(refreshId)
+                .userId(user.getId())
+                .expiresAt(LocalDateTime.now().plusNanos(jwtUtil.getRefreshExpirationMs() * 1_000_000L))
+                .build());
+        return new AuthResponse(
+                jwtUtil.generateToken(user.getId(), user.getEmail(), user.getTokenVersion()),
+                user.getEmail(),
+                user.getName(),
+                jwtUtil.generateRefreshToken(user.getId(), user.getEmail(), user.getTokenVersion(), refreshId));
+    }
+
+    // Tokens that expired unused; used ones are deleted when traded in
+    @Scheduled(initialDelayString = "${jwt.refresh-prune-initial-delay-ms:600000}", fixedDelayString = "${jwt.refresh-prune-interval-ms:3600000}")
+    public void pruneRefreshTokens() {
+        refreshTokenRepository.deleteExpired(LocalDateTime.now());
+    }
+
+    private Claims verify(String token, String type) {
+        Claims claims;
+        try {
+            claims = jwtUtil.getClaimsFromToken(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            throw new RuntimeException("Invalid or expired token");
+        }
+        Long userId = JwtUtil.userIdOf(claims);
+        if (userId == null || !type.equals(JwtUtil.typeOf(claims))
+                || !tokenVersionService.isCurrent(userId, JwtUtil.versionOf(claims))) {
+            throw new RuntimeException("Invalid or expired token");
+        }
+        return claims;
     }
 
     @Transactional
@@ -75,24 +162,27 @@ public class AuthService {
         user.setEmailVerificationCode(null);
         user.setEmailVerificationExpiry(null);
         userRepository.save(user);
+        principalCache.invalidate(user.getId());
     }
 
     public void forgotPassword(String email) {
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new RuntimeException("User not found"));
-        String token = jwtUtil.generateToken(user.getId(), user.getEmail());
+        String token = jwtUtil.generateResetToken(user.getId(), user.getEmail(), user.getTokenVersion());
         emailService.sendPasswordResetEmail(user.getEmail(), token);
     }
 
-    @Transactional
     public void resetPassword(String token, String newPassword) {
-        if (!jwtUtil.validateToken(token)) {
-            throw new RuntimeException("Invalid or expired token");
-        }
-        String email = jwtUtil.getEmailFromToken(token);
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        user.setPassword(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
+        Claims claims = verify(token, JwtUtil.RESET);
+        String hash = passwordHasher.encode(newPassword);
+        transactionTemplate.executeWithoutResult(status -> {
+            User user = userRepository.findByEmail(claims.getSubject())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            user.setPassword(hash);
+            userRepository.save(user);
+            principalCache.invalidate(user.getId());
+            // Signs out every session and makes this reset link single-use
+            tokenVersionService.revoke(user.getId());
+        });
     }
 } 
\ No newline at end of file
@@ -0,0 +1,669 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.ArchiveRequest;
+import com.cloudstore.dto.CompressionJobResponse;
+import com.cloudstore.dto.CompressionRequest;
+import com.cloudstore.dto.CompressionResponse;
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.model.CompressionJob;
+import com.cloudstore.model.File;
+import com.cloudstore.model.Folder;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.CompressionJobRepository;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.repository.FolderRepository;
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.ParallelZipWriter;
+import com.cloudstore.storage.StreamedFile;
+import com.cloudstore.storage.StreamingFileWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// Runs compression off the request thread. Jobs are persisted in compression_jobs and executed on
+// two bounded lanes: CPU for image/video transcoding, IO for archiving. Within a lane, higher
+// priority runs first, then submission order. Each job is leased to the instance that queued it;
+// jobs whose lease runs out (their instance died) are adopted by whichever instance gets there first.
+@Service
+@RequiredArgsConstructor
+public class CompressionService {
+    // Output formats clients may ask for; the format reaches ImageIO and ffmpeg's muxer option as is.
+    // Image formats also need an ImageIO writer at runtime (webp only with a plugin on the classpath).
+    private static final Set<String> IMAGE_FORMATS = Set.of("jpg", "jpeg", "png", "webp");
+    private static final Set<String> VIDEO_FORMATS = Set.of("mp4", "mov", "m4v", "mkv", "webm");
+
+    private final CompressionJobRepository jobRepository;
+    private final UserRepository userRepository;
+    private final FileRepository fileRepository;
+    private final FolderRepository folderRepository;
+    private final FileService fileService;
+    private final FileStorage fileStorage;
+    private final BlobStore blobStore;
+    private final FfmpegTranscoder ffmpegTranscoder;
+    private final NotificationService notificationService;
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${compression.cpu-workers:0}")
+    private int cpuWorkers;
+
+    @Value("${compression.io-workers:4}")
+    private int ioWorkers;
+
+    @Value("${compression.max-queued:200}")
+    private int maxQueued;
+
+    @Value("${compression.lease-ms:300000}")
+    private long leaseMs;
+
+    // Clients may only push their own jobs back (negative priority), not ahead of other users' jobs
+    @Value("${compression.min-priority:-10}")
+    private int minPriority;
+
+    @Value("${compression.max-client-priority:0}")
+    private int maxClientPriority;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final Map<Long, JobTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private ThreadPoolExecutor cpuLane;
+    private ThreadPoolExecutor ioLane;
+    private ExecutorService deflatePool;
+    private int deflateThreads;
+
+    @PostConstruct
+    void startLanes() {
+        int cpu = cpuWorkers > 0 ? cpuWorkers : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        cpuLane = newLane("compress-cpu-", cpu);
+        ioLane = newLane("compress-io-", ioWorkers);
+        deflateThreads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        deflatePool = Executors.newFixedThreadPool(deflateThreads, runnable -> {
+            Thread thread = new Thread(runnable, "deflate-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopLanes() {
+        // Interrupted jobs stay RUNNING; dropping the lease lets them be re-queued without waiting for it to expire
+        cpuLane.shutdownNow();
+        ioLane.shutdownNow();
+        deflatePool.shutdownNow();
+        try {
+            jobRepository.releaseLeases(instanceId);
+        } catch (RuntimeException e) {
+            System.out.println("Failed to release compression job leases: " + e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingJobs() {
+        adoptExpiredJobs();
+    }
+
+    // Keeps this instance's jobs leased, and picks up those another instance stopped renewing
+    @Scheduled(initialDelayString = "${compression.lease-renew-ms:60000}", fixedDelayString = "${compression.lease-renew-ms:60000}")
+    public void renewLeases() {
+        jobRepository.renewLeases(instanceId, leaseUntil());
+        adoptExpiredJobs();
+    }
+
+    private void adoptExpiredJobs() {
+        if (jobRepository.adoptExpired(instanceId, leaseUntil(), LocalDateTime.now()) == 0) {
+            return;
+        }
+        for (CompressionJob job : jobRepository.findAllByOwnerAndStatusOrderByPriorityDescIdAsc(instanceId, CompressionJob.Status.QUEUED)) {
+            if (!tasks.containsKey(job.getId())) {
+                enqueue(job);
+            }
+        }
+    }
+
+    private LocalDateTime leaseUntil() {
+        return LocalDateTime.now().plusNanos(leaseMs * 1_000_000L);
+    }
+
+    public CompressionJobResponse submit(User user, Long fileId, CompressionRequest request) {
+        File original = fileService.getFileByUser(user, fileId);
+        String type = request.getType() != null ? request.getType().toLowerCase() : "";
+        if (!type.equals("image") && !type.equals("video") && !type.equals("archive")) {
+            throw new RuntimeException("Unsupported compression type");
+        }
+        if (laneFor(type).getQueue().size() >= maxQueued) {
+            throw new RuntimeException("Compression queue is full, try again later");
+        }
+        CompressionJob.CompressionJobBuilder builder = CompressionJob.builder()
+                .user(user)
+                .fileId(original.getId())
+                .type(type)
+                .format(type.equals("archive") ? null : outputFormat(type, request.getFormat(), original.getName()))
+                .quality(request.getQuality())
+                .bitrate(request.getBitrate())
+                .priority(clampPriority(request.getPriority()))
+                .level(checkLevel(request.getLevel()))
+                .status(CompressionJob.Status.QUEUED)
+                .owner(instanceId)
+                .leaseUntil(leaseUntil())
+                .originalSize(original.getSize());
+        if (type.equals("archive")) {
+            // Zipped next to the original, like the other compression types
+            builder.format("zip")
+                    .resultName(stripExtension(original.getName()) + "_compressed.zip")
+                    .targetFolderId(original.getFolder() != null ? original.getFolder().getId() : null);
+        }
+        CompressionJob job = jobRepository.save(builder.build());
+        enqueue(job);
+        return toResponse(job);
+    }
+
+    // Zip several files, or a folder and everything below it, into one new file
+    public CompressionJobResponse submitArchive(User user, ArchiveRequest request) {
+        boolean hasFiles = request.getFileIds() != null && !request.getFileIds().isEmpty();
+        if (hasFiles == (request.getFolderId() != null)) {
+            throw new RuntimeException("Specify either fileIds or folderId");
+        }
+        if (ioLane.getQueue().size() >= maxQueued) {
+            throw new RuntimeException("Compression queue is full, try again later");
+        }
+        CompressionJob.CompressionJobBuilder job = CompressionJob.builder()
+                .user(user)
+                .type("archive")
+                .format("zip")
+                .level(checkLevel(request.getLevel()))
+                .priority(clampPriority(request.getPriority()))
+                .status(CompressionJob.Status.QUEUED)
+                .owner(instanceId)
+                .leaseUntil(leaseUntil());
+        String name;
+        Long targetFolderId = request.getTargetFolderId();
+        if (hasFiles) {
+            List<Long> ids = request.getFileIds().stream().distinct().collect(Collectors.toList());
+            List<File> files = fileRepository.findAllByIdInAndUserAndDeletedFalse(ids, user);
+            if (files.size() != ids.size()) {
+                throw new RuntimeException("File not found");
+            }
+            File first = files.stream().filter(f -> f.getId().equals(ids.get(0))).findFirst().orElse(files.get(0));
+            name = stripExtension(first.getName());
+            if (targetFolderId == null && first.getFolder() != null) {
+                targetFolderId = first.getFolder().getId();
+            }
+            job.sourceFileIds(ids.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                    .originalSize(files.stream().mapToLong(f -> f.getSize() != null ? f.getSize() : 0).sum());
+        } else {
+            Folder folder = folderRepository.findByIdAndUser(request.getFolderId(), user)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+            name = folder.getName();
+            if (targetFolderId == null && folder.getParent() != null) {
+                targetFolderId = folder.getParent().getId();
+            }
+            job.sourceFolderId(folder.getId());
+        }
+        if (targetFolderId != null && folderRepository.findByIdAndUser(targetFolderId, user).isEmpty()) {
+            throw new RuntimeException("Folder not found");
+        }
+        if (request.getName() != null && !request.getName().isBlank()) {
+            name = request.getName().trim();
+        }
+        CompressionJob saved = jobRepository.save(job
+                .targetFolderId(targetFolderId)
+                .resultName(name.toLowerCase().endsWith(".zip") ? name : name + ".zip")
+                .build());
+        enqueue(saved);
+        return toResponse(saved);
+    }
+
+    public CompressionJobResponse getJob(User user, Long jobId) {
+        return toResponse(findJob(user, jobId));
+    }
+
+    public List<CompressionJobResponse> listJobs(User user) {
+        return jobRepository.findTop50ByUserOrderByCreatedAtDesc(user).stream()
+                .map(this::toResponse)
+                .collect(Collectors.toList());
+    }
+
+    // Queued jobs are dropped right away; a running job is interrupted and reports CANCELLED when it stops
+    public CompressionJobResponse cancel(User user, Long jobId) {
+        CompressionJob job = findJob(user, jobId);
+        JobTask task = tasks.get(jobId);
+        if (jobRepository.finish(jobId, CompressionJob.Status.QUEUED, CompressionJob.Status.CANCELLED, null, LocalDateTime.now()) > 0) {
+            if (task != null) {
+                laneFor(job.getType()).remove(task);
+                tasks.remove(jobId, task);
+            }
+        } else if (task != null) {
+            task.cancel();
+        }
+        return toResponse(findJob(user, jobId));
+    }
+
+    private CompressionJob findJob(User user, Long jobId) {
+        return jobRepository.findByIdAndUser(jobId, user)
+                .orElseThrow(() -> new RuntimeException("Compression job not found"));
+    }
+
+    private void enqueue(CompressionJob job) {
+        JobTask task = new JobTask(job.getId(), job.getPriority(), sequence.incrementAndGet());
+        tasks.put(job.getId(), task);
+        laneFor(job.getType()).execute(task);
+    }
+
+    private ThreadPoolExecutor laneFor(String type) {
+        return "archive".equals(type) ? ioLane : cpuLane;
+    }
+
+    private void runJob(JobTask task) {
+        Long jobId = task.jobId;
+        Long userId = null;
+        try {
+            if (jobRepository.claim(jobId, instanceId, LocalDateTime.now()) == 0) {
+                return; // cancelled while queued, or adopted by another instance
+            }
+            CompressionJob job = jobRepository.findById(jobId).orElseThrow(() -> new RuntimeException("Compression job not found"));
+            User user = userRepository.findById(job.getUser().getId()).orElseThrow(() -> new RuntimeException("User not found"));
+            userId = user.getId();
+            FileResponse result = compress(job, user, task);
+            jobRepository.complete(jobId, result.getId(), result.getName(), result.getSize(), LocalDateTime.now());
+            notificationService.publish(userId, "COMPRESSION_COMPLETE", "Compressed " + result.getName(), result.getName());
+        } catch (CancellationException e) {
+            jobRepository.finish(jobId, CompressionJob.Status.RUNNING, CompressionJob.Status.CANCELLED, null, LocalDateTime.now());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            System.out.println("Compression job " + jobId + " failed: " + message);
+            jobRepository.finish(jobId, CompressionJob.Status.RUNNING, CompressionJob.Status.FAILED,
+                    "Compression failed: " + truncate(message, 900), LocalDateTime.now());
+            if (userId != null) {
+                notificationService.publish(userId, "COMPRESSION_FAILED", "Compression failed: " + message, null);
+            }
+        } finally {
+            tasks.remove(jobId, task);
+        }
+    }
+
+    private FileResponse compress(CompressionJob job, User user, JobTask task) throws IOException, InterruptedException {
+        if ("archive".equals(job.getType())) {
+            return archive(job, user, task);
+        }
+        File original = fileService.getFileByUser(user, job.getFileId());
+        String originalName = original.getName();
+        int dotIndex = originalName.lastIndexOf('.');
+        String baseName = dotIndex != -1 ? originalName.substring(0, dotIndex) : originalName;
+        String extension = dotIndex != -1 ? originalName.substring(dotIndex + 1).toLowerCase() : "";
+        String format = job.getFormat() != null && !job.getFormat().isEmpty() ? job.getFormat() : extension;
+
+        Long folderId = original.getFolder() != null ? original.getFolder().getId() : null;
+        String name = baseName + "_compressed." + format;
+        if ("video".equals(job.getType())) {
+            StreamedFile staged = compressVideo(original, format, job.getBitrate() != null ? job.getBitrate() : 1000, job, task);
+            try {
+                task.checkCancelled();
+            } catch (CancellationException e) {
+                blobStore.discard(staged);
+                throw e;
+            }
+            return fileService.registerStoredFileForUser(user, name, staged, folderId);
+        }
+
+        Path workDir = Paths.get(uploadDir, ".compress");
+        Files.createDirectories(workDir);
+        Path output = Files.createTempFile(workDir, "job-" + job.getId() + "-", "." + format);
+        try {
+            compressImage(original, output, format, job.getQuality() != null ? job.getQuality() : 0.7f);
+            task.checkCancelled();
+            progress(job, 90);
+            StreamedFile staged;
+            try (InputStream in = Files.newInputStream(output)) {
+                staged = blobStore.stage(in);
+            }
+            task.checkCancelled();
+            return fileService.registerStoredFileForUser(user, name, staged, folderId);
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private void compressImage(File original, Path output, String format, float quality) throws IOException {
+        try (InputStream in = fileStorage.open(original);
+             OutputStream out = Files.newOutputStream(output)) {
+            net.coobird.thumbnailator.Thumbnails.of(in)
+                    .scale(1.0)
+                    .outputQuality(quality)
+                    .outputFormat(format)
+                    .toOutputStream(out);
+        }
+    }
+
+    // ffmpeg reads the source and writes into blob staging over pipes; its progress maps into 5-90%
+    private StreamedFile compressVideo(File original, String format, int bitrate,
+                                       CompressionJob job, JobTask task) throws IOException, InterruptedException {
+        task.checkCancelled();
+        progress(job, 5);
+        int[] reported = {5};
+        long[] lastWrite = {0};
+        try {
+            StreamedFile staged = ffmpegTranscoder.transcode(original, format, bitrate,
+                    process -> {
+                        task.process = process;
+                        if (task.cancelled) {
+                            process.destroyForcibly();
+                        }
+                    },
+                    p -> {
+                        int percent = p.getPercent() >= 0 ? 5 + p.getPercent() * 85 / 100 : reported[0];
+                        long now = System.currentTimeMillis();
+                        // Throughput moves constantly, so without a percentage change it is written at most every 2s
+                        if (percent != reported[0] || now - lastWrite[0] >= 2000) {
+                            reported[0] = percent;
+                            lastWrite[0] = now;
+                            jobRepository.updateTranscodeProgress(job.getId(), percent, p.getSpeed(),
+                                    p.getBytesPerSecond(), LocalDateTime.now());
+                        }
+                    });
+            progress(job, 90);
+            return staged;
+        } catch (IOException e) {
+            task.checkCancelled(); // killed by cancel() rather than a real failure
+            throw e;
+        } finally {
+            task.process = null;
+        }
+    }
+
+    // Streams every entry through the parallel deflater straight into a blob staging file
+    private FileResponse archive(CompressionJob job, User user, JobTask task) throws IOException {
+        List<ArchiveEntry> entries = archiveEntries(job, user);
+        long total = entries.stream().mapToLong(e -> e.file.getSize() != null ? e.file.getSize() : 0).sum();
+        ProgressTracker tracker = new ProgressTracker(job, task, total);
+        Path target = blobStore.newStagingFile();
+        MessageDigest digest = StreamingFileWriter.newDigest();
+        try {
+            try (ParallelZipWriter zip = new ParallelZipWriter(new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(target), 1 << 20), digest),
+                    deflatePool, deflateThreads, job.getLevel() != null ? job.getLevel() : 6)) {
+                for (ArchiveEntry entry : entries) {
+                    task.checkCancelled();
+                    try (InputStream in = fileStorage.open(entry.file)) {
+                        zip.addEntry(entry.name, in, entry.file.getUpdatedAt(), tracker::entryProgress);
+                    }
+                    tracker.entryDone();
+                }
+                zip.finish();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        task.checkCancelled();
+        progress(job, 90);
+        StreamedFile staged = new StreamedFile(target, Files.size(target), HexFormat.of().formatHex(digest.digest()));
+        String name = job.getResultName() != null ? job.getResultName() : "archive.zip";
+        return fileService.registerStoredFileForUser(user, name, staged, job.getTargetFolderId());
+    }
+
+    private List<ArchiveEntry> archiveEntries(CompressionJob job, User user) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        if (job.getSourceFolderId() != null) {
+            Folder folder = folderRepository.findByIdAndUser(job.getSourceFolderId(), user)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+            collectFolder(folder, folder.getName() + "/", entries, used, new HashSet<>());
+        } else if (job.getSourceFileIds() != null) {
+            List<Long> ids = Arrays.stream(job.getSourceFileIds().split(",")).map(Long::valueOf).collect(Collectors.toList());
+            Map<Long, File> files = fileRepository.findAllByIdInAndUserAndDeletedFalse(ids, user).stream()
+                    .collect(Collectors.toMap(File::getId, f -> f));
+            for (Long id : ids) {
+                File file = files.get(id);
+                if (file == null) {
+                    throw new RuntimeException("File not found");
+                }
+                entries.add(new ArchiveEntry(uniqueName(file.getName(), used), file));
+            }
+        } else {
+            File file = fileService.getFileByUser(user, job.getFileId());
+            entries.add(new ArchiveEntry(file.getName(), file));
+        }
+        return entries;
+    }
+
+    private void collectFolder(Folder folder, String prefix, List<ArchiveEntry> entries, Set<String> used, Set<Long> visited) {
+        if (!visited.add(folder.getId())) {
+            return;
+        }
+        for (File file : fileRepository.findAllByFolderAndDeletedFalse(folder)) {
+            entries.add(new ArchiveEntry(uniqueName(prefix + file.getName(), used), file));
+        }
+        for (Folder child : folderRepository.findAllByParent(folder)) {
+            collectFolder(child, prefix + child.getName() + "/", entries, used, visited);
+        }
+    }
+
+    // "a.txt", "a (2).txt", ... so no entry shadows another
+    private static String uniqueName(String name, Set<String> used) {
+        if (used.add(name)) {
+            return name;
+        }
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        String stem = dot > slash ? name.substring(0, dot) : name;
+        String extension = dot > slash ? name.substring(dot) : "";
+        for (int n = 2; ; n++) {
+            String candidate = stem + " (" + n + ")" + extension;
+            if (used.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // The requested format, or the original's extension when none is given
+    private static String outputFormat(String type, String requested, String originalName) {
+        String format = requested != null && !requested.isBlank()
+                ? requested.trim().toLowerCase(Locale.ROOT)
+                : extensionOf(originalName);
+        boolean supported = type.equals("video")
+                ? VIDEO_FORMATS.contains(format)
+                : IMAGE_FORMATS.contains(format) && ImageIO.getImageWritersByFormatName(format).hasNext();
+        if (!supported) {
+            throw new UnsupportedFormatException(type, format.isEmpty() ? "(none)" : format);
+        }
+        return format;
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        return dot != -1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static Integer checkLevel(Integer level) {
+        if (level != null && (level < 0 || level > 9)) {
+            throw new RuntimeException("Compression level must be between 0 and 9");
+        }
+        return level;
+    }
+
+    private int clampPriority(Integer priority) {
+        return priority == null ? 0 : Math.max(minPriority, Math.min(maxClientPriority, priority));
+    }
+
+    private void progress(CompressionJob job, int percent) {
+        jobRepository.updateProgress(job.getId(), percent, LocalDateTime.now());
+    }
+
+    private CompressionJobResponse toResponse(CompressionJob job) {
+        CompressionResponse result = null;
+        if (job.getStatus() == CompressionJob.Status.COMPLETED && job.getResultFileId() != null) {
+            long originalSize = job.getOriginalSize() != null ? job.getOriginalSize() : 0;
+            long compressedSize = job.getCompressedSize() != null ? job.getCompressedSize() : 0;
+            String name = job.getResultName();
+            result = CompressionResponse.builder()
+                    .id(job.getResultFileId())
+                    .name(name)
+                    .url(fileRepository.findById(job.getResultFileId()).flatMap(fileStorage::presign).orElse(null))
+                    .originalSize(job.getOriginalSize())
+                    .compressedSize(job.getCompressedSize())
+                    .compressionRatio(originalSize > 0 ? ((double) (originalSize - compressedSize) / originalSize) * 100 : 0)
+                    .format(name != null && name.contains(".") ? name.substring(name.lastIndexOf('.') + 1) : null)
+                    .build();
+        }
+        return CompressionJobResponse.builder()
+                .jobId(job.getId())
+                .fileId(job.getFileId())
+                .type(job.getType())
+                .status(job.getStatus().name())
+                .progress(job.getProgress())
+                .speed(job.getSpeed())
+                .throughput(job.getThroughput())
+                .priority(job.getPriority())
+                .error(job.getError())
+                .result(result)
+                .createdAt(job.getCreatedAt())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .build();
+    }
+
+    private static String truncate(String value, int max) {
+        return value.length() <= max ? value : value.substring(0, max);
+    }
+
+    private static ThreadPoolExecutor newLane(String prefix, int workers) {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, prefix + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static final class ArchiveEntry {
+        final String name;
+        final File file;
+
+        ArchiveEntry(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    // Maps bytes read into 5-90% and writes progress only when the whole percentage changes
+    private final class ProgressTracker {
+        final CompressionJob job;
+        final JobTask task;
+        final long total;
+        long completed;
+        long current;
+        int reported = -1;
+
+        ProgressTracker(CompressionJob job, JobTask task, long total) {
+            this.job = job;
+            this.task = task;
+            this.total = total;
+        }
+
+        void entryProgress(long bytes) {
+            task.checkCancelled();
+            current = bytes;
+            int percent = total > 0 ? 5 + (int) (85 * Math.min(1.0, (double) (completed + current) / total)) : 5;
+            if (percent != reported) {
+                reported = percent;
+                progress(job, percent);
+            }
+        }
+
+        void entryDone() {
+            completed += current;
+            current = 0;
+        }
+    }
+
+    // Queued with execute() rather than submit() so the priority queue sees the task itself
+    private final class JobTask implements Runnable, Comparable<JobTask> {
+        final Long jobId;
+        final int priority;
+        final long order;
+        volatile boolean cancelled;
+        volatile Process process;
+
+        JobTask(Long jobId, int priority, long order) {
+            this.jobId = jobId;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Process running = process;
+            if (running != null) {
+                running.destroyForcibly();
+            }
+        }
+
+        void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+
+        @Override
+        public void run() {
+            runJob(this);
+        }
+
+        @Override
+        public int compareTo(JobTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.search.ContentIndex;
+import com.cloudstore.search.TextExtractor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Feeds the content index: new uploads are extracted on a small background pool once their
+// transaction commits, permanent deletes remove them again. Files uploaded before the index
+// existed (or while the queue was full) are picked up the first time their owner searches.
+@Service
+public class ContentSearchService {
+    private final ContentIndex contentIndex;
+    private final TextExtractor textExtractor;
+    private final FileRepository fileRepository;
+
+    @Value("${search.content.workers:2}")
+    private int workers;
+
+    private final Set<Long> caughtUp = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor executor;
+
+    public ContentSearchService(ContentIndex contentIndex, TextExtractor textExtractor, FileRepository fileRepository) {
+        this.contentIndex = contentIndex;
+        this.textExtractor = textExtractor;
+        this.fileRepository = fileRepository;
+    }
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10000),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "content-extract-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> System.out.println("Content indexing queue full, file will be indexed on next search"));
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    public void indexAfterCommit(List<File> files) {
+        List<File> readable = files.stream().filter(textExtractor::supports).collect(Collectors.toList());
+        if (readable.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> readable.forEach(file -> executor.execute(() -> index(file))));
+    }
+
+    public void removeAfterCommit(Long userId, List<Long> fileIds) {
+        afterCommit(() -> {
+            for (Long fileId : fileIds) {
+                try {
+                    contentIndex.delete(userId, fileId);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Content index delete failed for file " + fileId + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Best matches first; ids of files that were since trashed are filtered by the caller
+    public List<ContentIndex.Hit> search(Long userId, String query, int limit) {
+        if (caughtUp.add(userId)) {
+            catchUp(userId);
+        }
+        try {
+            return contentIndex.search(userId, query, limit);
+        } catch (IOException e) {
+            throw new RuntimeException("Content search failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void index(File file) {
+        try {
+            if (contentIndex.contains(file.getUser().getId(), file.getId())) {
+                return;
+            }
+            Optional<String> text = textExtractor.extract(file);
+            if (text.isPresent()) {
+                contentIndex.add(file.getUser().getId(), file.getId(), text.get());
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Content extraction failed for file " + file.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Queues every readable live file that is not in the index yet
+    private void catchUp(Long userId) {
+        List<Long> missing = new ArrayList<>();
+        try {
+            for (Object[] row : fileRepository.findLiveNamesByUserId(userId)) {
+                Long fileId = (Long) row[0];
+                if (textExtractor.supports((String) row[1]) && !contentIndex.contains(userId, fileId)) {
+                    missing.add(fileId);
+                }
+            }
+        } catch (IOException e) {
+            caughtUp.remove(userId);
+            throw new RuntimeException("Content search failed: " + e.getMessage(), e);
+        }
+        // Loaded in chunks so a large backlog never holds every row in memory at once
+        for (int from = 0; from < missing.size(); from += 200) {
+            List<Long> chunk = missing.subList(from, Math.min(missing.size(), from + 200));
+            executor.execute(() -> {
+                for (File file : fileRepository.findAllById(chunk)) {
+                    if (textExtractor.supports(file)) {
+                        index(file);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.OutboxEmail;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Delivers the email_outbox. Each dispatcher thread claims a batch of due rows with
+// FOR UPDATE SKIP LOCKED (so dispatchers on any instance never share a row), pushes the lease
+// forward, and sends the whole batch over one SMTP connection outside any transaction. Failed
+// messages are retried with exponential backoff and jitter; after mail.outbox.max-attempts, or on
+// a malformed address, they are marked DEAD and kept for inspection. Delivery is at-least-once:
+// a crash between sending and recording retries the batch once its lease runs out.
+@Service
+public class EmailDispatcher {
+    private final JavaMailSender mailSender;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.mail.username}")
+    private String fromEmail;
+
+    @Value("${mail.outbox.dispatchers:2}")
+    private int dispatchers;
+
+    @Value("${mail.outbox.batch-size:20}")
+    private int batchSize;
+
+    @Value("${mail.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${mail.outbox.backoff-ms:30000}")
+    private long backoffMs;
+
+    @Value("${mail.outbox.max-backoff-ms:3600000}")
+    private long maxBackoffMs;
+
+    // How long a claimed batch is hidden from other dispatchers; must exceed the SMTP timeouts
+    @Value("${mail.outbox.lease-ms:300000}")
+    private long leaseMs;
+
+    @Value("${mail.outbox.sent-retention-days:7}")
+    private long sentRetentionDays;
+
+    private ThreadPoolExecutor executor;
+
+    public EmailDispatcher(JavaMailSender mailSender, JdbcTemplate jdbcTemplate) {
+        this.mailSender = mailSender;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threads = new AtomicInteger();
+        // A wake-up that finds every dispatcher busy is dropped; the busy ones keep draining
+        executor = new ThreadPoolExecutor(dispatchers, dispatchers, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "mail-dispatch-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    // Called after a commit that enqueued mail, so it usually goes out right away
+    public void wakeUp() {
+        for (int i = 0; i < dispatchers; i++) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Picks up retries that came due and anything enqueued by other instances
+    @Scheduled(fixedDelayString = "${mail.outbox.poll-ms:5000}")
+    public void poll() {
+        wakeUp();
+    }
+
+    private void drain() {
+        try {
+            List<OutboxEmail> batch;
+            while (!Thread.currentThread().isInterrupted() && !(batch = claim()).isEmpty()) {
+                deliver(batch);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Mail dispatch failed: " + e.getMessage());
+        }
+    }
+
+    private List<OutboxEmail> claim() {
+        LocalDateTime now = LocalDateTime.now();
+        return jdbcTemplate.query(
+                "UPDATE email_outbox SET next_attempt_at = ? WHERE id IN ("
+                        + " SELECT id FROM email_outbox WHERE status = 'PENDING' AND next_attempt_at <= ?"
+                        + " ORDER BY next_attempt_at, id LIMIT ? FOR UPDATE SKIP LOCKED)"
+                        + " RETURNING id, to_address, subject, body, attempts",
+                (rs, i) -> OutboxEmail.builder()
+                        .id(rs.getLong("id"))
+                        .toAddress(rs.getString("to_address"))
+                        .subject(rs.getString("subject"))
+                        .body(rs.getString("body"))
+                        .attempts(rs.getInt("attempts"))
+                        .build(),
+                Timestamp.valueOf(now.plus(leaseMs, ChronoUnit.MILLIS)), Timestamp.valueOf(now), batchSize);
+    }
+
+    private void deliver(List<OutboxEmail> batch) {
+        SimpleMailMessage[] messages = new SimpleMailMessage[batch.size()];
+        // By identity: two identical messages in one batch must not share a result
+        Map<Object, Exception> failures = new IdentityHashMap<>();
+        List<SimpleMailMessage> sendable = new ArrayList<>(messages.length);
+        for (int i = 0; i < messages.length; i++) {
+            OutboxEmail email = batch.get(i);
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setFrom("CloudStore <" + fromEmail + ">");
+            message.setTo(email.getToAddress());
+            message.setSubject(email.getSubject());
+            message.setText(email.getBody());
+            messages[i] = message;
+            // The sender parses every message before connecting, so one bad address would fail them all
+            try {
+                new InternetAddress(email.getToAddress(), true);
+                sendable.add(message);
+            } catch (AddressException e) {
+                failures.put(message, e);
+            }
+        }
+        send(sendable, failures);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> sent = new ArrayList<>();
+        List<Object[]> failed = new ArrayList<>();
+        for (int i = 0; i < messages.length; i++) {
+            OutboxEmail email = batch.get(i);
+            Exception failure = failures.get(messages[i]);
+            if (failure == null) {
+                sent.add(new Object[]{Timestamp.valueOf(now), email.getId()});
+                continue;
+            }
+            int attempts = email.getAttempts() + 1;
+            boolean dead = attempts >= maxAttempts || isPermanent(failure);
+            String error = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+            if (dead) {
+                System.out.println("Giving up on email " + email.getId() + " to " + email.getToAddress()
+                        + " after " + attempts + " attempts: " + error);
+            }
+            failed.add(new Object[]{dead ? OutboxEmail.Status.DEAD.name() : OutboxEmail.Status.PENDING.name(), attempts,
+                    Timestamp.valueOf(now.plus(backoff(attempts), ChronoUnit.MILLIS)),
+                    error.length() > 1000 ? error.substring(0, 1000) : error, email.getId()});
+        }
+        if (!sent.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE email_outbox SET status = 'SENT', sent_at = ?, last_error = NULL WHERE id = ?", sent);
+        }
+        if (!failed.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE email_outbox SET status = ?, attempts = ?, next_attempt_at = ?, last_error = ? WHERE id = ?", failed);
+        }
+    }
+
+    // One call sends the batch over a single connection and reports failures per message
+    private void send(List<SimpleMailMessage> messages, Map<Object, Exception> failures) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            mailSender.send(messages.toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            failures.putAll(e.getFailedMessages());
+            if (e.getFailedMessages().isEmpty()) {
+                allFailed(messages, e, failures);
+            }
+        } catch (MailParseException e) {
+            // Something the address check let through; one at a time, it only fails its own message
+            if (messages.size() == 1) {
+                failures.put(messages.get(0), e);
+            } else {
+                messages.forEach(message -> send(List.of(message), failures));
+            }
+        } catch (MailException e) {
+            allFailed(messages, e, failures);
+        }
+    }
+
+    private static void allFailed(List<SimpleMailMessage> messages, Exception e, Map<Object, Exception> failures) {
+        for (SimpleMailMessage message : messages) {
+            failures.put(message, e);
+        }
+    }
+
+    // A malformed address will never be accepted, so retrying it only delays the dead letter
+    private static boolean isPermanent(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AddressException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // backoff-ms doubled per attempt up to max-backoff-ms, +/-20% so failed batches don't retry in lockstep
+    private long backoff(int attempts) {
+        long delay = Math.min(maxBackoffMs, backoffMs << Math.min(attempts - 1, 20));
+        return (long) (delay * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+    }
+
+    @Scheduled(initialDelayString = "${mail.outbox.prune-initial-delay-ms:600000}", fixedDelayString = "${mail.outbox.prune-interval-ms:86400000}")
+    public void prune() {
+        int removed = jdbcTemplate.update("DELETE FROM email_outbox WHERE status = 'SENT' AND sent_at < ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(sentRetentionDays)));
+        if (removed > 0) {
+            System.out.println("Pruned " + removed + " sent emails from the outbox");
+        }
+    }
+}
@@ -1,19 +1,21 @@
 package com.cloudstore.service;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
+import com.cloudstore.model.OutboxEmail;
+import com.cloudstore.repository.OutboxEmailRepository;
 import org.springframework.stereotype.Service;
 import lombok.RequiredArgsConstructor;
 
+import java.time.LocalDateTime;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Mail is queued in email_outbox as part of the caller's transaction and sent by EmailDispatcher,
+// so callers never wait on the SMTP server and a mail outage can't roll back their work
 @Service
 @RequiredArgsConstructor
 public class EmailService {
-    private final JavaMailSender mailSender;
-
-    @Value("${spring.mail.username}")
-    private String fromEmail;
+    private final OutboxEmailRepository outboxEmailRepository;
+    private final EmailDispatcher emailDispatcher;
 
     public void sendVerificationEmail(String to, String code) {
         String subject = "Verify your CloudStore email";
@@ -29,16 +31,13 @@ public class EmailService {
     }
 
     private void sendEmail(String to, String subject, String text) {
-        try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom("CloudStore <" + fromEmail + ">");
-            message.setTo(to);
-            message.setSubject(subject);
-            message.setText(text);
-            mailSender.send(message);
-        } catch (Exception e) {
-            e.printStackTrace(); // Log the error to the console
-            throw new RuntimeException("Failed to send email: " + e.getMessage(), e);
-        }
+        outboxEmailRepository.save(OutboxEmail.builder()
+                .toAddress(to)
+                .subject(subject)
+                .body(text)
+                .status(OutboxEmail.Status.PENDING)
+                .nextAttemptAt(LocalDateTime.now())
+                .build());
+        afterCommit(emailDispatcher::wakeUp);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.StreamedFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs ffmpeg with its output piped straight into blob staging. Input is passed by path when
+// the content is on local disk, by URL when the backend can hand one out (ffmpeg seeks with
+// range requests), and through stdin otherwise. "-progress" output on stderr is parsed into
+// percent complete and throughput. A watchdog kills runs that exceed the time limit or stop
+// making progress, and a semaphore caps how many transcodes run at once.
+@Service
+public class FfmpegTranscoder {
+    private static final Pattern DURATION = Pattern.compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+
+    private final FileStorage fileStorage;
+    private final BlobStore blobStore;
+
+    @Value("${compression.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${compression.ffmpeg.threads:0}")
+    private int threads;
+
+    @Value("${compression.ffmpeg.preset:veryfast}")
+    private String preset;
+
+    @Value("${compression.ffmpeg.max-concurrent:2}")
+    private int maxConcurrent;
+
+    @Value("${compression.ffmpeg.timeout-minutes:60}")
+    private long timeoutMinutes;
+
+    @Value("${compression.ffmpeg.stall-seconds:120}")
+    private long stallSeconds;
+
+    @Value("${compression.ffmpeg.watchdog-interval-ms:5000}")
+    private long watchdogIntervalMs;
+
+    private Semaphore slots;
+    private ScheduledExecutorService watchdog;
+
+    public FfmpegTranscoder(FileStorage fileStorage, BlobStore blobStore) {
+        this.fileStorage = fileStorage;
+        this.blobStore = blobStore;
+    }
+
+    @PostConstruct
+    void start() {
+        slots = new Semaphore(Math.max(1, maxConcurrent), true);
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ffmpeg-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        watchdog.shutdownNow();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Progress {
+        private int percent; // -1 while the duration is unknown
+        private long outTimeMs;
+        private double speed; // multiple of real time
+        private long outputBytes;
+        private long bytesPerSecond; // output throughput
+    }
+
+    /**
+     * Transcodes {@code source} to {@code format} at {@code bitrateKbps}. The result is staged for
+     * {@link BlobStore#commit}; {@code onStart} receives the process so callers can kill it.
+     */
+    public StreamedFile transcode(File source, String format, int bitrateKbps,
+                                  Consumer<Process> onStart, Consumer<Progress> onProgress) throws IOException, InterruptedException {
+        slots.acquire();
+        try {
+            return run(source, format, bitrateKbps, onStart, onProgress);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private StreamedFile run(File source, String format, int bitrateKbps,
+                             Consumer<Process> onStart, Consumer<Progress> onProgress) throws IOException, InterruptedException {
+        Optional<String> inputLocation = inputLocation(source);
+        List<String> command = command(inputLocation.orElse("pipe:0"), format, bitrateKbps);
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (inputLocation.isPresent()) {
+            pb.redirectInput(ProcessBuilder.Redirect.from(new java.io.File(nullDevice())));
+        }
+        Process process = pb.start();
+        onStart.accept(process);
+        RunState state = new RunState(System.nanoTime());
+
+        Thread stderr = new Thread(() -> readProgress(process.getErrorStream(), state, onProgress), "ffmpeg-progress");
+        stderr.setDaemon(true);
+        stderr.start();
+        Thread feeder = null;
+        if (inputLocation.isEmpty()) {
+            feeder = new Thread(() -> feed(source, process, state), "ffmpeg-input");
+            feeder.setDaemon(true);
+            feeder.start();
+        }
+        ScheduledFuture<?> guard = watchdog.scheduleAtFixedRate(() -> check(process, state),
+                watchdogIntervalMs, watchdogIntervalMs, TimeUnit.MILLISECONDS);
+
+        StreamedFile staged = null;
+        try {
+            staged = blobStore.stage(process.getInputStream());
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("ffmpeg did not exit after closing its output");
+            }
+            stderr.join(TimeUnit.SECONDS.toMillis(5));
+            if (state.killedReason != null) {
+                throw new IOException(state.killedReason);
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exited with status " + process.exitValue() + state.errorTail());
+            }
+            if (state.inputError != null) {
+                throw new IOException("Failed to read video input: " + state.inputError.getMessage(), state.inputError);
+            }
+            if (staged.getSize() == 0) {
+                throw new IOException("ffmpeg produced no output" + state.errorTail());
+            }
+            return staged;
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            if (staged != null) {
+                blobStore.discard(staged);
+            }
+            throw e;
+        } finally {
+            guard.cancel(false);
+            process.destroyForcibly();
+            if (feeder != null) {
+                feeder.interrupt();
+            }
+        }
+    }
+
+    private List<String> command(String input, String format, int bitrateKbps) {
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-hide_banner", "-nostats", "-y",
+                "-progress", "pipe:2", "-i", input));
+        if (threads > 0) {
+            command.addAll(List.of("-threads", String.valueOf(threads)));
+        }
+        switch (format) {
+            case "mp4", "mov", "m4v" -> {
+                command.addAll(List.of("-c:v", "libx264", "-preset", preset, "-c:a", "aac"));
+                // stdout cannot seek back to write the index, so write a fragmented file instead
+                command.addAll(List.of("-movflags", "frag_keyframe+empty_moov+default_base_moof"));
+                command.addAll(List.of("-f", "mov".equals(format) ? "mov" : "mp4"));
+            }
+            case "mkv" -> command.addAll(List.of("-c:v", "libx264", "-preset", preset, "-f", "matroska"));
+            case "wmv" -> command.addAll(List.of("-f", "asf"));
+            case "webm" -> command.addAll(List.of("-f", "webm"));
+            // Never hand an arbitrary muxer name to ffmpeg; CompressionService rejects these at submit
+            default -> throw new IllegalArgumentException("Unsupported video format: " + format);
+        }
+        command.addAll(List.of("-b:v", bitrateKbps + "k", "pipe:1"));
+        return command;
+    }
+
+    private Optional<String> inputLocation(File source) throws IOException {
+        Resource resource = fileStorage.resource(source);
+        if (resource.isFile()) {
+            return Optional.of(resource.getFile().getAbsolutePath());
+        }
+        return fileStorage.presign(source).filter(url -> url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    private void feed(File source, Process process, RunState state) {
+        try (InputStream in = fileStorage.open(source);
+             OutputStream stdin = process.getOutputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                stdin.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // A broken pipe just means ffmpeg stopped reading; its exit status tells the story
+            if (process.isAlive()) {
+                state.inputError = e;
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private void readProgress(InputStream stderr, RunState state, Consumer<Progress> onProgress) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stderr, StandardCharsets.UTF_8))) {
+            String line;
+            long outTimeUs = 0;
+            long totalSize = 0;
+            double speed = 0;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                String key = eq > 0 ? line.substring(0, eq) : "";
+                String value = eq > 0 ? line.substring(eq + 1).trim() : "";
+                switch (key) {
+                    case "out_time_us", "out_time_ms" -> outTimeUs = parseLong(value, outTimeUs); // both are microseconds
+                    case "total_size" -> totalSize = parseLong(value, totalSize);
+                    case "speed" -> speed = parseDouble(value.replace("x", ""), speed);
+                    case "progress" -> {
+                        state.lastProgressNanos = System.nanoTime();
+                        long elapsedMs = Math.max(1, (state.lastProgressNanos - state.startNanos) / 1_000_000);
+                        int percent = state.durationUs > 0 ? (int) Math.min(100, outTimeUs * 100 / state.durationUs) : -1;
+                        onProgress.accept(new Progress(percent, outTimeUs / 1000, speed, totalSize, totalSize * 1000 / elapsedMs));
+                    }
+                    case "bitrate", "fps", "frame", "out_time", "dup_frames", "drop_frames", "stream_0_0_q" -> {
+                    }
+                    default -> {
+                        Matcher duration = DURATION.matcher(line);
+                        if (state.durationUs == 0 && duration.find()) {
+                            state.durationUs = (long) ((Long.parseLong(duration.group(1)) * 3600
+                                    + Long.parseLong(duration.group(2)) * 60
+                                    + Double.parseDouble(duration.group(3))) * 1_000_000);
+                        } else if (!line.startsWith("stream_")) {
+                            state.remember(line);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The process is gone; exit status and error tail are checked by the caller
+        }
+    }
+
+    private void check(Process process, RunState state) {
+        long now = System.nanoTime();
+        if (now - state.startNanos > TimeUnit.MINUTES.toNanos(timeoutMinutes)) {
+            state.killedReason = "ffmpeg timed out after " + timeoutMinutes + " minutes";
+            process.destroyForcibly();
+        } else if (now - state.lastProgressNanos > TimeUnit.SECONDS.toNanos(stallSeconds)) {
+            state.killedReason = "ffmpeg made no progress for " + stallSeconds + " seconds";
+            process.destroyForcibly();
+        }
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback; // "N/A" before the first frame
+        }
+    }
+
+    private static double parseDouble(String value, double fallback) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String nullDevice() {
+        return System.getProperty("os.name").toLowerCase().startsWith("windows") ? "NUL" : "/dev/null";
+    }
+
+    private static final class RunState {
+        final long startNanos;
+        volatile long lastProgressNanos;
+        volatile long durationUs;
+        volatile String killedReason;
+        volatile IOException inputError;
+        private final Deque<String> errorLines = new ArrayDeque<>();
+
+        RunState(long startNanos) {
+            this.startNanos = startNanos;
+            this.lastProgressNanos = startNanos;
+        }
+
+        synchronized void remember(String line) {
+            if (errorLines.size() == 5) {
+                errorLines.removeFirst();
+            }
+            errorLines.addLast(line);
+        }
+
+        synchronized String errorTail() {
+            return errorLines.isEmpty() ? "" : ": " + String.join(" | ", errorLines);
+        }
+    }
+}
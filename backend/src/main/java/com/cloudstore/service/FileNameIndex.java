@@ -0,0 +1,431 @@
+package com.cloudstore.service;
+
+import com.cloudstore.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Per-user trigram index over live (not deleted) file names. A user's index is built from the
+// database on their first search and then kept current by FileNameIndexListener after each commit.
+// Ranking, best first: prefix matches, word-start matches, other substring matches, then names
+// sharing most trigrams with the query (typo tolerance). Indexes of users who have not searched
+// recently are dropped, and the least recently used ones go first when the entry budget is exceeded.
+@Service
+public class FileNameIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final FileRepository fileRepository;
+
+    @Value("${search.name-index.max-entries:2000000}")
+    private long maxEntries;
+
+    @Value("${search.name-index.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final ConcurrentHashMap<Long, UserIndex> users = new ConcurrentHashMap<>();
+    private final AtomicLong totalEntries = new AtomicLong();
+
+    public FileNameIndex(FileRepository fileRepository) {
+        this.fileRepository = fileRepository;
+    }
+
+    // Ids of the best matching files, best first
+    public List<Long> search(Long userId, String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        return index(userId).search(q, limit);
+    }
+
+    // Change hooks; applied after the surrounding transaction commits
+    public void fileSaved(Long userId, Long fileId, String name, boolean deleted) {
+        afterCommit(() -> {
+            UserIndex index = users.get(userId);
+            if (index != null) {
+                index.apply(fileId, deleted ? null : name);
+            }
+        });
+    }
+
+    public void fileRemoved(Long userId, Long fileId) {
+        afterCommit(() -> {
+            UserIndex index = users.get(userId);
+            if (index != null) {
+                index.apply(fileId, null);
+            }
+        });
+    }
+
+    // Drops a user's index so it is rebuilt from the database on the next search
+    public void invalidate(Long userId) {
+        afterCommit(() -> drop(userId));
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdle() {
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(idleMinutes);
+        users.forEach((userId, index) -> {
+            if (index.lastAccess < cutoff) {
+                drop(userId);
+            }
+        });
+    }
+
+    private UserIndex index(Long userId) {
+        UserIndex index = users.get(userId);
+        if (index == null) {
+            UserIndex created = new UserIndex();
+            index = users.putIfAbsent(userId, created);
+            if (index == null) {
+                index = created;
+                load(userId, created);
+            }
+        }
+        index.lastAccess = System.nanoTime();
+        index.awaitReady();
+        return index;
+    }
+
+    private void load(Long userId, UserIndex index) {
+        try {
+            List<Object[]> rows = fileRepository.findLiveNamesByUserId(userId);
+            index.build(rows);
+            totalEntries.addAndGet(index.liveCount());
+            index.ready.complete(null);
+            enforceBudget();
+        } catch (RuntimeException e) {
+            users.remove(userId, index);
+            index.ready.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void drop(Long userId) {
+        UserIndex removed = users.remove(userId);
+        if (removed != null) {
+            totalEntries.addAndGet(-removed.liveCount());
+        }
+    }
+
+    private void enforceBudget() {
+        if (totalEntries.get() <= maxEntries) {
+            return;
+        }
+        List<Map.Entry<Long, UserIndex>> byAge = new ArrayList<>(users.entrySet());
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        // The most recently used index is always kept, even if it alone exceeds the budget
+        for (int i = 0; i < byAge.size() - 1 && totalEntries.get() > maxEntries; i++) {
+            drop(byAge.get(i).getKey());
+        }
+    }
+
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String trimmed = value.trim();
+        if (trimmed.chars().allMatch(c -> c < 0x80)) {
+            return trimmed.toLowerCase(Locale.ROOT);
+        }
+        String decomposed = Normalizer.normalize(trimmed, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static boolean isWordStart(String name, int at) {
+        return at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1));
+    }
+
+    private final class UserIndex {
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile long lastAccess = System.nanoTime();
+
+        // Slot-based storage; removed names leave a null slot until the next compaction
+        long[] ids = new long[16];
+        String[] names = new String[16];
+        int slots;
+        final Map<Long, Integer> slotById = new HashMap<>();
+        final Map<Long, Postings> postings = new HashMap<>();
+        // Changes that arrive while the initial load is running, replayed once it finishes
+        List<Object[]> pending = new ArrayList<>();
+
+        void build(List<Object[]> rows) {
+            lock.writeLock().lock();
+            try {
+                for (Object[] row : rows) {
+                    add((Long) row[0], (String) row[1]);
+                }
+                for (Object[] change : pending) {
+                    replace((Long) change[0], (String) change[1]);
+                }
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void apply(Long fileId, String name) {
+            lock.writeLock().lock();
+            try {
+                if (pending != null) {
+                    pending.add(new Object[]{fileId, name});
+                    return;
+                }
+                long before = slotById.size();
+                replace(fileId, name);
+                totalEntries.addAndGet(slotById.size() - before);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int liveCount() {
+            lock.readLock().lock();
+            try {
+                return slotById.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void awaitReady() {
+            try {
+                ready.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading the search index");
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to load the search index: " + e.getCause().getMessage());
+            }
+        }
+
+        // name == null removes the file
+        private void replace(Long fileId, String name) {
+            Integer slot = slotById.remove(fileId);
+            if (slot != null) {
+                names[slot] = null;
+            }
+            if (name != null) {
+                add(fileId, name);
+            }
+            if (slots > 1024 && slotById.size() < slots / 2) {
+                compact();
+            }
+        }
+
+        private void add(Long fileId, String rawName) {
+            String name = normalize(rawName);
+            if (slots == ids.length) {
+                ids = Arrays.copyOf(ids, slots * 2);
+                names = Arrays.copyOf(names, slots * 2);
+            }
+            int slot = slots++;
+            ids[slot] = fileId;
+            names[slot] = name;
+            slotById.put(fileId, slot);
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                Postings list = postings.computeIfAbsent(trigram(name, i), g -> new Postings());
+                // Slots only grow, so a trigram repeated within this name is already the list's last entry
+                if (list.size == 0 || list.slots[list.size - 1] != slot) {
+                    list.add(slot);
+                }
+            }
+        }
+
+        private void compact() {
+            long[] oldIds = ids;
+            String[] oldNames = names;
+            int oldSlots = slots;
+            ids = new long[Math.max(16, slotById.size() * 2)];
+            names = new String[ids.length];
+            slots = 0;
+            slotById.clear();
+            postings.clear();
+            for (int i = 0; i < oldSlots; i++) {
+                if (oldNames[i] != null) {
+                    add(oldIds[i], oldNames[i]);
+                }
+            }
+        }
+
+        List<Long> search(String q, int limit) {
+            lock.readLock().lock();
+            try {
+                PriorityQueue<Hit> top = new PriorityQueue<>(Comparator.comparingDouble((Hit h) -> h.score));
+                if (q.length() < 3) {
+                    // Too short for trigrams; a straight scan is still fast at these sizes
+                    for (int slot = 0; slot < slots; slot++) {
+                        String name = names[slot];
+                        if (name != null) {
+                            int at = name.indexOf(q);
+                            if (at >= 0) {
+                                offer(top, limit, slot, substringScore(name, q, at));
+                            }
+                        }
+                    }
+                } else {
+                    searchTrigrams(q, limit, top);
+                }
+                List<Hit> hits = new ArrayList<>(top);
+                hits.sort(Comparator.comparingDouble((Hit h) -> -h.score).thenComparingLong(h -> ids[h.slot]));
+                List<Long> result = new ArrayList<>(hits.size());
+                for (Hit hit : hits) {
+                    result.add(ids[hit.slot]);
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void searchTrigrams(String q, int limit, PriorityQueue<Hit> top) {
+            long[] grams = new long[q.length() - 2];
+            int distinct = 0;
+            for (int i = 0; i < grams.length; i++) {
+                long gram = trigram(q, i);
+                boolean seen = false;
+                for (int j = 0; j < distinct && !seen; j++) {
+                    seen = grams[j] == gram;
+                }
+                if (!seen) {
+                    grams[distinct++] = gram;
+                }
+            }
+            // One edit changes up to three trigrams. Below five characters a typo leaves too little
+            // to match on, so those queries must contain every trigram.
+            int required = q.length() >= 6 ? Math.max(1, distinct - 3) : q.length() == 5 ? distinct - 1 : distinct;
+            Postings[] lists = new Postings[distinct];
+            int present = 0;
+            for (int g = 0; g < distinct; g++) {
+                Postings list = postings.get(grams[g]);
+                if (list != null) {
+                    lists[present++] = list;
+                }
+            }
+            if (present < required) {
+                return;
+            }
+            Arrays.sort(lists, 0, present, Comparator.comparingInt((Postings l) -> l.size));
+            // A name sharing `required` trigrams must be in at least one of the rarest present - required + 1
+            // lists, so only those produce candidates; the longer lists just add to their counts
+            int seedLists = present - required + 1;
+            int[] shared = new int[slots];
+            int[] touched = new int[Math.min(slots, 4096)];
+            int touchedCount = 0;
+            for (int g = 0; g < seedLists; g++) {
+                Postings list = lists[g];
+                for (int i = 0; i < list.size; i++) {
+                    int slot = list.slots[i];
+                    if (shared[slot]++ == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, Math.min(slots, touched.length * 2));
+                        }
+                        touched[touchedCount++] = slot;
+                    }
+                }
+            }
+            long remaining = 0;
+            for (int g = seedLists; g < present; g++) {
+                remaining += lists[g].size;
+            }
+            int log2 = 32 - Integer.numberOfLeadingZeros(slots);
+            if ((long) touchedCount * (present - seedLists) * log2 < remaining) {
+                // Few candidates: probe the long lists (sorted by slot) instead of walking them
+                for (int i = 0; i < touchedCount; i++) {
+                    int slot = touched[i];
+                    for (int g = seedLists; g < present; g++) {
+                        if (Arrays.binarySearch(lists[g].slots, 0, lists[g].size, slot) >= 0) {
+                            shared[slot]++;
+                        }
+                    }
+                }
+            } else {
+                for (int g = seedLists; g < present; g++) {
+                    Postings list = lists[g];
+                    for (int i = 0; i < list.size; i++) {
+                        int slot = list.slots[i];
+                        if (shared[slot] > 0) {
+                            shared[slot]++;
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                int slot = touched[i];
+                String name = names[slot];
+                if (name == null || shared[slot] < required) {
+                    continue;
+                }
+                int at = name.indexOf(q);
+                double score = at >= 0 ? substringScore(name, q, at)
+                        : (double) shared[slot] / distinct - lengthPenalty(name, q);
+                offer(top, limit, slot, score);
+            }
+        }
+
+        private double substringScore(String name, String q, int at) {
+            double tier = name.startsWith(q) ? 4 : isWordStart(name, at) ? 3 : 2;
+            return tier - lengthPenalty(name, q);
+        }
+
+        private double lengthPenalty(String name, String q) {
+            return Math.min(0.5, Math.max(0, name.length() - q.length()) / 200.0);
+        }
+
+        private void offer(PriorityQueue<Hit> top, int limit, int slot, double score) {
+            if (top.size() < limit) {
+                top.add(new Hit(slot, score));
+            } else if (top.peek().score < score) {
+                top.poll();
+                top.add(new Hit(slot, score));
+            }
+        }
+    }
+
+    // Slots in ascending order: they are only ever appended, and compaction re-adds in slot order
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    private static final class Hit {
+        final int slot;
+        final double score;
+
+        Hit(int slot, double score) {
+            this.slot = slot;
+            this.score = score;
+        }
+    }
+}
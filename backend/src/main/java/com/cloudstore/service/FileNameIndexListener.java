@@ -0,0 +1,36 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+// JPA listener on File that feeds name changes into FileNameIndex. Hibernate obtains it from the
+// Spring context; the index is looked up lazily because listeners are created with the
+// EntityManagerFactory, before the repositories the index depends on exist.
+// JPQL bulk updates bypass entity listeners and must notify the index themselves.
+@Component
+public class FileNameIndexListener {
+    private final ObjectProvider<FileNameIndex> fileNameIndex;
+
+    public FileNameIndexListener(ObjectProvider<FileNameIndex> fileNameIndex) {
+        this.fileNameIndex = fileNameIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    void saved(File file) {
+        if (file.getUser() != null) {
+            fileNameIndex.getObject().fileSaved(file.getUser().getId(), file.getId(), file.getName(), file.isDeleted());
+        }
+    }
+
+    @PostRemove
+    void removed(File file) {
+        if (file.getUser() != null) {
+            fileNameIndex.getObject().fileRemoved(file.getUser().getId(), file.getId());
+        }
+    }
+}
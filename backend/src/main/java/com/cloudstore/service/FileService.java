@@ -1,51 +1,79 @@
 package com.cloudstore.service;
 
-import com.cloudstore.dto.CompressionRequest;
-import com.cloudstore.dto.CompressionResponse;
+import com.cloudstore.dto.BulkFileRequest;
+import com.cloudstore.dto.BulkFileResponse;
+import com.cloudstore.dto.BulkFileResult;
+import com.cloudstore.dto.ContentSearchResult;
+import com.cloudstore.dto.FilePageResponse;
 import com.cloudstore.dto.FileResponse;
 import com.cloudstore.dto.RenameFileRequest;
+import com.cloudstore.model.Blob;
 import com.cloudstore.model.File;
 import com.cloudstore.model.Folder;
 import com.cloudstore.model.User;
+import com.cloudstore.repository.FilePageQuery;
 import com.cloudstore.repository.FileRepository;
 import com.cloudstore.repository.FolderRepository;
 import com.cloudstore.repository.UserRepository;
+import com.cloudstore.search.ContentIndex;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.StreamedFile;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import com.cloudinary.Cloudinary;
-import com.cloudinary.utils.ObjectUtils;
 
 @Service
 @RequiredArgsConstructor
 public class FileService {
+    private static final int MAX_BULK_FILES = 1000;
+
     private final FileRepository fileRepository;
     private final UserRepository userRepository;
     private final FolderRepository folderRepository;
-
-    @Value("${file.upload-dir:uploads}")
-    private String uploadDir;
-
-    @Value("${CLOUDINARY_URL:}")
-    private String cloudinaryUrl;
-
+    private final BlobStore blobStore;
+    private final FileStorage fileStorage;
+    private final ExecutorService uploadExecutor;
+    private final ThumbnailService thumbnailService;
+    private final FileNameIndex fileNameIndex;
+    private final ContentSearchService contentSearchService;
+    private final FolderStatsService folderStatsService;
+    private final QuotaService quotaService;
+    private final NotificationService notificationService;
+
+    // The JWT filter already resolved the user; only other principal types need a lookup
     private User getCurrentUser() {
+        Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (principal instanceof User) {
+            return (User) principal;
+        }
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
         return userRepository.findByEmail(email).orElseThrow(() -> new RuntimeException("User not found"));
     }
@@ -55,58 +83,33 @@ public class FileService {
         List<File> files;
         if (folderId.isPresent()) {
             Folder folder = folderRepository.findById(folderId.get()).orElse(null);
-            files = fileRepository.findAllByFolder(folder);
+            files = fileRepository.findAllByFolderAndDeletedFalse(folder);
         } else {
-            files = fileRepository.findAllByUser(user);
+            files = fileRepository.findAllByUserAndDeletedFalse(user);
         }
         return files.stream().map(this::toResponse).collect(Collectors.toList());
     }
 
-    @Transactional
+    @Transactional(rollbackFor = IOException.class)
     public FileResponse uploadFile(MultipartFile multipartFile, Optional<Long> folderId) throws IOException {
         User user = getCurrentUser();
         Folder folder = folderId.flatMap(folderRepository::findById).orElse(null);
-        Path dirPath = Paths.get(uploadDir);
-        if (!Files.exists(dirPath)) {
-            Files.createDirectories(dirPath);
-        }
-        String fileName = System.currentTimeMillis() + "_" + multipartFile.getOriginalFilename();
-        Path filePath = dirPath.resolve(fileName);
-        try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-            fos.write(multipartFile.getBytes());
-        }
-        File file = File.builder()
-                .user(user)
-                .name(multipartFile.getOriginalFilename())
-                .path(filePath.toString())
-                .size(multipartFile.getSize())
-                .favourite(false)
-                .deleted(false)
-                .folder(folder)
-                .build();
-        fileRepository.save(file);
-        
-        return toResponse(file);
+        return toResponse(storeUpload(user, multipartFile, folder));
     }
 
-    @Transactional
+    @Transactional(rollbackFor = IOException.class)
     public List<FileResponse> uploadFiles(MultipartFile[] files, Optional<Long> folderId) throws IOException {
-        List<FileResponse> responses = new java.util.ArrayList<>();
-        for (MultipartFile file : files) {
-            responses.add(uploadFile(file, folderId));
-        }
-        return responses;
-    }
-
-    public byte[] downloadFile(Long fileId) throws IOException {
-        File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
-        return Files.readAllBytes(Paths.get(file.getPath()));
+        return uploadFilesForUser(getCurrentUser(), files, folderId);
     }
 
     @Transactional
     public void deleteFile(Long fileId) {
         File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
+        if (!file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, -1);
+        }
         file.setDeleted(true);
+        file.setDeletedAt(LocalDateTime.now());
         fileRepository.save(file);
     }
 
@@ -129,7 +132,11 @@ public class FileService {
     @Transactional
     public void restoreFile(Long fileId) {
         File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
+        if (file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, 1);
+        }
         file.setDeleted(false);
+        file.setDeletedAt(null);
         fileRepository.save(file);
     }
 
@@ -145,20 +152,20 @@ public class FileService {
         return files.stream().map(this::toResponse).collect(Collectors.toList());
     }
 
-    @Transactional
-    public void permanentlyDeleteFile(Long fileId) {
+    @Transactional(rollbackFor = IOException.class)
+    public void permanentlyDeleteFile(Long fileId) throws IOException {
         File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
+        if (!file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, -1);
+        }
+        quotaService.addAfterCommit(file.getUser().getId(), -sizeOf(file));
         fileRepository.delete(file);
+        fileStorage.release(file);
+        contentSearchService.removeAfterCommit(file.getUser().getId(), List.of(fileId));
     }
 
     public List<FileResponse> searchFilesByName(String query) {
-        User user = getCurrentUser();
-        List<File> files = fileRepository.findAllByUser(user);
-        String lowerQuery = query.toLowerCase();
-        return files.stream()
-            .filter(f -> f.getName() != null && f.getName().toLowerCase().contains(lowerQuery))
-            .map(this::toResponse)
-            .collect(java.util.stream.Collectors.toList());
+        return searchFilesByNameForUser(getCurrentUser(), query, 50);
     }
 
     private FileResponse toResponse(File file) {
@@ -172,11 +179,16 @@ public class FileService {
                 file.getFolder() != null ? file.getFolder().getId() : null,
                 file.getCreatedAt(),
                 file.getUpdatedAt(),
-                file.getUrl(),
-                isCompressed
+                file.getUrl() != null ? file.getUrl() : blobUrl(file),
+                isCompressed,
+                null
         );
     }
 
+    private String blobUrl(File file) {
+        return file.getBlob() != null ? fileStorage.presign(file).orElse(null) : null;
+    }
+
     @Transactional
     public FileResponse registerCloudFile(String name, String url, Long size, String type, Long folderId) {
         User user = getCurrentUser();
@@ -190,7 +202,10 @@ public class FileService {
                 .deleted(false)
                 .folder(folder)
                 .build();
+        QuotaService.Reservation reservation = quotaService.reserve(user.getId(), sizeOf(file));
+        quotaService.settleAfterCompletion(reservation, user.getId(), sizeOf(file));
         fileRepository.save(file);
+        folderStatsService.recordAfterCommit(file, 1);
         return toResponse(file);
     }
 
@@ -199,92 +214,264 @@ public class FileService {
         List<File> files;
         if (folderId.isPresent()) {
             Folder folder = folderRepository.findById(folderId.get()).orElse(null);
-            files = fileRepository.findAllByFolder(folder);
+            files = fileRepository.findAllByFolderAndDeletedFalse(folder);
         } else {
-            files = fileRepository.findAllByUser(user);
+            files = fileRepository.findAllByUserAndDeletedFalse(user);
         }
         return files.stream().map(this::toResponse).collect(Collectors.toList());
     }
 
-    @Transactional
+    // One page of the user's files in a stable order; pass the returned cursor to get the next page
+    @Transactional(readOnly = true)
+    public FilePageResponse listFilesPage(User user, Long folderId, boolean recursive, boolean deleted, Boolean favourite,
+                                          String type, String sort, String direction, String cursor, int limit) {
+        FilePageQuery.Sort sortBy = switch (sort != null ? sort : "createdAt") {
+            case "createdAt" -> FilePageQuery.Sort.CREATED_AT;
+            case "name" -> FilePageQuery.Sort.NAME;
+            case "size" -> FilePageQuery.Sort.SIZE;
+            default -> throw new RuntimeException("Unsupported sort: " + sort);
+        };
+        boolean ascending = direction != null ? "asc".equalsIgnoreCase(direction) : sortBy == FilePageQuery.Sort.NAME;
+        int pageSize = Math.max(1, Math.min(limit, 200));
+        FilePageQuery.FilePageQueryBuilder query = FilePageQuery.builder()
+                .sort(sortBy)
+                .ascending(ascending)
+                .folderId(folderId)
+                .deleted(deleted)
+                .favourite(favourite)
+                .type(type != null && !type.isEmpty() ? type.toLowerCase(Locale.ROOT) : null)
+                .limit(pageSize + 1); // one extra row tells us whether there is a next page
+        if (recursive && folderId != null) {
+            Folder folder = folderRepository.findByIdAndUser(folderId, user).orElseThrow(() -> new RuntimeException("Folder not found"));
+            if (folder.getPath() == null) {
+                throw new RuntimeException("Folder index is not ready yet");
+            }
+            query.subtreePath(folder.getPath());
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            decodeCursor(cursor, sortBy, ascending, query);
+        }
+        List<FileResponse> rows = fileRepository.findPage(user, query.build());
+        boolean hasMore = rows.size() > pageSize;
+        List<FileResponse> items = hasMore ? new ArrayList<>(rows.subList(0, pageSize)) : rows;
+        for (FileResponse item : items) {
+            if (item.getUrl() == null && item.getBlobHash() != null) {
+                item.setUrl(fileStorage.presignBlob(item.getBlobHash()).orElse(null));
+            }
+        }
+        return FilePageResponse.builder()
+                .items(items)
+                .nextCursor(hasMore ? encodeCursor(items.get(items.size() - 1), sortBy, ascending) : null)
+                .build();
+    }
+
+    // Cursor = base64url("<sort>|<asc|desc>|<last sort value>|<last id>"); the value may itself contain '|'
+    static String encodeCursor(FileResponse last, FilePageQuery.Sort sort, boolean ascending) {
+        String value = switch (sort) {
+            case CREATED_AT -> String.valueOf(last.getCreatedAt());
+            case NAME -> last.getName();
+            case SIZE -> String.valueOf(last.getSize() != null ? last.getSize() : 0L);
+        };
+        String raw = sort.name() + "|" + (ascending ? "asc" : "desc") + "|" + value + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void decodeCursor(String cursor, FilePageQuery.Sort sort, boolean ascending,
+                             FilePageQuery.FilePageQueryBuilder query) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int first = raw.indexOf('|');
+            int second = raw.indexOf('|', first + 1);
+            int last = raw.lastIndexOf('|');
+            if (first < 0 || second < 0 || last <= second
+                    || !raw.substring(0, first).equals(sort.name())
+                    || !raw.substring(first + 1, second).equals(ascending ? "asc" : "desc")) {
+                throw new IllegalArgumentException("cursor does not match the requested order");
+            }
+            String value = raw.substring(second + 1, last);
+            query.afterId(Long.parseLong(raw.substring(last + 1)));
+            query.afterValue(switch (sort) {
+                case CREATED_AT -> LocalDateTime.parse(value);
+                case NAME -> value;
+                case SIZE -> Long.parseLong(value);
+            });
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+
+    @Transactional(rollbackFor = IOException.class)
     public List<FileResponse> uploadFilesForUser(User user, MultipartFile[] files, Optional<Long> folderId) throws IOException {
-        List<FileResponse> responses = new java.util.ArrayList<>();
-        for (MultipartFile file : files) {
-            responses.add(uploadFileForUser(user, file, folderId));
+        Folder folder = folderId.flatMap(folderRepository::findById).orElse(null);
+        long declared = 0;
+        for (MultipartFile part : files) {
+            declared += part.getSize();
+        }
+        // Taken before any bytes hit staging; released when the transaction ends either way
+        QuotaService.Reservation reservation = quotaService.reserve(user.getId(), declared);
+        List<StreamedFile> staged;
+        try {
+            staged = stageAll(files);
+        } catch (IOException | RuntimeException e) {
+            reservation.release();
+            throw e;
+        }
+        quotaService.settleAfterCompletion(reservation, user.getId(), staged.stream().mapToLong(StreamedFile::getSize).sum());
+        List<Blob> blobs;
+        try {
+            blobs = blobStore.commitAll(staged, uploadExecutor);
+        } catch (IOException | RuntimeException e) {
+            staged.forEach(blobStore::discard);
+            throw e;
+        }
+        List<File> rows = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            rows.add(newFile(user, files[i].getOriginalFilename(), blobs.get(i), staged.get(i), folder));
         }
-        return responses;
+        // Sequence ids let Hibernate send these as one JDBC batch
+        List<File> saved = fileRepository.saveAll(rows);
+        thumbnailService.generateAfterCommit(saved);
+        contentSearchService.indexAfterCommit(saved);
+        folderStatsService.recordAfterCommit(saved, 1);
+        notificationService.publish(user.getId(), "UPLOAD_COMPLETE",
+                saved.size() == 1 ? "Uploaded " + saved.get(0).getName() : "Uploaded " + saved.size() + " files",
+                saved.size() == 1 ? saved.get(0).getName() : null);
+        return saved.stream().map(this::toResponse).collect(Collectors.toList());
     }
 
-    @Transactional
+    // Stages every part in parallel on the bounded upload pool; on failure nothing is left behind
+    private List<StreamedFile> stageAll(MultipartFile[] files) throws IOException {
+        List<CompletableFuture<StreamedFile>> stages = new ArrayList<>(files.length);
+        for (MultipartFile part : files) {
+            stages.add(CompletableFuture.supplyAsync(() -> {
+                try (InputStream in = part.getInputStream()) {
+                    return blobStore.stage(in);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, uploadExecutor));
+        }
+        List<StreamedFile> staged = new ArrayList<>(files.length);
+        Throwable failure = null;
+        for (CompletableFuture<StreamedFile> stage : stages) {
+            try {
+                staged.add(stage.join());
+            } catch (CompletionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure != null) {
+            staged.forEach(blobStore::discard);
+            if (failure instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) failure).getCause();
+            }
+            throw new RuntimeException("Upload failed: " + failure.getMessage(), failure);
+        }
+        return staged;
+    }
+
+    @Transactional(rollbackFor = IOException.class)
     public FileResponse uploadFileForUser(User user, MultipartFile multipartFile, Optional<Long> folderId) throws IOException {
         Folder folder = folderId.flatMap(folderRepository::findById).orElse(null);
-        Path dirPath = Paths.get(uploadDir);
-        if (!Files.exists(dirPath)) {
-            Files.createDirectories(dirPath);
+        return toResponse(storeUpload(user, multipartFile, folder));
+    }
+
+    // Streams the part into staging, hashing as it goes, then stores it by content hash
+    private File storeUpload(User user, MultipartFile multipartFile, Folder folder) throws IOException {
+        QuotaService.Reservation reservation = quotaService.reserve(user.getId(), multipartFile.getSize());
+        StreamedFile staged;
+        try (InputStream in = multipartFile.getInputStream()) {
+            staged = blobStore.stage(in);
+        } catch (IOException | RuntimeException e) {
+            reservation.release();
+            throw e;
         }
-        String fileName = System.currentTimeMillis() + "_" + multipartFile.getOriginalFilename();
-        Path filePath = dirPath.resolve(fileName);
-        try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-            fos.write(multipartFile.getBytes());
+        File saved = saveStoredFile(user, multipartFile.getOriginalFilename(), staged, folder, reservation);
+        notificationService.publish(user.getId(), "UPLOAD_COMPLETE", "Uploaded " + saved.getName(), saved.getName());
+        return saved;
+    }
+
+    // Registers content that was staged elsewhere (e.g. an assembled chunked upload)
+    @Transactional(rollbackFor = IOException.class)
+    public FileResponse registerStoredFileForUser(User user, String name, StreamedFile staged, Long folderId) throws IOException {
+        Folder folder = folderId != null ? folderRepository.findById(folderId).orElse(null) : null;
+        QuotaService.Reservation reservation;
+        try {
+            reservation = quotaService.reserve(user.getId(), staged.getSize());
+        } catch (QuotaExceededException e) {
+            blobStore.discard(staged);
+            throw e;
         }
-        File file = File.builder()
+        return toResponse(saveStoredFile(user, name, staged, folder, reservation));
+    }
+
+    private File saveStoredFile(User user, String name, StreamedFile staged, Folder folder, QuotaService.Reservation reservation) throws IOException {
+        quotaService.settleAfterCompletion(reservation, user.getId(), staged.getSize());
+        Blob blob;
+        try {
+            blob = blobStore.commit(staged);
+        } catch (IOException | RuntimeException e) {
+            blobStore.discard(staged);
+            throw e;
+        }
+        File saved = fileRepository.save(newFile(user, name, blob, staged, folder));
+        thumbnailService.generateAfterCommit(List.of(saved));
+        contentSearchService.indexAfterCommit(List.of(saved));
+        folderStatsService.recordAfterCommit(saved, 1);
+        return saved;
+    }
+
+    private static long sizeOf(File file) {
+        return file.getSize() != null ? file.getSize() : 0;
+    }
+
+    private File newFile(User user, String name, Blob blob, StreamedFile staged, Folder folder) {
+        return File.builder()
                 .user(user)
-                .name(multipartFile.getOriginalFilename())
-                .path(filePath.toString())
-                .size(multipartFile.getSize())
+                .name(name)
+                .blob(blob)
+                .size(staged.getSize())
+                .checksum(staged.getSha256())
                 .favourite(false)
                 .deleted(false)
                 .folder(folder)
                 .build();
-        fileRepository.save(file);
-        return toResponse(file);
     }
 
-    public byte[] downloadFileByUser(User user, Long fileId) throws IOException {
-        File file = fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
-        
-        // If it's a cloud file (has URL), download from URL
-        if (file.getUrl() != null && !file.getUrl().isEmpty()) {
-            try {
-                java.net.URL url = new java.net.URL(file.getUrl());
-                java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                
-                try (java.io.InputStream inputStream = connection.getInputStream();
-                     java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream()) {
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                    }
-                    return outputStream.toByteArray();
-                }
-            } catch (Exception e) {
-                throw new IOException("Failed to download file from URL: " + e.getMessage());
-            }
-        }
-        
-        // For local files, read from path
-        return Files.readAllBytes(Paths.get(file.getPath()));
+    // Streamable view of a file; Range requests against it are served as ResourceRegions
+    public Resource loadResource(File file) throws IOException {
+        return fileStorage.resource(file);
+    }
+
+    // Direct URL from the storage backend (cloud delivery / presigned), if it offers one
+    public Optional<String> getPublicUrl(File file) {
+        return fileStorage.presign(file);
+    }
+
+    public MediaType getMediaType(File file) {
+        return MediaTypeFactory.getMediaType(file.getName()).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    public File getFileByUser(User user, Long fileId) {
+        return fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
     }
 
     public String getDownloadUrlByUser(User user, Long fileId) {
         File file = fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
         
-        // If it's a cloud file, return the URL directly
-        if (file.getUrl() != null && !file.getUrl().isEmpty()) {
-            return file.getUrl();
-        }
-        
-        // For local files, return a download endpoint URL
+        // Files the backend can't hand out directly are served by the download endpoint
         // This would need to be configured based on your server setup
-        return "/api/files/" + fileId + "/download";
+        return fileStorage.presign(file).orElse("/api/files/" + fileId + "/download");
     }
 
     @Transactional
     public void deleteFileByUser(User user, Long fileId) {
         File file = fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
+        if (!file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, -1);
+        }
         file.setDeleted(true);
+        file.setDeletedAt(LocalDateTime.now());
         fileRepository.save(file);
     }
 
@@ -307,7 +494,11 @@ public class FileService {
     @Transactional
     public void restoreFileByUser(User user, Long fileId) {
         File file = fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
+        if (file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, 1);
+        }
         file.setDeleted(false);
+        file.setDeletedAt(null);
         fileRepository.save(file);
     }
 
@@ -322,19 +513,220 @@ public class FileService {
         return files.stream().map(this::toResponse).collect(Collectors.toList());
     }
 
-    @Transactional
-    public void permanentlyDeleteFileByUser(User user, Long fileId) {
+    @Transactional(rollbackFor = IOException.class)
+    public void permanentlyDeleteFileByUser(User user, Long fileId) throws IOException {
         File file = fileRepository.findByIdAndUser(fileId, user).orElseThrow(() -> new RuntimeException("File not found"));
+        if (!file.isDeleted()) {
+            folderStatsService.recordAfterCommit(file, -1);
+        }
+        quotaService.addAfterCommit(user.getId(), -sizeOf(file));
         fileRepository.delete(file);
+        fileStorage.release(file);
+        contentSearchService.removeAfterCommit(user.getId(), List.of(fileId));
     }
 
-    public List<FileResponse> searchFilesByNameForUser(User user, String query) {
-        List<File> files = fileRepository.findAllByUser(user);
-        String lowerQuery = query.toLowerCase();
-        return files.stream()
-            .filter(f -> f.getName() != null && f.getName().toLowerCase().contains(lowerQuery))
-            .map(this::toResponse)
-            .collect(java.util.stream.Collectors.toList());
+    // Applies one operation to many files with a handful of set-based statements: the rows are
+    // locked and read in one query, the ones that actually change are updated with a single
+    // UPDATE/DELETE ... WHERE id IN (...), and every requested id gets an outcome. Bulk JPQL
+    // bypasses the entity listeners, so the name index, stats and quota hooks are called here.
+    @Transactional(rollbackFor = IOException.class)
+    public BulkFileResponse bulkUpdateForUser(User user, BulkFileRequest request) throws IOException {
+        BulkFileRequest.Operation operation = request.getOperation();
+        if (operation == null) {
+            throw new RuntimeException("Operation is required");
+        }
+        List<Long> requested = request.getFileIds() != null
+                ? request.getFileIds().stream().filter(Objects::nonNull).distinct().collect(Collectors.toList())
+                : List.of();
+        if (requested.size() > MAX_BULK_FILES) {
+            throw new RuntimeException("At most " + MAX_BULK_FILES + " files per request");
+        }
+        Folder target = null;
+        if (operation == BulkFileRequest.Operation.MOVE && request.getFolderId() != null) {
+            target = folderRepository.findByIdAndUser(request.getFolderId(), user)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+        }
+        Long targetId = target != null ? target.getId() : null;
+
+        Map<Long, Object[]> rows = new HashMap<>();
+        if (!requested.isEmpty()) {
+            for (Object[] row : fileRepository.lockForBulk(requested, user.getId())) {
+                rows.put(((Number) row[0]).longValue(), row);
+            }
+        }
+        List<Long> changed = new ArrayList<>();
+        for (Object[] row : rows.values()) {
+            boolean deleted = (Boolean) row[1];
+            boolean favourite = (Boolean) row[2];
+            Long folderId = row[4] != null ? ((Number) row[4]).longValue() : null;
+            boolean changes = switch (operation) {
+                case DELETE -> !deleted;
+                case RESTORE -> deleted;
+                case FAVOURITE -> !favourite;
+                case UNFAVOURITE -> favourite;
+                case MOVE -> !Objects.equals(folderId, targetId);
+                case PERMANENT_DELETE -> true;
+            };
+            if (changes) {
+                changed.add(((Number) row[0]).longValue());
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            Long userId = user.getId();
+            switch (operation) {
+                case DELETE, RESTORE -> {
+                    boolean trash = operation == BulkFileRequest.Operation.DELETE;
+                    fileRepository.bulkSetDeleted(changed, trash, trash ? now : null, now);
+                    for (Long id : changed) {
+                        Object[] row = rows.get(id);
+                        folderStatsService.recordAfterCommit(userId, folderIdOf(row), sizeOf(row), trash ? -1 : 1);
+                        fileNameIndex.fileSaved(userId, id, (String) row[5], trash);
+                    }
+                }
+                case FAVOURITE, UNFAVOURITE ->
+                        fileRepository.bulkSetFavourite(changed, operation == BulkFileRequest.Operation.FAVOURITE, now);
+                case MOVE -> {
+                    fileRepository.bulkMove(changed, target, now);
+                    for (Long id : changed) {
+                        Object[] row = rows.get(id);
+                        if (!(Boolean) row[1]) {
+                            folderStatsService.recordAfterCommit(userId, folderIdOf(row), sizeOf(row), -1);
+                            folderStatsService.recordAfterCommit(userId, targetId, sizeOf(row), 1);
+                        }
+                    }
+                }
+                case PERMANENT_DELETE -> permanentlyDeleteAll(user, changed, rows);
+            }
+        }
+
+        List<BulkFileResult> results = new ArrayList<>(requested.size());
+        int updated = 0;
+        int unchanged = 0;
+        Set<Long> changedIds = new HashSet<>(changed);
+        for (Long id : requested) {
+            BulkFileResult.Status status;
+            if (!rows.containsKey(id)) {
+                status = BulkFileResult.Status.NOT_FOUND;
+            } else if (changedIds.contains(id)) {
+                status = BulkFileResult.Status.UPDATED;
+                updated++;
+            } else {
+                status = BulkFileResult.Status.UNCHANGED;
+                unchanged++;
+            }
+            results.add(new BulkFileResult(id, status));
+        }
+        return BulkFileResponse.builder()
+                .operation(operation)
+                .updated(updated)
+                .unchanged(unchanged)
+                .notFound(requested.size() - updated - unchanged)
+                .results(results)
+                .build();
+    }
+
+    // Blob references are dropped in one batch and the bodies left for the reclaimer's sweep;
+    // the rare legacy rows without a blob still go through FileStorage one by one
+    private void permanentlyDeleteAll(User user, List<Long> ids, Map<Long, Object[]> rows) throws IOException {
+        Map<String, Long> blobRefs = new HashMap<>();
+        List<Long> legacy = new ArrayList<>();
+        long bytes = 0;
+        for (Long id : ids) {
+            Object[] row = rows.get(id);
+            if (row[6] != null) {
+                blobRefs.merge((String) row[6], 1L, Long::sum);
+            } else {
+                legacy.add(id);
+            }
+            if (!(Boolean) row[1]) {
+                folderStatsService.recordAfterCommit(user.getId(), folderIdOf(row), sizeOf(row), -1);
+            }
+            fileNameIndex.fileRemoved(user.getId(), id);
+            bytes += sizeOf(row);
+        }
+        for (File file : legacy.isEmpty() ? List.<File>of() : fileRepository.findAllById(legacy)) {
+            fileStorage.releaseDeferred(file);
+        }
+        fileRepository.bulkDelete(ids);
+        blobStore.releaseAllDeferred(blobRefs);
+        quotaService.addAfterCommit(user.getId(), -bytes);
+        contentSearchService.removeAfterCommit(user.getId(), ids);
+    }
+
+    private static Long folderIdOf(Object[] row) {
+        return row[4] != null ? ((Number) row[4]).longValue() : null;
+    }
+
+    private static long sizeOf(Object[] row) {
+        return row[3] != null ? ((Number) row[3]).longValue() : 0;
+    }
+
+    // Deletes trashed rows for the reclaimer; bodies are left for its blob sweep rather than deleted
+    // here, so a large purge doesn't turn into a burst of storage deletes. Returns how many rows went.
+    @Transactional(rollbackFor = IOException.class)
+    public int purgeTrash(List<Long> fileIds) throws IOException {
+        int purged = 0;
+        Map<Long, List<Long>> removedByUser = new HashMap<>();
+        for (File file : fileRepository.findAllById(fileIds)) {
+            if (!file.isDeleted()) {
+                continue; // restored since it was selected
+            }
+            Long userId = file.getUser().getId();
+            quotaService.addAfterCommit(userId, -sizeOf(file));
+            fileRepository.delete(file);
+            fileStorage.releaseDeferred(file);
+            removedByUser.computeIfAbsent(userId, id -> new ArrayList<>()).add(file.getId());
+            purged++;
+        }
+        removedByUser.forEach(contentSearchService::removeAfterCommit);
+        return purged;
+    }
+
+    // Current state of the given files, trashed ones included; ids that are gone are left out
+    public List<FileResponse> describeFilesForUser(User user, Collection<Long> fileIds) {
+        if (fileIds.isEmpty()) {
+            return List.of();
+        }
+        return fileRepository.findAllByIdInAndUser(fileIds, user).stream().map(this::toResponse).collect(Collectors.toList());
+    }
+
+    // Ranked by the in-memory name index; only the top matches are loaded
+    public List<FileResponse> searchFilesByNameForUser(User user, String query, int limit) {
+        List<Long> ids = fileNameIndex.search(user.getId(), query, Math.max(1, Math.min(limit, 200)));
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, File> byId = fileRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(File::getId, Function.identity()));
+        return ids.stream()
+                .map(byId::get)
+                .filter(f -> f != null && !f.isDeleted())
+                .map(this::toResponse)
+                .collect(Collectors.toList());
+    }
+
+    // Ranked by the content index; trashed files stay indexed until permanently deleted, so over-fetch
+    public List<ContentSearchResult> searchFileContentsForUser(User user, String query, int limit) {
+        int capped = Math.max(1, Math.min(limit, 100));
+        List<ContentIndex.Hit> hits = contentSearchService.search(user.getId(), query, capped * 2);
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, File> byId = fileRepository.findAllById(hits.stream().map(ContentIndex.Hit::getFileId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(File::getId, Function.identity()));
+        return hits.stream()
+                .filter(hit -> byId.containsKey(hit.getFileId()) && !byId.get(hit.getFileId()).isDeleted())
+                .limit(capped)
+                .map(hit -> ContentSearchResult.builder()
+                        .file(toResponse(byId.get(hit.getFileId())))
+                        .score(hit.getScore())
+                        .snippet(hit.getSnippet())
+                        .highlights(hit.getHighlights())
+                        .build())
+                .collect(Collectors.toList());
     }
 
     @Transactional
@@ -344,7 +736,6 @@ public class FileService {
         File file = File.builder()
                 .user(user)
                 .name(name)
-                .path("cloud://" + url) // Set a dummy path for cloud files
                 .url(url)
                 .size(size)
                 .favourite(false)
@@ -352,7 +743,12 @@ public class FileService {
                 .folder(folder)
                 .build();
         
+        QuotaService.Reservation reservation = quotaService.reserve(user.getId(), sizeOf(file));
+        quotaService.settleAfterCompletion(reservation, user.getId(), sizeOf(file));
         File savedFile = fileRepository.save(file);
+        thumbnailService.generateAfterCommit(List.of(savedFile));
+        contentSearchService.indexAfterCommit(List.of(savedFile));
+        folderStatsService.recordAfterCommit(savedFile, 1);
         return toResponse(savedFile);
     }
 
@@ -361,119 +757,4 @@ public class FileService {
             .filter(file -> !file.isDeleted()) // Only return non-deleted files
             .orElse(null);
     }
-
-    private Cloudinary getCloudinary() {
-        if (cloudinaryUrl != null && !cloudinaryUrl.isEmpty()) {
-            return new Cloudinary(cloudinaryUrl);
-        }
-        // fallback to explicit config if env var is not set
-        return new Cloudinary(ObjectUtils.asMap(
-            "cloud_name", "ds5gugfv0",
-            "api_key", "735146938571227",
-            "api_secret", "ywd7M8seRHCTf4YG6liBeN8Bw3E"
-        ));
-    }
-
-    public CompressionResponse compressFile(User user, Long fileId, CompressionRequest request) {
-        File originalFile = fileRepository.findByIdAndUser(fileId, user)
-                .orElseThrow(() -> new RuntimeException("File not found"));
-        String originalName = originalFile.getName();
-        String extension = originalName.contains(".") ? originalName.substring(originalName.lastIndexOf('.') + 1).toLowerCase() : "";
-        String type = request.getType();
-        try {
-            byte[] fileData = downloadFileByUser(user, fileId);
-            byte[] compressedData;
-            String compressedName;
-            String format = request.getFormat();
-            float quality = request.getQuality() != null ? request.getQuality() : 0.7f;
-            int bitrate = request.getBitrate() != null ? request.getBitrate() : 1000; // kbps default
-            if ("image".equalsIgnoreCase(type)) {
-                String usedFormat = (format != null && !format.isEmpty()) ? format : extension;
-                int dotIndex = originalName.lastIndexOf('.');
-                if (dotIndex != -1) {
-                    compressedName = originalName.substring(0, dotIndex) + "_compressed." + usedFormat;
-                } else {
-                    compressedName = originalName + "_compressed." + usedFormat;
-                }
-                java.io.ByteArrayInputStream bais = new java.io.ByteArrayInputStream(fileData);
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                net.coobird.thumbnailator.Thumbnails.of(bais)
-                    .scale(1.0)
-                    .outputQuality(quality)
-                    .outputFormat(usedFormat)
-                    .toOutputStream(baos);
-                compressedData = baos.toByteArray();
-                format = usedFormat;
-            } else if ("video".equalsIgnoreCase(type)) {
-                String usedFormat = (format != null && !format.isEmpty()) ? format : extension;
-                int dotIndex = originalName.lastIndexOf('.');
-                if (dotIndex != -1) {
-                    compressedName = originalName.substring(0, dotIndex) + "_compressed." + usedFormat;
-                } else {
-                    compressedName = originalName + "_compressed." + usedFormat;
-                }
-                java.nio.file.Path tempInput = java.nio.file.Files.createTempFile("video_input", "." + extension);
-                java.nio.file.Path tempOutput = java.nio.file.Files.createTempFile("video_output", "." + usedFormat);
-                java.nio.file.Files.write(tempInput, fileData);
-                String bitrateStr = bitrate + "k";
-                ProcessBuilder pb = new ProcessBuilder(
-                    "ffmpeg", "-y", "-i", tempInput.toString(), "-b:v", bitrateStr, tempOutput.toString()
-                );
-                pb.redirectErrorStream(true);
-                Process process = pb.start();
-                process.waitFor();
-                compressedData = java.nio.file.Files.readAllBytes(tempOutput);
-                java.nio.file.Files.deleteIfExists(tempInput);
-                java.nio.file.Files.deleteIfExists(tempOutput);
-                format = usedFormat;
-            } else if ("archive".equalsIgnoreCase(type)) {
-                int dotIndex = originalName.lastIndexOf('.');
-                if (dotIndex != -1) {
-                    compressedName = originalName.substring(0, dotIndex) + "_compressed.zip";
-                } else {
-                    compressedName = originalName + "_compressed.zip";
-                }
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                java.util.zip.ZipOutputStream zos = new java.util.zip.ZipOutputStream(baos);
-                zos.putNextEntry(new java.util.zip.ZipEntry(originalName));
-                zos.write(fileData);
-                zos.closeEntry();
-                zos.close();
-                compressedData = baos.toByteArray();
-                format = "zip";
-            } else {
-                throw new RuntimeException("Unsupported compression type");
-            }
-            // Upload compressed file to Cloudinary
-            Cloudinary cloudinary = getCloudinary();
-            java.util.Map uploadResult = cloudinary.uploader().upload(compressedData, ObjectUtils.asMap(
-                "resource_type", "auto",
-                "public_id", compressedName
-            ));
-            String fileUrl = (String) uploadResult.get("secure_url");
-            File compressedFile = File.builder()
-                    .user(user)
-                    .name(compressedName)
-                    .url(fileUrl)
-                    .size((long) compressedData.length)
-                    .favourite(false)
-                    .deleted(false)
-                    .folder(originalFile.getFolder())
-                    .path(null)
-                    .build();
-            fileRepository.save(compressedFile);
-            double compressionRatio = ((double) (originalFile.getSize() - compressedData.length) / originalFile.getSize()) * 100;
-            return CompressionResponse.builder()
-                    .id(compressedFile.getId())
-                    .name(compressedFile.getName())
-                    .url(compressedFile.getUrl())
-                    .originalSize(originalFile.getSize())
-                    .compressedSize(compressedFile.getSize())
-                    .compressionRatio(compressionRatio)
-                    .format(format)
-                    .build();
-        } catch (Exception e) {
-            throw new RuntimeException("Compression failed: " + e.getMessage());
-        }
-    }
 } 
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.cloudstore.service;
 
 import com.cloudstore.dto.CreateFolderRequest;
 import com.cloudstore.dto.FolderResponse;
+import com.cloudstore.dto.FolderTreeNode;
 import com.cloudstore.model.Folder;
 import com.cloudstore.model.User;
 import com.cloudstore.repository.FolderRepository;
@@ -12,7 +13,13 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -48,13 +55,20 @@ public class FolderService {
     public FolderResponse createFolder(CreateFolderRequest request) {
         try {
             User user = getCurrentUser();
-            Folder parent = request.getParentId() != null ? folderRepository.findById(request.getParentId()).orElse(null) : null;
+            // A concurrent move of the parent would otherwise leave the new path pointing at its old place
+            folderRepository.lockTree(user.getId());
+            Folder parent = request.getParentId() != null
+                    ? folderRepository.findByIdAndUser(request.getParentId(), user).orElseThrow(() -> new RuntimeException("Parent folder not found"))
+                    : null;
             Folder folder = Folder.builder()
                     .user(user)
                     .name(request.getName())
                     .parent(parent)
                     .build();
             folderRepository.save(folder);
+            // The path ends with our own id, which the insert has just assigned
+            folder.setPath((parent != null ? pathOf(parent) : "/") + folder.getId() + "/");
+            folder.setDepth(parent != null ? parent.getDepth() + 1 : 0);
             return toResponse(folder);
         } catch (Exception e) {
             throw new RuntimeException("Failed to create folder: " + e.getMessage(), e);
@@ -75,13 +89,144 @@ public class FolderService {
         folderRepository.delete(folder);
     }
 
+    // Everything below the folder in one range scan, parents before children
+    public List<FolderResponse> listSubtree(Long id) {
+        User user = getCurrentUser();
+        Folder folder = folderRepository.findByIdAndUser(id, user).orElseThrow(() -> new RuntimeException("Folder not found"));
+        String path = pathOf(folder);
+        return folderRepository.findDescendants(user, path, Folder.subtreeEnd(path)).stream()
+                .map(this::toResponse)
+                .collect(Collectors.toList());
+    }
+
+    // Ancestors from the top-level folder down to this one, read from the ids in its path
+    public List<FolderResponse> breadcrumbs(Long id) {
+        User user = getCurrentUser();
+        Folder folder = folderRepository.findByIdAndUser(id, user).orElseThrow(() -> new RuntimeException("Folder not found"));
+        List<Long> ids = pathIds(pathOf(folder));
+        Map<Long, Folder> byId = new HashMap<>();
+        folderRepository.findAllByIdInAndUser(ids, user).forEach(f -> byId.put(f.getId(), f));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).map(this::toResponse).collect(Collectors.toList());
+    }
+
+    // The user's whole hierarchy from a single query
+    public List<FolderTreeNode> getTree() {
+        User user = getCurrentUser();
+        Map<Long, FolderTreeNode> nodes = new HashMap<>();
+        List<FolderTreeNode> roots = new ArrayList<>();
+        for (Folder folder : folderRepository.findAllByUserOrderByPathAsc(user)) {
+            Long parentId = folder.getParent() != null ? folder.getParent().getId() : null;
+            FolderTreeNode node = FolderTreeNode.builder()
+                    .id(folder.getId())
+                    .name(folder.getName())
+                    .parentId(parentId)
+                    .createdAt(folder.getCreatedAt())
+                    .updatedAt(folder.getUpdatedAt())
+                    .totalSize(folder.getTotalSize())
+                    .fileCount(folder.getFileCount())
+                    .children(new ArrayList<>())
+                    .build();
+            nodes.put(folder.getId(), node);
+            FolderTreeNode parent = parentId != null ? nodes.get(parentId) : null;
+            if (parent != null) {
+                parent.getChildren().add(node);
+            } else {
+                roots.add(node);
+            }
+        }
+        return roots;
+    }
+
+    // Moves a folder (and everything under it) below a new parent, or to the top level when parentId is null
+    @Transactional
+    public FolderResponse moveFolder(Long id, Long parentId) {
+        User user = getCurrentUser();
+        folderRepository.lockTree(user.getId());
+        Folder folder = folderRepository.findByIdAndUser(id, user).orElseThrow(() -> new RuntimeException("Folder not found"));
+        Folder parent = parentId != null
+                ? folderRepository.findByIdAndUser(parentId, user).orElseThrow(() -> new RuntimeException("Target folder not found"))
+                : null;
+        String oldPath = pathOf(folder);
+        if (parent != null && pathOf(parent).startsWith(oldPath)) {
+            throw new RuntimeException("Cannot move a folder into itself or one of its subfolders");
+        }
+        String newPath = (parent != null ? pathOf(parent) : "/") + folder.getId() + "/";
+        int newDepth = parent != null ? parent.getDepth() + 1 : 0;
+        int depthDelta = newDepth - folder.getDepth();
+
+        // The folder's totals leave the ancestors it no longer has and join the new ones
+        List<Long> oldAncestors = ancestorIds(oldPath, folder.getId());
+        List<Long> newAncestors = ancestorIds(newPath, folder.getId());
+        List<Long> leaving = new ArrayList<>(oldAncestors);
+        leaving.removeAll(newAncestors);
+        List<Long> joining = new ArrayList<>(newAncestors);
+        joining.removeAll(oldAncestors);
+        long totalSize = folder.getTotalSize();
+        long fileCount = folder.getFileCount();
+
+        folder.setParent(parent);
+        folder.setPath(newPath);
+        folder.setDepth(newDepth);
+        folderRepository.save(folder);
+        folderRepository.moveDescendants(user, oldPath, Folder.subtreeEnd(oldPath), newPath, oldPath.length(), depthDelta);
+        if (!leaving.isEmpty()) {
+            folderRepository.addToTotals(leaving, -totalSize, -fileCount);
+        }
+        if (!joining.isEmpty()) {
+            folderRepository.addToTotals(joining, totalSize, fileCount);
+        }
+        return toResponse(folder);
+    }
+
+    private static List<Long> pathIds(String path) {
+        return Arrays.stream(path.split("/"))
+                .filter(part -> !part.isEmpty())
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ancestorIds(String path, Long self) {
+        List<Long> ids = pathIds(path);
+        ids.remove(self);
+        return ids;
+    }
+
+    // Paths are backfilled at startup; this only covers a folder whose ancestors were never indexed
+    String pathOf(Folder folder) {
+        if (folder.getPath() == null) {
+            List<Folder> chain = new ArrayList<>();
+            for (Folder current = folder; current != null; current = current.getParent()) {
+                chain.add(0, current);
+                if (chain.size() > 1000) {
+                    throw new RuntimeException("Folder hierarchy contains a cycle");
+                }
+            }
+            StringBuilder path = new StringBuilder("/");
+            for (int depth = 0; depth < chain.size(); depth++) {
+                path.append(chain.get(depth).getId()).append('/');
+                chain.get(depth).setPath(path.toString());
+                chain.get(depth).setDepth(depth);
+            }
+        }
+        return folder.getPath();
+    }
+
+    public List<FolderResponse> describeFoldersForUser(User user, Collection<Long> folderIds) {
+        if (folderIds.isEmpty()) {
+            return List.of();
+        }
+        return folderRepository.findAllByIdInAndUser(folderIds, user).stream().map(this::toResponse).collect(Collectors.toList());
+    }
+
     private FolderResponse toResponse(Folder folder) {
         return new FolderResponse(
                 folder.getId(),
                 folder.getName(),
                 folder.getParent() != null ? folder.getParent().getId() : null,
                 folder.getCreatedAt(),
-                folder.getUpdatedAt()
+                folder.getUpdatedAt(),
+                folder.getTotalSize(),
+                folder.getFileCount()
         );
     }
 
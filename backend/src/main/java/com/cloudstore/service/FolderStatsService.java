@@ -0,0 +1,163 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.repository.FolderRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Keeps Folder.totalSize / fileCount (everything below the folder) up to date without
+// summing files on read. Changes are recorded per file's own folder once the transaction
+// commits, coalesced in memory and flushed in one batch; the flush adds each delta to every
+// ancestor named in the folder's path. Flushes and folder moves take the same per-user lock,
+// so a delta is always applied along the path the folder has at that moment. A periodic
+// reconciliation recomputes the totals from the files table and repairs any drift (e.g.
+// deltas lost in a crash).
+@Service
+public class FolderStatsService {
+    // Adds to the folder itself and every ancestor listed in its path
+    private static final String APPLY_DELTA =
+            "UPDATE folders SET total_size = total_size + ?, file_count = file_count + ? WHERE id IN ("
+                    + "SELECT unnest(string_to_array(trim(both '/' from path), '/'))::bigint FROM folders WHERE id = ?)";
+
+    private static final String RECONCILE =
+            "WITH leaf AS ("
+                    + " SELECT folder_id, SUM(COALESCE(size, 0)) AS size, COUNT(*) AS files FROM files"
+                    + " WHERE user_id = ? AND deleted = false AND folder_id IS NOT NULL GROUP BY folder_id),"
+                    + " expanded AS ("
+                    + " SELECT unnest(string_to_array(trim(both '/' from f.path), '/'))::bigint AS id, leaf.size, leaf.files"
+                    + " FROM leaf JOIN folders f ON f.id = leaf.folder_id),"
+                    + " totals AS (SELECT id, SUM(size) AS size, SUM(files) AS files FROM expanded GROUP BY id)"
+                    + " UPDATE folders SET total_size = COALESCE(t.size, 0), file_count = COALESCE(t.files, 0)"
+                    + " FROM folders x LEFT JOIN totals t ON t.id = x.id"
+                    + " WHERE folders.id = x.id AND folders.user_id = ? AND folders.path IS NOT NULL"
+                    + " AND (folders.total_size <> COALESCE(t.size, 0) OR folders.file_count <> COALESCE(t.files, 0))";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // user id -> (folder id -> {size delta, count delta}); inner maps are only touched inside compute()
+    private final ConcurrentHashMap<Long, Map<Long, long[]>> pending = new ConcurrentHashMap<>();
+
+    public FolderStatsService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // sign is +1 when the file starts counting (upload, restore) and -1 when it stops (trash, delete)
+    public void recordAfterCommit(File file, int sign) {
+        if (file.getFolder() == null) {
+            return;
+        }
+        Long userId = file.getUser().getId();
+        Long folderId = file.getFolder().getId();
+        long size = file.getSize() != null ? file.getSize() : 0;
+        afterCommit(() -> add(userId, folderId, sign * size, sign));
+    }
+
+    public void recordAfterCommit(List<File> files, int sign) {
+        files.forEach(file -> recordAfterCommit(file, sign));
+    }
+
+    // For bulk updates that never load the File entities
+    public void recordAfterCommit(Long userId, Long folderId, long size, int sign) {
+        if (folderId != null) {
+            afterCommit(() -> add(userId, folderId, sign * size, sign));
+        }
+    }
+
+    private void add(Long userId, Long folderId, long size, long count) {
+        pending.compute(userId, (id, deltas) -> {
+            Map<Long, long[]> map = deltas != null ? deltas : new HashMap<>();
+            long[] delta = map.computeIfAbsent(folderId, f -> new long[2]);
+            delta[0] += size;
+            delta[1] += count;
+            return map;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${folders.stats.flush-ms:2000}")
+    public synchronized void flush() {
+        // Sorted so concurrent lockers always take user locks in the same order
+        TreeMap<Long, Map<Long, long[]>> drained = new TreeMap<>();
+        for (Long userId : new ArrayList<>(pending.keySet())) {
+            Map<Long, long[]> deltas = pending.remove(userId);
+            if (deltas != null) {
+                drained.put(userId, deltas);
+            }
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        drained.values().forEach(deltas -> deltas.forEach((folderId, delta) -> {
+            if (delta[0] != 0 || delta[1] != 0) {
+                batch.add(new Object[]{delta[0], delta[1], folderId});
+            }
+        }));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                drained.keySet().forEach(this::lockUser);
+                jdbcTemplate.batchUpdate(APPLY_DELTA, batch);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("Folder stats flush failed, will retry: " + e.getMessage());
+            drained.forEach((userId, deltas) -> deltas.forEach((folderId, delta) -> add(userId, folderId, delta[0], delta[1])));
+        }
+    }
+
+    // Recomputes every user's folder totals from the files table, one user per transaction
+    @Scheduled(initialDelayString = "${folders.stats.reconcile-initial-delay-ms:60000}",
+            fixedDelayString = "${folders.stats.reconcile-ms:21600000}")
+    public void reconcile() {
+        List<Long> userIds = jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM folders WHERE user_id IS NOT NULL", Long.class);
+        int repaired = 0;
+        for (Long userId : userIds) {
+            try {
+                repaired += reconcileUser(userId);
+            } catch (RuntimeException e) {
+                System.out.println("Folder stats reconciliation failed for user " + userId + ": " + e.getMessage());
+            }
+        }
+        if (repaired > 0) {
+            System.out.println("Folder stats reconciliation repaired " + repaired + " folders");
+        }
+    }
+
+    private synchronized int reconcileUser(Long userId) {
+        AtomicReference<Map<Long, long[]>> discarded = new AtomicReference<>();
+        try {
+            Integer repaired = transactionTemplate.execute(status -> {
+                lockUser(userId);
+                // Pending deltas belong to transactions that already committed, so the recount below includes
+                // them. A commit whose delta is registered only after this point is counted twice until the next run.
+                discarded.set(pending.remove(userId));
+                return jdbcTemplate.update(RECONCILE, userId, userId);
+            });
+            return repaired != null ? repaired : 0;
+        } catch (RuntimeException e) {
+            if (discarded.get() != null) {
+                discarded.get().forEach((folderId, delta) -> add(userId, folderId, delta[0], delta[1]));
+            }
+            throw e;
+        }
+    }
+
+    // Same lock as FolderRepository.lockTree, which folder moves hold
+    private void lockUser(Long userId) {
+        jdbcTemplate.queryForObject("SELECT 1 FROM (SELECT pg_advisory_xact_lock(?, ?)) l", Integer.class,
+                FolderRepository.TREE_LOCK_NAMESPACE, FolderRepository.treeLockKey(userId));
+    }
+}
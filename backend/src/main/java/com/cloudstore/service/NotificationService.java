@@ -0,0 +1,343 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.NotificationPageResponse;
+import com.cloudstore.dto.NotificationResponse;
+import com.cloudstore.model.Notification;
+import com.cloudstore.repository.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// In-app notifications. Producers publish after their transaction commits into a bounded
+// in-memory buffer (never blocking the request), which is written to the notifications table
+// in batches and then pushed to the user's open Server-Sent Events streams. Each stream has its
+// own small queue drained by a shared pool; a client that falls behind is disconnected rather
+// than buffered without limit, and catches up from the table when it reconnects (Last-Event-ID),
+// in pages, before it is registered for live events.
+@Service
+public class NotificationService {
+    private static final Object HEARTBEAT = new Object();
+    private static final int REPLAY_PAGE_SIZE = 100;
+
+    private final NotificationRepository notificationRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${notifications.buffer-size:10000}")
+    private int bufferSize;
+
+    @Value("${notifications.batch-size:500}")
+    private int batchSize;
+
+    @Value("${notifications.push-workers:2}")
+    private int pushWorkers;
+
+    @Value("${notifications.stream-queue-size:64}")
+    private int streamQueueSize;
+
+    @Value("${notifications.max-replay:1000}")
+    private int maxReplay;
+
+    @Value("${notifications.max-streams-per-user:5}")
+    private int maxStreamsPerUser;
+
+    @Value("${notifications.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    private ArrayBlockingQueue<Notification> buffer;
+    private ThreadPoolExecutor pusher;
+    private final ConcurrentHashMap<Long, CopyOnWriteArrayList<Subscriber>> streams = new ConcurrentHashMap<>();
+
+    public NotificationService(NotificationRepository notificationRepository, JdbcTemplate jdbcTemplate) {
+        this.notificationRepository = notificationRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void start() {
+        buffer = new ArrayBlockingQueue<>(bufferSize);
+        AtomicInteger threads = new AtomicInteger();
+        pusher = new ThreadPoolExecutor(pushWorkers, pushWorkers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10000),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "notification-push-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // The stream would otherwise never be drained again; drop it and let the client reconnect
+                (runnable, pool) -> ((Drain) runnable).stream.close());
+    }
+
+    @PreDestroy
+    void stop() {
+        flush();
+        pusher.shutdownNow();
+        streams.values().forEach(list -> list.forEach(Subscriber::close));
+    }
+
+    public void publish(Long userId, String type, String message, String fileName) {
+        Notification notification = Notification.builder()
+                .userId(userId)
+                .type(type)
+                .message(message.length() > 500 ? message.substring(0, 500) : message)
+                .fileName(fileName != null && fileName.length() > 255 ? fileName.substring(0, 255) : fileName)
+                .createdAt(LocalDateTime.now())
+                .build();
+        afterCommit(() -> {
+            if (!buffer.offer(notification)) {
+                System.out.println("Notification buffer full, dropping notification for user " + userId);
+            }
+        });
+    }
+
+    // Ids come from the table's sequence up front so one JDBC batch can insert the rows and the
+    // pushed events carry the same ids clients later mark as read
+    @Scheduled(fixedDelayString = "${notifications.flush-ms:500}")
+    public synchronized void flush() {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            try {
+                List<Long> ids = jdbcTemplate.queryForList(
+                        "SELECT nextval(pg_get_serial_sequence('notifications', 'id')) FROM generate_series(1, ?)",
+                        Long.class, batch.size());
+                List<Object[]> rows = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    Notification n = batch.get(i);
+                    n.setId(ids.get(i));
+                    rows.add(new Object[]{n.getId(), n.getUserId(), n.getMessage(), n.getType(), n.getFileName(),
+                            Timestamp.valueOf(n.getCreatedAt())});
+                }
+                jdbcTemplate.batchUpdate("INSERT INTO notifications (id, user_id, message, type, file_name, is_read, created_at)"
+                        + " VALUES (?, ?, ?, ?, ?, false, ?)", rows);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to write " + batch.size() + " notifications: " + e.getMessage());
+                batch.clear();
+                continue;
+            }
+            for (Notification notification : batch) {
+                List<Subscriber> open = streams.get(notification.getUserId());
+                if (open != null) {
+                    NotificationResponse response = toResponse(notification);
+                    open.forEach(stream -> stream.offer(response));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    public SseEmitter subscribe(Long userId, Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Subscriber stream = new Subscriber(userId, emitter, streamQueueSize);
+        emitter.onCompletion(stream::close);
+        emitter.onTimeout(stream::close);
+        emitter.onError(error -> stream.close());
+        if (lastEventId == null) {
+            register(stream);
+            return emitter;
+        }
+        // Missed notifications are sent before the stream is registered, so live ones cannot overtake
+        // them. The last page is read under the flush lock: anything written after it is pushed live.
+        try {
+            long after = replay(stream, lastEventId, maxReplay);
+            boolean registered = false;
+            if (stream.replayed < maxReplay) {
+                synchronized (this) {
+                    replay(stream, after, maxReplay - stream.replayed);
+                    if (stream.replayed < maxReplay) {
+                        register(stream);
+                        registered = true;
+                    }
+                }
+            }
+            if (!registered) {
+                stream.close(); // missed more than one replay holds; the client reconnects from the last one sent
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+        }
+        return emitter;
+    }
+
+    // Sends up to `limit` notifications after the given id, in pages, and returns the last id sent
+    private long replay(Subscriber stream, long after, int limit) throws IOException {
+        int sent = 0;
+        while (sent < limit) {
+            int pageSize = Math.min(limit - sent, REPLAY_PAGE_SIZE);
+            List<Notification> page = notificationRepository.findByUserIdAndIdGreaterThanOrderByIdAsc(stream.userId, after,
+                    PageRequest.of(0, pageSize));
+            for (Notification missed : page) {
+                send(stream.emitter, toResponse(missed));
+                after = missed.getId();
+            }
+            sent += page.size();
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+        stream.replayed += sent;
+        return after;
+    }
+
+    private void register(Subscriber stream) {
+        List<Subscriber> evicted = new ArrayList<>();
+        streams.compute(stream.userId, (id, list) -> {
+            CopyOnWriteArrayList<Subscriber> open = list != null ? list : new CopyOnWriteArrayList<>();
+            open.add(stream);
+            // Oldest connections go first when a user opens too many
+            while (open.size() > maxStreamsPerUser) {
+                evicted.add(open.remove(0));
+            }
+            return open;
+        });
+        evicted.forEach(Subscriber::close);
+    }
+
+    private static void send(SseEmitter emitter, NotificationResponse notification) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(String.valueOf(notification.getId()))
+                .name("notification")
+                .data(notification));
+    }
+
+    // Keeps idle connections open through proxies and notices clients that went away
+    @Scheduled(fixedDelayString = "${notifications.heartbeat-ms:25000}")
+    public void heartbeat() {
+        streams.values().forEach(list -> list.forEach(stream -> stream.offer(HEARTBEAT)));
+    }
+
+    public NotificationPageResponse list(Long userId, Long before, boolean unreadOnly, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, 100));
+        List<Notification> rows = notificationRepository.findPage(userId, before != null ? before : Long.MAX_VALUE,
+                unreadOnly, PageRequest.of(0, pageSize + 1));
+        boolean hasMore = rows.size() > pageSize;
+        List<Notification> items = hasMore ? rows.subList(0, pageSize) : rows;
+        return NotificationPageResponse.builder()
+                .items(items.stream().map(this::toResponse).collect(Collectors.toList()))
+                .nextBefore(hasMore ? items.get(items.size() - 1).getId() : null)
+                .unreadCount(notificationRepository.countByUserIdAndReadFalse(userId))
+                .build();
+    }
+
+    @Transactional
+    public int markRead(Long userId, Collection<Long> ids) {
+        return ids == null || ids.isEmpty() ? 0 : notificationRepository.markRead(userId, ids);
+    }
+
+    @Transactional
+    public int markAllRead(Long userId) {
+        return notificationRepository.markAllRead(userId);
+    }
+
+    @Transactional
+    public void delete(Long userId, Long id) {
+        if (notificationRepository.deleteByUserIdAndId(userId, id) == 0) {
+            throw new RuntimeException("Notification not found");
+        }
+    }
+
+    private NotificationResponse toResponse(Notification notification) {
+        return NotificationResponse.builder()
+                .id(notification.getId())
+                .type(notification.getType())
+                .message(notification.getMessage())
+                .fileName(notification.getFileName())
+                .read(notification.isRead())
+                .createdAt(notification.getCreatedAt())
+                .build();
+    }
+
+    // One open SSE connection: a bounded queue, and at most one drain task scheduled at a time
+    private final class Subscriber {
+        final Long userId;
+        final SseEmitter emitter;
+        final ArrayBlockingQueue<Object> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        int replayed; // only touched by the subscribing request
+
+        Subscriber(Long userId, SseEmitter emitter, int capacity) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void offer(Object event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                if (event != HEARTBEAT) {
+                    close(); // too slow to keep up; it reloads from the table on reconnect
+                }
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                pusher.execute(new Drain(this));
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                streams.computeIfPresent(userId, (id, list) -> {
+                    list.remove(this);
+                    return list.isEmpty() ? null : list;
+                });
+                queue.clear();
+                try {
+                    emitter.complete();
+                } catch (RuntimeException ignored) {
+                    // already completed by the container
+                }
+            }
+        }
+    }
+
+    private static final class Drain implements Runnable {
+        final Subscriber stream;
+
+        Drain(Subscriber stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void run() {
+            do {
+                Object event;
+                try {
+                    while (!stream.closed.get() && (event = stream.queue.poll()) != null) {
+                        if (event == HEARTBEAT) {
+                            stream.emitter.send(SseEmitter.event().comment("ping"));
+                        } else {
+                            send(stream.emitter, (NotificationResponse) event);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    stream.close();
+                }
+                stream.scheduled.set(false);
+                // Anything offered after the loop saw an empty queue but before the flag cleared
+            } while (!stream.queue.isEmpty() && !stream.closed.get() && stream.scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.cloudstore.service;
+
+// Thrown when a write would take a user past their plan's storage limit; mapped to 413
+public class QuotaExceededException extends RuntimeException {
+    public QuotaExceededException(long requested, long used, long limit) {
+        super("Storage quota exceeded: " + requested + " bytes requested, " + used + " of " + limit + " bytes in use");
+    }
+}
@@ -0,0 +1,240 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.StorageUsageResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.cloudstore.config.Transactions.afterCompletion;
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// Per-user storage accounting kept in memory, so the upload path checks the quota without a
+// query. Committed usage is a LongAdder (many uploads and deletes touch it concurrently);
+// uploads in progress hold a reservation, taken with a CAS so two uploads cannot both fit
+// into the last free bytes. Usage is loaded once per user (the persisted users.storage_used,
+// or a sum over their files the first time) and changes are written back periodically as
+// deltas, so instances add to the shared total instead of overwriting each other. Each
+// instance's view picks up the others' changes (and plan changes) when the reconciliation job
+// reloads it. Usage counts every file row the user owns, trashed ones included.
+@Service
+public class QuotaService {
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${quota.free:2GB}")
+    private DataSize freeLimit;
+
+    @Value("${quota.plus:2000GB}")
+    private DataSize plusLimit;
+
+    @Value("${quota.family:2000GB}")
+    private DataSize familyLimit;
+
+    @Value("${quota.professional:3000GB}")
+    private DataSize professionalLimit;
+
+    private final ConcurrentHashMap<Long, Usage> usages = new ConcurrentHashMap<>();
+
+    public QuotaService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private static final class Usage {
+        final LongAdder used = new LongAdder();
+        final AtomicLong reserved = new AtomicLong();
+        final AtomicLong unpersisted = new AtomicLong(); // changes not yet added to users.storage_used
+        volatile String plan;
+        volatile long limit;
+    }
+
+    // Holds bytes against the quota until the upload commits or fails; releasing twice is harmless
+    public static final class Reservation {
+        private final Usage usage;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(Usage usage, long bytes) {
+            this.usage = usage;
+            this.bytes = bytes;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                usage.reserved.addAndGet(-bytes);
+            }
+        }
+    }
+
+    public Reservation reserve(Long userId, long bytes) {
+        Usage usage = usage(userId);
+        while (true) {
+            long reserved = usage.reserved.get();
+            long used = usage.used.sum();
+            if (bytes > 0 && used + reserved + bytes > usage.limit) {
+                throw new QuotaExceededException(bytes, used + reserved, usage.limit);
+            }
+            if (usage.reserved.compareAndSet(reserved, reserved + Math.max(0, bytes))) {
+                return new Reservation(usage, Math.max(0, bytes));
+            }
+        }
+    }
+
+    // A cheap early rejection (e.g. before accepting chunks); the reservation is still what enforces it
+    public void check(Long userId, long bytes) {
+        Usage usage = usage(userId);
+        long current = usage.used.sum() + usage.reserved.get();
+        if (bytes > 0 && current + bytes > usage.limit) {
+            throw new QuotaExceededException(bytes, current, usage.limit);
+        }
+    }
+
+    // Counts the stored bytes once the transaction commits; the reservation is released either way.
+    // Usage is added before the reservation goes, so the two are never both missing.
+    public void settleAfterCompletion(Reservation reservation, Long userId, long actualBytes) {
+        afterCompletion(committed -> {
+            if (committed) {
+                add(userId, actualBytes);
+            }
+            reservation.release();
+        });
+    }
+
+    // For changes without a reservation (permanent deletes pass a negative size)
+    public void addAfterCommit(Long userId, long bytes) {
+        afterCommit(() -> add(userId, bytes));
+    }
+
+    private void add(Long userId, long bytes) {
+        if (bytes != 0) {
+            Usage usage = usage(userId);
+            usage.used.add(bytes);
+            usage.unpersisted.addAndGet(bytes);
+        }
+    }
+
+    public StorageUsageResponse describe(Long userId) {
+        Usage usage = usage(userId);
+        return StorageUsageResponse.builder()
+                .plan(usage.plan)
+                .usedBytes(usage.used.sum())
+                .reservedBytes(usage.reserved.get())
+                .limitBytes(usage.limit)
+                .build();
+    }
+
+    public void planChanged(Long userId, String plan) {
+        Usage usage = usages.get(userId);
+        if (usage != null) {
+            usage.plan = normalizePlan(plan);
+            usage.limit = limitFor(usage.plan);
+        }
+    }
+
+    public String normalizePlan(String plan) {
+        String normalized = plan != null ? plan.toLowerCase(Locale.ROOT) : "free";
+        if (!List.of("free", "plus", "family", "professional").contains(normalized)) {
+            throw new RuntimeException("Unknown plan: " + plan);
+        }
+        return normalized;
+    }
+
+    private long limitFor(String plan) {
+        return switch (plan) {
+            case "plus" -> plusLimit.toBytes();
+            case "family" -> familyLimit.toBytes();
+            case "professional" -> professionalLimit.toBytes();
+            default -> freeLimit.toBytes();
+        };
+    }
+
+    private Usage usage(Long userId) {
+        Usage existing = usages.get(userId);
+        if (existing != null) {
+            return existing;
+        }
+        return usages.computeIfAbsent(userId, id -> {
+            Map<String, Object> row = jdbcTemplate.queryForMap("SELECT plan, storage_used FROM users WHERE id = ?", id);
+            Usage usage = new Usage();
+            usage.plan = normalizePlan((String) row.get("plan"));
+            usage.limit = limitFor(usage.plan);
+            Number stored = (Number) row.get("storage_used");
+            if (stored == null) {
+                // Only one instance gets to fill it in; the others read what it wrote
+                jdbcTemplate.update("UPDATE users SET storage_used = ? WHERE id = ? AND storage_used IS NULL", countStored(id), id);
+                stored = jdbcTemplate.queryForObject("SELECT storage_used FROM users WHERE id = ?", Long.class, id);
+            }
+            usage.used.add(stored != null ? stored.longValue() : 0);
+            return usage;
+        });
+    }
+
+    private long countStored(Long userId) {
+        Long sum = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(size), 0) FROM files WHERE user_id = ?", Long.class, userId);
+        return sum != null ? sum : 0;
+    }
+
+    @Scheduled(fixedDelayString = "${quota.persist-ms:10000}")
+    public void persist() {
+        List<Object[]> batch = new ArrayList<>();
+        List<Usage> written = new ArrayList<>();
+        usages.forEach((userId, usage) -> {
+            long delta = usage.unpersisted.getAndSet(0);
+            if (delta != 0) {
+                batch.add(new Object[]{delta, userId});
+                written.add(usage);
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("UPDATE users SET storage_used = COALESCE(storage_used, 0) + ? WHERE id = ?", batch);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < written.size(); i++) {
+                written.get(i).unpersisted.addAndGet((Long) batch.get(i)[0]);
+            }
+            System.out.println("Failed to persist storage usage: " + e.getMessage());
+        }
+    }
+
+    // Corrects drift (e.g. usage changes lost in a crash before they were persisted) in the
+    // persisted total, then reloads each loaded user's usage and plan from it, which is also how
+    // changes made on other instances arrive. Users not loaded here are read fresh when first used.
+    @Scheduled(initialDelayString = "${quota.reconcile-initial-delay-ms:300000}", fixedDelayString = "${quota.reconcile-ms:21600000}")
+    public void reconcile() {
+        persist();
+        usages.forEach((userId, usage) -> {
+            try {
+                long before = usage.used.sum();
+                Map<String, Object> row = jdbcTemplate.queryForMap(
+                        "SELECT plan, storage_used, (SELECT COALESCE(SUM(size), 0) FROM files WHERE user_id = ?) AS actual FROM users WHERE id = ?",
+                        userId, userId);
+                Number stored = (Number) row.get("storage_used");
+                long persisted = stored != null ? stored.longValue() : 0;
+                long actual = ((Number) row.get("actual")).longValue();
+                if (actual != persisted) {
+                    jdbcTemplate.update("UPDATE users SET storage_used = COALESCE(storage_used, 0) + ? WHERE id = ?", actual - persisted, userId);
+                    System.out.println("Storage usage for user " + userId + " corrected from " + persisted + " to " + actual);
+                }
+                usage.plan = normalizePlan((String) row.get("plan"));
+                usage.limit = limitFor(usage.plan);
+                // Skip users whose usage moved while counting; the next run gets them
+                if (usage.used.sum() == before && usage.unpersisted.get() == 0 && actual != before) {
+                    usage.used.add(actual - before);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Storage usage reconciliation failed for user " + userId + ": " + e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,298 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.Blob;
+import com.cloudstore.repository.BlobRepository;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.storage.BlobStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Background garbage collection for storage. Each run purges trash past its retention period,
+// reclaims blob bodies left without references, fixes blobs whose refcount claims rows that no
+// longer exist, and removes staging/compression temp files orphaned by crashes. Deletes are
+// throttled (operations and bytes per second) so a large backlog drains slowly instead of
+// competing with uploads and downloads for I/O. Counters are published as cloudstore.gc.*.
+@Service
+public class StorageReclaimService {
+    private final FileRepository fileRepository;
+    private final BlobRepository blobRepository;
+    private final BlobStore blobStore;
+    private final FileService fileService;
+    private final NotificationService notificationService;
+
+    private final Counter trashPurged;
+    private final Counter blobsReclaimed;
+    private final Counter blobBytesReclaimed;
+    private final Counter tempBytesReclaimed;
+    private final Counter refCountsRepaired;
+
+    @Value("${gc.enabled:true}")
+    private boolean enabled;
+
+    @Value("${gc.trash-retention-days:30}")
+    private long trashRetentionDays;
+
+    @Value("${gc.trash-warning-days:1}")
+    private long trashWarningDays;
+
+    @Value("${gc.interval-ms:3600000}")
+    private long intervalMs;
+
+    @Value("${gc.batch-size:500}")
+    private int batchSize;
+
+    @Value("${gc.max-deletes-per-second:50}")
+    private double maxDeletesPerSecond;
+
+    @Value("${gc.max-bytes-per-second:67108864}")
+    private double maxBytesPerSecond;
+
+    @Value("${gc.temp-max-age-hours:24}")
+    private long tempMaxAgeHours;
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    private ThreadPoolExecutor executor;
+    private Throttle throttle;
+    private LocalDateTime warnedUntil;
+
+    public StorageReclaimService(FileRepository fileRepository, BlobRepository blobRepository, BlobStore blobStore,
+                                 FileService fileService, NotificationService notificationService, MeterRegistry meterRegistry) {
+        this.fileRepository = fileRepository;
+        this.blobRepository = blobRepository;
+        this.blobStore = blobStore;
+        this.fileService = fileService;
+        this.notificationService = notificationService;
+        this.trashPurged = Counter.builder("cloudstore.gc.trash.purged")
+                .description("Trashed files permanently deleted after the retention period").register(meterRegistry);
+        this.blobsReclaimed = Counter.builder("cloudstore.gc.blobs.reclaimed")
+                .description("Unreferenced blob bodies deleted").register(meterRegistry);
+        this.blobBytesReclaimed = Counter.builder("cloudstore.gc.reclaimed.bytes").baseUnit("bytes").tag("source", "blobs")
+                .description("Storage freed by the garbage collector").register(meterRegistry);
+        this.tempBytesReclaimed = Counter.builder("cloudstore.gc.reclaimed.bytes").baseUnit("bytes").tag("source", "temp")
+                .description("Storage freed by the garbage collector").register(meterRegistry);
+        this.refCountsRepaired = Counter.builder("cloudstore.gc.refcounts.repaired")
+                .description("Blobs whose refcount was reset to the rows that reference them").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        throttle = new Throttle(maxDeletesPerSecond, maxBytesPerSecond);
+        // Runs are long and throttled, so they get their own thread instead of holding the shared scheduler;
+        // a tick that finds the previous run still going is dropped
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-gc");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(initialDelayString = "${gc.initial-delay-ms:120000}", fixedDelayString = "${gc.interval-ms:3600000}")
+    public void schedule() {
+        if (enabled) {
+            executor.execute(this::run);
+        }
+    }
+
+    public void run() {
+        long started = System.nanoTime();
+        step("trash expiry warning", this::warnExpiringTrash);
+        long purged = step("trash purge", this::purgeTrash);
+        long blobs = step("blob sweep", this::sweepUnreferencedBlobs);
+        long repaired = step("refcount repair", this::repairDanglingReferences);
+        long temp = step("temp file sweep", this::sweepTempFiles);
+        if (purged + blobs + repaired + temp > 0) {
+            System.out.println("Storage GC purged " + purged + " trashed files, reclaimed " + blobs + " blobs, repaired "
+                    + repaired + " refcounts and removed " + temp + " temp files in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        }
+    }
+
+    private interface Step {
+        long run() throws IOException, InterruptedException;
+    }
+
+    private long step(String name, Step step) {
+        try {
+            return step.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Storage GC " + name + " failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Each run warns about files that crossed into the last day(s) of retention since the previous run,
+    // so a user hears about it once per run window rather than once per file
+    private long warnExpiringTrash() {
+        LocalDateTime to = LocalDateTime.now().minusDays(trashRetentionDays).plusDays(trashWarningDays);
+        LocalDateTime from = warnedUntil != null ? warnedUntil : to.minusNanos(intervalMs * 1_000_000L);
+        long warned = 0;
+        for (Object[] row : fileRepository.countTrashDeletedBetween(from, to)) {
+            long count = (Long) row[1];
+            notificationService.publish((Long) row[0], "TRASH_EXPIRING",
+                    (count == 1 ? "1 file" : count + " files") + " in your trash will be permanently deleted within "
+                            + (trashWarningDays == 1 ? "a day" : trashWarningDays + " days"), null);
+            warned++;
+        }
+        warnedUntil = to;
+        return warned;
+    }
+
+    // Oldest first, one transaction per batch; bodies are freed by the blob sweep that follows
+    private long purgeTrash() throws IOException, InterruptedException {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(trashRetentionDays);
+        long purged = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> ids = fileRepository.findExpiredTrashIds(cutoff, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            throttle.acquire(ids.size(), 0);
+            int count = fileService.purgeTrash(ids);
+            trashPurged.increment(count);
+            purged += count;
+        }
+        return purged;
+    }
+
+    private long sweepUnreferencedBlobs() throws InterruptedException {
+        long reclaimed = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Blob> blobs = blobRepository.findUnreferenced(batchSize);
+            long before = reclaimed;
+            for (Blob blob : blobs) {
+                throttle.acquire(1, blob.getSize());
+                if (blobStore.reclaim(blob.getHash())) {
+                    blobsReclaimed.increment();
+                    blobBytesReclaimed.increment(blob.getSize());
+                    reclaimed++;
+                }
+            }
+            // Stop when a batch made no progress (e.g. the backend keeps failing deletes)
+            if (blobs.size() < batchSize || reclaimed == before) {
+                break;
+            }
+        }
+        return reclaimed;
+    }
+
+    // Only blobs older than an hour, so uploads in flight never show up as candidates
+    private long repairDanglingReferences() throws InterruptedException {
+        LocalDateTime before = LocalDateTime.now().minusHours(1);
+        String after = "";
+        long repaired = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Blob> blobs = blobRepository.findDanglingReferences(after, before, batchSize);
+            for (Blob blob : blobs) {
+                throttle.acquire(1, 0);
+                if (blobStore.repairRefCount(blob.getHash()) == 0) {
+                    refCountsRepaired.increment();
+                    repaired++;
+                    throttle.acquire(1, blob.getSize());
+                    if (blobStore.reclaim(blob.getHash())) {
+                        blobsReclaimed.increment();
+                        blobBytesReclaimed.increment(blob.getSize());
+                    }
+                }
+            }
+            if (blobs.size() < batchSize) {
+                break;
+            }
+            after = blobs.get(blobs.size() - 1).getHash();
+        }
+        return repaired;
+    }
+
+    // Staged uploads only live for one request and compression temp files for one job
+    private long sweepTempFiles() throws IOException, InterruptedException {
+        Instant cutoff = Instant.now().minus(tempMaxAgeHours, ChronoUnit.HOURS);
+        return sweepDirectory(Paths.get(uploadDir, ".staging"), ".blob-", cutoff)
+                + sweepDirectory(Paths.get(uploadDir, ".compress"), "", cutoff);
+    }
+
+    private long sweepDirectory(Path dir, String prefix, Instant cutoff) throws IOException, InterruptedException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long removed = 0;
+        List<Path> candidates;
+        try (Stream<Path> files = Files.list(dir)) {
+            candidates = files.filter(path -> path.getFileName().toString().startsWith(prefix)).toList();
+        }
+        for (Path path : candidates) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue; // already gone
+            }
+            if (!attrs.isRegularFile() || attrs.lastModifiedTime().toInstant().isAfter(cutoff)) {
+                continue;
+            }
+            throttle.acquire(1, attrs.size());
+            if (Files.deleteIfExists(path)) {
+                tempBytesReclaimed.increment(attrs.size());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Paces deletes to at most the configured operations and bytes per second, whichever is slower
+    private static final class Throttle {
+        private final double opsPerSecond;
+        private final double bytesPerSecond;
+        private long next = System.nanoTime();
+
+        Throttle(double opsPerSecond, double bytesPerSecond) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long ops, long bytes) throws InterruptedException {
+            double seconds = Math.max(opsPerSecond > 0 ? ops / opsPerSecond : 0, bytesPerSecond > 0 ? bytes / bytesPerSecond : 0);
+            long now = System.nanoTime();
+            // No credit for idle time beyond a second, so a burst after a quiet period stays small
+            next = Math.max(next, now - TimeUnit.SECONDS.toNanos(1)) + (long) (seconds * 1_000_000_000L);
+            while (next - System.nanoTime() > 0) {
+                LockSupport.parkNanos(next - System.nanoTime());
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.cloudstore.service;
+
+// The changes after a sync cursor have been pruned from the log; the client must resync from scratch (410)
+public class SyncCursorExpiredException extends RuntimeException {
+    public SyncCursorExpiredException() {
+        super("Sync cursor has expired, a full resync is required");
+    }
+}
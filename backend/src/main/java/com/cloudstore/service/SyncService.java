@@ -0,0 +1,157 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.dto.FolderResponse;
+import com.cloudstore.dto.SyncResponse;
+import com.cloudstore.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Change feed for clients that keep a local mirror. Triggers on files and folders append a row to
+// change_log for every create, delete and visible update (see CloudstoreBackendApplication), tagged
+// with the writing transaction's id. A position in the log is (txid, seq), and a page only returns
+// rows from transactions older than the oldest one still running, so a slow transaction that
+// commits late can never end up behind a cursor that was already handed out. Each page is
+// compacted to the current state of every entity it mentions.
+@Service
+public class SyncService {
+    private final JdbcTemplate jdbcTemplate;
+    private final FileService fileService;
+    private final FolderService folderService;
+
+    @Value("${sync.retention-days:30}")
+    private long retentionDays;
+
+    public SyncService(JdbcTemplate jdbcTemplate, FileService fileService, FolderService folderService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fileService = fileService;
+        this.folderService = folderService;
+    }
+
+    public SyncResponse sync(User user, String cursor, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, 1000));
+        long xmin = jdbcTemplate.queryForObject("SELECT txid_snapshot_xmin(txid_current_snapshot())", Long.class);
+        // Everything from a transaction below xmin is final, so "just before xmin" is a safe place to start
+        long[] head = {xmin - 1, Long.MAX_VALUE};
+        if (cursor == null || cursor.isEmpty()) {
+            return SyncResponse.builder()
+                    .cursor(encodeCursor(head))
+                    .reset(true)
+                    .files(List.of())
+                    .folders(List.of())
+                    .deletedFileIds(List.of())
+                    .deletedFolderIds(List.of())
+                    .build();
+        }
+        long[] position = decodeCursor(cursor);
+        List<Map<String, Object>> horizon = jdbcTemplate.queryForList("SELECT txid, seq FROM change_log_horizon WHERE id = 1");
+        if (!horizon.isEmpty() && compare(position, new long[]{
+                ((Number) horizon.get(0).get("txid")).longValue(), ((Number) horizon.get(0).get("seq")).longValue()}) < 0) {
+            throw new SyncCursorExpiredException();
+        }
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT txid, seq, entity_type, entity_id FROM change_log"
+                        + " WHERE user_id = ? AND (txid, seq) > (?, ?) AND txid < ?"
+                        + " ORDER BY txid, seq LIMIT ?",
+                user.getId(), position[0], position[1], xmin, pageSize + 1);
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = rows.subList(0, pageSize);
+        }
+        Set<Long> fileIds = new LinkedHashSet<>();
+        Set<Long> folderIds = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows) {
+            long id = ((Number) row.get("entity_id")).longValue();
+            if ("folder".equals(row.get("entity_type"))) {
+                folderIds.add(id);
+            } else {
+                fileIds.add(id);
+            }
+        }
+        long[] next;
+        if (rows.isEmpty()) {
+            next = compare(head, position) > 0 ? head : position;
+        } else {
+            Map<String, Object> last = rows.get(rows.size() - 1);
+            next = new long[]{((Number) last.get("txid")).longValue(), ((Number) last.get("seq")).longValue()};
+        }
+
+        // Whatever no longer exists (or no longer belongs to the user) is reported as deleted
+        List<FileResponse> files = fileService.describeFilesForUser(user, fileIds);
+        List<FolderResponse> folders = folderService.describeFoldersForUser(user, folderIds);
+        Set<Long> liveFiles = files.stream().map(FileResponse::getId).collect(Collectors.toSet());
+        Set<Long> liveFolders = folders.stream().map(FolderResponse::getId).collect(Collectors.toSet());
+        return SyncResponse.builder()
+                .cursor(encodeCursor(next))
+                .hasMore(hasMore)
+                .files(files)
+                .folders(folders)
+                .deletedFileIds(fileIds.stream().filter(id -> !liveFiles.contains(id)).collect(Collectors.toList()))
+                .deletedFolderIds(folderIds.stream().filter(id -> !liveFolders.contains(id)).collect(Collectors.toList()))
+                .build();
+    }
+
+    // Moves the horizon past everything older than the retention period, then deletes those rows.
+    // The horizon is committed first, so a cursor into the pruned range gets a 410 rather than a gap.
+    @Scheduled(initialDelayString = "${sync.prune-initial-delay-ms:600000}", fixedDelayString = "${sync.prune-interval-ms:86400000}")
+    public void prune() {
+        try {
+            List<Map<String, Object>> last = jdbcTemplate.queryForList(
+                    "SELECT txid, seq FROM change_log WHERE changed_at < ? ORDER BY txid DESC, seq DESC LIMIT 1",
+                    Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays)));
+            if (last.isEmpty()) {
+                return;
+            }
+            Object txid = last.get(0).get("txid");
+            Object seq = last.get(0).get("seq");
+            jdbcTemplate.update("INSERT INTO change_log_horizon (id, txid, seq) VALUES (1, ?, ?)"
+                    + " ON CONFLICT (id) DO UPDATE SET txid = EXCLUDED.txid, seq = EXCLUDED.seq"
+                    + " WHERE (change_log_horizon.txid, change_log_horizon.seq) < (EXCLUDED.txid, EXCLUDED.seq)", txid, seq);
+            long deleted = 0;
+            int batch;
+            do {
+                batch = jdbcTemplate.update("DELETE FROM change_log WHERE seq IN ("
+                        + "SELECT seq FROM change_log WHERE (txid, seq) <= (?, ?) LIMIT 10000)", txid, seq);
+                deleted += batch;
+            } while (batch > 0);
+            System.out.println("Pruned " + deleted + " change log entries");
+        } catch (RuntimeException e) {
+            System.out.println("Change log pruning failed: " + e.getMessage());
+        }
+    }
+
+    private static int compare(long[] a, long[] b) {
+        int byTxid = Long.compare(a[0], b[0]);
+        return byTxid != 0 ? byTxid : Long.compare(a[1], b[1]);
+    }
+
+    // Cursor = base64url("<txid>:<seq>")
+    private static String encodeCursor(long[] position) {
+        String raw = position[0] + ":" + position[1];
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int colon = raw.indexOf(':');
+            return new long[]{Long.parseLong(raw.substring(0, colon)), Long.parseLong(raw.substring(colon + 1))};
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+}
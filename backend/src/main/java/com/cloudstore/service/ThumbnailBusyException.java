@@ -0,0 +1,8 @@
+package com.cloudstore.service;
+
+// Thrown when every decode slot stays taken past thumbnail.decode-wait-ms; mapped to 503 with Retry-After
+public class ThumbnailBusyException extends RuntimeException {
+    public ThumbnailBusyException() {
+        super("Too many thumbnails being generated, please try again shortly");
+    }
+}
@@ -0,0 +1,353 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.StorageBackend;
+import com.cloudstore.storage.StorageResource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+// JPEG thumbnails at a few fixed sizes, stored in the storage backend next to the content
+// as "<content key>.thumb-<size>.jpg". Every size is produced from a single decode of the
+// original. New uploads are queued for generation after commit; anything missing is
+// generated on first request, with concurrent requests for the same file sharing one run.
+// Content that turns out not to decode is remembered by its key base (the blob hash), so
+// later requests get a 404 without reading it again.
+@Service
+public class ThumbnailService {
+    private static final Set<String> READABLE_SUFFIXES = Arrays.stream(ImageIO.getReaderFileSuffixes())
+            .map(s -> s.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+
+    private final FileStorage fileStorage;
+    private final StorageBackend backend;
+    private final BlobStore blobStore;
+
+    @Value("${thumbnail.sizes:128,256,512}")
+    private int[] sizes;
+
+    @Value("${thumbnail.quality:0.8}")
+    private float quality;
+
+    @Value("${thumbnail.max-source-bytes:52428800}")
+    private long maxSourceBytes;
+
+    @Value("${thumbnail.workers:2}")
+    private int workers;
+
+    // Decoded pixels are the real cost: width x height, regardless of how small the file is
+    @Value("${thumbnail.max-pixels:100000000}")
+    private long maxPixels;
+
+    // Covers request-time generation too, not just the background workers
+    @Value("${thumbnail.max-concurrent-decodes:2}")
+    private int maxConcurrentDecodes;
+
+    @Value("${thumbnail.decode-wait-ms:30000}")
+    private long decodeWaitMs;
+
+    @Value("${thumbnail.max-undecodable:10000}")
+    private int maxUndecodable;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inflight = new ConcurrentHashMap<>();
+    private final Set<String> undecodable = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor executor;
+    private Semaphore decodes;
+
+    public ThumbnailService(FileStorage fileStorage, StorageBackend backend, BlobStore blobStore) {
+        this.fileStorage = fileStorage;
+        this.backend = backend;
+        this.blobStore = blobStore;
+    }
+
+    @PostConstruct
+    void start() {
+        sizes = Arrays.stream(sizes).sorted().toArray();
+        decodes = new Semaphore(maxConcurrentDecodes);
+        AtomicInteger threads = new AtomicInteger();
+        // Background work is best effort: when the queue is full the thumbnail is made on first request instead
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+        // Thumbnails go with the content they were made from
+        blobStore.onReclaim(this::deleteThumbnails);
+    }
+
+    private void deleteThumbnails(String base) {
+        for (int size : sizes) {
+            try {
+                backend.delete(key(base, size));
+            } catch (IOException e) {
+                System.out.println("Failed to delete thumbnail " + key(base, size) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    public boolean supports(File file) {
+        String name = file.getName();
+        if (name == null || !name.contains(".")) {
+            return false;
+        }
+        if (file.getSize() != null && file.getSize() > maxSourceBytes) {
+            return false;
+        }
+        return READABLE_SUFFIXES.contains(name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Queues thumbnail generation for new files once the surrounding transaction has committed
+    public void generateAfterCommit(List<File> files) {
+        List<File> images = files.stream().filter(this::supports).collect(Collectors.toList());
+        if (images.isEmpty()) {
+            return;
+        }
+        Runnable submit = () -> images.forEach(file -> executor.execute(() -> {
+            try {
+                ensure(file);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Thumbnail generation failed for file " + file.getId() + ": " + e.getMessage());
+            }
+        }));
+        afterCommit(submit);
+    }
+
+    // The smallest configured size that is at least the requested one (or the largest available)
+    public int snapSize(Integer requested) {
+        if (requested != null) {
+            for (int size : sizes) {
+                if (size >= requested) {
+                    return size;
+                }
+            }
+            return sizes[sizes.length - 1];
+        }
+        return sizes[0];
+    }
+
+    public String etag(File file, int size) {
+        return "\"" + fileStorage.derivedKeyBase(file) + "-" + size + "\"";
+    }
+
+    public Optional<Resource> thumbnail(File file, int size) throws IOException {
+        if (!supports(file)) {
+            return Optional.empty();
+        }
+        String base = fileStorage.derivedKeyBase(file);
+        if (undecodable.contains(base)) {
+            return Optional.empty();
+        }
+        String key = key(base, size);
+        Optional<Resource> stored = load(key);
+        if (stored.isPresent()) {
+            return stored;
+        }
+        try {
+            ensure(file);
+        } catch (UndecodableImageException e) {
+            return Optional.empty();
+        }
+        return load(key);
+    }
+
+    private void ensure(File file) throws IOException {
+        String base = fileStorage.derivedKeyBase(file);
+        if (backend.stat(key(base, sizes[0])).isPresent() && backend.stat(key(base, sizes[sizes.length - 1])).isPresent()) {
+            return;
+        }
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inflight.putIfAbsent(base, mine);
+        if (existing != null) {
+            await(existing);
+            return;
+        }
+        try {
+            generate(file, base);
+            mine.complete(null);
+        } catch (UndecodableImageException e) {
+            remember(base);
+            mine.completeExceptionally(e);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(base, mine);
+        }
+    }
+
+    // Bounded by starting over rather than tracking age; a forgotten entry just costs one more decode
+    private void remember(String base) {
+        if (undecodable.size() >= maxUndecodable) {
+            undecodable.clear();
+        }
+        undecodable.add(base);
+    }
+
+    private void generate(File file, String base) throws IOException {
+        int largest = sizes[sizes.length - 1];
+        BufferedImage current;
+        acquireDecode();
+        try {
+            BufferedImage original = decode(file, largest);
+            current = fits(original, largest) ? original
+                    : Thumbnails.of(original).size(largest, largest).asBufferedImage();
+        } finally {
+            decodes.release();
+        }
+        // Each smaller size is scaled down from the previous one rather than from the original
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            int size = sizes[i];
+            if (!fits(current, size)) {
+                current = Thumbnails.of(current).size(size, size).asBufferedImage();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Thumbnails.of(current).scale(1.0).outputFormat("jpg").outputQuality(quality).toOutputStream(out);
+            byte[] bytes = out.toByteArray();
+            backend.put(key(base, size), new ByteArrayInputStream(bytes), bytes.length);
+        }
+    }
+
+    // Reads the header first so a small file claiming huge dimensions is refused before any pixels are
+    // allocated; large sources are subsampled while decoding to about twice the largest thumbnail.
+    // Content the readers reject is undecodable; a plain IOException is the storage failing and may
+    // succeed next time.
+    private BufferedImage decode(File file, int largest) throws IOException {
+        try (InputStream in = fileStorage.open(file);
+             ImageInputStream images = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = images != null ? ImageIO.getImageReaders(images) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new UndecodableImageException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, false);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new UndecodableImageException("Image is too large to thumbnail: " + width + "x" + height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (largest * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                Orientation orientation = orientation(reader);
+                BufferedImage decoded = reader.read(0, param);
+                Thumbnails.Builder<BufferedImage> rgb = Thumbnails.of(decoded).scale(1.0).imageType(BufferedImage.TYPE_INT_RGB);
+                if (orientation != null) {
+                    rgb.addFilter(ExifFilterUtils.getFilterForOrientation(orientation));
+                }
+                return rgb.asBufferedImage();
+            } catch (IIOException | RuntimeException e) {
+                throw new UndecodableImageException("Image could not be decoded: " + e.getMessage());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // EXIF orientation only exists in JPEG metadata; other formats have none to apply
+    private static Orientation orientation(ImageReader reader) throws IOException {
+        try {
+            return ExifUtils.getExifOrientation(reader, 0);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void acquireDecode() throws IOException {
+        try {
+            if (!decodes.tryAcquire(decodeWaitMs, TimeUnit.MILLISECONDS)) {
+                throw new ThumbnailBusyException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to generate a thumbnail", e);
+        }
+    }
+
+    private Optional<Resource> load(String key) throws IOException {
+        Optional<Path> local = backend.localPath(key);
+        if (local.isPresent()) {
+            return Files.exists(local.get()) ? Optional.of(new FileSystemResource(local.get())) : Optional.empty();
+        }
+        return backend.stat(key).map(stat -> new StorageResource(backend, key, key, stat.getSize()));
+    }
+
+    private static boolean fits(BufferedImage image, int size) {
+        return image.getWidth() <= size && image.getHeight() <= size;
+    }
+
+    private static String key(String base, int size) {
+        return base + ".thumb-" + size + ".jpg";
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for thumbnail generation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Thumbnail generation failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static class UndecodableImageException extends IOException {
+        UndecodableImageException(String message) {
+            super(message);
+        }
+    }
+}
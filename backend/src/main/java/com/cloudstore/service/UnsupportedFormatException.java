@@ -0,0 +1,8 @@
+package com.cloudstore.service;
+
+// Thrown when a client asks for an output format we do not produce; mapped to 400
+public class UnsupportedFormatException extends RuntimeException {
+    public UnsupportedFormatException(String type, String format) {
+        super("Unsupported " + type + " format: " + format);
+    }
+}
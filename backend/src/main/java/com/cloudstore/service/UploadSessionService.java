@@ -0,0 +1,269 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.CreateUploadSessionRequest;
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.dto.UploadSessionResponse;
+import com.cloudstore.model.UploadSession;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.UploadSessionRepository;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.BoundedInputStream;
+import com.cloudstore.storage.StreamedFile;
+import com.cloudstore.storage.StreamingFileWriter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Resumable uploads: each chunk lands in its own part file under the staging dir, so
+// concurrent PUTs never contend and a retry only resends the chunks that are missing.
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final StreamingFileWriter streamingFileWriter;
+    private final FileService fileService;
+    private final BlobStore blobStore;
+    private final TransactionTemplate transactionTemplate;
+    private final QuotaService quotaService;
+    private final NotificationService notificationService;
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${file.upload.session.chunk-size:8388608}")
+    private int defaultChunkSize;
+
+    @Value("${file.upload.session.ttl-hours:24}")
+    private long sessionTtlHours;
+
+    // An expired session still ASSEMBLING after this long was abandoned by a crashed finalize
+    @Value("${file.upload.session.assembly-timeout-minutes:60}")
+    private long assemblyTimeoutMinutes;
+
+    @Transactional
+    public UploadSessionResponse createSession(User user, CreateUploadSessionRequest request) throws IOException {
+        if (request.getFileName() == null || request.getFileName().isBlank()) {
+            throw new RuntimeException("File name is required");
+        }
+        if (request.getTotalSize() == null || request.getTotalSize() < 0) {
+            throw new RuntimeException("Total size is required");
+        }
+        int chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize;
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new RuntimeException("Chunk size must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE + " bytes");
+        }
+        long chunkCount = Math.max(1, (request.getTotalSize() + chunkSize - 1) / chunkSize);
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new RuntimeException("Upload too large for chunk size");
+        }
+        // Fail before any chunk is sent; the bytes are reserved for real when the upload completes
+        quotaService.check(user.getId(), request.getTotalSize());
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID().toString())
+                .user(user)
+                .fileName(request.getFileName())
+                .totalSize(request.getTotalSize())
+                .chunkSize(chunkSize)
+                .chunkCount((int) chunkCount)
+                .folderId(request.getFolderId())
+                .status(UploadSession.Status.OPEN)
+                .expiresAt(LocalDateTime.now().plusHours(sessionTtlHours))
+                .build();
+        uploadSessionRepository.save(session);
+        Files.createDirectories(stagingDir(session.getId()));
+        return toResponse(session, List.of());
+    }
+
+    public UploadSessionResponse getSession(User user, String sessionId) throws IOException {
+        UploadSession session = findOpenSession(user, sessionId);
+        return toResponse(session, receivedChunks(session));
+    }
+
+    // Idempotent: re-sending a chunk replaces the previous copy once its checksum verifies
+    public UploadSessionResponse putChunk(User user, String sessionId, int index, String checksum, InputStream in) throws IOException {
+        UploadSession session = findOpenSession(user, sessionId);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new RuntimeException("Upload session is being finalized");
+        }
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new RuntimeException("Chunk index out of range");
+        }
+        if (checksum == null || checksum.isBlank()) {
+            throw new RuntimeException("Chunk checksum is required");
+        }
+        Path dir = stagingDir(sessionId);
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, index + "-", ".tmp");
+        try {
+            // One byte past the expected size is enough to reject an oversized body without storing it
+            StreamedFile written = streamingFileWriter.copy(new BoundedInputStream(in, expectedChunkSize(session, index) + 1), temp);
+            if (written.getSize() != expectedChunkSize(session, index)) {
+                throw new RuntimeException("Chunk " + index + " has wrong size: expected "
+                        + expectedChunkSize(session, index) + " bytes, got " + written.getSize());
+            }
+            if (!written.getSha256().equalsIgnoreCase(checksum.trim())) {
+                throw new RuntimeException("Chunk " + index + " checksum mismatch");
+            }
+            Files.move(temp, partPath(sessionId, index), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return toResponse(session, receivedChunks(session));
+    }
+
+    public FileResponse completeSession(User user, String sessionId) throws IOException {
+        UploadSession session = findOpenSession(user, sessionId);
+        List<Integer> received = receivedChunks(session);
+        if (received.size() != session.getChunkCount()) {
+            throw new RuntimeException("Upload incomplete: " + received.size() + " of " + session.getChunkCount() + " chunks received");
+        }
+        // Only one finalize call may assemble the parts
+        if (transition(sessionId, UploadSession.Status.OPEN, UploadSession.Status.ASSEMBLING) == 0) {
+            throw new RuntimeException("Upload session is already being finalized");
+        }
+        Path target = blobStore.newStagingFile();
+        StreamedFile stored;
+        try {
+            List<Path> parts = new ArrayList<>(session.getChunkCount());
+            for (int i = 0; i < session.getChunkCount(); i++) {
+                parts.add(partPath(sessionId, i));
+            }
+            stored = streamingFileWriter.concat(parts, target);
+            if (stored.getSize() != session.getTotalSize()) {
+                throw new RuntimeException("Assembled size " + stored.getSize() + " does not match declared size " + session.getTotalSize());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            transition(sessionId, UploadSession.Status.ASSEMBLING, UploadSession.Status.OPEN);
+            throw e;
+        }
+        FileResponse response;
+        try {
+            response = fileService.registerStoredFileForUser(user, session.getFileName(), stored, session.getFolderId());
+        } catch (IOException | RuntimeException e) {
+            transition(sessionId, UploadSession.Status.ASSEMBLING, UploadSession.Status.OPEN);
+            throw e;
+        }
+        transition(sessionId, UploadSession.Status.ASSEMBLING, UploadSession.Status.COMPLETED);
+        deleteStaging(sessionId);
+        notificationService.publish(user.getId(), "UPLOAD_COMPLETE", "Uploaded " + response.getName(), response.getName());
+        return response;
+    }
+
+    @Transactional
+    public void abortSession(User user, String sessionId) throws IOException {
+        UploadSession session = uploadSessionRepository.findByIdAndUser(sessionId, user)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        uploadSessionRepository.delete(session);
+        deleteStaging(sessionId);
+    }
+
+    // Reclaims staging space for sessions that were abandoned or already completed
+    @Scheduled(fixedDelayString = "${file.upload.session.cleanup-interval-ms:600000}")
+    @Transactional
+    public void purgeExpiredSessions() {
+        LocalDateTime stuckBefore = LocalDateTime.now().minusMinutes(assemblyTimeoutMinutes);
+        for (UploadSession session : uploadSessionRepository.findAllByExpiresAtBefore(LocalDateTime.now())) {
+            // A finalize may still be running; only reclaim once it has been stuck past the bound.
+            // Moving it back to OPEN (already expired) makes a failed cleanup get retried next time.
+            if (session.getStatus() == UploadSession.Status.ASSEMBLING
+                    && uploadSessionRepository.transitionIfStale(session.getId(), UploadSession.Status.ASSEMBLING,
+                    UploadSession.Status.OPEN, stuckBefore, LocalDateTime.now()) == 0) {
+                continue;
+            }
+            try {
+                deleteStaging(session.getId());
+                uploadSessionRepository.deleteById(session.getId());
+            } catch (IOException e) {
+                System.out.println("Failed to purge upload session " + session.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private int transition(String sessionId, UploadSession.Status from, UploadSession.Status to) {
+        return transactionTemplate.execute(status -> uploadSessionRepository.transition(sessionId, from, to, LocalDateTime.now()));
+    }
+
+    private UploadSession findOpenSession(User user, String sessionId) {
+        UploadSession session = uploadSessionRepository.findByIdAndUser(sessionId, user)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        if (session.getStatus() == UploadSession.Status.COMPLETED || session.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("Upload session is no longer active");
+        }
+        return session;
+    }
+
+    private long expectedChunkSize(UploadSession session, int index) {
+        if (index < session.getChunkCount() - 1) {
+            return session.getChunkSize();
+        }
+        return session.getTotalSize() - (long) session.getChunkSize() * (session.getChunkCount() - 1);
+    }
+
+    private List<Integer> receivedChunks(UploadSession session) throws IOException {
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            if (Files.exists(partPath(session.getId(), i))) {
+                received.add(i);
+            }
+        }
+        return received;
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session, List<Integer> received) {
+        long contiguous = 0;
+        for (int i = 0; i < received.size() && received.get(i) == i; i++) {
+            contiguous += expectedChunkSize(session, i);
+        }
+        return UploadSessionResponse.builder()
+                .sessionId(session.getId())
+                .fileName(session.getFileName())
+                .totalSize(session.getTotalSize())
+                .chunkSize(session.getChunkSize())
+                .chunkCount(session.getChunkCount())
+                .receivedChunks(received)
+                .receivedBytes(contiguous)
+                .status(session.getStatus().name())
+                .expiresAt(session.getExpiresAt())
+                .build();
+    }
+
+    private Path stagingDir(String sessionId) {
+        return Paths.get(uploadDir, ".staging", sessionId);
+    }
+
+    private Path partPath(String sessionId, int index) {
+        return stagingDir(sessionId).resolve(index + ".part");
+    }
+
+    private void deleteStaging(String sessionId) throws IOException {
+        Path dir = stagingDir(sessionId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.cloudstore.service;
 
+import com.cloudstore.dto.AuthResponse;
+import com.cloudstore.dto.StorageUsageResponse;
 import com.cloudstore.dto.UpdateUserProfileRequest;
 import com.cloudstore.dto.UserProfileResponse;
 import com.cloudstore.model.User;
 import com.cloudstore.repository.UserRepository;
+import com.cloudstore.security.PasswordHasher;
+import com.cloudstore.security.PrincipalCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -14,7 +17,10 @@ import org.springframework.transaction.annotation.Transactional;
 @RequiredArgsConstructor
 public class UserService {
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
+    private final QuotaService quotaService;
+    private final PrincipalCache principalCache;
+    private final AuthService authService;
 
     private User getCurrentUserEntity() {
         Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
@@ -32,6 +38,12 @@ public class UserService {
         throw new RuntimeException("Unknown principal type: " + principal.getClass());
     }
 
+    // The request principal may come from the cache; changes are made to a freshly loaded row
+    private User loadCurrentUserForUpdate() {
+        return userRepository.findById(getCurrentUserEntity().getId())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
     public UserProfileResponse getCurrentUser() {
         User user = getCurrentUserEntity();
         return new UserProfileResponse(
@@ -46,25 +58,66 @@ public class UserService {
 
     @Transactional
     public UserProfileResponse updateProfile(UpdateUserProfileRequest request) {
-        User user = getCurrentUserEntity();
+        User user = loadCurrentUserForUpdate();
         user.setName(request.getName());
         userRepository.save(user);
-        return getCurrentUser();
+        principalCache.invalidate(user.getId());
+        return new UserProfileResponse(
+                user.getId(),
+                user.getEmail(),
+                user.getName(),
+                user.isEmailVerified(),
+                user.getCreatedAt(),
+                user.getUpdatedAt()
+        );
+    }
+
+    public StorageUsageResponse getStorageUsage() {
+        return quotaService.describe(getCurrentUserEntity().getId());
+    }
+
+    // Users can only drop back to the free plan themselves; paid plans are set through the admin API
+    @Transactional
+    public StorageUsageResponse updatePlan(String plan) {
+        if (!"free".equals(quotaService.normalizePlan(plan))) {
+            throw new RuntimeException("Paid plans are activated once the payment is confirmed");
+        }
+        return setPlan(loadCurrentUserForUpdate(), "free");
+    }
+
+    @Transactional
+    public StorageUsageResponse setPlan(Long userId, String plan) {
+        User user = userRepository.findById(userId).orElseThrow(() -> new RuntimeException("User not found"));
+        return setPlan(user, quotaService.normalizePlan(plan));
+    }
+
+    private StorageUsageResponse setPlan(User user, String normalized) {
+        user.setPlan(normalized);
+        userRepository.save(user);
+        principalCache.invalidate(user.getId());
+        quotaService.planChanged(user.getId(), normalized);
+        return quotaService.describe(user.getId());
     }
 
     @Transactional
     public void deleteAccount() {
-        User user = getCurrentUserEntity();
+        User user = loadCurrentUserForUpdate();
         userRepository.delete(user);
+        principalCache.invalidate(user.getId());
     }
 
-    @Transactional
-    public void changePassword(String currentPassword, String newPassword) {
-        User user = getCurrentUserEntity();
-        if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
+    // No transaction around the hashing; the update only applies if the password is still the one verified.
+    // Every existing token is revoked, and this device gets a fresh pair so it stays signed in.
+    public AuthResponse changePassword(String currentPassword, String newPassword) {
+        User user = loadCurrentUserForUpdate();
+        if (!passwordHasher.matches(currentPassword, user.getPassword())) {
             throw new RuntimeException("Current password is incorrect");
         }
-        user.setPassword(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
+        String hash = passwordHasher.encode(newPassword);
+        if (userRepository.updatePasswordIfUnchanged(user.getId(), user.getPassword(), hash) == 0) {
+            throw new RuntimeException("Password was changed by another request, please try again");
+        }
+        principalCache.invalidate(user.getId());
+        return authService.reissueAfterRevoking(user);
     }
 } 
\ No newline at end of file
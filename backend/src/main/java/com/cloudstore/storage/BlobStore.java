@@ -0,0 +1,242 @@
+package com.cloudstore.storage;
+
+import com.cloudstore.model.Blob;
+import com.cloudstore.repository.BlobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+/**
+ * Stores upload content by SHA-256 in the active {@link StorageBackend}, with a reference
+ * count per blob in the {@code blobs} table.
+ *
+ * <p>Identical content is kept once. Refcount changes go through the blob row, so its row
+ * lock orders concurrent uploads and deletes of the same hash: an upload takes its
+ * reference before checking whether the body exists, and a body is only removed while
+ * its row is locked with a zero count.
+ *
+ * <p>Bodies are written inside the caller's transaction, so the row is registered first in a
+ * transaction of its own: if the caller then rolls back, the row stays behind with a zero count
+ * and the reclaimer's sweep removes the body instead of leaving it untracked in storage.
+ */
+@Component
+public class BlobStore {
+    private final BlobRepository blobRepository;
+    private final StreamingFileWriter streamingFileWriter;
+    private final StorageBackend backend;
+    private final TransactionTemplate reclaimTransaction;
+    private final JdbcTemplate jdbcTemplate;
+    private final List<Consumer<String>> reclaimListeners = new CopyOnWriteArrayList<>();
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    public BlobStore(BlobRepository blobRepository, StreamingFileWriter streamingFileWriter,
+                     StorageBackend backend, PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate) {
+        this.blobRepository = blobRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingFileWriter = streamingFileWriter;
+        this.backend = backend;
+        this.reclaimTransaction = new TransactionTemplate(transactionManager);
+        this.reclaimTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    // Streams content into the staging area; the result must be passed to commit() or discarded
+    public StreamedFile stage(InputStream in) throws IOException {
+        Path temp = newStagingFile();
+        try {
+            return streamingFileWriter.copy(in, temp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    public Path newStagingFile() throws IOException {
+        Path staging = Paths.get(uploadDir, ".staging");
+        Files.createDirectories(staging);
+        return Files.createTempFile(staging, ".blob-", ".tmp");
+    }
+
+    // Takes a reference on the staged content; the staged file is handed to the backend or dropped as a duplicate
+    @Transactional(rollbackFor = IOException.class)
+    public Blob commit(StreamedFile staged) throws IOException {
+        String hash = staged.getSha256();
+        registerRows(List.of(staged));
+        blobRepository.acquire(hash, staged.getSize());
+        storeBody(staged);
+        return blobRepository.getReferenceById(hash);
+    }
+
+    // Batch form of commit(): references are taken in this transaction, bodies are written in parallel on the executor
+    @Transactional(rollbackFor = IOException.class)
+    public List<Blob> commitAll(List<StreamedFile> staged, Executor executor) throws IOException {
+        // Lock blob rows in hash order so overlapping batches cannot deadlock each other
+        List<StreamedFile> ordered = new ArrayList<>(staged);
+        ordered.sort(Comparator.comparing(StreamedFile::getSha256));
+        registerRows(ordered);
+        Map<String, StreamedFile> bodies = new LinkedHashMap<>();
+        for (StreamedFile file : ordered) {
+            blobRepository.acquire(file.getSha256(), file.getSize());
+            if (bodies.putIfAbsent(file.getSha256(), file) != null) {
+                discard(file);
+            }
+        }
+        List<CompletableFuture<Void>> writes = new ArrayList<>(bodies.size());
+        for (StreamedFile body : bodies.values()) {
+            writes.add(CompletableFuture.runAsync(() -> {
+                try {
+                    storeBody(body);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        List<Blob> blobs = new ArrayList<>(staged.size());
+        for (StreamedFile file : staged) {
+            blobs.add(blobRepository.getReferenceById(file.getSha256()));
+        }
+        return blobs;
+    }
+
+    // Commits an unreferenced row for each new hash before any body is written (see class comment)
+    private void registerRows(List<StreamedFile> files) {
+        Map<String, Long> sizes = new TreeMap<>();
+        files.forEach(file -> sizes.putIfAbsent(file.getSha256(), file.getSize()));
+        List<Object[]> rows = new ArrayList<>(sizes.size());
+        sizes.forEach((hash, size) -> rows.add(new Object[]{hash, size}));
+        try {
+            reclaimTransaction.executeWithoutResult(status -> {
+                // Only waits when another transaction has an uncommitted insert of the same hash
+                jdbcTemplate.execute("SET LOCAL lock_timeout = '5s'");
+                jdbcTemplate.batchUpdate("INSERT INTO blobs (hash, size, ref_count, created_at) VALUES (?, ?, 0, now())"
+                        + " ON CONFLICT (hash) DO NOTHING", rows);
+            });
+        } catch (RuntimeException e) {
+            // That transaction owns the row; acquire() below still takes our reference
+            System.out.println("Could not pre-register blobs: " + e.getMessage());
+        }
+    }
+
+    // Hands the staged file to the backend, or drops it when the body is already there
+    private void storeBody(StreamedFile staged) throws IOException {
+        backend.putFileIfAbsent(staged.getSha256(), staged.getPath());
+    }
+
+    public void discard(StreamedFile staged) {
+        try {
+            Files.deleteIfExists(staged.getPath());
+        } catch (IOException e) {
+            System.out.println("Failed to discard staged upload " + staged.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    // Drops one reference; once that commits, a blob left without references is reclaimed
+    @Transactional
+    public void release(String hash) {
+        if (blobRepository.release(hash) == 0) {
+            return;
+        }
+        afterCommit(() -> reclaim(hash));
+    }
+
+    // Drops one reference and leaves an unreferenced body for the reclaimer's sweep
+    @Transactional
+    public void releaseDeferred(String hash) {
+        blobRepository.release(hash);
+    }
+
+    // Drops references in one batch (hash -> count); rows are locked in hash order like commitAll()
+    @Transactional
+    public void releaseAllDeferred(Map<String, Long> counts) {
+        List<Object[]> batch = new ArrayList<>(counts.size());
+        counts.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> batch.add(new Object[]{entry.getValue(), entry.getKey()}));
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE blobs SET ref_count = GREATEST(ref_count - ?, 0) WHERE hash = ?", batch);
+        }
+    }
+
+    // Called with the hash of every reclaimed blob, e.g. to drop artifacts derived from its content
+    public void onReclaim(Consumer<String> listener) {
+        reclaimListeners.add(listener);
+    }
+
+    // Deletes the body of an unreferenced blob; anything missed here is left for a later sweep
+    public boolean reclaim(String hash) {
+        boolean reclaimed;
+        try {
+            reclaimed = Boolean.TRUE.equals(reclaimTransaction.execute(status -> {
+                if (blobRepository.lockUnreferenced(hash).isEmpty()) {
+                    return false;
+                }
+                try {
+                    backend.delete(hash);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to delete blob " + hash + ": " + e.getMessage(), e);
+                }
+                blobRepository.deleteById(hash);
+                return true;
+            }));
+        } catch (RuntimeException e) {
+            System.out.println("Failed to reclaim blob " + hash + ": " + e.getMessage());
+            return false;
+        }
+        if (reclaimed) {
+            for (Consumer<String> listener : reclaimListeners) {
+                try {
+                    listener.accept(hash);
+                } catch (RuntimeException e) {
+                    System.out.println("Reclaim listener failed for blob " + hash + ": " + e.getMessage());
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    // Resets the refcount to the number of rows that actually point at the blob. The row lock is
+    // taken first, so an upload holding a new reference commits its file row before we count.
+    public long repairRefCount(String hash) {
+        Long count = reclaimTransaction.execute(status -> {
+            if (blobRepository.lockForUpdate(hash).isEmpty()) {
+                return null;
+            }
+            blobRepository.resetRefCount(hash);
+            return blobRepository.findById(hash).map(Blob::getRefCount).orElse(null);
+        });
+        return count != null ? count : -1;
+    }
+}
@@ -0,0 +1,96 @@
+package com.cloudstore.storage;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.utils.ObjectUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+// Objects as Cloudinary "raw" assets, keyed by public_id; reads go through the CDN delivery URL.
+// Nothing on the request path touches the rate-limited Admin API: uploads use overwrite=false, so
+// storing a key that already exists is a no-op, and stat() is a HEAD against the delivery URL.
+public class CloudinaryStorageBackend implements StorageBackend {
+    private static final long LARGE_UPLOAD_THRESHOLD = 100L * 1024 * 1024;
+
+    private final Cloudinary cloudinary;
+    private final RemoteUrlStorageBackend delivery;
+
+    public CloudinaryStorageBackend(Cloudinary cloudinary, RemoteUrlStorageBackend delivery) {
+        this.cloudinary = cloudinary;
+        this.delivery = delivery;
+    }
+
+    @Override
+    public String name() {
+        return "cloudinary";
+    }
+
+    @Override
+    public void put(String key, InputStream content, long length) throws IOException {
+        // The SDK uploads from a File or byte[]; spooling to disk keeps the body out of the heap
+        Path spool = Files.createTempFile("cloudinary-", ".upload");
+        try {
+            Files.copy(content, spool, StandardCopyOption.REPLACE_EXISTING);
+            putFile(key, spool);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        if (Files.size(source) > LARGE_UPLOAD_THRESHOLD) {
+            cloudinary.uploader().uploadLarge(source.toFile(), uploadOptions(key));
+        } else {
+            cloudinary.uploader().upload(source.toFile(), uploadOptions(key));
+        }
+        Files.deleteIfExists(source);
+    }
+
+    // An existing public_id is left as is (overwrite=false), so no existence check is needed first
+    @Override
+    public void putFileIfAbsent(String key, Path source) throws IOException {
+        putFile(key, source);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        return delivery.get(deliveryUrl(key), offset, length);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        Map<?, ?> result = cloudinary.uploader().destroy(key, ObjectUtils.asMap("resource_type", "raw", "invalidate", true));
+        return "ok".equals(result.get("result"));
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        return delivery.stat(deliveryUrl(key)).map(stat -> new ObjectStat(key, stat.getSize(), stat.getLastModified(), stat.getEtag()));
+    }
+
+    // Delivery URLs for uploaded assets do not expire; the ttl is not applicable
+    @Override
+    public Optional<URI> presign(String key, Duration ttl) {
+        return Optional.of(URI.create(deliveryUrl(key)));
+    }
+
+    private String deliveryUrl(String key) {
+        return cloudinary.url().resourceType("raw").secure(true).generate(key);
+    }
+
+    private Map<?, ?> uploadOptions(String key) {
+        return ObjectUtils.asMap(
+                "resource_type", "raw",
+                "public_id", key,
+                "overwrite", false
+        );
+    }
+}
@@ -0,0 +1,129 @@
+package com.cloudstore.storage;
+
+import com.cloudstore.model.File;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static com.cloudstore.config.Transactions.afterCommit;
+
+/**
+ * Resolves where a {@link File}'s content lives. Blob-backed files go to the configured
+ * {@link StorageBackend}; legacy rows fall back to their upload path or external URL.
+ * This is the only place that needs to know the difference.
+ */
+@Component
+@RequiredArgsConstructor
+public class FileStorage {
+    private final StorageBackend backend;
+    private final BlobStore blobStore;
+    private final RemoteUrlStorageBackend remoteUrls;
+
+    private final StorageBackend legacyPaths = new LocalDiskStorageBackend(Paths.get(""), false);
+
+    @Value("${storage.presign-ttl-minutes:60}")
+    private long presignTtlMinutes;
+
+    public Resource resource(File file) throws IOException {
+        ReadableStorage target = backendFor(file);
+        String key = keyFor(file);
+        Optional<Path> local = target.localPath(key);
+        if (local.isPresent()) {
+            return new FileSystemResource(local.get());
+        }
+        long size = file.getBlob() != null ? file.getBlob().getSize() : -1;
+        return new StorageResource(target, key, file.getName(), size);
+    }
+
+    public InputStream open(File file) throws IOException {
+        return backendFor(file).get(keyFor(file), 0, -1);
+    }
+
+    // A URL the client can fetch directly, if the backing store can hand one out
+    public Optional<String> presign(File file) {
+        return backendFor(file).presign(keyFor(file), Duration.ofMinutes(presignTtlMinutes)).map(Object::toString);
+    }
+
+    // Same as presign(File) for blob-backed rows when only the hash was loaded
+    public Optional<String> presignBlob(String hash) {
+        return backend.presign(hash, Duration.ofMinutes(presignTtlMinutes)).map(Object::toString);
+    }
+
+    // Drops this file's claim on its content; only blob-backed content and legacy uploads are owned by us
+    public void release(File file) throws IOException {
+        if (file.getBlob() != null) {
+            blobStore.release(file.getBlob().getHash());
+        } else {
+            deleteLegacyUploadAfterCommit(file);
+        }
+    }
+
+    // Like release(), but an unreferenced blob is left for the reclaimer's sweep instead of deleted after commit
+    public void releaseDeferred(File file) throws IOException {
+        if (file.getBlob() != null) {
+            blobStore.releaseDeferred(file.getBlob().getHash());
+        } else {
+            deleteLegacyUploadAfterCommit(file);
+        }
+    }
+
+    // Rows from before blobs point at their own file under the upload dir; URL files (including the
+    // old "cloud://" placeholder paths) are not ours to delete
+    private void deleteLegacyUploadAfterCommit(File file) {
+        String path = file.getPath();
+        if (path == null || path.contains("://") || (file.getUrl() != null && !file.getUrl().isEmpty())) {
+            return;
+        }
+        afterCommit(() -> {
+            try {
+                legacyPaths.delete(path);
+            } catch (IOException e) {
+                System.out.println("Failed to delete legacy upload " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Backend-safe name for artifacts derived from a file's content (thumbnails, previews):
+    // the blob hash, or a hash of the URL/path for content we do not own
+    public String derivedKeyBase(File file) {
+        if (file.getBlob() != null) {
+            return file.getBlob().getHash();
+        }
+        String source = keyFor(file);
+        return "ext-" + HexFormat.of().formatHex(StreamingFileWriter.newDigest().digest(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private ReadableStorage backendFor(File file) {
+        if (file.getBlob() != null) {
+            return backend;
+        }
+        if (file.getUrl() != null && !file.getUrl().isEmpty()) {
+            return remoteUrls;
+        }
+        if (file.getPath() != null) {
+            return legacyPaths;
+        }
+        throw new RuntimeException("File content not found");
+    }
+
+    private String keyFor(File file) {
+        if (file.getBlob() != null) {
+            return file.getBlob().getHash();
+        }
+        if (file.getUrl() != null && !file.getUrl().isEmpty()) {
+            return file.getUrl();
+        }
+        return file.getPath();
+    }
+}
@@ -0,0 +1,15 @@
+package com.cloudstore.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class ObjectStat {
+    private String key;
+    private long size;
+    private Instant lastModified;
+    private String etag;
+}
@@ -0,0 +1,347 @@
+package com.cloudstore.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming ZIP writer that deflates each entry in parallel, pigz-style.
+ *
+ * <p>Entry data is cut into fixed-size blocks. Each block is deflated on the executor with the
+ * previous 32 KiB of input as its preset dictionary and ends in a sync flush, so the compressed
+ * blocks concatenate into one valid deflate stream at close to single-threaded ratios. At most
+ * a small window of blocks is in flight, so memory use does not depend on entry size.
+ *
+ * <p>Sizes are written in a data descriptor after each entry. As with
+ * {@link java.util.zip.ZipOutputStream}, the descriptor widens to 64-bit sizes only for entries
+ * past 4 GiB, and Zip64 central directory records are used when an entry, offset or the entry
+ * count outgrow the classic format.
+ */
+public class ParallelZipWriter implements AutoCloseable {
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int window;
+    private final boolean parallel;
+    private final List<Entry> entries = new ArrayList<>();
+    private long written;
+
+    public ParallelZipWriter(OutputStream out, ExecutorService executor, int parallelism, int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        this.out = out;
+        this.executor = executor;
+        this.level = level;
+        this.window = Math.max(2, parallelism * 2);
+        this.parallel = parallelism > 1;
+    }
+
+    // Adds one entry; progress is told how many input bytes have been consumed so far
+    public void addEntry(String name, InputStream in, LocalDateTime modified, LongConsumer progress) throws IOException {
+        Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8), written, dosTime(modified));
+        writeLocalHeader(entry);
+        CRC32 crc = new CRC32();
+        long[] counts = deflate(in, crc, progress);
+        entry.crc = crc.getValue();
+        entry.size = counts[0];
+        entry.compressedSize = counts[1];
+        writeDataDescriptor(entry);
+        entries.add(entry);
+    }
+
+    // Writes the central directory; the underlying stream is left open
+    public void finish() throws IOException {
+        long centralStart = written;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = written - centralStart;
+        boolean zip64 = entries.size() >= 0xFFFF || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64End = written;
+            LittleEndian header = new LittleEndian(56);
+            header.u32(0x06064b50).u64(44).u16(45).u16(45).u32(0).u32(0)
+                    .u64(entries.size()).u64(entries.size()).u64(centralSize).u64(centralStart);
+            write(header.bytes());
+            LittleEndian locator = new LittleEndian(20);
+            locator.u32(0x07064b50).u32(0).u64(zip64End).u32(1);
+            write(locator.bytes());
+        }
+        LittleEndian end = new LittleEndian(22);
+        end.u32(0x06054b50).u16(0).u16(0)
+                .u16(Math.min(entries.size(), 0xFFFF)).u16(Math.min(entries.size(), 0xFFFF))
+                .u32(Math.min(centralSize, ZIP64_MAGIC)).u32(Math.min(centralStart, ZIP64_MAGIC)).u16(0);
+        write(end.bytes());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    // Returns {uncompressed bytes, compressed bytes}
+    private long[] deflate(InputStream in, CRC32 crc, LongConsumer progress) throws IOException {
+        if (!parallel) {
+            return deflateSequential(in, crc, progress);
+        }
+        long size = 0;
+        long compressed = 0;
+        byte[] dictionary = null;
+        byte[] block = in.readNBytes(BLOCK_SIZE);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            while (true) {
+                // Peek one block ahead so the last block is known and can finish the stream
+                byte[] next = block.length == BLOCK_SIZE ? in.readNBytes(BLOCK_SIZE) : new byte[0];
+                boolean last = next.length == 0;
+                crc.update(block);
+                size += block.length;
+                if (last && pending.isEmpty()) {
+                    // Small inputs (and tails) skip the thread hop
+                    byte[] result = deflateBlock(block, dictionary, true, level);
+                    write(result);
+                    compressed += result.length;
+                    progress.accept(size);
+                    break;
+                }
+                byte[] input = block;
+                byte[] preset = dictionary;
+                pending.add(executor.submit(() -> deflateBlock(input, preset, last, level)));
+                dictionary = tail(block, dictionary);
+                while (pending.size() >= window || (last && !pending.isEmpty())) {
+                    byte[] result = await(pending.poll());
+                    write(result);
+                    compressed += result.length;
+                }
+                progress.accept(size);
+                if (last) {
+                    break;
+                }
+                block = next;
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+        return new long[]{size, compressed};
+    }
+
+    // With a single core the block split only adds overhead, so stream through one Deflater
+    private long[] deflateSequential(InputStream in, CRC32 crc, LongConsumer progress) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        byte[] input = new byte[BLOCK_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        long size = 0;
+        long compressed = 0;
+        try {
+            int n;
+            while ((n = in.readNBytes(input, 0, input.length)) > 0) {
+                crc.update(input, 0, n);
+                size += n;
+                deflater.setInput(input, 0, n);
+                while (!deflater.needsInput()) {
+                    int produced = deflater.deflate(buffer);
+                    out.write(buffer, 0, produced);
+                    compressed += produced;
+                }
+                progress.accept(size);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int produced = deflater.deflate(buffer);
+                out.write(buffer, 0, produced);
+                compressed += produced;
+            }
+        } finally {
+            deflater.end();
+        }
+        written += compressed;
+        return new long[]{size, compressed};
+    }
+
+    private static byte[] deflateBlock(byte[] input, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                result.write(buffer, 0, n);
+                if (last ? deflater.finished() : n < buffer.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Last 32 KiB of input seen so far, which primes the next block
+    private static byte[] tail(byte[] block, byte[] previous) {
+        if (block.length >= DICTIONARY_SIZE) {
+            return Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+        }
+        byte[] prefix = previous != null ? previous : new byte[0];
+        byte[] joined = new byte[Math.min(DICTIONARY_SIZE, prefix.length + block.length)];
+        int fromPrefix = joined.length - block.length;
+        System.arraycopy(prefix, prefix.length - fromPrefix, joined, 0, fromPrefix);
+        System.arraycopy(block, 0, joined, fromPrefix, block.length);
+        return joined;
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        LittleEndian header = new LittleEndian(30 + entry.name.length);
+        header.u32(0x04034b50).u16(20).u16(entry.flags()).u16(Deflater.DEFLATED)
+                .u32(entry.dosTime).u32(0).u32(0).u32(0)
+                .u16(entry.name.length).u16(0)
+                .raw(entry.name);
+        write(header.bytes());
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        LittleEndian descriptor = new LittleEndian(zip64 ? 24 : 16);
+        descriptor.u32(0x08074b50).u32(entry.crc);
+        if (zip64) {
+            descriptor.u64(entry.compressedSize).u64(entry.size);
+        } else {
+            descriptor.u32(entry.compressedSize).u32(entry.size);
+        }
+        write(descriptor.bytes());
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean bigSize = entry.size >= ZIP64_MAGIC;
+        boolean bigCompressed = entry.compressedSize >= ZIP64_MAGIC;
+        boolean bigOffset = entry.offset >= ZIP64_MAGIC;
+        int extraLength = (bigSize || bigCompressed || bigOffset)
+                ? 4 + 8 * ((bigSize ? 1 : 0) + (bigCompressed ? 1 : 0) + (bigOffset ? 1 : 0)) : 0;
+        boolean zip64 = extraLength > 0;
+        LittleEndian header = new LittleEndian(46 + entry.name.length + extraLength);
+        header.u32(0x02014b50).u16(zip64 ? 45 : 20).u16(zip64 ? 45 : 20).u16(entry.flags()).u16(Deflater.DEFLATED)
+                .u32(entry.dosTime).u32(entry.crc)
+                .u32(bigCompressed ? ZIP64_MAGIC : entry.compressedSize)
+                .u32(bigSize ? ZIP64_MAGIC : entry.size)
+                .u16(entry.name.length).u16(extraLength).u16(0).u16(0).u16(0).u32(0)
+                .u32(bigOffset ? ZIP64_MAGIC : entry.offset)
+                .raw(entry.name);
+        if (extraLength > 0) {
+            header.u16(0x0001).u16(extraLength - 4);
+            if (bigSize) {
+                header.u64(entry.size);
+            }
+            if (bigCompressed) {
+                header.u64(entry.compressedSize);
+            }
+            if (bigOffset) {
+                header.u64(entry.offset);
+            }
+        }
+        write(header.bytes());
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    private static long dosTime(LocalDateTime time) {
+        LocalDateTime t = time != null ? time : LocalDateTime.now();
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21) | ((long) t.getDayOfMonth() << 16)
+                | ((long) t.getHour() << 11) | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    private static final class Entry {
+        final byte[] name;
+        final long offset;
+        final long dosTime;
+        long crc;
+        long size;
+        long compressedSize;
+
+        Entry(byte[] name, long offset, long dosTime) {
+            this.name = name;
+            this.offset = offset;
+            this.dosTime = dosTime;
+        }
+
+        // Bit 3: sizes follow in a data descriptor; bit 11: UTF-8 names
+        int flags() {
+            return 0x0008 | 0x0800;
+        }
+    }
+
+    private static final class LittleEndian {
+        private final byte[] bytes;
+        private int position;
+
+        LittleEndian(int length) {
+            bytes = new byte[length];
+        }
+
+        LittleEndian u16(long value) {
+            bytes[position++] = (byte) value;
+            bytes[position++] = (byte) (value >>> 8);
+            return this;
+        }
+
+        LittleEndian u32(long value) {
+            return u16(value).u16(value >>> 16);
+        }
+
+        LittleEndian u64(long value) {
+            return u32(value).u32(value >>> 32);
+        }
+
+        LittleEndian raw(byte[] data) {
+            System.arraycopy(data, 0, bytes, position, data.length);
+            position += data.length;
+            return this;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+    }
+}
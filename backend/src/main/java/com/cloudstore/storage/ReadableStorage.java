@@ -0,0 +1,30 @@
+package com.cloudstore.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The read side of a {@link StorageBackend}. Content we serve but do not own, such as files at an
+ * external URL, is only readable, so there is no way to route a write or delete to it.
+ */
+public interface ReadableStorage {
+
+    String name();
+
+    // Reads length bytes starting at offset; a negative length reads to the end
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    Optional<ObjectStat> stat(String key) throws IOException;
+
+    // Time-limited URL clients can fetch directly, when the backend can serve one
+    Optional<URI> presign(String key, Duration ttl);
+
+    // Direct filesystem access for backends that keep objects on local disk
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,326 @@
+package com.cloudstore.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Local disk cache for remote (URL) file bodies.
+ *
+ * <ul>
+ *   <li>LRU eviction against a byte budget</li>
+ *   <li>revalidation with If-None-Match / If-Modified-Since once an entry is older than the revalidation interval</li>
+ *   <li>one shared keep-alive {@link HttpClient}</li>
+ *   <li>singleflight: concurrent misses for the same URL share a single upstream fetch</li>
+ *   <li>readers get an open channel; eviction may unlink a file under them, but never one they have yet to open</li>
+ * </ul>
+ *
+ * The index is kept in memory, so the cache directory is cleared on startup and refilled lazily.
+ */
+@Component
+public class RemoteFileCache {
+
+    @Value("${storage.remote-cache.dir:${file.upload-dir:uploads}/.cache}")
+    private String cacheDir;
+
+    @Value("${storage.remote-cache.max-bytes:2147483648}")
+    private long maxBytes;
+
+    @Value("${storage.remote-cache.revalidate-seconds:300}")
+    private long revalidateSeconds;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // Downloads in progress, with the readers waiting on each; guarded by this
+    private final Map<String, Flight> inflight = new HashMap<>();
+    private long totalBytes;
+
+    @PostConstruct
+    void init() throws IOException {
+        Path dir = Paths.get(cacheDir);
+        Files.createDirectories(dir);
+        try (Stream<Path> stale = Files.list(dir)) {
+            for (Path path : stale.toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // Reads length bytes from offset (negative length = to the end), fetching or revalidating as needed
+    public InputStream open(String url, long offset, long length) throws IOException {
+        // Eviction can delete a retained file between resolving and opening it; that is rare, so resolve again
+        for (int attempt = 0; attempt < 3; attempt++) {
+            FileChannel channel = openChannel(url);
+            if (channel != null) {
+                channel.position(offset);
+                InputStream in = Channels.newInputStream(channel);
+                return length < 0 ? in : new BoundedInputStream(in, length);
+            }
+        }
+        throw new IOException("Cached copy of " + url + " was evicted before it could be read");
+    }
+
+    public Optional<ObjectStat> stat(String url) throws IOException {
+        CacheEntry cached = lookup(url);
+        if (cached != null) {
+            return Optional.of(new ObjectStat(url, cached.size, cached.lastModifiedInstant(), cached.etag));
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            return Optional.empty();
+        }
+        CacheEntry probe = new CacheEntry(url, null, response.headers().firstValueAsLong("Content-Length").orElse(-1),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null));
+        return Optional.of(new ObjectStat(url, probe.size, probe.lastModifiedInstant(), probe.etag));
+    }
+
+    // Returns null when the resolved file was evicted before it could be opened
+    private FileChannel openChannel(String url) throws IOException {
+        CacheEntry cached = lookup(url);
+        if (cached != null && !cached.needsRevalidation(revalidateSeconds)) {
+            return openIfPresent(cached);
+        }
+        Flight flight;
+        boolean leader;
+        synchronized (this) {
+            flight = inflight.get(url);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight();
+                inflight.put(url, flight);
+            }
+            flight.readers++;
+        }
+        try {
+            CacheEntry entry;
+            if (leader) {
+                try {
+                    entry = fetch(url, cached);
+                    flight.future.complete(entry);
+                } catch (IOException | RuntimeException e) {
+                    flight.future.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        inflight.remove(url, flight);
+                    }
+                }
+            } else {
+                entry = await(flight.future);
+            }
+            return openIfPresent(entry);
+        } finally {
+            leave(flight);
+        }
+    }
+
+    private static FileChannel openIfPresent(CacheEntry entry) throws IOException {
+        try {
+            return FileChannel.open(entry.path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // A file too big to keep is deleted once every reader that shared its download has opened it
+    // (or given up); open channels keep the data readable after that
+    private synchronized void leave(Flight flight) {
+        if (--flight.readers > 0 || !flight.future.isDone() || flight.future.isCompletedExceptionally()) {
+            return;
+        }
+        CacheEntry entry = flight.future.getNow(null);
+        if (entry != null && !entry.retained) {
+            deleteQuietly(entry.path);
+        }
+    }
+
+    private CacheEntry fetch(String url, CacheEntry cached) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET().timeout(Duration.ofMinutes(10));
+        if (cached != null && cached.etag != null) {
+            request.header("If-None-Match", cached.etag);
+        } else if (cached != null && cached.lastModified != null) {
+            request.header("If-Modified-Since", cached.lastModified);
+        }
+        Path temp = Files.createTempFile(Paths.get(cacheDir), ".fetch-", ".tmp");
+        boolean handedOff = false;
+        try {
+            HttpResponse<Path> response = send(request.build(), HttpResponse.BodyHandlers.ofFile(temp));
+            if (response.statusCode() == 304 && cached != null) {
+                cached.validatedAt = System.currentTimeMillis();
+                return cached;
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("Failed to download file from URL: status " + response.statusCode());
+            }
+            // One too big to keep is read straight from the download, which no later fetch of the URL can replace
+            Path target = temp;
+            if (!tooBigToKeep(Files.size(temp))) {
+                target = Paths.get(cacheDir, cacheFileName(url));
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            CacheEntry entry = new CacheEntry(url, target, Files.size(target),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null));
+            store(entry);
+            handedOff = true;
+            return entry;
+        } finally {
+            if (!handedOff) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private synchronized CacheEntry lookup(String url) {
+        CacheEntry entry = entries.get(url);
+        if (entry != null && !Files.exists(entry.path)) {
+            entries.remove(url);
+            totalBytes -= entry.size;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void store(CacheEntry entry) {
+        CacheEntry previous = entries.remove(entry.url);
+        if (previous != null) {
+            totalBytes -= previous.size;
+            if (!previous.path.equals(entry.path)) {
+                deleteQuietly(previous.path);
+            }
+        }
+        if (tooBigToKeep(entry.size)) {
+            entry.retained = false;
+            return;
+        }
+        entries.put(entry.url, entry);
+        totalBytes += entry.size;
+        Iterator<CacheEntry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            CacheEntry victim = eldest.next();
+            if (victim == entry) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= victim.size;
+            deleteQuietly(victim.path);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Failed to delete cached file " + path + ": " + e.getMessage());
+        }
+    }
+
+    // A single object above a quarter of the budget would flush everything else
+    private boolean tooBigToKeep(long size) {
+        return size > maxBytes / 4;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return httpClient.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + request.uri(), e);
+        }
+    }
+
+    private static class Flight {
+        final CompletableFuture<CacheEntry> future = new CompletableFuture<>();
+        int readers;
+    }
+
+    private static CacheEntry await(CompletableFuture<CacheEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shared download", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Shared download failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static String cacheFileName(String url) {
+        return HexFormat.of().formatHex(StreamingFileWriter.newDigest().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class CacheEntry {
+        final String url;
+        final Path path;
+        final long size;
+        final String etag;
+        final String lastModified;
+        volatile long validatedAt = System.currentTimeMillis();
+        volatile boolean retained = true;
+
+        CacheEntry(String url, Path path, long size, String etag, String lastModified) {
+            this.url = url;
+            this.path = path;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean needsRevalidation(long revalidateSeconds) {
+            return System.currentTimeMillis() - validatedAt > revalidateSeconds * 1000;
+        }
+
+        Instant lastModifiedInstant() {
+            if (lastModified == null) {
+                return null;
+            }
+            try {
+                return ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
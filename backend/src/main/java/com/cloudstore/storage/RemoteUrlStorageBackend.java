@@ -0,0 +1,37 @@
+package com.cloudstore.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+// Read-only view of files that live at an external URL (e.g. registered Cloudinary uploads); the key is the URL.
+// Bodies are served from the local RemoteFileCache so repeated reads do not go back over the network.
+public class RemoteUrlStorageBackend implements ReadableStorage {
+    private final RemoteFileCache cache;
+
+    public RemoteUrlStorageBackend(RemoteFileCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String name() {
+        return "url";
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        return cache.open(key, offset, length);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(String key) throws IOException {
+        return cache.stat(key);
+    }
+
+    @Override
+    public Optional<URI> presign(String key, Duration ttl) {
+        return Optional.of(URI.create(key));
+    }
+}
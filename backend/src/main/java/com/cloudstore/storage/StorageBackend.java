@@ -0,0 +1,35 @@
+package com.cloudstore.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where file bodies live. One implementation is active per deployment, selected by
+ * {@code storage.backend} (see {@link com.cloudstore.config.StorageConfig}); callers only deal in keys.
+ */
+public interface StorageBackend extends ReadableStorage {
+
+    void put(String key, InputStream content, long length) throws IOException;
+
+    // Stores the file under key and takes ownership of it; the source is gone afterwards
+    default void putFile(String key, Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            put(key, in, Files.size(source));
+        }
+        Files.deleteIfExists(source);
+    }
+
+    // Like putFile, but leaves an existing object alone (the source is still consumed). Content-addressed
+    // keys make the existing body identical, so backends that can skip the check should.
+    default void putFileIfAbsent(String key, Path source) throws IOException {
+        if (stat(key).isPresent()) {
+            Files.deleteIfExists(source);
+        } else {
+            putFile(key, source);
+        }
+    }
+
+    boolean delete(String key) throws IOException;
+}
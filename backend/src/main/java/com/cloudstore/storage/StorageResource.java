@@ -0,0 +1,92 @@
+package com.cloudstore.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resource over a backend object. Its streams open lazily, so the skip() that Spring MVC
+ * issues for a Range request becomes a ranged read on the backend instead of a download
+ * of everything in front of the requested bytes.
+ */
+public class StorageResource extends AbstractResource {
+    private final ReadableStorage backend;
+    private final String key;
+    private final String filename;
+    private final long size;
+
+    public StorageResource(ReadableStorage backend, String key, String filename, long size) {
+        this.backend = backend;
+        this.key = key;
+        this.filename = filename;
+        this.size = size;
+    }
+
+    @Override
+    public String getDescription() {
+        return backend.name() + " object [" + key + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        if (size >= 0) {
+            return size;
+        }
+        return backend.stat(key).map(ObjectStat::getSize)
+                .orElseThrow(() -> new IOException("Object not found: " + key));
+    }
+
+    @Override
+    public boolean isReadable() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new LazyRangeInputStream();
+    }
+
+    private class LazyRangeInputStream extends InputStream {
+        private long offset;
+        private InputStream delegate;
+
+        private InputStream delegate() throws IOException {
+            if (delegate == null) {
+                delegate = backend.get(key, offset, -1);
+            }
+            return delegate;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (delegate == null) {
+                offset += n;
+                return n;
+            }
+            return delegate.skip(n);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return delegate().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return delegate().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+    }
+}
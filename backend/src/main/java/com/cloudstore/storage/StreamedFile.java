@@ -0,0 +1,14 @@
+package com.cloudstore.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.file.Path;
+
+@Data
+@AllArgsConstructor
+public class StreamedFile {
+    private Path path;
+    private long size;
+    private String sha256;
+}
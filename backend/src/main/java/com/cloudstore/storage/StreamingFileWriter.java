@@ -0,0 +1,162 @@
+package com.cloudstore.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies an upload stream to disk through a pool of direct buffers, computing the
+ * size and SHA-256 of the content on the fly. Heap usage per upload is bounded by
+ * the buffer size regardless of how large the upload is.
+ */
+@Component
+public class StreamingFileWriter {
+
+    @Value("${file.upload.buffer-size:262144}")
+    private int bufferSize;
+
+    @Value("${file.upload.buffer-pool-size:32}")
+    private int poolSize;
+
+    @Value("${file.upload.buffer-wait-seconds:30}")
+    private long bufferWaitSeconds;
+
+    private BlockingQueue<ByteBuffer> pool;
+
+    @PostConstruct
+    void initPool() {
+        pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * Streams {@code in} into {@code target}. The content is first written to a sibling
+     * temp file and atomically moved into place, so readers never observe a partial file.
+     */
+    public StreamedFile write(InputStream in, Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, ".upload-", ".part");
+        try {
+            StreamedFile written = copy(in, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new StreamedFile(target, written.getSize(), written.getSha256());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams {@code in} into {@code target}, which is created or truncated.
+     */
+    public StreamedFile copy(InputStream in, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = acquire();
+        long size = 0;
+        try (ReadableByteChannel source = openChannel(in);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (true) {
+                buffer.clear();
+                int read = source.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+            }
+        } finally {
+            release(buffer);
+        }
+        return new StreamedFile(target, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Concatenates {@code parts} into {@code target} (created or truncated), hashing as it goes.
+     */
+    public StreamedFile concat(List<Path> parts, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = acquire();
+        long size = 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Path part : parts) {
+                try (FileChannel source = FileChannel.open(part, StandardOpenOption.READ)) {
+                    while (true) {
+                        buffer.clear();
+                        if (source.read(buffer) == -1) {
+                            break;
+                        }
+                        buffer.flip();
+                        digest.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            size += out.write(buffer);
+                        }
+                    }
+                }
+            }
+        } finally {
+            release(buffer);
+        }
+        return new StreamedFile(target, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private ReadableByteChannel openChannel(InputStream in) {
+        // Tomcat spools large parts to disk, so this usually avoids an extra heap copy
+        if (in instanceof FileInputStream) {
+            return ((FileInputStream) in).getChannel();
+        }
+        return Channels.newChannel(in);
+    }
+
+    private ByteBuffer acquire() throws IOException {
+        try {
+            ByteBuffer buffer = pool.poll(bufferWaitSeconds, TimeUnit.SECONDS);
+            if (buffer == null) {
+                throw new IOException("Upload buffers exhausted, try again later");
+            }
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an upload buffer", e);
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        pool.offer(buffer);
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
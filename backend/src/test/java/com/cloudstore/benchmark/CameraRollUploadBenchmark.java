@@ -0,0 +1,211 @@
+package com.cloudstore.benchmark;
+
+import com.cloudstore.storage.LocalDiskStorageBackend;
+import com.cloudstore.storage.StreamedFile;
+import com.cloudstore.storage.StreamingFileWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// A 200-photo camera-roll upload, the way uploadFilesForUser handled it before and after batching:
+//   before: per photo, look up the folder, stage, take the blob reference, store the body and insert
+//           the row with an IDENTITY id (one round trip each, nothing batched)
+//   after:  one folder lookup, staging and body writes in parallel on the upload pool, blob rows
+//           registered in one batch, ids from a pooled sequence and the rows sent as JDBC batches of 50
+// Staging and storage use the real StreamingFileWriter and LocalDiskStorageBackend; the SQL mirrors
+// what Hibernate and BlobStore send. Needs a PostgreSQL to talk to:
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.cloudstore.benchmark.CameraRollUploadBenchmark \
+//       jdbc:postgresql://localhost:5432/postgres postgres secret
+public class CameraRollUploadBenchmark {
+    private static final int PHOTOS = 200;
+    private static final int PHOTO_BYTES = 3 * 1024 * 1024;
+    private static final int PARALLELISM = 8;
+    private static final int ROUNDS = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final StreamingFileWriter writer = new StreamingFileWriter();
+    private final ExecutorService pool;
+    private final Path dir;
+    private final List<byte[]> photos = new ArrayList<>(PHOTOS);
+
+    CameraRollUploadBenchmark(String url, String user, String password) throws IOException {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(url, user, password, true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        ReflectionTestUtils.setField(writer, "bufferSize", 262144);
+        ReflectionTestUtils.setField(writer, "poolSize", 32);
+        ReflectionTestUtils.setField(writer, "bufferWaitSeconds", 30L);
+        ReflectionTestUtils.invokeMethod(writer, "initPool");
+        pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PARALLELISM * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        dir = Files.createTempDirectory("camera-roll");
+        Random random = new Random(42);
+        for (int i = 0; i < PHOTOS; i++) {
+            byte[] photo = new byte[PHOTO_BYTES];
+            random.nextBytes(photo);
+            photos.add(photo);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CameraRollUploadBenchmark benchmark = new CameraRollUploadBenchmark(args[0], args[1], args.length > 2 ? args[2] : "");
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.close();
+        }
+    }
+
+    void run() throws IOException {
+        long[] before = new long[ROUNDS];
+        long[] after = new long[ROUNDS];
+        // First round of each is warm-up
+        for (int round = -1; round < ROUNDS; round++) {
+            reset();
+            long started = System.nanoTime();
+            sequential();
+            long sequential = System.nanoTime() - started;
+            reset();
+            started = System.nanoTime();
+            batched();
+            long batched = System.nanoTime() - started;
+            if (round >= 0) {
+                before[round] = sequential;
+                after[round] = batched;
+            }
+        }
+        report("before (sequential, IDENTITY)", before);
+        report("after (parallel, batched)", after);
+    }
+
+    private void sequential() {
+        transaction.executeWithoutResult(status -> {
+            for (byte[] photo : photos) {
+                jdbcTemplate.queryForList("SELECT id FROM bench_folders WHERE id = 1");
+                StreamedFile staged = stage(photo);
+                jdbcTemplate.update("INSERT INTO bench_blobs (hash, size, ref_count) VALUES (?, ?, 0) ON CONFLICT (hash) DO NOTHING",
+                        staged.getSha256(), staged.getSize());
+                jdbcTemplate.update("UPDATE bench_blobs SET ref_count = ref_count + 1 WHERE hash = ?", staged.getSha256());
+                store(staged);
+                jdbcTemplate.queryForObject("INSERT INTO bench_files_identity (name, size, blob_hash, folder_id)"
+                        + " VALUES (?, ?, ?, 1) RETURNING id", Long.class, "IMG.jpg", staged.getSize(), staged.getSha256());
+            }
+        });
+    }
+
+    private void batched() {
+        jdbcTemplate.queryForList("SELECT id FROM bench_folders WHERE id = 1");
+        List<StreamedFile> staged = all(photos.stream()
+                .map(photo -> CompletableFuture.supplyAsync(() -> stage(photo), pool)).toList()).join();
+        transaction.executeWithoutResult(status -> {
+            List<StreamedFile> ordered = new ArrayList<>(staged);
+            ordered.sort(Comparator.comparing(StreamedFile::getSha256));
+            jdbcTemplate.batchUpdate("INSERT INTO bench_blobs (hash, size, ref_count) VALUES (?, ?, 0) ON CONFLICT (hash) DO NOTHING",
+                    ordered.stream().map(file -> new Object[]{file.getSha256(), file.getSize()}).toList());
+            for (StreamedFile file : ordered) {
+                jdbcTemplate.update("UPDATE bench_blobs SET ref_count = ref_count + 1 WHERE hash = ?", file.getSha256());
+            }
+            all(staged.stream().map(file -> CompletableFuture.runAsync(() -> store(file), pool)).toList()).join();
+            List<Object[]> rows = new ArrayList<>(staged.size());
+            long next = 0;
+            long last = -1;
+            for (StreamedFile file : staged) {
+                // Hibernate's pooled optimizer: one nextval per 50 ids
+                if (next > last) {
+                    last = jdbcTemplate.queryForObject("SELECT nextval('bench_files_seq')", Long.class);
+                    next = last - 49;
+                }
+                rows.add(new Object[]{next++, "IMG.jpg", file.getSize(), file.getSha256()});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO bench_files_seq_ids (id, name, size, blob_hash, folder_id) VALUES (?, ?, ?, ?, 1)",
+                    rows, 50, (ps, row) -> {
+                        for (int i = 0; i < row.length; i++) {
+                            ps.setObject(i + 1, row[i]);
+                        }
+                    });
+        });
+    }
+
+    private StreamedFile stage(byte[] photo) {
+        try (InputStream in = new ByteArrayInputStream(photo)) {
+            return writer.copy(in, Files.createTempFile(dir, ".blob-", ".tmp"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void store(StreamedFile staged) {
+        try {
+            new LocalDiskStorageBackend(dir.resolve("blobs"), true).putFileIfAbsent(staged.getSha256(), staged.getPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> CompletableFuture<List<T>> all(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    private void reset() throws IOException {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS bench_files_identity, bench_files_seq_ids, bench_blobs, bench_folders");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS bench_files_seq");
+        jdbcTemplate.execute("CREATE TABLE bench_folders (id bigint PRIMARY KEY)");
+        jdbcTemplate.execute("INSERT INTO bench_folders VALUES (1)");
+        jdbcTemplate.execute("CREATE TABLE bench_blobs (hash varchar(64) PRIMARY KEY, size bigint, ref_count bigint)");
+        jdbcTemplate.execute("CREATE TABLE bench_files_identity (id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                + " name varchar(255), size bigint, blob_hash varchar(64), folder_id bigint)");
+        jdbcTemplate.execute("CREATE TABLE bench_files_seq_ids (id bigint PRIMARY KEY,"
+                + " name varchar(255), size bigint, blob_hash varchar(64), folder_id bigint)");
+        jdbcTemplate.execute("CREATE SEQUENCE bench_files_seq INCREMENT BY 50 START WITH 50");
+        deleteContents(dir);
+    }
+
+    private void close() throws IOException {
+        pool.shutdown();
+        jdbcTemplate.execute("DROP TABLE IF EXISTS bench_files_identity, bench_files_seq_ids, bench_blobs, bench_folders");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS bench_files_seq");
+        deleteContents(dir);
+        Files.deleteIfExists(dir);
+    }
+
+    private static void deleteContents(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!path.equals(dir)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double medianMs = sorted[sorted.length / 2] / 1e6;
+        System.out.printf("%-32s median %8.1f ms  %6.1f photos/s  %6.1f MB/s  (min %.1f ms, max %.1f ms)%n", label, medianMs,
+                PHOTOS / (medianMs / 1000), PHOTOS * (PHOTO_BYTES / 1048576.0) / (medianMs / 1000),
+                sorted[0] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
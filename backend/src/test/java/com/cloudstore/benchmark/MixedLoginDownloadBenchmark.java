@@ -0,0 +1,167 @@
+package com.cloudstore.benchmark;
+
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.security.PasswordHasher;
+import com.cloudstore.security.PasswordHashingBusyException;
+import com.cloudstore.security.PrincipalCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.mockito.Mockito.mock;
+
+// Logins arriving faster than BCrypt can verify them, mixed with steady downloads, served by a pool the
+// size of Tomcat's default (200 threads):
+//   before: BCrypt runs on the request thread, so every thread a login holds is also burning CPU
+//   after:  logins go through PasswordHasher (its defaults: a pool of half the cores, queue of 32),
+//           and anything past that is rejected at once with a 503
+// Arrivals are open loop at fixed rates and latency counts from the scheduled arrival, so time spent
+// queued for a request thread is included. A download streams a 1 MB file through a 64 KB buffer.
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.cloudstore.benchmark.MixedLoginDownloadBenchmark
+public class MixedLoginDownloadBenchmark {
+    private static final int REQUEST_THREADS = 200;
+    private static final int COST = 10;
+    private static final int DOWNLOADS_PER_SECOND = 50;
+    private static final int DOWNLOAD_BYTES = 1024 * 1024;
+    private static final long RUN_SECONDS = 15;
+
+    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(COST);
+    private final String hash = encoder.encode("correct horse battery staple");
+    private final Path download;
+    private int loginsPerSecond;
+
+    MixedLoginDownloadBenchmark() throws IOException {
+        download = Files.createTempFile("download", ".bin");
+        byte[] bytes = new byte[DOWNLOAD_BYTES];
+        new Random(1).nextBytes(bytes);
+        Files.write(download, bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MixedLoginDownloadBenchmark benchmark = new MixedLoginDownloadBenchmark();
+        try {
+            benchmark.run();
+        } finally {
+            Files.deleteIfExists(benchmark.download);
+        }
+    }
+
+    void run() throws Exception {
+        // Login capacity of this machine, so the burst is the same overload everywhere
+        encoder.matches("warm-up", hash);
+        long started = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            encoder.matches("wrong password", hash);
+        }
+        double verifyMs = (System.nanoTime() - started) / 10 / 1e6;
+        int cores = Runtime.getRuntime().availableProcessors();
+        loginsPerSecond = (int) Math.ceil(2 * cores * 1000 / verifyMs);
+        System.out.printf("bcrypt cost %d: %.1f ms per verify, %d cores; %d logins/s (2x capacity) + %d downloads/s for %d s%n",
+                COST, verifyMs, cores, loginsPerSecond, DOWNLOADS_PER_SECOND, RUN_SECONDS);
+
+        mix("before (request threads)", () -> encoder.matches("wrong password", hash));
+
+        PasswordHasher hasher = new PasswordHasher(mock(UserRepository.class),
+                new PrincipalCache(mock(UserRepository.class), new SimpleMeterRegistry()), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(hasher, "configuredCost", COST);
+        ReflectionTestUtils.setField(hasher, "threads", 0);
+        ReflectionTestUtils.setField(hasher, "queueSize", 32);
+        ReflectionTestUtils.setField(hasher, "timeoutMs", 10000L);
+        ReflectionTestUtils.invokeMethod(hasher, "start");
+        try {
+            mix("after (PasswordHasher)", () -> {
+                try {
+                    return hasher.matches("wrong password", hash);
+                } catch (PasswordHashingBusyException e) {
+                    return true;
+                }
+            });
+        } finally {
+            ReflectionTestUtils.invokeMethod(hasher, "stop");
+        }
+    }
+
+    // The login task returns true when it was turned away rather than verified
+    private void mix(String label, BooleanSupplier login) throws InterruptedException {
+        ThreadPoolExecutor requests = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        requests.prestartAllCoreThreads();
+        List<Long> logins = Collections.synchronizedList(new ArrayList<>());
+        List<Long> rejections = Collections.synchronizedList(new ArrayList<>());
+        List<Long> downloads = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        long loginInterval = TimeUnit.SECONDS.toNanos(1) / loginsPerSecond;
+        long downloadInterval = TimeUnit.SECONDS.toNanos(1) / DOWNLOADS_PER_SECOND;
+        long nextLogin = start;
+        long nextDownload = start;
+        long end = start + TimeUnit.SECONDS.toNanos(RUN_SECONDS);
+        while (Math.min(nextLogin, nextDownload) < end) {
+            long due = Math.min(nextLogin, nextDownload);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (nextLogin <= nextDownload) {
+                long arrival = nextLogin;
+                requests.execute(() -> {
+                    boolean rejected = login.getAsBoolean();
+                    (rejected ? rejections : logins).add(System.nanoTime() - arrival);
+                });
+                nextLogin += loginInterval;
+            } else {
+                long arrival = nextDownload;
+                requests.execute(() -> {
+                    try (InputStream in = Files.newInputStream(download)) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                        downloads.add(System.nanoTime() - arrival);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                });
+                nextDownload += downloadInterval;
+            }
+        }
+        requests.shutdown();
+        requests.awaitTermination(1, TimeUnit.HOURS);
+
+        System.out.println(label);
+        report("  download", downloads);
+        report("  login (verified)", logins);
+        report("  login (503)", rejections);
+        if (failures.get() > 0) {
+            System.out.println("  download failures " + failures.get());
+        }
+    }
+
+    private static void report(String label, List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            System.out.printf("%-20s none%n", label);
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        System.out.printf("%-20s n=%5d  p50 %8.1f ms  p99 %8.1f ms  max %8.1f ms%n", label, sorted.size(),
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1)) / 1e6;
+    }
+}
@@ -0,0 +1,79 @@
+package com.cloudstore.benchmark;
+
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.security.JwtUtil;
+import com.cloudstore.security.TokenVersionService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Access token verification as the JWT filter does it, against the old per-request path that rebuilt
+// the HMAC key and parsed the token twice. Run with:
+//   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.cloudstore.benchmark.TokenVerificationBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenVerificationBenchmark {
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private JwtUtil jwtUtil;
+    private TokenVersionService versions;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "jwtExpirationMs", 3_600_000L);
+        ReflectionTestUtils.invokeMethod(jwtUtil, "init");
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findTokenVersion(7L)).thenReturn(Optional.of(3));
+        versions = new TokenVersionService(userRepository);
+        ReflectionTestUtils.setField(versions, "maxSize", 100_000);
+        token = jwtUtil.generateToken(7L, "ada@example.com", 3);
+        // Loads the version into memory, as the first request of a user does
+        versions.isCurrent(7L, 3);
+    }
+
+    @Benchmark
+    public boolean singleParseWithVersionCheck() {
+        Claims claims = jwtUtil.getClaimsFromToken(token);
+        return versions.isCurrent(JwtUtil.userIdOf(claims), JwtUtil.versionOf(claims));
+    }
+
+    @Benchmark
+    public String keyRebuiltAndParsedTwice() {
+        String email = Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes())).build()
+                .parseClaimsJws(token).getBody().getSubject();
+        Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes())).build().parseClaimsJws(token);
+        return email;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenVerificationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,171 @@
+package com.cloudstore.benchmark;
+
+import com.cloudstore.storage.StreamingFileWriter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// One upload of 10 MB, 500 MB and 2 GB, the way uploadFileForUser stored it before and after streaming:
+//   before: MultipartFile.getBytes() (StandardMultipartFile reads the whole part with FileCopyUtils)
+//           and one FileOutputStream.write of the array
+//   after:  StreamingFileWriter.write from the part's stream, through a pooled direct buffer,
+//           hashing as it goes and moving the temp file into place
+// The part is a file on disk opened as a FileInputStream, which is what Tomcat hands over for a
+// spooled upload. Heap is sampled every millisecond while the upload runs; "allocated" is what the
+// uploading thread allocated on the heap. Uses about 5 GB of the temp directory:
+//   java -Xmx4g -cp target/test-classes:target/classes:$(cat target/cp.txt) com.cloudstore.benchmark.UploadStreamingBenchmark
+public class UploadStreamingBenchmark {
+    private static final long MB = 1024 * 1024;
+    private static final long[] SIZES = {10 * MB, 500 * MB, 2048 * MB};
+    private static final int[] ROUNDS = {5, 3, 1};
+
+    private final StreamingFileWriter writer = new StreamingFileWriter();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Path dir;
+
+    UploadStreamingBenchmark() throws IOException {
+        ReflectionTestUtils.setField(writer, "bufferSize", 262144);
+        ReflectionTestUtils.setField(writer, "poolSize", 32);
+        ReflectionTestUtils.setField(writer, "bufferWaitSeconds", 30L);
+        ReflectionTestUtils.invokeMethod(writer, "initPool");
+        dir = Files.createTempDirectory("upload-bench");
+    }
+
+    public static void main(String[] args) throws Exception {
+        UploadStreamingBenchmark benchmark = new UploadStreamingBenchmark();
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.close();
+        }
+    }
+
+    void run() throws IOException {
+        System.out.printf("max heap %d MB%n", Runtime.getRuntime().maxMemory() / MB);
+        for (int i = 0; i < SIZES.length; i++) {
+            Path part = part(SIZES[i]);
+            // Warm-up on the small part only; the larger ones are long enough on their own
+            if (i == 0) {
+                measure(this::getBytes, part);
+                measure(this::streaming, part);
+            }
+            report("before (getBytes)", SIZES[i], part, this::getBytes, ROUNDS[i]);
+            report("after (streaming)", SIZES[i], part, this::streaming, ROUNDS[i]);
+            Files.delete(part);
+        }
+    }
+
+    private void getBytes(Path part, Path target) throws IOException {
+        byte[] bytes;
+        try (InputStream in = new FileInputStream(part.toFile())) {
+            bytes = FileCopyUtils.copyToByteArray(in);
+        }
+        try (OutputStream out = new FileOutputStream(target.toFile())) {
+            out.write(bytes);
+        }
+    }
+
+    private void streaming(Path part, Path target) throws IOException {
+        try (InputStream in = new FileInputStream(part.toFile())) {
+            writer.write(in, target);
+        }
+    }
+
+    private void report(String label, long size, Path part, Upload upload, int rounds) throws IOException {
+        Result[] results = new Result[rounds];
+        for (int round = 0; round < rounds; round++) {
+            try {
+                results[round] = measure(upload, part);
+            } catch (OutOfMemoryError e) {
+                System.out.printf("%-20s %5d MB  failed: OutOfMemoryError: %s%n", label, size / MB, e.getMessage());
+                return;
+            }
+        }
+        Arrays.sort(results, (a, b) -> Long.compare(a.nanos, b.nanos));
+        Result median = results[rounds / 2];
+        System.out.printf("%-20s %5d MB  %7.1f MB/s  peak heap +%6.1f MB  allocated %7.1f MB%n", label, size / MB,
+                size / (double) MB / (median.nanos / 1e9), median.peakHeap / (double) MB, median.allocated / (double) MB);
+    }
+
+    private Result measure(Upload upload, Path part) throws IOException {
+        Path target = dir.resolve("stored.bin");
+        System.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong peak = new AtomicLong(baseline);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long started = System.nanoTime();
+        try {
+            upload.run(part, target);
+        } finally {
+            running.set(false);
+        }
+        long nanos = System.nanoTime() - started;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        Files.deleteIfExists(target);
+        return new Result(nanos, Math.max(0, peak.get() - baseline), allocated);
+    }
+
+    // Incompressible content, written a megabyte at a time
+    private Path part(long size) throws IOException {
+        Path part = dir.resolve("part-" + size / MB + ".bin");
+        byte[] block = new byte[(int) MB];
+        Random random = new Random(size);
+        try (OutputStream out = Files.newOutputStream(part)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+        return part;
+    }
+
+    private void close() throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : paths.toList()) {
+                Files.delete(path);
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private interface Upload {
+        void run(Path part, Path target) throws IOException;
+    }
+
+    private record Result(long nanos, long peakHeap, long allocated) {
+    }
+}
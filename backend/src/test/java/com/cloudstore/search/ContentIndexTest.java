@@ -0,0 +1,158 @@
+package com.cloudstore.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentIndexTest {
+    @TempDir
+    Path dir;
+
+    private ContentIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ContentIndex();
+        ReflectionTestUtils.setField(index, "indexDir", dir.toString());
+        ReflectionTestUtils.setField(index, "maxBufferedDocs", 1000);
+        ReflectionTestUtils.setField(index, "mergeFactor", 10);
+        ReflectionTestUtils.setField(index, "maxSegmentMb", 1024L);
+        ReflectionTestUtils.setField(index, "storedChars", 65536);
+        ReflectionTestUtils.setField(index, "idleMinutes", 30L);
+        index.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.stop();
+    }
+
+    @Test
+    void documentsBecomeSearchableAfterRefresh() throws Exception {
+        index.add(1L, 10L, "quarterly revenue report");
+        assertThat(index.search(1L, "revenue", 10)).isEmpty();
+
+        index.refresh();
+
+        assertThat(index.search(1L, "Revenue", 10)).extracting(ContentIndex.Hit::getFileId).containsExactly(10L);
+        assertThat(index.search(2L, "revenue", 10)).as("other users' files").isEmpty();
+    }
+
+    @Test
+    void ranksByTermFrequencyAndLength() throws Exception {
+        index.add(1L, 1L, "invoice for march with some other words around it");
+        index.add(1L, 2L, "invoice invoice invoice summary");
+        index.add(1L, 3L, "invoice");
+        index.refresh();
+
+        // tf saturates: three mentions only just beat a one-word document, and a long one trails both
+        List<ContentIndex.Hit> hits = index.search(1L, "invoice", 10);
+        assertThat(hits).extracting(ContentIndex.Hit::getFileId).containsExactly(2L, 3L, 1L);
+        assertThat(hits.get(0).getScore()).isLessThan(hits.get(1).getScore() * 1.2);
+        assertThat(hits.get(1).getScore()).isGreaterThan(hits.get(2).getScore() * 1.5);
+    }
+
+    @Test
+    void rareTermsOutweighCommonOnes() throws Exception {
+        for (long id = 1; id <= 8; id++) {
+            index.add(1L, id, "meeting notes number " + id);
+        }
+        index.add(1L, 9L, "meeting notes about the zeppelin");
+        index.add(1L, 10L, "zeppelin");
+        index.refresh();
+
+        // The one-word document lacks "meeting" but is shorter; either way both beat every "meeting" note
+        List<ContentIndex.Hit> hits = index.search(1L, "meeting zeppelin", 10);
+        assertThat(hits).extracting(ContentIndex.Hit::getFileId).startsWith(10L, 9L).hasSize(10);
+        assertThat(hits.get(1).getScore()).isGreaterThan(hits.get(2).getScore() * 5);
+    }
+
+    @Test
+    void poolsStatisticsAcrossSegmentsAndSkipsDeletedFiles() throws Exception {
+        index.add(1L, 1L, "shared alpha");
+        index.refresh();
+        index.add(1L, 2L, "shared alpha alpha");
+        index.add(1L, 3L, "shared beta");
+        index.refresh();
+
+        assertThat(index.search(1L, "alpha", 10)).extracting(ContentIndex.Hit::getFileId).containsExactly(2L, 1L);
+
+        index.delete(1L, 2L);
+        assertThat(index.search(1L, "alpha", 10)).extracting(ContentIndex.Hit::getFileId).containsExactly(1L);
+        assertThat(index.contains(1L, 2L)).isFalse();
+    }
+
+    @Test
+    void limitKeepsTheBestHits() throws Exception {
+        for (long id = 1; id <= 20; id++) {
+            index.add(1L, id, "word ".repeat((int) id) + "filler text");
+        }
+        index.refresh();
+
+        assertThat(index.search(1L, "word", 3)).extracting(ContentIndex.Hit::getFileId).containsExactly(20L, 19L, 18L);
+    }
+
+    @Test
+    void idleEvictionSkipsMergingShardsAndReopensCleanly() throws Exception {
+        ReflectionTestUtils.setField(index, "idleMinutes", 0L);
+        index.add(1L, 1L, "first upload");
+        index.refresh();
+        index.add(1L, 2L, "second upload");
+        index.refresh();
+        assertThat(shards()).as("flushed, then dropped in the same pass").doesNotContainKey(1L);
+
+        index.search(1L, "upload", 10);
+        UserShard shard = shards().get(1L);
+        List<Segment> inputs = shard.claimMerge(2, Long.MAX_VALUE);
+        index.refresh();
+        assertThat(shards()).as("merge still running").containsEntry(1L, shard);
+
+        shard.merge(inputs);
+        index.refresh();
+        assertThat(shards()).doesNotContainKey(1L);
+        index.add(1L, 3L, "third upload");
+        index.refresh();
+        assertThat(index.search(1L, "upload", 10)).extracting(ContentIndex.Hit::getFileId)
+                .containsExactlyInAnyOrder(1L, 2L, 3L);
+    }
+
+    @Test
+    void snippetPicksTheWindowWithMostDistinctTerms() {
+        String text = "The dog barked. " + "filler ".repeat(60)
+                + "Later the quick brown fox\njumped over the lazy dog again. " + "tail ".repeat(60);
+
+        ContentIndex.Hit hit = ContentIndex.snippet(text, List.of("quick", "dog"));
+
+        assertThat(hit.getSnippet()).startsWith("...").endsWith("...").doesNotContain("\n");
+        assertThat(hit.getSnippet()).contains("quick brown fox jumped over the lazy dog");
+        assertThat(hit.getHighlights()).isNotEmpty();
+        for (int[] highlight : hit.getHighlights()) {
+            assertThat(hit.getSnippet().substring(highlight[0], highlight[1])).isIn("quick", "dog");
+        }
+    }
+
+    @Test
+    void snippetMatchesFoldedTermsAndStartsAtTheTopWhenNothingMatches() {
+        ContentIndex.Hit accented = ContentIndex.snippet("Menu du Café", List.of("cafe"));
+        assertThat(accented.getSnippet()).isEqualTo("Menu du Café");
+        assertThat(accented.getHighlights()).singleElement()
+                .satisfies(h -> assertThat(accented.getSnippet().substring(h[0], h[1])).isEqualTo("Café"));
+
+        ContentIndex.Hit none = ContentIndex.snippet("nothing relevant here", List.of("absent"));
+        assertThat(none.getSnippet()).isEqualTo("nothing relevant here");
+        assertThat(none.getHighlights()).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, UserShard> shards() {
+        return (Map<Long, UserShard>) ReflectionTestUtils.getField(index, "shards");
+    }
+}
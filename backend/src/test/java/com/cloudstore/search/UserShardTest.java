@@ -0,0 +1,164 @@
+package com.cloudstore.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserShardTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void flushWritesAReadableSegment() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(10, "Alpha beta beta", 1000);
+        shard.add(20, "Beta gamma, Ünïcode", 1000);
+        assertThat(shard.needsFlush()).isTrue();
+
+        shard.flush();
+
+        assertThat(shard.needsFlush()).isFalse();
+        assertThat(shard.segments()).hasSize(1);
+        Segment segment = shard.segments().get(0);
+        assertThat(segment.fileIds).containsExactly(10L, 20L);
+        assertThat(segment.docLengths).containsExactly(3, 3);
+        assertThat(segment.totalLength).isEqualTo(6);
+        assertThat(segment.terms).containsExactly("alpha", "beta", "gamma", "unicode");
+        assertThat(postings(segment, "beta")).containsExactly(new int[]{0, 2}, new int[]{1, 1});
+        assertThat(postings(segment, "unicode")).containsExactly(new int[]{1, 1});
+        assertThat(segment.find("delta")).isNegative();
+        assertThat(segment.stored(1)).isEqualTo("Beta gamma, Ünïcode");
+    }
+
+    @Test
+    void storesOnlyTheConfiguredPrefixButIndexesEverything() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "first second third", 5);
+        shard.flush();
+
+        Segment segment = shard.segments().get(0);
+        assertThat(segment.stored(0)).isEqualTo("first");
+        assertThat(segment.find("third")).isNotNegative();
+    }
+
+    @Test
+    void ignoresRepeatedAddsOfTheSameFile() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        assertThat(shard.add(1, "one", 1000)).isEqualTo(1);
+        assertThat(shard.add(1, "one again", 1000)).isEqualTo(1);
+        assertThat(shard.contains(1)).isTrue();
+    }
+
+    @Test
+    void reopensFromTheManifestAndRemovesLeftoverSegments() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "kept document", 1000);
+        shard.add(2, "deleted document", 1000);
+        shard.flush();
+        shard.delete(2);
+        shard.flush();
+        Files.writeString(dir.resolve("seg-99.idx"), "left over from a crash");
+
+        UserShard reopened = UserShard.open(dir);
+
+        assertThat(reopened.segments()).hasSize(1);
+        assertThat(reopened.contains(1)).isTrue();
+        assertThat(reopened.contains(2)).isFalse();
+        assertThat(reopened.isDeleted(2)).isTrue();
+        assertThat(Files.exists(dir.resolve("seg-99.idx"))).isFalse();
+        // New segments must not reuse a name from before the restart
+        reopened.add(3, "new", 1000);
+        reopened.flush();
+        assertThat(reopened.segments()).extracting(s -> s.name).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void deletingABufferedDocumentLeavesNoTombstone() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "short lived", 1000);
+        shard.delete(1);
+
+        assertThat(shard.needsFlush()).isFalse();
+        assertThat(shard.deletedCount()).isZero();
+    }
+
+    @Test
+    void mergeDropsDeletedDocumentsAndRemapsPostings() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "apple banana", 1000);
+        shard.add(2, "banana cherry", 1000);
+        shard.flush();
+        shard.add(3, "cherry apple apple", 1000);
+        shard.flush();
+        shard.delete(1);
+        List<Path> before = new ArrayList<>();
+        shard.segments().forEach(s -> before.add(s.path));
+
+        List<Segment> inputs = shard.claimMerge(2, Long.MAX_VALUE);
+        assertThat(inputs).hasSize(2);
+        assertThat(shard.claimMerge(2, Long.MAX_VALUE)).as("one merge at a time").isNull();
+        shard.merge(inputs);
+
+        assertThat(shard.segments()).hasSize(1);
+        Segment merged = shard.segments().get(0);
+        // Inputs are taken smallest first, so the one-document segment comes first
+        assertThat(merged.fileIds).containsExactly(3L, 2L);
+        assertThat(postings(merged, "apple")).containsExactly(new int[]{0, 2});
+        assertThat(postings(merged, "banana")).containsExactly(new int[]{1, 1});
+        assertThat(postings(merged, "cherry")).containsExactly(new int[]{0, 1}, new int[]{1, 1});
+        assertThat(merged.stored(0)).isEqualTo("cherry apple apple");
+        assertThat(shard.deletedCount()).isZero();
+        assertThat(before).allMatch(path -> !Files.exists(path));
+
+        UserShard reopened = UserShard.open(dir);
+        assertThat(reopened.segments()).extracting(s -> s.name).containsExactly(merged.name);
+        assertThat(reopened.isDeleted(1)).isFalse();
+    }
+
+    @Test
+    void claimMergeNeedsEnoughSegmentsUnderTheSizeCap() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "one", 1000);
+        shard.flush();
+        assertThat(shard.claimMerge(2, Long.MAX_VALUE)).isNull();
+
+        shard.add(2, "two", 1000);
+        shard.flush();
+        assertThat(shard.claimMerge(2, 1)).isNull();
+        assertThat(shard.claimMerge(2, Long.MAX_VALUE)).hasSize(2);
+    }
+
+    @Test
+    void refusesToCloseWhileBufferedOrMerging() throws Exception {
+        UserShard shard = UserShard.open(dir);
+        shard.add(1, "one", 1000);
+        assertThat(shard.close()).as("buffered").isFalse();
+        shard.flush();
+        shard.add(2, "two", 1000);
+        shard.flush();
+        List<Segment> inputs = shard.claimMerge(2, Long.MAX_VALUE);
+        assertThat(shard.close()).as("merging").isFalse();
+
+        shard.merge(inputs);
+
+        assertThat(shard.close()).isTrue();
+        assertThat(shard.add(3, "three", 1000)).isEqualTo(-1);
+        assertThat(shard.delete(1)).isFalse();
+        assertThat(shard.needsFlush()).isFalse();
+    }
+
+    private static List<int[]> postings(Segment segment, String term) {
+        List<int[]> pairs = new ArrayList<>();
+        Segment.Postings postings = segment.postings(segment.find(term));
+        while (postings.next()) {
+            pairs.add(new int[]{postings.ordinal, postings.frequency});
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,185 @@
+package com.cloudstore.security;
+
+import com.cloudstore.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Low bcrypt costs keep the tests fast. Stored hashes are made at cost 4, one below the hasher's 5,
+// so a login with one of them schedules an upgrade; a blocked upgrade is how the tests occupy the pool.
+class PasswordHasherTest {
+    private static final String OLD_HASH = new BCryptPasswordEncoder(4).encode("correct horse");
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final PrincipalCache principalCache = mock(PrincipalCache.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PasswordHasher passwordHasher;
+
+    // Lets a parked upgrade finish rather than interrupting it
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        if (passwordHasher != null) {
+            ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(passwordHasher, "executor");
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void hashesAndVerifiesAtTheConfiguredCost() {
+        passwordHasher = hasher(5, 1, 4, 10000);
+
+        String hash = passwordHasher.encode("correct horse");
+
+        assertThat(hash).startsWith("$2a$05$");
+        assertThat(passwordHasher.matches("correct horse", hash)).isTrue();
+        assertThat(passwordHasher.matches("wrong", hash)).isFalse();
+        assertThat(passwordHasher.matches("correct horse", OLD_HASH)).isTrue();
+    }
+
+    @Test
+    void clampsAConfiguredCostToWhatBcryptAccepts() {
+        passwordHasher = hasher(2, 1, 4, 10000);
+        assertThat(ReflectionTestUtils.getField(passwordHasher, "cost")).isEqualTo(4);
+        ReflectionTestUtils.invokeMethod(passwordHasher, "stop");
+
+        passwordHasher = hasher(40, 1, 4, 10000);
+        assertThat(ReflectionTestUtils.getField(passwordHasher, "cost")).isEqualTo(31);
+    }
+
+    @Test
+    void calibratesTheCostToTheTargetTime() {
+        passwordHasher = hasher(0, 1, 4, 10000, 0);
+        assertThat(ReflectionTestUtils.getField(passwordHasher, "cost")).isEqualTo(10);
+        ReflectionTestUtils.invokeMethod(passwordHasher, "stop");
+
+        passwordHasher = hasher(0, 1, 4, 10000, TimeUnit.HOURS.toMillis(1));
+        assertThat(ReflectionTestUtils.getField(passwordHasher, "cost")).isEqualTo(16);
+    }
+
+    @Test
+    void rejectsAtOnceWhenTheQueueIsFull() throws InterruptedException {
+        passwordHasher = hasher(5, 1, 1, 10000);
+        blockUpgrade();
+        // The single thread is taken; this one fills the queue of one
+        passwordHasher.upgradeIfNeeded(8L, "correct horse", OLD_HASH);
+
+        long started = System.nanoTime();
+        assertThatThrownBy(() -> passwordHasher.matches("correct horse", OLD_HASH))
+                .isInstanceOf(PasswordHashingBusyException.class);
+        assertThatThrownBy(() -> passwordHasher.encode("correct horse"))
+                .isInstanceOf(PasswordHashingBusyException.class);
+
+        assertThat(System.nanoTime() - started).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        assertThat(meterRegistry.get("cloudstore.auth.password.rejected").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void givesUpOnAQueuedOperationAfterTheTimeout() throws InterruptedException {
+        passwordHasher = hasher(5, 1, 4, 100);
+        blockUpgrade();
+
+        assertThatThrownBy(() -> passwordHasher.matches("correct horse", OLD_HASH))
+                .isInstanceOf(PasswordHashingBusyException.class);
+
+        assertThat(meterRegistry.get("cloudstore.auth.password.rejected").counter().count()).isEqualTo(1);
+        release.countDown();
+        assertThat(passwordHasher.matches("correct horse", OLD_HASH)).isTrue();
+    }
+
+    @Test
+    void upgradesAWeakerHashAfterLogin() {
+        passwordHasher = hasher(5, 1, 4, 10000);
+        when(userRepository.updatePasswordIfUnchanged(eq(7L), eq(OLD_HASH), anyString())).thenReturn(1);
+
+        passwordHasher.upgradeIfNeeded(7L, "correct horse", OLD_HASH);
+
+        ArgumentCaptor<String> rehashed = ArgumentCaptor.forClass(String.class);
+        verify(userRepository, timeout(5000)).updatePasswordIfUnchanged(eq(7L), eq(OLD_HASH), rehashed.capture());
+        assertThat(rehashed.getValue()).startsWith("$2a$05$");
+        assertThat(new BCryptPasswordEncoder().matches("correct horse", rehashed.getValue())).isTrue();
+        verify(principalCache, timeout(5000)).invalidate(7L);
+    }
+
+    @Test
+    void leavesAHashAtTheCurrentCostAlone() {
+        passwordHasher = hasher(5, 1, 4, 10000);
+
+        passwordHasher.upgradeIfNeeded(7L, "correct horse", new BCryptPasswordEncoder(5).encode("correct horse"));
+
+        verify(userRepository, after(200).never()).updatePasswordIfUnchanged(anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    void keepsACacheEntryWhenThePasswordChangedFirst() {
+        passwordHasher = hasher(5, 1, 4, 10000);
+        when(userRepository.updatePasswordIfUnchanged(eq(7L), eq(OLD_HASH), anyString())).thenReturn(0);
+
+        passwordHasher.upgradeIfNeeded(7L, "correct horse", OLD_HASH);
+
+        verify(userRepository, timeout(5000)).updatePasswordIfUnchanged(eq(7L), eq(OLD_HASH), anyString());
+        verify(principalCache, after(200).never()).invalidate(any());
+    }
+
+    @Test
+    void skipsTheUpgradeWhenThePoolIsBusy() throws InterruptedException {
+        passwordHasher = hasher(5, 1, 1, 10000);
+        blockUpgrade();
+        passwordHasher.upgradeIfNeeded(8L, "correct horse", OLD_HASH);
+
+        passwordHasher.upgradeIfNeeded(7L, "correct horse", OLD_HASH);
+        release.countDown();
+
+        verify(userRepository, timeout(5000)).updatePasswordIfUnchanged(eq(8L), eq(OLD_HASH), anyString());
+        verify(userRepository, after(200).never()).updatePasswordIfUnchanged(eq(7L), anyString(), anyString());
+    }
+
+    private PasswordHasher hasher(int cost, int threads, int queueSize, long timeoutMs) {
+        return hasher(cost, threads, queueSize, timeoutMs, 250);
+    }
+
+    private PasswordHasher hasher(int cost, int threads, int queueSize, long timeoutMs, long targetMs) {
+        PasswordHasher hasher = new PasswordHasher(userRepository, principalCache, meterRegistry);
+        ReflectionTestUtils.setField(hasher, "configuredCost", cost);
+        ReflectionTestUtils.setField(hasher, "targetMs", targetMs);
+        ReflectionTestUtils.setField(hasher, "threads", threads);
+        ReflectionTestUtils.setField(hasher, "queueSize", queueSize);
+        ReflectionTestUtils.setField(hasher, "timeoutMs", timeoutMs);
+        ReflectionTestUtils.invokeMethod(hasher, "start");
+        return hasher;
+    }
+
+    // Parks the pool's only thread in an upgrade for user 6 until the test releases it
+    private void blockUpgrade() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        when(userRepository.updatePasswordIfUnchanged(eq(6L), anyString(), anyString())).thenAnswer(call -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return 0;
+        });
+        passwordHasher.upgradeIfNeeded(6L, "correct horse", OLD_HASH);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,163 @@
+package com.cloudstore.security;
+
+import com.cloudstore.model.User;
+import com.cloudstore.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PrincipalCacheTest {
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PrincipalCache principalCache;
+
+    @BeforeEach
+    void setUp() {
+        principalCache = cache(300000, 10000);
+        when(userRepository.findById(anyLong())).thenAnswer(call -> Optional.of(user(call.getArgument(0))));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void loadsAUserOnceAndServesCopiesAfterwards() {
+        User first = principalCache.get(7L, "user7@example.com").orElseThrow();
+        first.setName("changed by the request");
+        User second = principalCache.get(7L, "user7@example.com").orElseThrow();
+
+        assertThat(second.getName()).isEqualTo("User 7");
+        assertThat(second).isNotSameAs(first);
+        verify(userRepository, times(1)).findById(7L);
+        assertThat(meterRegistry.get("cloudstore.auth.principal.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cloudstore.auth.principal.cache").tag("result", "miss").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void refusesATokenWhoseSubjectNoLongerMatches() {
+        assertThat(principalCache.get(7L, "someone-else@example.com")).isEmpty();
+        assertThat(principalCache.get(7L, "someone-else@example.com")).isEmpty();
+        assertThat(principalCache.get(7L, "user7@example.com")).isPresent();
+        verify(userRepository, times(1)).findById(7L);
+    }
+
+    @Test
+    void doesNotCacheAMissingUser() {
+        when(userRepository.findById(7L)).thenReturn(Optional.empty(), Optional.of(user(7L)));
+
+        assertThat(principalCache.get(7L, "user7@example.com")).isEmpty();
+        assertThat(principalCache.get(7L, "user7@example.com")).isPresent();
+    }
+
+    @Test
+    void dropsTheEntryOnlyOnceTheChangeCommits() {
+        principalCache.get(7L, "user7@example.com");
+
+        TransactionSynchronizationManager.initSynchronization();
+        principalCache.invalidate(7L);
+        principalCache.get(7L, "user7@example.com");
+        verify(userRepository, times(1)).findById(7L);
+
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        principalCache.get(7L, "user7@example.com");
+        verify(userRepository, times(2)).findById(7L);
+    }
+
+    @Test
+    void alsoDropsTheEntryWhenTheChangeRollsBack() {
+        principalCache.get(7L, "user7@example.com");
+
+        TransactionSynchronizationManager.initSynchronization();
+        principalCache.invalidate(7L);
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        principalCache.get(7L, "user7@example.com");
+
+        verify(userRepository, times(2)).findById(7L);
+    }
+
+    @Test
+    void returnsButDoesNotCacheALoadThatOverlappedAnInvalidation() {
+        // The row is read, then a password change commits before the loader stores what it read
+        when(userRepository.findById(7L)).thenAnswer(call -> {
+            User stale = user(7L);
+            principalCache.invalidate(7L);
+            return Optional.of(stale);
+        }).thenReturn(Optional.of(user(7L)));
+
+        assertThat(principalCache.get(7L, "user7@example.com")).isPresent();
+        principalCache.get(7L, "user7@example.com");
+        principalCache.get(7L, "user7@example.com");
+
+        verify(userRepository, times(2)).findById(7L);
+    }
+
+    @Test
+    void reloadsAnExpiredEntry() throws InterruptedException {
+        principalCache = cache(50, 10000);
+
+        principalCache.get(7L, "user7@example.com");
+        Thread.sleep(60);
+        principalCache.get(7L, "user7@example.com");
+
+        verify(userRepository, times(2)).findById(7L);
+    }
+
+    @Test
+    void evictsTheOldestTenthWhenFull() throws InterruptedException {
+        principalCache = cache(300000, 10);
+        for (long id = 1; id <= 10; id++) {
+            principalCache.get(id, "user" + id + "@example.com");
+            Thread.sleep(1);
+        }
+
+        principalCache.get(11L, "user11@example.com");
+        for (long id = 2; id <= 11; id++) {
+            principalCache.get(id, "user" + id + "@example.com");
+        }
+        principalCache.get(1L, "user1@example.com");
+
+        verify(userRepository, times(2)).findById(1L);
+        for (long id = 2; id <= 11; id++) {
+            verify(userRepository, times(1)).findById(id);
+        }
+    }
+
+    private PrincipalCache cache(long ttlMs, int maxSize) {
+        PrincipalCache cache = new PrincipalCache(userRepository, meterRegistry);
+        ReflectionTestUtils.setField(cache, "ttlMs", ttlMs);
+        ReflectionTestUtils.setField(cache, "maxSize", maxSize);
+        return cache;
+    }
+
+    private static User user(Long id) {
+        return User.builder().id(id).email("user" + id + "@example.com").name("User " + id).build();
+    }
+
+    private static void completeTransaction(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+        }
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+    }
+}
@@ -0,0 +1,107 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.AuthResponse;
+import com.cloudstore.model.RefreshToken;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.RefreshTokenRepository;
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.security.JwtUtil;
+import com.cloudstore.security.PasswordHasher;
+import com.cloudstore.security.PrincipalCache;
+import com.cloudstore.security.TokenVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuthServiceTest {
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final RefreshTokenRepository refreshTokenRepository = mock(RefreshTokenRepository.class);
+    private final TokenVersionService tokenVersionService = mock(TokenVersionService.class);
+    private final User user = User.builder().id(7L).email("ada@example.com").name("Ada").build();
+    private JwtUtil jwtUtil;
+    private AuthService authService;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "jwtSecret", "0123456789abcdef0123456789abcdef");
+        ReflectionTestUtils.setField(jwtUtil, "jwtExpirationMs", 60_000L);
+        ReflectionTestUtils.setField(jwtUtil, "refreshExpirationMs", 600_000L);
+        ReflectionTestUtils.invokeMethod(jwtUtil, "init");
+        authService = new AuthService(userRepository, mock(PasswordHasher.class), jwtUtil, mock(EmailService.class),
+                mock(PrincipalCache.class), tokenVersionService, mock(TransactionTemplate.class), refreshTokenRepository);
+        when(userRepository.findById(7L)).thenReturn(Optional.of(user));
+        when(tokenVersionService.isCurrent(anyLong(), anyInt())).thenReturn(true);
+    }
+
+    @Test
+    void refreshTradesTheTokenInForANewOne() {
+        String token = jwtUtil.generateRefreshToken(7L, "ada@example.com", 0, "first");
+        when(refreshTokenRepository.consume("first", 7L)).thenReturn(1);
+
+        AuthResponse response = authService.refresh(token);
+
+        ArgumentCaptor<RefreshToken> saved = ArgumentCaptor.forClass(RefreshToken.class);
+        verify(refreshTokenRepository).save(saved.capture());
+        assertThat(saved.getValue().getUserId()).isEqualTo(7L);
+        assertThat(saved.getValue().getId()).isNotEqualTo("first");
+        assertThat(jwtUtil.getClaimsFromToken(response.getRefreshToken()).getId()).isEqualTo(saved.getValue().getId());
+        verify(tokenVersionService, never()).revoke(any());
+    }
+
+    @Test
+    void reusingARefreshTokenRevokesEverything() {
+        String token = jwtUtil.generateRefreshToken(7L, "ada@example.com", 0, "first");
+        when(refreshTokenRepository.consume("first", 7L)).thenReturn(0);
+
+        assertThatThrownBy(() -> authService.refresh(token)).hasMessage("Invalid or expired token");
+
+        verify(tokenVersionService).revoke(7L);
+        verify(refreshTokenRepository, never()).save(any());
+    }
+
+    @Test
+    void rejectsRefreshTokensWithoutAnId() {
+        String token = jwtUtil.generateRefreshToken(7L, "ada@example.com", 0, null);
+
+        assertThatThrownBy(() -> authService.refresh(token)).hasMessage("Invalid or expired token");
+
+        verify(refreshTokenRepository, never()).consume(anyString(), any());
+        verify(tokenVersionService, never()).revoke(any());
+    }
+
+    @Test
+    void reissueCarriesTheRevokedVersion() {
+        when(tokenVersionService.revoke(7L)).thenReturn(4);
+
+        AuthResponse response = authService.reissueAfterRevoking(user);
+
+        verify(refreshTokenRepository).deleteAllByUserId(7L);
+        assertThat(JwtUtil.versionOf(jwtUtil.getClaimsFromToken(response.getToken()))).isEqualTo(4);
+        assertThat(JwtUtil.versionOf(jwtUtil.getClaimsFromToken(response.getRefreshToken()))).isEqualTo(4);
+    }
+
+    @Test
+    void rejectsAccessTokens() {
+        String token = jwtUtil.generateToken(7L, "ada@example.com", 0);
+
+        assertThatThrownBy(() -> authService.refresh(token)).hasMessage("Invalid or expired token");
+
+        verify(refreshTokenRepository, never()).consume(anyString(), any());
+    }
+}
@@ -0,0 +1,103 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.CompressionRequest;
+import com.cloudstore.model.CompressionJob;
+import com.cloudstore.model.File;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.CompressionJobRepository;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.repository.FolderRepository;
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CompressionServiceTest {
+    private final CompressionJobRepository jobRepository = mock(CompressionJobRepository.class);
+    private final FileService fileService = mock(FileService.class);
+    private final User user = User.builder().id(1L).build();
+    private CompressionService compressionService;
+
+    @BeforeEach
+    void setUp() {
+        compressionService = new CompressionService(jobRepository, mock(UserRepository.class), mock(FileRepository.class),
+                mock(FolderRepository.class), fileService, mock(FileStorage.class), mock(BlobStore.class),
+                mock(FfmpegTranscoder.class), mock(NotificationService.class));
+        ReflectionTestUtils.setField(compressionService, "cpuWorkers", 1);
+        ReflectionTestUtils.setField(compressionService, "ioWorkers", 1);
+        ReflectionTestUtils.setField(compressionService, "maxQueued", 10);
+        ReflectionTestUtils.setField(compressionService, "leaseMs", 60_000L);
+        ReflectionTestUtils.invokeMethod(compressionService, "startLanes");
+        // Queued jobs find nothing to claim and return straight away
+        when(jobRepository.save(any())).thenAnswer(call -> {
+            CompressionJob job = call.getArgument(0);
+            job.setId(99L);
+            return job;
+        });
+        file(5L, "holiday.JPG");
+        file(6L, "clip.mov");
+        file(7L, "scan.heic");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(compressionService, "stopLanes");
+    }
+
+    @Test
+    void normalizesAnAllowedFormat() {
+        compressionService.submit(user, 5L, request("image", " PNG "));
+        compressionService.submit(user, 6L, request("video", "webm"));
+
+        ArgumentCaptor<CompressionJob> saved = ArgumentCaptor.forClass(CompressionJob.class);
+        verify(jobRepository, times(2)).save(saved.capture());
+        assertThat(saved.getAllValues()).extracting(CompressionJob::getFormat).containsExactly("png", "webm");
+    }
+
+    @Test
+    void fallsBackToTheOriginalsExtension() {
+        compressionService.submit(user, 5L, request("image", null));
+
+        ArgumentCaptor<CompressionJob> saved = ArgumentCaptor.forClass(CompressionJob.class);
+        verify(jobRepository).save(saved.capture());
+        assertThat(saved.getValue().getFormat()).isEqualTo("jpg");
+    }
+
+    @Test
+    void rejectsFormatsOutsideTheAllowlist() {
+        assertThatThrownBy(() -> compressionService.submit(user, 6L, request("video", "tee")))
+                .isInstanceOf(UnsupportedFormatException.class).hasMessage("Unsupported video format: tee");
+        assertThatThrownBy(() -> compressionService.submit(user, 5L, request("image", "gif")))
+                .isInstanceOf(UnsupportedFormatException.class);
+        assertThatThrownBy(() -> compressionService.submit(user, 5L, request("image", "mp4")))
+                .isInstanceOf(UnsupportedFormatException.class);
+        assertThatThrownBy(() -> compressionService.submit(user, 7L, request("image", "")))
+                .isInstanceOf(UnsupportedFormatException.class).hasMessage("Unsupported image format: heic");
+
+        verify(jobRepository, never()).save(any());
+    }
+
+    private void file(Long id, String name) {
+        when(fileService.getFileByUser(user, id)).thenReturn(File.builder().id(id).name(name).size(100L).build());
+    }
+
+    private static CompressionRequest request(String type, String format) {
+        CompressionRequest request = new CompressionRequest();
+        request.setType(type);
+        request.setFormat(format);
+        return request;
+    }
+}
@@ -0,0 +1,267 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.OutboxEmail;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Delivers against an in-process SMTP server; the outbox table is a mocked JdbcTemplate
+class EmailDispatcherTest {
+    private static final String MARK_SENT = "UPDATE email_outbox SET status = 'SENT', sent_at = ?, last_error = NULL WHERE id = ?";
+    private static final String MARK_FAILED = "UPDATE email_outbox SET status = ?, attempts = ?, next_attempt_at = ?, last_error = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private SmtpStandIn smtp;
+    private EmailDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        smtp = new SmtpStandIn();
+        dispatcher = new EmailDispatcher(sender(smtp.port()), jdbcTemplate);
+        ReflectionTestUtils.setField(dispatcher, "fromEmail", "noreply@cloudstore.test");
+        ReflectionTestUtils.setField(dispatcher, "batchSize", 20);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 3);
+        ReflectionTestUtils.setField(dispatcher, "backoffMs", 10_000L);
+        ReflectionTestUtils.setField(dispatcher, "maxBackoffMs", 60_000L);
+        ReflectionTestUtils.setField(dispatcher, "leaseMs", 300_000L);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        smtp.close();
+    }
+
+    @Test
+    void claimsDueRowsAndPushesTheirLeaseForward() {
+        claims();
+        LocalDateTime before = LocalDateTime.now();
+
+        drain();
+
+        ArgumentCaptor<Object> lease = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> due = ArgumentCaptor.forClass(Object.class);
+        verify(jdbcTemplate).query(anyString(), any(RowMapper.class), lease.capture(), due.capture(), eq(20));
+        LocalDateTime leasedUntil = ((Timestamp) lease.getValue()).toLocalDateTime();
+        LocalDateTime dueBy = ((Timestamp) due.getValue()).toLocalDateTime();
+        assertThat(leasedUntil).isBetween(before.plusSeconds(299), LocalDateTime.now().plusSeconds(301));
+        assertThat(dueBy).isBetween(before, LocalDateTime.now());
+    }
+
+    @Test
+    void sendsTheBatchOverOneConnectionAndMarksItSent() {
+        claims(email(1, "a@example.com", 0), email(2, "b@example.com", 0));
+
+        drain();
+
+        assertThat(smtp.delivered).containsExactly("a@example.com", "b@example.com");
+        assertThat(smtp.connections).isEqualTo(1);
+        assertThat(ids(updates(MARK_SENT))).containsExactly(1L, 2L);
+        verify(jdbcTemplate, never()).batchUpdate(eq(MARK_FAILED), any(List.class));
+    }
+
+    @Test
+    void retriesOnlyTheRejectedMessageWithBackoff() {
+        claims(email(1, "a@example.com", 0), email(2, "busy@example.com", 1), email(3, "c@example.com", 0));
+        LocalDateTime before = LocalDateTime.now();
+
+        drain();
+
+        assertThat(smtp.delivered).containsExactly("a@example.com", "c@example.com");
+        assertThat(ids(updates(MARK_SENT))).containsExactlyInAnyOrder(1L, 3L);
+        Object[] failed = updates(MARK_FAILED).get(0);
+        assertThat(failed[0]).isEqualTo("PENDING");
+        assertThat(failed[1]).isEqualTo(2);
+        // Second attempt: 10s doubled, with up to 20% jitter either way
+        LocalDateTime next = ((Timestamp) failed[2]).toLocalDateTime();
+        assertThat(next).isBetween(before.plusSeconds(16), LocalDateTime.now().plusSeconds(24));
+        assertThat((String) failed[3]).isNotBlank();
+        assertThat(failed[4]).isEqualTo(2L);
+    }
+
+    @Test
+    void deadLettersAfterTheLastAttempt() {
+        claims(email(1, "busy@example.com", 2));
+
+        drain();
+
+        Object[] failed = updates(MARK_FAILED).get(0);
+        assertThat(failed[0]).isEqualTo("DEAD");
+        assertThat(failed[1]).isEqualTo(3);
+    }
+
+    @Test
+    void deadLettersAMalformedAddressAndSendsTheRest() {
+        claims(email(1, "a@example.com", 0), email(2, "not an address", 0), email(3, "c@example.com", 0));
+
+        drain();
+
+        assertThat(smtp.delivered).containsExactly("a@example.com", "c@example.com");
+        assertThat(ids(updates(MARK_SENT))).containsExactlyInAnyOrder(1L, 3L);
+        List<Object[]> failed = updates(MARK_FAILED);
+        assertThat(failed).hasSize(1);
+        assertThat(failed.get(0)[0]).isEqualTo("DEAD");
+        assertThat(failed.get(0)[1]).isEqualTo(1);
+        assertThat(failed.get(0)[4]).isEqualTo(2L);
+    }
+
+    @Test
+    void retriesEverythingWhenTheServerIsDown() throws IOException {
+        smtp.close();
+        claims(email(1, "a@example.com", 0), email(2, "b@example.com", 0));
+
+        drain();
+
+        List<Object[]> failed = updates(MARK_FAILED);
+        assertThat(failed).extracting(row -> row[0]).containsExactly("PENDING", "PENDING");
+        verify(jdbcTemplate, never()).batchUpdate(eq(MARK_SENT), any(List.class));
+    }
+
+    private void drain() {
+        ReflectionTestUtils.invokeMethod(dispatcher, "drain");
+    }
+
+    // The first claim returns the given rows, later ones find nothing due
+    @SuppressWarnings("unchecked")
+    private void claims(OutboxEmail... emails) {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(), any(), any()))
+                .thenReturn(List.of(emails), List.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> updates(String sql) {
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(eq(sql), rows.capture());
+        return rows.getValue();
+    }
+
+    private static List<Long> ids(List<Object[]> rows) {
+        List<Long> ids = new ArrayList<>();
+        rows.forEach(row -> ids.add((Long) row[row.length - 1]));
+        return ids;
+    }
+
+    private static OutboxEmail email(long id, String to, int attempts) {
+        return OutboxEmail.builder().id(id).toAddress(to).subject("Subject " + id).body("Body " + id).attempts(attempts).build();
+    }
+
+    private static JavaMailSenderImpl sender(int port) {
+        JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("127.0.0.1");
+        sender.setPort(port);
+        Properties properties = new Properties();
+        properties.put("mail.smtp.connectiontimeout", "2000");
+        properties.put("mail.smtp.timeout", "2000");
+        sender.setJavaMailProperties(properties);
+        return sender;
+    }
+
+    // Just enough SMTP for JavaMail; recipients starting with "busy" are refused with a 4xx
+    private static final class SmtpStandIn implements AutoCloseable {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+        final Thread thread = new Thread(this::serve, "smtp-stand-in");
+        volatile int connections;
+
+        SmtpStandIn() throws IOException {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void serve() {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    connections++;
+                    converse(socket);
+                } catch (IOException e) {
+                    // closed, or the client hung up
+                }
+            }
+        }
+
+        private void converse(Socket socket) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            reply(out, "220 localhost ready");
+            List<String> recipients = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("RCPT TO:")) {
+                    String address = line.substring(line.indexOf('<') + 1, line.lastIndexOf('>'));
+                    if (address.startsWith("busy")) {
+                        reply(out, "450 mailbox busy");
+                    } else {
+                        recipients.add(address);
+                        reply(out, "250 OK");
+                    }
+                } else if (command.startsWith("DATA")) {
+                    reply(out, "354 go ahead");
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        // message body
+                    }
+                    delivered.addAll(recipients);
+                    recipients.clear();
+                    reply(out, "250 queued");
+                } else if (command.startsWith("RSET") || command.startsWith("MAIL FROM:")) {
+                    recipients.clear();
+                    reply(out, "250 OK");
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 localhost"); // EHLO, HELO, NOOP
+                }
+            }
+        }
+
+        private static void reply(OutputStream out, String line) throws IOException {
+            out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        // The listening socket is only released once a blocked accept() has returned; until then
+        // a client can still connect, so wait for the serving thread before reporting it closed
+        @Override
+        public void close() throws IOException {
+            server.close();
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
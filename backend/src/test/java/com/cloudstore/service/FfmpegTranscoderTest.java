@@ -0,0 +1,186 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.StreamedFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Runs the transcoder against a shell script standing in for ffmpeg
+@DisabledOnOs(OS.WINDOWS)
+class FfmpegTranscoderTest {
+    @TempDir
+    Path dir;
+
+    private final FileStorage fileStorage = mock(FileStorage.class);
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private final File source = File.builder().id(1L).name("clip.mov").build();
+    private final List<FfmpegTranscoder.Progress> progress = new CopyOnWriteArrayList<>();
+    private FfmpegTranscoder transcoder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path input = Files.writeString(dir.resolve("clip.mov"), "input");
+        when(fileStorage.resource(source)).thenReturn(new FileSystemResource(input));
+        when(blobStore.stage(any())).thenAnswer(call -> {
+            Path staged = Files.createTempFile(dir, "staged-", ".tmp");
+            try (InputStream in = call.getArgument(0)) {
+                Files.copy(in, staged, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new StreamedFile(staged, Files.size(staged), "hash");
+        });
+
+        transcoder = new FfmpegTranscoder(fileStorage, blobStore);
+        ReflectionTestUtils.setField(transcoder, "preset", "veryfast");
+        ReflectionTestUtils.setField(transcoder, "maxConcurrent", 1);
+        ReflectionTestUtils.setField(transcoder, "timeoutMinutes", 60L);
+        ReflectionTestUtils.setField(transcoder, "stallSeconds", 120L);
+        ReflectionTestUtils.setField(transcoder, "watchdogIntervalMs", 100L);
+        transcoder.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        transcoder.stop();
+    }
+
+    @Test
+    void parsesProgressAndStagesOutput() throws Exception {
+        stub("""
+                echo '  Duration: 00:00:10.00, start: 0.000000, bitrate: 1000 kb/s' >&2
+                printf 'out_time_us=5000000\\ntotal_size=2048\\nspeed=2.5x\\nprogress=continue\\n' >&2
+                printf 'out_time_ms=10000000\\ntotal_size=4096\\nspeed=N/A\\nprogress=end\\n' >&2
+                printf 'encoded'
+                """);
+
+        StreamedFile staged = transcoder.transcode(source, "mp4", 800, process -> { }, progress::add);
+
+        assertThat(Files.readString(staged.getPath())).isEqualTo("encoded");
+        assertThat(progress).hasSize(2);
+        assertThat(progress.get(0).getPercent()).isEqualTo(50);
+        assertThat(progress.get(0).getOutTimeMs()).isEqualTo(5000);
+        assertThat(progress.get(0).getSpeed()).isEqualTo(2.5);
+        assertThat(progress.get(0).getOutputBytes()).isEqualTo(2048);
+        // out_time_ms is microseconds too, and an unparseable speed keeps the previous value
+        assertThat(progress.get(1).getPercent()).isEqualTo(100);
+        assertThat(progress.get(1).getSpeed()).isEqualTo(2.5);
+        assertThat(progress.get(1).getOutputBytes()).isEqualTo(4096);
+    }
+
+    @Test
+    void reportsUnknownDurationAsMinusOne() throws Exception {
+        stub("""
+                printf 'out_time_us=1000000\\nprogress=end\\n' >&2
+                printf 'x'
+                """);
+
+        transcoder.transcode(source, "webm", 800, process -> { }, progress::add);
+
+        assertThat(progress).singleElement().extracting(FfmpegTranscoder.Progress::getPercent).isEqualTo(-1);
+    }
+
+    @Test
+    void failsWithErrorTailOnNonZeroExit() throws Exception {
+        stub("""
+                echo 'clip.mov: Invalid data found when processing input' >&2
+                printf 'partial'
+                exit 1
+                """);
+
+        assertThatThrownBy(() -> transcoder.transcode(source, "mp4", 800, process -> { }, progress::add))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("status 1")
+                .hasMessageContaining("Invalid data found");
+        verify(blobStore).discard(any());
+    }
+
+    @Test
+    void refusesMuxersOutsideTheKnownFormats() throws Exception {
+        stub("printf 'x'");
+
+        assertThatThrownBy(() -> transcoder.transcode(source, "tee", 800, process -> { }, progress::add))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unsupported video format: tee");
+    }
+
+    @Test
+    void failsWhenNothingIsWritten() throws Exception {
+        stub("exit 0");
+
+        assertThatThrownBy(() -> transcoder.transcode(source, "mp4", 800, process -> { }, progress::add))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("no output");
+    }
+
+    @Test
+    void killsStalledRun() throws Exception {
+        ReflectionTestUtils.setField(transcoder, "stallSeconds", 1L);
+        stub("""
+                printf 'progress=continue\\n' >&2
+                exec sleep 30
+                """);
+
+        long started = System.nanoTime();
+        assertThatThrownBy(() -> transcoder.transcode(source, "mp4", 800, process -> { }, progress::add))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("no progress for 1 seconds");
+        assertThat(System.nanoTime() - started).isLessThan(20_000_000_000L);
+        verify(blobStore).discard(any());
+    }
+
+    @Test
+    void killsRunPastTheTimeLimitEvenWhileProgressing() throws Exception {
+        ReflectionTestUtils.setField(transcoder, "timeoutMinutes", 0L);
+        stub("""
+                while true; do printf 'progress=continue\\n' >&2; sleep 0.05; done
+                """);
+
+        assertThatThrownBy(() -> transcoder.transcode(source, "mp4", 800, process -> { }, progress::add))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("timed out after 0 minutes");
+    }
+
+    @Test
+    void passesLocalInputByPath() throws Exception {
+        Path args = dir.resolve("args");
+        stub("echo \"$@\" > '" + args + "'\nprintf 'x'");
+
+        transcoder.transcode(source, "mkv", 640, process -> { }, progress::add);
+
+        String command = Files.readString(args);
+        assertThat(command).contains("-i " + dir.resolve("clip.mov").toAbsolutePath());
+        assertThat(command).contains("-f matroska").contains("-b:v 640k").endsWith("pipe:1\n");
+        verify(fileStorage, never()).open(any());
+    }
+
+    private void stub(String body) throws IOException {
+        Path script = dir.resolve("ffmpeg");
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        ReflectionTestUtils.setField(transcoder, "ffmpegPath", script.toString());
+    }
+}
@@ -0,0 +1,175 @@
+package com.cloudstore.service;
+
+import com.cloudstore.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileNameIndexTest {
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private FileNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new FileNameIndex(fileRepository);
+        ReflectionTestUtils.setField(index, "maxEntries", 2_000_000L);
+        ReflectionTestUtils.setField(index, "idleMinutes", 30L);
+    }
+
+    @Test
+    void ranksPrefixThenWordStartThenSubstringThenTypos() {
+        files(1L, row(5, "notes.txt"), row(4, "reprot.doc"), row(3, "myreport.txt"),
+                row(2, "annual report.pdf"), row(1, "report.pdf"));
+
+        assertThat(index.search(1L, "report", 10)).containsExactly(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    void shorterNamesWinWithinATier() {
+        files(1L, row(1, "report final version.pdf"), row(2, "report.pdf"));
+
+        assertThat(index.search(1L, "Report", 10)).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void toleratesOneTypoOnlyInLongerQueries() {
+        files(1L, row(1, "budget.pdf"), row(2, "quarterly.xlsx"));
+
+        assertThat(index.search(1L, "quartrly", 10)).containsExactly(2L);
+        assertThat(index.search(1L, "budgt", 10)).containsExactly(1L);
+        // Four characters leave too few trigrams to tell a typo from an unrelated name
+        assertThat(index.search(1L, "budt", 10)).isEmpty();
+    }
+
+    @Test
+    void matchesShortQueriesAndFoldsAccents() {
+        files(1L, row(1, "Café menu.pdf"), row(2, "cv.docx"));
+
+        assertThat(index.search(1L, "cv", 10)).containsExactly(2L);
+        assertThat(index.search(1L, "cafe", 10)).containsExactly(1L);
+        assertThat(index.search(1L, "  CAFÉ ", 10)).containsExactly(1L);
+    }
+
+    @Test
+    void respectsLimit() {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 50; id++) {
+            rows.add(row(id, "photo-" + id + ".jpg"));
+        }
+        when(fileRepository.findLiveNamesByUserId(1L)).thenReturn(rows);
+
+        assertThat(index.search(1L, "photo", 5)).hasSize(5);
+        assertThat(index.search(1L, "photo", 0)).isEmpty();
+    }
+
+    @Test
+    void appliesChangesAfterLoad() {
+        files(1L, row(1, "draft.txt"), row(2, "invoice.pdf"));
+        index.search(1L, "draft", 10);
+
+        index.fileSaved(1L, 1L, "final.txt", false);
+        index.fileSaved(1L, 3L, "invoice copy.pdf", false);
+        index.fileSaved(1L, 2L, "invoice.pdf", true);
+
+        assertThat(index.search(1L, "draft", 10)).isEmpty();
+        assertThat(index.search(1L, "final", 10)).containsExactly(1L);
+        assertThat(index.search(1L, "invoice", 10)).containsExactly(3L);
+    }
+
+    @Test
+    void replaysChangesThatArriveWhileLoading() {
+        when(fileRepository.findLiveNamesByUserId(1L)).thenAnswer(call -> {
+            // The index is registered but not built yet, so these are queued
+            index.fileSaved(1L, 3L, "late upload.pdf", false);
+            index.fileRemoved(1L, 1L);
+            return rows(row(1, "report.pdf"), row(2, "report old.pdf"));
+        });
+
+        assertThat(index.search(1L, "report", 10)).containsExactly(2L);
+        assertThat(index.search(1L, "late", 10)).containsExactly(3L);
+    }
+
+    @Test
+    void compactsAfterMostNamesAreRemoved() {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            rows.add(row(id, "scan-" + id + ".pdf"));
+        }
+        when(fileRepository.findLiveNamesByUserId(1L)).thenReturn(rows);
+        index.search(1L, "scan", 1);
+
+        for (long id = 1; id <= 1500; id++) {
+            index.fileRemoved(1L, id);
+        }
+
+        assertThat((int) ReflectionTestUtils.getField(userIndex(1L), "slots")).isLessThan(1000);
+        // Neighbouring names still match as typos, just below the exact one
+        assertThat(index.search(1L, "scan-1999", 10)).startsWith(1999L).allMatch(id -> id > 1500);
+        assertThat(index.search(1L, "scan-1499.pdf", 10)).doesNotContain(1499L).allMatch(id -> id > 1500);
+        assertThat(index.search(1L, "scan", 1000)).hasSize(500).allMatch(id -> id > 1500);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedIndexOverBudget() {
+        ReflectionTestUtils.setField(index, "maxEntries", 3L);
+        files(1L, row(1, "one.txt"), row(2, "two.txt"));
+        files(2L, row(3, "three.txt"), row(4, "four.txt"));
+
+        index.search(1L, "one", 10);
+        index.search(2L, "three", 10);
+        index.search(2L, "four", 10);
+        assertThat(index.search(1L, "two", 10)).containsExactly(2L);
+
+        verify(fileRepository, times(1)).findLiveNamesByUserId(2L);
+        verify(fileRepository, times(2)).findLiveNamesByUserId(1L);
+    }
+
+    @Test
+    void keepsTheMostRecentIndexEvenIfItAloneIsOverBudget() {
+        ReflectionTestUtils.setField(index, "maxEntries", 1L);
+        files(1L, row(1, "one.txt"), row(2, "two.txt"));
+
+        index.search(1L, "one", 10);
+        assertThat(index.search(1L, "two", 10)).containsExactly(2L);
+
+        verify(fileRepository, times(1)).findLiveNamesByUserId(1L);
+    }
+
+    @Test
+    void dropsIdleIndexes() {
+        files(1L, row(1, "one.txt"));
+        index.search(1L, "one", 10);
+
+        ReflectionTestUtils.setField(index, "idleMinutes", 0L);
+        index.evictIdle();
+        index.search(1L, "one", 10);
+
+        verify(fileRepository, times(2)).findLiveNamesByUserId(1L);
+    }
+
+    private void files(Long userId, Object[]... rows) {
+        when(fileRepository.findLiveNamesByUserId(userId)).thenReturn(rows(rows));
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return new ArrayList<>(List.of(rows));
+    }
+
+    private static Object[] row(long id, String name) {
+        return new Object[]{id, name};
+    }
+
+    private Object userIndex(Long userId) {
+        return ((Map<?, ?>) ReflectionTestUtils.getField(index, "users")).get(userId);
+    }
+}
@@ -0,0 +1,199 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.BulkFileRequest;
+import com.cloudstore.dto.BulkFileResponse;
+import com.cloudstore.dto.BulkFileResult;
+import com.cloudstore.model.File;
+import com.cloudstore.model.Folder;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.repository.FolderRepository;
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+// lockForBulk answers from three rows in its column order (id, deleted, favourite, size, folder_id, name, blob_hash):
+//   1: live, in folder 10, 100 bytes, blob h1
+//   2: in the trash, favourite, top level, 50 bytes, blob h1
+//   3: live, in folder 20, 30 bytes, a legacy row without a blob
+class FileServiceBulkTest {
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final FolderRepository folderRepository = mock(FolderRepository.class);
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private final FileStorage fileStorage = mock(FileStorage.class);
+    private final FileNameIndex fileNameIndex = mock(FileNameIndex.class);
+    private final FolderStatsService folderStatsService = mock(FolderStatsService.class);
+    private final QuotaService quotaService = mock(QuotaService.class);
+    private final ContentSearchService contentSearchService = mock(ContentSearchService.class);
+    private final User user = User.builder().id(7L).build();
+    private final Map<Long, Object[]> rows = Map.of(
+            1L, new Object[]{1L, false, false, 100L, 10L, "a.txt", "h1"},
+            2L, new Object[]{2L, true, true, 50L, null, "b.txt", "h1"},
+            3L, new Object[]{3L, false, false, 30L, 20L, "c.txt", null});
+    private FileService fileService;
+
+    @BeforeEach
+    void setUp() {
+        fileService = new FileService(fileRepository, mock(UserRepository.class), folderRepository, blobStore, fileStorage,
+                mock(ExecutorService.class), mock(ThumbnailService.class), fileNameIndex, contentSearchService,
+                folderStatsService, quotaService, mock(NotificationService.class));
+        when(fileRepository.lockForBulk(anyCollection(), eq(7L))).thenAnswer(call -> call.<Collection<Long>>getArgument(0).stream()
+                .sorted().map(rows::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    @Test
+    void reportsAnOutcomeForEveryRequestedIdInRequestOrder() throws IOException {
+        BulkFileResponse response = bulk(BulkFileRequest.Operation.DELETE, Arrays.asList(3L, 99L, 1L, 2L, 1L, null));
+
+        assertThat(response.getResults()).extracting(BulkFileResult::getFileId).containsExactly(3L, 99L, 1L, 2L);
+        assertThat(response.getResults()).extracting(BulkFileResult::getStatus).containsExactly(
+                BulkFileResult.Status.UPDATED, BulkFileResult.Status.NOT_FOUND,
+                BulkFileResult.Status.UPDATED, BulkFileResult.Status.UNCHANGED);
+        assertThat(response.getUpdated()).isEqualTo(2);
+        assertThat(response.getUnchanged()).isEqualTo(1);
+        assertThat(response.getNotFound()).isEqualTo(1);
+    }
+
+    @Test
+    void trashesOnlyLiveFilesAndTakesThemOutOfTheirFolders() throws IOException {
+        bulk(BulkFileRequest.Operation.DELETE, List.of(1L, 2L, 3L));
+
+        assertThat(updatedIds()).containsExactlyInAnyOrder(1L, 3L);
+        verify(folderStatsService).recordAfterCommit(7L, 10L, 100L, -1);
+        verify(folderStatsService).recordAfterCommit(7L, 20L, 30L, -1);
+        verify(folderStatsService, never()).recordAfterCommit(eq(7L), eq(null), anyLong(), anyInt());
+        verify(fileNameIndex).fileSaved(7L, 1L, "a.txt", true);
+        verify(fileNameIndex).fileSaved(7L, 3L, "c.txt", true);
+    }
+
+    @Test
+    void restoresOnlyTrashedFiles() throws IOException {
+        BulkFileResponse response = bulk(BulkFileRequest.Operation.RESTORE, List.of(1L, 2L, 3L));
+
+        assertThat(response.getUpdated()).isEqualTo(1);
+        assertThat(response.getUnchanged()).isEqualTo(2);
+        ArgumentCaptor<Collection<Long>> ids = idsCaptor();
+        verify(fileRepository).bulkSetDeleted(ids.capture(), eq(false), isNull(), any());
+        assertThat(ids.getValue()).containsExactly(2L);
+        verify(folderStatsService).recordAfterCommit(7L, null, 50L, 1);
+        verify(fileNameIndex).fileSaved(7L, 2L, "b.txt", false);
+    }
+
+    @Test
+    void movesLiveTotalsButLeavesFilesAlreadyThere() throws IOException {
+        Folder target = Folder.builder().id(20L).build();
+        when(folderRepository.findByIdAndUser(20L, user)).thenReturn(Optional.of(target));
+        BulkFileRequest request = request(BulkFileRequest.Operation.MOVE, List.of(1L, 2L, 3L));
+        request.setFolderId(20L);
+
+        BulkFileResponse response = fileService.bulkUpdateForUser(user, request);
+
+        assertThat(response.getResults()).extracting(BulkFileResult::getStatus).containsExactly(
+                BulkFileResult.Status.UPDATED, BulkFileResult.Status.UPDATED, BulkFileResult.Status.UNCHANGED);
+        ArgumentCaptor<Collection<Long>> ids = idsCaptor();
+        verify(fileRepository).bulkMove(ids.capture(), eq(target), any());
+        assertThat(ids.getValue()).containsExactlyInAnyOrder(1L, 2L);
+        // The trashed file counts towards no folder, before or after
+        verify(folderStatsService).recordAfterCommit(7L, 10L, 100L, -1);
+        verify(folderStatsService).recordAfterCommit(7L, 20L, 100L, 1);
+        verify(folderStatsService, never()).recordAfterCommit(eq(7L), any(), eq(50L), anyInt());
+    }
+
+    @Test
+    void refusesToMoveIntoAFolderTheUserDoesNotOwn() {
+        BulkFileRequest request = request(BulkFileRequest.Operation.MOVE, List.of(1L));
+        request.setFolderId(99L);
+
+        assertThatThrownBy(() -> fileService.bulkUpdateForUser(user, request)).hasMessage("Folder not found");
+        verify(fileRepository, never()).lockForBulk(anyCollection(), anyLong());
+    }
+
+    @Test
+    void permanentlyDeletesWithOneBlobReleasePerBatch() throws IOException {
+        File legacy = File.builder().id(3L).build();
+        when(fileRepository.findAllById(List.of(3L))).thenReturn(List.of(legacy));
+
+        bulk(BulkFileRequest.Operation.PERMANENT_DELETE, List.of(1L, 2L, 3L));
+
+        ArgumentCaptor<Collection<Long>> ids = idsCaptor();
+        verify(fileRepository).bulkDelete(ids.capture());
+        assertThat(ids.getValue()).containsExactlyInAnyOrder(1L, 2L, 3L);
+        verify(blobStore).releaseAllDeferred(Map.of("h1", 2L));
+        verify(fileStorage).releaseDeferred(legacy);
+        verify(quotaService).addAfterCommit(7L, -180L);
+        // Trashed files already left their folder's totals
+        verify(folderStatsService).recordAfterCommit(7L, 10L, 100L, -1);
+        verify(folderStatsService).recordAfterCommit(7L, 20L, 30L, -1);
+        verify(folderStatsService, never()).recordAfterCommit(eq(7L), eq(null), anyLong(), anyInt());
+        verify(fileNameIndex).fileRemoved(7L, 2L);
+    }
+
+    @Test
+    void writesNothingWhenNoFileChanges() throws IOException {
+        BulkFileResponse response = bulk(BulkFileRequest.Operation.UNFAVOURITE, List.of(1L, 3L, 99L));
+
+        assertThat(response.getUnchanged()).isEqualTo(2);
+        assertThat(response.getNotFound()).isEqualTo(1);
+        verify(fileRepository, never()).bulkSetFavourite(anyCollection(), anyBoolean(), any());
+    }
+
+    @Test
+    void rejectsAMissingOperationOrTooManyIds() {
+        assertThatThrownBy(() -> bulk(null, List.of(1L))).hasMessage("Operation is required");
+        List<Long> tooMany = LongStream.rangeClosed(1, 1001).boxed().collect(Collectors.toList());
+        assertThatThrownBy(() -> bulk(BulkFileRequest.Operation.DELETE, tooMany)).hasMessage("At most 1000 files per request");
+        verifyNoInteractions(fileRepository);
+    }
+
+    private BulkFileResponse bulk(BulkFileRequest.Operation operation, List<Long> ids) throws IOException {
+        return fileService.bulkUpdateForUser(user, request(operation, ids));
+    }
+
+    private static BulkFileRequest request(BulkFileRequest.Operation operation, List<Long> ids) {
+        BulkFileRequest request = new BulkFileRequest();
+        request.setOperation(operation);
+        request.setFileIds(new ArrayList<>(ids));
+        return request;
+    }
+
+    private List<Long> updatedIds() {
+        ArgumentCaptor<Collection<Long>> ids = idsCaptor();
+        verify(fileRepository).bulkSetDeleted(ids.capture(), eq(true), any(), any());
+        return new ArrayList<>(ids.getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Collection<Long>> idsCaptor() {
+        return ArgumentCaptor.forClass(Collection.class);
+    }
+}
@@ -0,0 +1,90 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.repository.FilePageQuery;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Round trips of the keyset cursor used by FileService.listFilesPage
+class FileServiceCursorTest {
+
+    @Test
+    void roundTripsCreatedAt() {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+        FilePageQuery query = decode(encode(file(42L, "a.txt", 10L, createdAt), FilePageQuery.Sort.CREATED_AT, false),
+                FilePageQuery.Sort.CREATED_AT, false);
+
+        assertThat(query.getAfterValue()).isEqualTo(createdAt);
+        assertThat(query.getAfterId()).isEqualTo(42L);
+    }
+
+    @Test
+    void roundTripsNamesContainingTheSeparator() {
+        FilePageQuery query = decode(encode(file(7L, "a|b|c.txt", 1L, null), FilePageQuery.Sort.NAME, true),
+                FilePageQuery.Sort.NAME, true);
+
+        assertThat(query.getAfterValue()).isEqualTo("a|b|c.txt");
+        assertThat(query.getAfterId()).isEqualTo(7L);
+    }
+
+    @Test
+    void roundTripsSizeWithMissingSizeAsZero() {
+        FilePageQuery query = decode(encode(file(9L, "x", null, null), FilePageQuery.Sort.SIZE, true),
+                FilePageQuery.Sort.SIZE, true);
+
+        assertThat(query.getAfterValue()).isEqualTo(0L);
+        assertThat(query.getAfterId()).isEqualTo(9L);
+    }
+
+    @Test
+    void cursorIsUrlSafe() {
+        String cursor = encode(file(1L, "??>>~~.txt", 1L, null), FilePageQuery.Sort.NAME, true);
+
+        assertThat(cursor).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void rejectsCursorForAnotherOrder() {
+        String cursor = encode(file(1L, "a.txt", 1L, null), FilePageQuery.Sort.NAME, true);
+
+        assertThatThrownBy(() -> decode(cursor, FilePageQuery.Sort.NAME, false)).hasMessage("Invalid cursor");
+        assertThatThrownBy(() -> decode(cursor, FilePageQuery.Sort.SIZE, true)).hasMessage("Invalid cursor");
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThatThrownBy(() -> decode("not base64!", FilePageQuery.Sort.NAME, true)).hasMessage("Invalid cursor");
+        assertThatThrownBy(() -> decode(raw("NAME|asc|a.txt"), FilePageQuery.Sort.NAME, true)).hasMessage("Invalid cursor");
+        assertThatThrownBy(() -> decode(raw("SIZE|asc|big|1"), FilePageQuery.Sort.SIZE, true)).hasMessage("Invalid cursor");
+        assertThatThrownBy(() -> decode(raw("NAME|asc|a.txt|x"), FilePageQuery.Sort.NAME, true)).hasMessage("Invalid cursor");
+    }
+
+    private static String encode(FileResponse last, FilePageQuery.Sort sort, boolean ascending) {
+        return FileService.encodeCursor(last, sort, ascending);
+    }
+
+    private static FilePageQuery decode(String cursor, FilePageQuery.Sort sort, boolean ascending) {
+        FilePageQuery.FilePageQueryBuilder query = FilePageQuery.builder().sort(sort).ascending(ascending);
+        FileService.decodeCursor(cursor, sort, ascending, query);
+        return query.build();
+    }
+
+    private static String raw(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static FileResponse file(Long id, String name, Long size, LocalDateTime createdAt) {
+        FileResponse file = new FileResponse();
+        file.setId(id);
+        file.setName(name);
+        file.setSize(size);
+        file.setCreatedAt(createdAt);
+        return file;
+    }
+}
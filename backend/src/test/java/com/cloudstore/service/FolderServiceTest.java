@@ -0,0 +1,138 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.FolderResponse;
+import com.cloudstore.model.Folder;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.FolderRepository;
+import com.cloudstore.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// The tree is /1/ (photos) > /1/2/ (trips) > /1/2/3/ (rome), plus a separate top-level /4/ (archive);
+// trips holds 100 bytes in 3 files, counting what is in rome
+class FolderServiceTest {
+    private final FolderRepository folderRepository = mock(FolderRepository.class);
+    private final User user = User.builder().id(7L).email("ada@example.com").build();
+    private Folder photos;
+    private Folder trips;
+    private Folder rome;
+    private FolderService folderService;
+
+    @BeforeEach
+    void setUp() {
+        folderService = new FolderService(folderRepository, mock(UserRepository.class));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, List.of()));
+        photos = folder(1L, null, 160, 5);
+        trips = folder(2L, photos, 100, 3);
+        rome = folder(3L, trips, 40, 1);
+        folder(4L, null, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void movesTheTotalsFromTheOldAncestorsToTheNewOnes() {
+        FolderResponse moved = folderService.moveFolder(2L, 4L);
+
+        assertThat(moved.getParentId()).isEqualTo(4L);
+        assertThat(trips.getPath()).isEqualTo("/4/2/");
+        assertThat(trips.getDepth()).isEqualTo(1);
+        verify(folderRepository).moveDescendants(user, "/1/2/", "/1/20", "/4/2/", "/1/2/".length(), 0);
+        verify(folderRepository).addToTotals(List.of(1L), -100, -3);
+        verify(folderRepository).addToTotals(List.of(4L), 100, 3);
+    }
+
+    @Test
+    void leavesTheTotalsOfSharedAncestorsAlone() {
+        folderService.moveFolder(3L, 1L);
+
+        assertThat(rome.getPath()).isEqualTo("/1/3/");
+        assertThat(rome.getDepth()).isEqualTo(1);
+        verify(folderRepository).moveDescendants(user, "/1/2/3/", "/1/2/30", "/1/3/", "/1/2/3/".length(), -1);
+        verify(folderRepository).addToTotals(List.of(2L), -40, -1);
+        verify(folderRepository, times(1)).addToTotals(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    void movingToTheTopLevelOnlyTakesTheTotalsAway() {
+        folderService.moveFolder(2L, null);
+
+        assertThat(trips.getParent()).isNull();
+        assertThat(trips.getPath()).isEqualTo("/2/");
+        assertThat(trips.getDepth()).isZero();
+        verify(folderRepository).moveDescendants(user, "/1/2/", "/1/20", "/2/", "/1/2/".length(), -1);
+        verify(folderRepository).addToTotals(List.of(1L), -100, -3);
+    }
+
+    @Test
+    void refusesToMoveAFolderBelowItself() {
+        assertThatThrownBy(() -> folderService.moveFolder(2L, 3L))
+                .hasMessage("Cannot move a folder into itself or one of its subfolders");
+        assertThatThrownBy(() -> folderService.moveFolder(2L, 2L))
+                .hasMessage("Cannot move a folder into itself or one of its subfolders");
+
+        assertThat(trips.getPath()).isEqualTo("/1/2/");
+        verify(folderRepository, never()).save(any());
+        verify(folderRepository, never()).moveDescendants(any(), anyString(), anyString(), anyString(), anyInt(), anyInt());
+        verify(folderRepository, never()).addToTotals(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    void takesTheTreeLockBeforeReadingAnyPath() {
+        folderService.moveFolder(2L, 4L);
+
+        InOrder order = inOrder(folderRepository);
+        order.verify(folderRepository).lockTree(7L);
+        order.verify(folderRepository).findByIdAndUser(2L, user);
+    }
+
+    @Test
+    void fillsInAPathThatWasNeverBackfilled() {
+        trips.setPath(null);
+        trips.setDepth(null);
+
+        folderService.moveFolder(2L, 4L);
+
+        verify(folderRepository).moveDescendants(user, "/1/2/", "/1/20", "/4/2/", "/1/2/".length(), 0);
+        verify(folderRepository).addToTotals(List.of(1L), -100, -3);
+    }
+
+    private Folder folder(Long id, Folder parent, long totalSize, long fileCount) {
+        String path = (parent != null ? parent.getPath() : "/") + id + "/";
+        Folder folder = Folder.builder()
+                .id(id)
+                .user(user)
+                .name("folder-" + id)
+                .parent(parent)
+                .path(path)
+                .depth(parent != null ? parent.getDepth() + 1 : 0)
+                .totalSize(totalSize)
+                .fileCount(fileCount)
+                .build();
+        when(folderRepository.findByIdAndUser(id, user)).thenReturn(Optional.of(folder));
+        return folder;
+    }
+}
@@ -0,0 +1,181 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.model.Folder;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.FolderRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Every batch the flush sends is recorded as "folder:size:count" rows; the transaction manager is a mock,
+// so each flush is one begin/commit (or rollback) around whatever the test makes the JdbcTemplate do
+class FolderStatsServiceTest {
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final List<List<String>> batches = new ArrayList<>();
+    private FolderStatsService folderStatsService;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        folderStatsService = new FolderStatsService(jdbcTemplate, transactionManager);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(call -> record(call.getArgument(1)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void coalescesDeltasPerFolderIntoOneBatch() {
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+        folderStatsService.recordAfterCommit(file(7L, 10L, 50), 1);
+        folderStatsService.recordAfterCommit(file(7L, 11L, 30), -1);
+        folderStatsService.recordAfterCommit(file(7L, null, 999), 1);
+
+        folderStatsService.flush();
+        folderStatsService.flush();
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsExactlyInAnyOrder("10:150:2", "11:-30:-1");
+    }
+
+    @Test
+    void dropsFoldersWhoseChangesCancelOut() {
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), -1);
+        folderStatsService.recordAfterCommit(file(7L, 11L, 5), 1);
+
+        folderStatsService.flush();
+
+        assertThat(batches).containsExactly(List.of("11:5:1"));
+    }
+
+    @Test
+    void locksEveryUserInIdOrderBeforeApplying() {
+        folderStatsService.recordAfterCommit(file(9L, 20L, 1), 1);
+        folderStatsService.recordAfterCommit(file(3L, 10L, 1), 1);
+
+        folderStatsService.flush();
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).queryForObject(anyString(), eq(Integer.class),
+                eq(FolderRepository.TREE_LOCK_NAMESPACE), eq(FolderRepository.treeLockKey(3L)));
+        order.verify(jdbcTemplate).queryForObject(anyString(), eq(Integer.class),
+                eq(FolderRepository.TREE_LOCK_NAMESPACE), eq(FolderRepository.treeLockKey(9L)));
+        order.verify(jdbcTemplate).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void aFailedFlushKeepsItsDeltasForTheNextOne() {
+        doThrow(new QueryTimeoutException("canceling statement due to lock timeout"))
+                .doAnswer(call -> record(call.getArgument(1)))
+                .when(jdbcTemplate).batchUpdate(anyString(), anyList());
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+        folderStatsService.recordAfterCommit(file(8L, 20L, 40), 1);
+
+        folderStatsService.flush();
+        assertThat(batches).isEmpty();
+        // Changes that commit between the failure and the retry join the re-queued ones
+        folderStatsService.recordAfterCommit(file(7L, 10L, 25), 1);
+        folderStatsService.flush();
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsExactlyInAnyOrder("10:125:2", "20:40:1");
+    }
+
+    @Test
+    void countsAChangeOnlyOnceItsTransactionCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+        completeTransaction(false);
+        TransactionSynchronizationManager.initSynchronization();
+        folderStatsService.recordAfterCommit(file(7L, 10L, 40), 1);
+
+        folderStatsService.flush();
+        assertThat(batches).isEmpty();
+
+        completeTransaction(true);
+        folderStatsService.flush();
+        assertThat(batches).containsExactly(List.of("10:40:1"));
+    }
+
+    @Test
+    void aFailedReconciliationPutsBackTheDeltasItDiscarded() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class))).thenReturn(List.of(7L));
+        when(jdbcTemplate.update(anyString(), eq(7L), eq(7L))).thenThrow(new QueryTimeoutException("statement timeout"));
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+
+        folderStatsService.reconcile();
+        folderStatsService.flush();
+
+        assertThat(batches).containsExactly(List.of("10:100:1"));
+    }
+
+    @Test
+    void aSuccessfulReconciliationSupersedesPendingDeltas() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class))).thenReturn(List.of(7L));
+        when(jdbcTemplate.update(anyString(), eq(7L), eq(7L))).thenReturn(1);
+        folderStatsService.recordAfterCommit(file(7L, 10L, 100), 1);
+
+        folderStatsService.reconcile();
+        folderStatsService.flush();
+
+        assertThat(batches).isEmpty();
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    private int[] record(List<Object[]> batch) {
+        List<String> rows = new ArrayList<>();
+        for (Object[] row : batch) {
+            rows.add(row[2] + ":" + row[0] + ":" + row[1]);
+        }
+        batches.add(rows);
+        return new int[rows.size()];
+    }
+
+    private static File file(Long userId, Long folderId, long size) {
+        return File.builder()
+                .user(User.builder().id(userId).build())
+                .folder(folderId != null ? Folder.builder().id(folderId).build() : null)
+                .size(size)
+                .build();
+    }
+
+    private static void completeTransaction(boolean committed) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        if (committed) {
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+        }
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations,
+                committed ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+    }
+}
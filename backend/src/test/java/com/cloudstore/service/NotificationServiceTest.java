@@ -0,0 +1,96 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.Notification;
+import com.cloudstore.repository.NotificationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NotificationServiceTest {
+    private final NotificationRepository notificationRepository = mock(NotificationRepository.class);
+    private NotificationService notificationService;
+
+    @BeforeEach
+    void setUp() {
+        notificationService = new NotificationService(notificationRepository, mock(JdbcTemplate.class));
+        ReflectionTestUtils.setField(notificationService, "bufferSize", 100);
+        ReflectionTestUtils.setField(notificationService, "batchSize", 10);
+        ReflectionTestUtils.setField(notificationService, "pushWorkers", 1);
+        ReflectionTestUtils.setField(notificationService, "streamQueueSize", 64);
+        ReflectionTestUtils.setField(notificationService, "maxReplay", 250);
+        ReflectionTestUtils.setField(notificationService, "maxStreamsPerUser", 5);
+        ReflectionTestUtils.setField(notificationService, "streamTimeoutMs", 60_000L);
+        notificationService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        notificationService.stop();
+    }
+
+    @Test
+    void replaysEverythingMissedInPagesBeforeRegistering() {
+        missed(1L, 230);
+
+        notificationService.subscribe(1L, 0L);
+
+        // Pages of 100 until one comes back short, then the final check under the flush lock finds nothing new
+        verify(notificationRepository, times(4)).findByUserIdAndIdGreaterThanOrderByIdAsc(eq(1L), anyLong(), any());
+        verify(notificationRepository).findByUserIdAndIdGreaterThanOrderByIdAsc(eq(1L), eq(200L), any());
+        assertThat(streams()).containsKey(1L);
+    }
+
+    @Test
+    void closesTheStreamWhenMoreWasMissedThanOneReplayHolds() {
+        missed(1L, 1000);
+
+        notificationService.subscribe(1L, 0L);
+
+        verify(notificationRepository).findByUserIdAndIdGreaterThanOrderByIdAsc(eq(1L), eq(200L), any());
+        assertThat(streams()).doesNotContainKey(1L);
+    }
+
+    @Test
+    void registersRightAwayWithoutALastEventId() {
+        notificationService.subscribe(1L, null);
+
+        verify(notificationRepository, times(0)).findByUserIdAndIdGreaterThanOrderByIdAsc(any(), any(), any());
+        assertThat(streams()).containsKey(1L);
+    }
+
+    // Notifications 1..count exist for the user
+    private void missed(Long userId, int count) {
+        when(notificationRepository.findByUserIdAndIdGreaterThanOrderByIdAsc(eq(userId), anyLong(), any())).thenAnswer(call -> {
+            long after = call.getArgument(1);
+            Pageable page = call.getArgument(2);
+            List<Notification> rows = new ArrayList<>();
+            for (long id = after + 1; id <= count && rows.size() < page.getPageSize(); id++) {
+                rows.add(Notification.builder().id(id).userId(userId).type("info").message("n" + id)
+                        .createdAt(LocalDateTime.now()).build());
+            }
+            return rows;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, Object> streams() {
+        return (Map<Long, Object>) ReflectionTestUtils.getField(notificationService, "streams");
+    }
+}
@@ -0,0 +1,78 @@
+package com.cloudstore.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QuotaServiceTest {
+    private static final String ADD_USAGE = "UPDATE users SET storage_used = COALESCE(storage_used, 0) + ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private QuotaService quotaService;
+
+    @BeforeEach
+    void setUp() {
+        quotaService = new QuotaService(jdbcTemplate);
+        ReflectionTestUtils.setField(quotaService, "freeLimit", DataSize.ofBytes(1000));
+        ReflectionTestUtils.setField(quotaService, "plusLimit", DataSize.ofBytes(2000));
+        ReflectionTestUtils.setField(quotaService, "familyLimit", DataSize.ofBytes(2000));
+        ReflectionTestUtils.setField(quotaService, "professionalLimit", DataSize.ofBytes(3000));
+        Map<String, Object> row = new HashMap<>();
+        row.put("plan", null);
+        row.put("storage_used", 100L);
+        when(jdbcTemplate.queryForMap(anyString(), eq(1L))).thenReturn(row);
+    }
+
+    @Test
+    void persistsChangesAsDeltas() {
+        quotaService.addAfterCommit(1L, 50);
+        quotaService.addAfterCommit(1L, -20);
+
+        quotaService.persist();
+
+        assertThat(batches()).singleElement().satisfies(args -> assertThat(args).containsExactly(30L, 1L));
+        assertThat(quotaService.describe(1L).getUsedBytes()).isEqualTo(130);
+        clearInvocations(jdbcTemplate);
+        quotaService.persist();
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void keepsDeltasWhenTheWriteFails() {
+        quotaService.addAfterCommit(1L, 50);
+        when(jdbcTemplate.batchUpdate(eq(ADD_USAGE), anyList())).thenThrow(new DataAccessResourceFailureException("down"));
+        quotaService.persist();
+        quotaService.addAfterCommit(1L, 5);
+
+        when(jdbcTemplate.batchUpdate(eq(ADD_USAGE), anyList())).thenReturn(new int[]{1});
+        clearInvocations(jdbcTemplate);
+        quotaService.persist();
+
+        assertThat(batches()).singleElement().satisfies(args -> assertThat(args).containsExactly(55L, 1L));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> batches() {
+        ArgumentCaptor<List<Object[]>> captor = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(eq(ADD_USAGE), captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,208 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.Blob;
+import com.cloudstore.repository.BlobRepository;
+import com.cloudstore.repository.FileRepository;
+import com.cloudstore.storage.BlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StorageReclaimServiceTest {
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final BlobRepository blobRepository = mock(BlobRepository.class);
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private final FileService fileService = mock(FileService.class);
+    private final NotificationService notificationService = mock(NotificationService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StorageReclaimService reclaimService;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        reclaimService = service(0, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(reclaimService, "stop");
+    }
+
+    @Test
+    void purgesExpiredTrashInBatchesUntilNoneIsLeft() throws IOException {
+        when(fileRepository.findExpiredTrashIds(any(), any()))
+                .thenReturn(List.of(1L, 2L), List.of(3L), List.of());
+        when(fileService.purgeTrash(any())).thenAnswer(call -> call.<List<Long>>getArgument(0).size());
+
+        reclaimService.run();
+
+        verify(fileService).purgeTrash(List.of(1L, 2L));
+        verify(fileService).purgeTrash(List.of(3L));
+        assertThat(meterRegistry.get("cloudstore.gc.trash.purged").counter().count()).isEqualTo(3);
+        // Only trash older than the retention period
+        ArgumentCaptor<LocalDateTime> cutoff = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(fileRepository, times(3)).findExpiredTrashIds(cutoff.capture(), any());
+        assertThat(cutoff.getValue()).isBefore(LocalDateTime.now().minusDays(29));
+    }
+
+    @Test
+    void reclaimsUnreferencedBlobsAndCountsTheBytes() {
+        when(blobRepository.findUnreferenced(2)).thenReturn(List.of(blob("a", 100), blob("b", 50)), List.of(blob("c", 10)));
+        when(blobStore.reclaim(anyString())).thenReturn(true);
+        when(blobStore.reclaim("b")).thenReturn(false);
+
+        reclaimService.run();
+
+        assertThat(meterRegistry.get("cloudstore.gc.blobs.reclaimed").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("cloudstore.gc.reclaimed.bytes").tag("source", "blobs").counter().count()).isEqualTo(110);
+    }
+
+    @Test
+    void stopsSweepingWhenABatchMakesNoProgress() {
+        when(blobRepository.findUnreferenced(2)).thenReturn(List.of(blob("a", 100), blob("b", 50)));
+        when(blobStore.reclaim(anyString())).thenReturn(false);
+
+        reclaimService.run();
+
+        verify(blobRepository, times(1)).findUnreferenced(2);
+        verify(blobStore, times(2)).reclaim(anyString());
+    }
+
+    @Test
+    void repairsDanglingReferencesPageByPageAndReclaimsWhatDropsToZero() {
+        when(blobRepository.findDanglingReferences(eq(""), any(), eq(2))).thenReturn(List.of(blob("a", 100), blob("b", 50)));
+        when(blobRepository.findDanglingReferences(eq("b"), any(), eq(2))).thenReturn(List.of(blob("c", 10)));
+        when(blobStore.repairRefCount("a")).thenReturn(0L);
+        when(blobStore.repairRefCount("b")).thenReturn(1L);
+        when(blobStore.repairRefCount("c")).thenReturn(0L);
+        when(blobStore.reclaim(anyString())).thenReturn(true);
+
+        reclaimService.run();
+
+        verify(blobStore).reclaim("a");
+        verify(blobStore, never()).reclaim("b");
+        verify(blobStore).reclaim("c");
+        assertThat(meterRegistry.get("cloudstore.gc.refcounts.repaired").counter().count()).isEqualTo(2);
+        // Blobs younger than an hour may belong to an upload still in flight
+        ArgumentCaptor<LocalDateTime> before = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(blobRepository).findDanglingReferences(eq(""), before.capture(), eq(2));
+        assertThat(before.getValue()).isBefore(LocalDateTime.now().minusMinutes(59));
+    }
+
+    @Test
+    void removesOnlyOldTempFiles() throws IOException {
+        Path staging = Files.createDirectories(dir.resolve(".staging"));
+        Path compress = Files.createDirectories(dir.resolve(".compress"));
+        Path oldBlob = file(staging.resolve(".blob-1.tmp"), 25);
+        Path freshBlob = file(staging.resolve(".blob-2.tmp"), 0);
+        Path oldSession = Files.createDirectories(staging.resolve("session-1"));
+        Files.setLastModifiedTime(oldSession, FileTime.from(Instant.now().minus(25, ChronoUnit.HOURS)));
+        Path oldOther = file(staging.resolve("notes.txt"), 25);
+        Path oldJob = file(compress.resolve("job-1.mp4"), 25);
+
+        reclaimService.run();
+
+        assertThat(oldBlob).doesNotExist();
+        assertThat(oldJob).doesNotExist();
+        assertThat(freshBlob).exists();
+        assertThat(oldSession).exists();
+        assertThat(oldOther).exists();
+        assertThat(meterRegistry.get("cloudstore.gc.reclaimed.bytes").tag("source", "temp").counter().count()).isEqualTo(20);
+    }
+
+    @Test
+    void aFailingStepDoesNotStopTheOthers() throws IOException {
+        when(fileRepository.findExpiredTrashIds(any(), any())).thenThrow(new RuntimeException("connection refused"));
+        when(blobRepository.findUnreferenced(2)).thenReturn(List.of(blob("a", 100)));
+        when(blobStore.reclaim("a")).thenReturn(true);
+
+        reclaimService.run();
+
+        verify(fileService, never()).purgeTrash(any());
+        verify(blobStore).reclaim("a");
+    }
+
+    @Test
+    void warnsAboutExpiringTrashOncePerWindow() {
+        when(fileRepository.countTrashDeletedBetween(any(), any())).thenReturn(List.<Object[]>of(new Object[]{7L, 3L}));
+
+        reclaimService.run();
+        reclaimService.run();
+
+        verify(notificationService, times(2)).publish(eq(7L), eq("TRASH_EXPIRING"),
+                eq("3 files in your trash will be permanently deleted within a day"), isNull());
+        // The second window starts where the first ended
+        ArgumentCaptor<LocalDateTime> from = ArgumentCaptor.forClass(LocalDateTime.class);
+        ArgumentCaptor<LocalDateTime> to = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(fileRepository, times(2)).countTrashDeletedBetween(from.capture(), to.capture());
+        assertThat(from.getAllValues().get(1)).isEqualTo(to.getAllValues().get(0));
+    }
+
+    @Test
+    void throttlesDeletesToTheConfiguredRate() {
+        ReflectionTestUtils.invokeMethod(reclaimService, "stop");
+        reclaimService = service(0, 1000);
+        when(blobRepository.findUnreferenced(2)).thenReturn(List.of(blob("a", 200), blob("b", 200)), List.of(blob("c", 200)));
+        when(blobStore.reclaim(anyString())).thenReturn(true);
+
+        long started = System.nanoTime();
+        reclaimService.run();
+
+        // 600 bytes at 1000 bytes per second
+        assertThat(System.nanoTime() - started).isGreaterThanOrEqualTo(550_000_000L);
+        verify(blobStore, times(3)).reclaim(anyString());
+    }
+
+    private StorageReclaimService service(double maxDeletesPerSecond, double maxBytesPerSecond) {
+        StorageReclaimService service = new StorageReclaimService(fileRepository, blobRepository, blobStore, fileService,
+                notificationService, meterRegistry);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "trashRetentionDays", 30L);
+        ReflectionTestUtils.setField(service, "trashWarningDays", 1L);
+        ReflectionTestUtils.setField(service, "intervalMs", 3600000L);
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        ReflectionTestUtils.setField(service, "maxDeletesPerSecond", maxDeletesPerSecond);
+        ReflectionTestUtils.setField(service, "maxBytesPerSecond", maxBytesPerSecond);
+        ReflectionTestUtils.setField(service, "tempMaxAgeHours", 24L);
+        ReflectionTestUtils.setField(service, "uploadDir", dir.toString());
+        ReflectionTestUtils.invokeMethod(service, "start");
+        return service;
+    }
+
+    private static Blob blob(String hash, long size) {
+        return Blob.builder().hash(hash).size(size).build();
+    }
+
+    // A 10-byte file last modified that many hours ago
+    private static Path file(Path path, long hoursOld) throws IOException {
+        Files.write(path, new byte[10]);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(hoursOld, ChronoUnit.HOURS)));
+        return path;
+    }
+}
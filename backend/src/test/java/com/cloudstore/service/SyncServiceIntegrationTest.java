@@ -0,0 +1,152 @@
+package com.cloudstore.service;
+
+import com.cloudstore.CloudstoreBackendApplication;
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.dto.FolderResponse;
+import com.cloudstore.dto.SyncResponse;
+import com.cloudstore.model.User;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Runs the change log triggers and the sync queries against a real PostgreSQL. The files and folders
+// tables only carry the columns the triggers look at, and the services that describe entities read
+// them straight from those tables.
+@Testcontainers(disabledWithoutDocker = true)
+class SyncServiceIntegrationTest {
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    private static JdbcTemplate jdbcTemplate;
+    private final User user = User.builder().id(1L).build();
+    private SyncService syncService;
+
+    @BeforeAll
+    static void installSchema() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        jdbcTemplate.execute("CREATE TABLE folders (id bigint PRIMARY KEY, user_id bigint, name varchar(255),"
+                + " parent_id bigint, total_size bigint NOT NULL DEFAULT 0)");
+        jdbcTemplate.execute("CREATE TABLE files (id bigint PRIMARY KEY, user_id bigint, name varchar(255),"
+                + " deleted boolean NOT NULL DEFAULT false, favourite boolean NOT NULL DEFAULT false, folder_id bigint,"
+                + " size bigint, url varchar(255), blob_hash varchar(64), updated_at timestamp)");
+        new CloudstoreBackendApplication().installChangeLog(jdbcTemplate).afterSingletonsInstantiated();
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("TRUNCATE files, folders, change_log, change_log_horizon");
+        FileService fileService = mock(FileService.class);
+        FolderService folderService = mock(FolderService.class);
+        when(fileService.describeFilesForUser(any(), any())).thenAnswer(call -> files(call.getArgument(1)));
+        when(folderService.describeFoldersForUser(any(), any())).thenAnswer(call -> folders(call.getArgument(1)));
+        syncService = new SyncService(jdbcTemplate, fileService, folderService);
+        ReflectionTestUtils.setField(syncService, "retentionDays", 30L);
+    }
+
+    @Test
+    void reportsCreatesUpdatesTrashAndDeletesFromTheCursorOn() {
+        SyncResponse first = syncService.sync(user, null, 100);
+        assertThat(first.isReset()).isTrue();
+
+        jdbcTemplate.update("INSERT INTO folders (id, user_id, name) VALUES (10, 1, 'Photos')");
+        jdbcTemplate.update("INSERT INTO files (id, user_id, name, folder_id) VALUES (1, 1, 'a.jpg', 10), (2, 1, 'b.jpg', 10)");
+        jdbcTemplate.update("INSERT INTO files (id, user_id, name) VALUES (3, 2, 'not-mine.txt')");
+        SyncResponse created = syncService.sync(user, first.getCursor(), 100);
+        assertThat(created.getFiles()).extracting(FileResponse::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(created.getFolders()).extracting(FolderResponse::getId).containsExactly(10L);
+
+        jdbcTemplate.update("UPDATE files SET name = 'renamed.jpg' WHERE id = 1");
+        jdbcTemplate.update("UPDATE files SET deleted = true WHERE id = 2");
+        SyncResponse changed = syncService.sync(user, created.getCursor(), 100);
+        assertThat(changed.getFiles()).extracting(FileResponse::getName).containsExactlyInAnyOrder("renamed.jpg", "b.jpg");
+        assertThat(changed.getFiles()).filteredOn(FileResponse::isDeleted).extracting(FileResponse::getId).containsExactly(2L);
+
+        jdbcTemplate.update("DELETE FROM files WHERE id = 2");
+        SyncResponse deleted = syncService.sync(user, changed.getCursor(), 100);
+        assertThat(deleted.getFiles()).isEmpty();
+        assertThat(deleted.getDeletedFileIds()).containsExactly(2L);
+    }
+
+    @Test
+    void ignoresColumnsClientsDoNotSee() {
+        jdbcTemplate.update("INSERT INTO folders (id, user_id, name) VALUES (10, 1, 'Photos')");
+        jdbcTemplate.update("INSERT INTO files (id, user_id, name) VALUES (1, 1, 'a.jpg')");
+        String cursor = drain(syncService.sync(user, null, 100).getCursor());
+
+        jdbcTemplate.update("UPDATE folders SET total_size = 500 WHERE id = 10");
+        jdbcTemplate.update("UPDATE files SET updated_at = now() WHERE id = 1");
+        SyncResponse response = syncService.sync(user, cursor, 100);
+
+        assertThat(response.getFiles()).isEmpty();
+        assertThat(response.getFolders()).isEmpty();
+    }
+
+    @Test
+    void resumesPageByPage() {
+        String cursor = syncService.sync(user, null, 100).getCursor();
+        for (long id = 1; id <= 5; id++) {
+            jdbcTemplate.update("INSERT INTO files (id, user_id, name) VALUES (?, 1, ?)", id, "file-" + id);
+        }
+
+        SyncResponse page = syncService.sync(user, cursor, 2);
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(page.getFiles()).extracting(FileResponse::getId).containsExactly(1L, 2L);
+        page = syncService.sync(user, page.getCursor(), 2);
+        assertThat(page.getFiles()).extracting(FileResponse::getId).containsExactly(3L, 4L);
+        page = syncService.sync(user, page.getCursor(), 2);
+        assertThat(page.isHasMore()).isFalse();
+        assertThat(page.getFiles()).extracting(FileResponse::getId).containsExactly(5L);
+    }
+
+    @Test
+    void expiresCursorsIntoThePrunedRange() {
+        String stale = syncService.sync(user, null, 100).getCursor();
+        jdbcTemplate.update("INSERT INTO files (id, user_id, name) VALUES (1, 1, 'a.jpg')");
+        String current = drain(stale);
+
+        jdbcTemplate.update("UPDATE change_log SET changed_at = now() - interval '31 days'");
+        syncService.prune();
+
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM change_log", Long.class)).isZero();
+        assertThatThrownBy(() -> syncService.sync(user, stale, 100)).isInstanceOf(SyncCursorExpiredException.class);
+        jdbcTemplate.update("INSERT INTO files (id, user_id, name) VALUES (2, 1, 'b.jpg')");
+        assertThat(syncService.sync(user, current, 100).getFiles()).extracting(FileResponse::getId).containsExactly(2L);
+    }
+
+    private String drain(String cursor) {
+        SyncResponse response;
+        do {
+            response = syncService.sync(user, cursor, 100);
+            cursor = response.getCursor();
+        } while (response.isHasMore());
+        return cursor;
+    }
+
+    private static List<FileResponse> files(Collection<Long> ids) {
+        return jdbcTemplate.query("SELECT id, name, deleted FROM files WHERE user_id = 1 AND id = ANY(?)",
+                (rs, i) -> new FileResponse(rs.getLong("id"), rs.getString("name"), null, false, rs.getBoolean("deleted"),
+                        null, null, null, null, null),
+                (Object) ids.toArray(new Long[0]));
+    }
+
+    private static List<FolderResponse> folders(Collection<Long> ids) {
+        return jdbcTemplate.query("SELECT id, name FROM folders WHERE user_id = 1 AND id = ANY(?)",
+                (rs, i) -> new FolderResponse(rs.getLong("id"), rs.getString("name"), null, null, null, 0, 0),
+                (Object) ids.toArray(new Long[0]));
+    }
+}
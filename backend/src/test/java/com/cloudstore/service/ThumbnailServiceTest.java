@@ -0,0 +1,130 @@
+package com.cloudstore.service;
+
+import com.cloudstore.model.File;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.FileStorage;
+import com.cloudstore.storage.LocalDiskStorageBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThumbnailServiceTest {
+    private final FileStorage fileStorage = mock(FileStorage.class);
+    private final File file = File.builder().id(1L).name("photo.jpg").size(100L).build();
+    private ThumbnailService thumbnailService;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailService = service(2);
+        when(fileStorage.derivedKeyBase(file)).thenReturn("abc123");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(thumbnailService, "stop");
+    }
+
+    @Test
+    void generatesEverySizeFromAnImage() throws IOException {
+        when(fileStorage.open(file)).thenAnswer(call -> new ByteArrayInputStream(png(800, 600)));
+
+        Optional<Resource> thumbnail = thumbnailService.thumbnail(file, 256);
+
+        assertThat(thumbnail).isPresent();
+        BufferedImage image = ImageIO.read(thumbnail.get().getInputStream());
+        assertThat(image.getWidth()).isEqualTo(256);
+        assertThat(image.getHeight()).isEqualTo(192);
+        assertThat(thumbnailService.thumbnail(file, 128)).isPresent();
+        verify(fileStorage, times(1)).open(file);
+    }
+
+    @Test
+    void remembersContentThatDoesNotDecode() throws IOException {
+        when(fileStorage.open(file)).thenAnswer(call -> new ByteArrayInputStream("not an image".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(thumbnailService.thumbnail(file, 256)).isEmpty();
+        assertThat(thumbnailService.thumbnail(file, 128)).isEmpty();
+
+        verify(fileStorage, times(1)).open(file);
+    }
+
+    @Test
+    void remembersATruncatedImage() throws IOException {
+        byte[] png = png(400, 300);
+        byte[] truncated = Arrays.copyOf(png, png.length / 2);
+        when(fileStorage.open(file)).thenAnswer(call -> new ByteArrayInputStream(truncated));
+
+        assertThat(thumbnailService.thumbnail(file, 256)).isEmpty();
+        assertThat(thumbnailService.thumbnail(file, 256)).isEmpty();
+
+        verify(fileStorage, times(1)).open(file);
+    }
+
+    @Test
+    void storageFailuresAreNotRemembered() throws IOException {
+        when(fileStorage.open(file)).thenThrow(new IOException("connection reset"))
+                .thenAnswer(call -> new ByteArrayInputStream(png(300, 300)));
+
+        assertThatThrownBy(() -> thumbnailService.thumbnail(file, 256)).isInstanceOf(IOException.class)
+                .hasMessage("connection reset");
+        assertThat(thumbnailService.thumbnail(file, 256)).isPresent();
+    }
+
+    @Test
+    void reportsBusyWhenNoDecodeSlotFreesUp() throws IOException {
+        ReflectionTestUtils.invokeMethod(thumbnailService, "stop");
+        thumbnailService = service(0);
+        when(fileStorage.open(file)).thenAnswer(call -> new ByteArrayInputStream(png(300, 300)));
+
+        assertThatThrownBy(() -> thumbnailService.thumbnail(file, 256)).isInstanceOf(ThumbnailBusyException.class);
+    }
+
+    private ThumbnailService service(int decodeSlots) {
+        ThumbnailService service = new ThumbnailService(fileStorage, new LocalDiskStorageBackend(dir, true), mock(BlobStore.class));
+        ReflectionTestUtils.setField(service, "sizes", new int[]{512, 128, 256});
+        ReflectionTestUtils.setField(service, "quality", 0.8f);
+        ReflectionTestUtils.setField(service, "maxSourceBytes", 1_000_000L);
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "maxPixels", 10_000_000L);
+        ReflectionTestUtils.setField(service, "maxConcurrentDecodes", decodeSlots);
+        ReflectionTestUtils.setField(service, "decodeWaitMs", 50L);
+        ReflectionTestUtils.setField(service, "maxUndecodable", 100);
+        ReflectionTestUtils.invokeMethod(service, "start");
+        return service;
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,203 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.CreateUploadSessionRequest;
+import com.cloudstore.dto.FileResponse;
+import com.cloudstore.dto.UploadSessionResponse;
+import com.cloudstore.model.UploadSession;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.UploadSessionRepository;
+import com.cloudstore.storage.BlobStore;
+import com.cloudstore.storage.StreamedFile;
+import com.cloudstore.storage.StreamingFileWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Chunks go through the real StreamingFileWriter into a temp upload dir; the session row lives in
+// memory, with transition() doing the same compare-and-set the repository's update query does
+class UploadSessionServiceTest {
+    private static final int CHUNK = 256 * 1024;
+
+    private final UploadSessionRepository repository = mock(UploadSessionRepository.class);
+    private final FileService fileService = mock(FileService.class);
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private final User user = User.builder().id(1L).build();
+    private final byte[] content = new byte[2 * CHUNK + 1000];
+    private UploadSessionService uploadSessionService;
+    private UploadSession session;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StreamingFileWriter writer = new StreamingFileWriter();
+        ReflectionTestUtils.setField(writer, "bufferSize", 65536);
+        ReflectionTestUtils.setField(writer, "poolSize", 4);
+        ReflectionTestUtils.setField(writer, "bufferWaitSeconds", 5L);
+        ReflectionTestUtils.invokeMethod(writer, "initPool");
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(call -> ((TransactionCallback<?>) call.getArgument(0)).doInTransaction(null));
+        uploadSessionService = new UploadSessionService(repository, writer, fileService, blobStore, transactionTemplate,
+                mock(QuotaService.class), mock(NotificationService.class));
+        ReflectionTestUtils.setField(uploadSessionService, "uploadDir", dir.resolve("uploads").toString());
+        ReflectionTestUtils.setField(uploadSessionService, "defaultChunkSize", CHUNK);
+        ReflectionTestUtils.setField(uploadSessionService, "sessionTtlHours", 24L);
+
+        when(repository.save(any())).thenAnswer(call -> session = call.getArgument(0));
+        when(repository.findByIdAndUser(anyString(), eq(user))).thenAnswer(call -> Optional.ofNullable(session));
+        when(repository.transition(anyString(), any(), any(), any())).thenAnswer(call -> {
+            synchronized (this) {
+                if (session.getStatus() != call.getArgument(1)) {
+                    return 0;
+                }
+                session.setStatus(call.getArgument(2));
+                return 1;
+            }
+        });
+        when(blobStore.newStagingFile()).thenAnswer(call -> Files.createTempFile(dir, "blob-", ".tmp"));
+        when(fileService.registerStoredFileForUser(eq(user), anyString(), any(), any()))
+                .thenAnswer(call -> new FileResponse(7L, call.getArgument(1), null, false, false, null, null, null, null, null));
+        new Random(3).nextBytes(content);
+
+        CreateUploadSessionRequest request = new CreateUploadSessionRequest();
+        request.setFileName("video.mp4");
+        request.setTotalSize((long) content.length);
+        uploadSessionService.createSession(user, request);
+    }
+
+    @Test
+    void assemblesChunksSentOutOfOrderAndResent() throws IOException {
+        put(2);
+        put(0);
+        put(0);
+        UploadSessionResponse response = put(1);
+        assertThat(response.getReceivedChunks()).containsExactly(0, 1, 2);
+        assertThat(response.getReceivedBytes()).isEqualTo(content.length);
+
+        assertThat(uploadSessionService.completeSession(user, session.getId()).getId()).isEqualTo(7L);
+
+        ArgumentCaptor<StreamedFile> stored = ArgumentCaptor.forClass(StreamedFile.class);
+        verify(fileService).registerStoredFileForUser(eq(user), eq("video.mp4"), stored.capture(), any());
+        assertThat(Files.readAllBytes(stored.getValue().getPath())).isEqualTo(content);
+        assertThat(stored.getValue().getSha256()).isEqualTo(sha256(content));
+        assertThat(session.getStatus()).isEqualTo(UploadSession.Status.COMPLETED);
+        assertThat(dir.resolve("uploads/.staging").resolve(session.getId())).doesNotExist();
+    }
+
+    @Test
+    void rejectsAChunkWithTheWrongChecksumOrSize() throws IOException {
+        byte[] chunk = chunk(0);
+        assertThatThrownBy(() -> uploadSessionService.putChunk(user, session.getId(), 0, sha256(new byte[1]), new ByteArrayInputStream(chunk)))
+                .hasMessage("Chunk 0 checksum mismatch");
+        byte[] longer = Arrays.copyOf(chunk, chunk.length + 1);
+        assertThatThrownBy(() -> uploadSessionService.putChunk(user, session.getId(), 0, sha256(longer), new ByteArrayInputStream(longer)))
+                .hasMessageContaining("wrong size");
+
+        assertThat(uploadSessionService.getSession(user, session.getId()).getReceivedChunks()).isEmpty();
+        try (Stream<Path> files = Files.list(dir.resolve("uploads/.staging").resolve(session.getId()))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void refusesToCompleteWithMissingChunks() throws IOException {
+        put(0);
+        put(2);
+
+        assertThatThrownBy(() -> uploadSessionService.completeSession(user, session.getId()))
+                .hasMessage("Upload incomplete: 2 of 3 chunks received");
+        verify(repository, never()).transition(anyString(), any(), any(), any());
+    }
+
+    @Test
+    void onlyOneConcurrentCompleteAssemblesAndChunksWaitOutTheAssembly() throws Exception {
+        put(0);
+        put(1);
+        put(2);
+        CountDownLatch registering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileService.registerStoredFileForUser(eq(user), anyString(), any(), any())).thenAnswer(call -> {
+            registering.countDown();
+            assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            return new FileResponse(7L, "video.mp4", null, false, false, null, null, null, null, null);
+        });
+
+        CompletableFuture<FileResponse> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return uploadSessionService.completeSession(user, session.getId());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThat(registering.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> uploadSessionService.completeSession(user, session.getId()))
+                .hasMessage("Upload session is already being finalized");
+        assertThatThrownBy(() -> put(1)).hasMessage("Upload session is being finalized");
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS).getId()).isEqualTo(7L);
+        verify(fileService, times(1)).registerStoredFileForUser(eq(user), anyString(), any(), any());
+        assertThatThrownBy(() -> uploadSessionService.completeSession(user, session.getId()))
+                .hasMessage("Upload session is no longer active");
+    }
+
+    @Test
+    void aFailedRegistrationReopensTheSessionForARetry() throws IOException {
+        put(0);
+        put(1);
+        put(2);
+        when(fileService.registerStoredFileForUser(eq(user), anyString(), any(), any()))
+                .thenThrow(new RuntimeException("Storage quota exceeded"))
+                .thenReturn(new FileResponse(7L, "video.mp4", null, false, false, null, null, null, null, null));
+
+        assertThatThrownBy(() -> uploadSessionService.completeSession(user, session.getId())).hasMessage("Storage quota exceeded");
+        assertThat(session.getStatus()).isEqualTo(UploadSession.Status.OPEN);
+        assertThat(uploadSessionService.getSession(user, session.getId()).getReceivedChunks()).containsExactly(0, 1, 2);
+
+        assertThat(uploadSessionService.completeSession(user, session.getId()).getId()).isEqualTo(7L);
+        assertThat(session.getStatus()).isEqualTo(UploadSession.Status.COMPLETED);
+    }
+
+    private UploadSessionResponse put(int index) throws IOException {
+        byte[] chunk = chunk(index);
+        return uploadSessionService.putChunk(user, session.getId(), index, sha256(chunk), new ByteArrayInputStream(chunk));
+    }
+
+    private byte[] chunk(int index) {
+        return Arrays.copyOfRange(content, index * CHUNK, Math.min(content.length, (index + 1) * CHUNK));
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(StreamingFileWriter.newDigest().digest(bytes));
+    }
+}
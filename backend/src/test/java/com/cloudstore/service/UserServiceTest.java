@@ -0,0 +1,78 @@
+package com.cloudstore.service;
+
+import com.cloudstore.dto.AuthResponse;
+import com.cloudstore.model.User;
+import com.cloudstore.repository.UserRepository;
+import com.cloudstore.security.PasswordHasher;
+import com.cloudstore.security.PrincipalCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final PasswordHasher passwordHasher = mock(PasswordHasher.class);
+    private final AuthService authService = mock(AuthService.class);
+    private final User user = User.builder().id(7L).email("ada@example.com").name("Ada").password("old-hash").build();
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        userService = new UserService(userRepository, passwordHasher, mock(QuotaService.class), mock(PrincipalCache.class), authService);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, List.of()));
+        when(userRepository.findById(7L)).thenReturn(Optional.of(user));
+        when(passwordHasher.matches("current", "old-hash")).thenReturn(true);
+        when(passwordHasher.encode("next")).thenReturn("new-hash");
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void changingThePasswordRevokesOldTokensAndReissues() {
+        AuthResponse fresh = new AuthResponse("access", "ada@example.com", "Ada", "refresh");
+        when(userRepository.updatePasswordIfUnchanged(7L, "old-hash", "new-hash")).thenReturn(1);
+        when(authService.reissueAfterRevoking(user)).thenReturn(fresh);
+
+        assertThat(userService.changePassword("current", "next")).isSameAs(fresh);
+
+        InOrder order = inOrder(userRepository, authService);
+        order.verify(userRepository).updatePasswordIfUnchanged(7L, "old-hash", "new-hash");
+        order.verify(authService).reissueAfterRevoking(user);
+    }
+
+    @Test
+    void keepsTokensWhenTheCurrentPasswordIsWrong() {
+        assertThatThrownBy(() -> userService.changePassword("wrong", "next")).hasMessage("Current password is incorrect");
+
+        verify(userRepository, never()).updatePasswordIfUnchanged(any(), any(), any());
+        verify(authService, never()).reissueAfterRevoking(any());
+    }
+
+    @Test
+    void keepsTokensWhenAConcurrentChangeWon() {
+        when(userRepository.updatePasswordIfUnchanged(7L, "old-hash", "new-hash")).thenReturn(0);
+
+        assertThatThrownBy(() -> userService.changePassword("current", "next"))
+                .hasMessage("Password was changed by another request, please try again");
+
+        verify(authService, never()).reissueAfterRevoking(any());
+    }
+}
@@ -0,0 +1,204 @@
+package com.cloudstore.storage;
+
+import com.cloudstore.model.Blob;
+import com.cloudstore.repository.BlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Bodies go to a LocalDiskStorageBackend in a temp dir; the blobs table is a map of refcounts that the
+// mocked repository updates the way its queries do
+class BlobStoreTest {
+    private final BlobRepository blobRepository = mock(BlobRepository.class);
+    private final Map<String, Long> refCounts = new ConcurrentHashMap<>();
+    private final List<String> reclaimed = new CopyOnWriteArrayList<>();
+    private StorageBackend backend;
+    private BlobStore blobStore;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        StreamingFileWriter writer = new StreamingFileWriter();
+        ReflectionTestUtils.setField(writer, "bufferSize", 65536);
+        ReflectionTestUtils.setField(writer, "poolSize", 4);
+        ReflectionTestUtils.setField(writer, "bufferWaitSeconds", 5L);
+        ReflectionTestUtils.invokeMethod(writer, "initPool");
+        backend = spy(new LocalDiskStorageBackend(dir.resolve("blobs"), true));
+        blobStore = new BlobStore(blobRepository, writer, backend, mock(PlatformTransactionManager.class), mock(JdbcTemplate.class));
+        ReflectionTestUtils.setField(blobStore, "uploadDir", dir.resolve("uploads").toString());
+        blobStore.onReclaim(reclaimed::add);
+
+        when(blobRepository.acquire(anyString(), anyLong())).thenAnswer(call -> {
+            refCounts.merge(call.getArgument(0), 1L, Long::sum);
+            return 1;
+        });
+        when(blobRepository.release(anyString())).thenAnswer(call -> {
+            Long count = refCounts.get(call.<String>getArgument(0));
+            if (count == null || count <= 0) {
+                return 0;
+            }
+            refCounts.put(call.getArgument(0), count - 1);
+            return 1;
+        });
+        when(blobRepository.getReferenceById(anyString())).thenAnswer(call -> Blob.builder().hash(call.getArgument(0)).build());
+        when(blobRepository.lockUnreferenced(anyString())).thenAnswer(call -> {
+            String hash = call.getArgument(0);
+            return refCounts.getOrDefault(hash, -1L) == 0 ? Optional.of(hash) : Optional.empty();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void commitAllStoresEachBodyOnceAndTakesAReferencePerCopy() throws IOException {
+        StreamedFile first = blobStore.stage(content("holiday"));
+        StreamedFile copy = blobStore.stage(content("holiday"));
+        StreamedFile other = blobStore.stage(content("receipt"));
+
+        blobStore.commitAll(List.of(other, first, copy), Runnable::run);
+
+        assertThat(refCounts).containsEntry(first.getSha256(), 2L).containsEntry(other.getSha256(), 1L);
+        assertThat(read(first.getSha256())).isEqualTo("holiday");
+        assertThat(read(other.getSha256())).isEqualTo("receipt");
+        assertThat(first.getPath()).doesNotExist();
+        assertThat(copy.getPath()).doesNotExist();
+        // Rows are locked in hash order, whatever order the batch came in
+        ArgumentCaptor<String> locked = ArgumentCaptor.forClass(String.class);
+        verify(blobRepository, times(3)).acquire(locked.capture(), anyLong());
+        assertThat(locked.getAllValues()).isSorted();
+    }
+
+    @Test
+    void reclaimsTheBodyOnlyOnceTheLastReleaseCommits() throws IOException {
+        String hash = commit("holiday");
+        String shared = commit("receipt");
+        commit("receipt");
+
+        TransactionSynchronizationManager.initSynchronization();
+        blobStore.release(hash);
+        blobStore.release(shared);
+        assertThat(backend.stat(hash)).isPresent();
+        commitTransaction();
+
+        assertThat(backend.stat(hash)).isEmpty();
+        assertThat(backend.stat(shared)).isPresent();
+        assertThat(reclaimed).containsExactly(hash);
+        verify(blobRepository).deleteById(hash);
+    }
+
+    @Test
+    void keepsTheBodyWhenTheReleaseRollsBack() throws IOException {
+        String hash = commit("holiday");
+
+        TransactionSynchronizationManager.initSynchronization();
+        blobStore.release(hash);
+        rollBackTransaction();
+
+        assertThat(backend.stat(hash)).isPresent();
+        assertThat(reclaimed).isEmpty();
+    }
+
+    @Test
+    void leavesABlobThatWasReferencedAgainBeforeTheReclaim() throws IOException {
+        String hash = commit("holiday");
+        blobStore.releaseDeferred(hash);
+        commit("holiday");
+
+        assertThat(blobStore.reclaim(hash)).isFalse();
+
+        assertThat(backend.stat(hash)).isPresent();
+        verify(blobRepository, never()).deleteById(hash);
+    }
+
+    @Test
+    void keepsTheRowWhenTheBodyCannotBeDeleted() throws IOException {
+        String hash = commit("holiday");
+        blobStore.releaseDeferred(hash);
+        doThrow(new IOException("disk gone")).when(backend).delete(hash);
+
+        assertThat(blobStore.reclaim(hash)).isFalse();
+
+        verify(blobRepository, never()).deleteById(hash);
+        assertThat(reclaimed).isEmpty();
+    }
+
+    @Test
+    void aFailingListenerDoesNotStopTheOthers() throws IOException {
+        List<String> later = new CopyOnWriteArrayList<>();
+        blobStore.onReclaim(hash -> {
+            throw new IllegalStateException("thumbnail cleanup failed");
+        });
+        blobStore.onReclaim(later::add);
+        String hash = commit("holiday");
+        blobStore.releaseDeferred(hash);
+
+        assertThat(blobStore.reclaim(hash)).isTrue();
+
+        assertThat(reclaimed).containsExactly(hash);
+        assertThat(later).containsExactly(hash);
+    }
+
+    private String commit(String content) throws IOException {
+        return blobStore.commit(blobStore.stage(content(content))).getHash();
+    }
+
+    private static ByteArrayInputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String hash) throws IOException {
+        try (InputStream in = backend.get(hash, 0, -1)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void commitTransaction() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    private static void rollBackTransaction() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_ROLLED_BACK);
+    }
+}
@@ -0,0 +1,215 @@
+package com.cloudstore.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Archives are read back with both JDK readers: ZipInputStream follows the local headers and data
+// descriptors, ZipFile the central directory (and its Zip64 records)
+class ParallelZipWriterTest {
+    private static final int BLOCK_SIZE = 128 * 1024;
+    // Shorter than the 32 KiB preset dictionary
+    private static final int DICTIONARY_EDGE = 20 * 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void roundTripsMultiBlockEntriesInParallel() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("text.txt", text(5 * BLOCK_SIZE + 1234));
+        entries.put("random.bin", random(3 * BLOCK_SIZE + 17));
+        entries.put("exact-blocks.bin", text(4 * BLOCK_SIZE));
+        entries.put("small.txt", text(100));
+        entries.put("dir/ünïcode.txt", text(DICTIONARY_EDGE));
+
+        Path zip = write(entries, 4, 6);
+
+        assertThat(readStreaming(zip)).containsExactlyEntriesOf(entries);
+        assertThat(readCentral(zip)).containsExactlyEntriesOf(entries);
+    }
+
+    @Test
+    void roundTripsOnTheSequentialPath() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("text.txt", text(3 * BLOCK_SIZE + 5));
+        entries.put("stored.bin", random(BLOCK_SIZE));
+
+        Path zip = write(entries, 1, 6);
+
+        assertThat(readStreaming(zip)).containsExactlyEntriesOf(entries);
+        assertThat(readCentral(zip)).containsExactlyEntriesOf(entries);
+    }
+
+    @Test
+    void roundTripsEmptyEntries() throws IOException {
+        for (int parallelism : new int[]{1, 4}) {
+            Map<String, byte[]> entries = new LinkedHashMap<>();
+            entries.put("empty.txt", new byte[0]);
+            entries.put("after.txt", text(10));
+
+            Path zip = write(entries, parallelism, 6);
+
+            assertThat(readStreaming(zip)).containsExactlyEntriesOf(entries);
+            assertThat(readCentral(zip)).containsExactlyEntriesOf(entries);
+        }
+    }
+
+    @Test
+    void switchesToZip64PastTheClassicEntryCount() throws IOException {
+        int count = 70_000;
+        Path zip = dir.resolve("many.zip");
+        try (OutputStream out = Files.newOutputStream(zip);
+             ParallelZipWriter writer = new ParallelZipWriter(out, executor, 4, 1)) {
+            for (int i = 0; i < count; i++) {
+                writer.addEntry("f" + i + ".txt", new ByteArrayInputStream(("file " + i).getBytes(StandardCharsets.UTF_8)), null, n -> { });
+            }
+            writer.finish();
+        }
+
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            assertThat(file.size()).isEqualTo(count);
+            assertThat(new String(file.getInputStream(file.getEntry("f69999.txt")).readAllBytes(), StandardCharsets.UTF_8))
+                    .isEqualTo("file 69999");
+        }
+        int read = 0;
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; read++) {
+                assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("file " + entry.getName().replaceAll("\\D", ""));
+            }
+        }
+        assertThat(read).isEqualTo(count);
+    }
+
+    @Test
+    void writesZip64SizesForAnEntryPastFourGigabytes() throws IOException {
+        long size = (1L << 32) + 3 * BLOCK_SIZE + 99;
+        Path sparse = dir.resolve("sparse.bin");
+        try (RandomAccessFile file = new RandomAccessFile(sparse.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        Path zip = dir.resolve("big.zip");
+        try (OutputStream out = Files.newOutputStream(zip);
+             ParallelZipWriter writer = new ParallelZipWriter(out, executor, 2, 1);
+             InputStream in = Files.newInputStream(sparse)) {
+            writer.addEntry("big.bin", in, null, n -> { });
+            writer.addEntry("after.txt", new ByteArrayInputStream(text(10)), null, n -> { });
+            writer.finish();
+        }
+        long crc = zerosCrc(size);
+
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            ZipEntry big = file.getEntry("big.bin");
+            assertThat(big.getSize()).isEqualTo(size);
+            assertThat(big.getCrc()).isEqualTo(crc);
+            assertThat(file.getInputStream(file.getEntry("after.txt")).readAllBytes()).isEqualTo(text(10));
+        }
+        // ZipInputStream inflates the whole entry and checks it against the 64-bit data descriptor
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            ZipEntry big = in.getNextEntry();
+            assertThat(in.transferTo(OutputStream.nullOutputStream())).isEqualTo(size);
+            assertThat(big.getSize()).isEqualTo(size);
+            assertThat(big.getCrc()).isEqualTo(crc);
+            assertThat(in.getNextEntry().getName()).isEqualTo("after.txt");
+            assertThat(in.readAllBytes()).isEqualTo(text(10));
+        }
+    }
+
+    private Path write(Map<String, byte[]> entries, int parallelism, int level) throws IOException {
+        Path zip = Files.createTempFile(dir, "archive", ".zip");
+        List<Long> progress = new ArrayList<>();
+        try (OutputStream out = Files.newOutputStream(zip);
+             ParallelZipWriter writer = new ParallelZipWriter(out, executor, parallelism, level)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                progress.clear();
+                writer.addEntry(entry.getKey(), new ByteArrayInputStream(entry.getValue()), LocalDateTime.of(2024, 5, 6, 7, 8, 10), progress::add);
+                // An empty entry may report nothing at all
+                assertThat(progress).isSorted().allMatch(n -> n <= entry.getValue().length);
+                if (entry.getValue().length > 0) {
+                    assertThat(progress).last().isEqualTo((long) entry.getValue().length);
+                }
+            }
+            writer.finish();
+        }
+        return zip;
+    }
+
+    private static Map<String, byte[]> readStreaming(Path zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, byte[]> readCentral(Path zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            for (ZipEntry entry : file.stream().toList()) {
+                byte[] content = file.getInputStream(entry).readAllBytes();
+                assertThat(entry.getSize()).isEqualTo(content.length);
+                entries.put(entry.getName(), content);
+            }
+        }
+        return entries;
+    }
+
+    // Compressible, but not so repetitive that every block is trivial
+    private static byte[] text(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 64);
+        Random random = new Random(length);
+        while (out.size() < length) {
+            out.writeBytes(("line " + random.nextInt(5000) + " of the archive test\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return Arrays.copyOf(out.toByteArray(), length);
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long zerosCrc(long length) {
+        CRC32 crc = new CRC32();
+        byte[] zeros = new byte[1 << 20];
+        for (long left = length; left > 0; left -= zeros.length) {
+            crc.update(zeros, 0, (int) Math.min(left, zeros.length));
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,212 @@
+package com.cloudstore.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Fetches from an in-process origin that serves fixed bodies with an ETag and answers If-None-Match
+class RemoteFileCacheTest {
+    private final ExecutorService readers = Executors.newFixedThreadPool(4);
+    private final Map<String, String> bodies = new ConcurrentHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch originGate = new CountDownLatch(0);
+    private HttpServer origin;
+    private RemoteFileCache cache;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        origin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        origin.setExecutor(Executors.newCachedThreadPool());
+        origin.createContext("/", this::serve);
+        origin.start();
+        cache = cache(1000, 300);
+    }
+
+    @AfterEach
+    void tearDown() {
+        readers.shutdownNow();
+        origin.stop(0);
+    }
+
+    @Test
+    void concurrentMissesShareOneFetch() throws Exception {
+        bodies.put("/a", "x".repeat(100));
+        originGate = new CountDownLatch(1);
+
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            reads.add(CompletableFuture.supplyAsync(() -> read(url("/a"), 0, -1), readers));
+        }
+        awaitReaders(url("/a"), 4);
+        originGate.countDown();
+
+        for (CompletableFuture<String> read : reads) {
+            assertThat(read.get(10, TimeUnit.SECONDS)).isEqualTo("x".repeat(100));
+        }
+        assertThat(requests).containsExactly("GET /a");
+    }
+
+    @Test
+    void evictionLeavesAnOpenReaderItsBytes() throws IOException {
+        for (String path : List.of("/a", "/b", "/c", "/d", "/e")) {
+            bodies.put(path, path.substring(1).repeat(240));
+        }
+
+        try (InputStream open = cache.open(url("/a"), 0, -1)) {
+            // The fifth body pushes /a out of the 1000-byte budget and deletes its file
+            for (String path : List.of("/b", "/c", "/d", "/e")) {
+                read(url(path), 0, -1);
+            }
+            assertThat(cacheFiles()).hasSize(4);
+
+            assertThat(new String(open.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("a".repeat(240));
+        }
+        assertThat(read(url("/a"), 0, -1)).isEqualTo("a".repeat(240));
+        assertThat(requests).filteredOn("GET /a"::equals).hasSize(2);
+    }
+
+    @Test
+    void recentlyReadEntriesOutliveOlderOnes() {
+        for (String path : List.of("/a", "/b", "/c", "/d", "/e")) {
+            bodies.put(path, path.substring(1).repeat(240));
+        }
+        for (String path : List.of("/a", "/b", "/c", "/d", "/a")) {
+            read(url(path), 0, -1);
+        }
+
+        // /b is now the least recently read of the four, so /e pushes it out rather than /a
+        read(url("/e"), 0, -1);
+        read(url("/a"), 0, -1);
+        read(url("/c"), 0, -1);
+        read(url("/b"), 0, -1);
+
+        assertThat(requests).containsExactly("GET /a", "GET /b", "GET /c", "GET /d", "GET /e", "GET /b");
+    }
+
+    @Test
+    void sharesButNeverKeepsAnObjectTooBigForTheBudget() throws Exception {
+        bodies.put("/big", "z".repeat(600));
+        originGate = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> read(url("/big"), 100, 5), readers);
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> read(url("/big"), 0, -1), readers);
+        awaitReaders(url("/big"), 2);
+        originGate.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("zzzzz");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("z".repeat(600));
+        assertThat(requests).containsExactly("GET /big");
+        assertThat(cacheFiles()).isEmpty();
+    }
+
+    @Test
+    void revalidatesAStaleEntryWithItsETag() throws Exception {
+        cache = cache(1000, 0);
+        bodies.put("/a", "first");
+        assertThat(read(url("/a"), 0, -1)).isEqualTo("first");
+        Thread.sleep(5);
+
+        assertThat(read(url("/a"), 0, -1)).isEqualTo("first");
+        bodies.put("/a", "second");
+        Thread.sleep(5);
+        assertThat(read(url("/a"), 0, -1)).isEqualTo("second");
+
+        assertThat(requests).containsExactly("GET /a", "GET /a If-None-Match", "GET /a If-None-Match");
+    }
+
+    private RemoteFileCache cache(long maxBytes, long revalidateSeconds) throws IOException {
+        RemoteFileCache cache = new RemoteFileCache();
+        ReflectionTestUtils.setField(cache, "cacheDir", dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        ReflectionTestUtils.setField(cache, "revalidateSeconds", revalidateSeconds);
+        ReflectionTestUtils.invokeMethod(cache, "init");
+        return cache;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        requests.add(exchange.getRequestMethod() + " " + path + (ifNoneMatch != null ? " If-None-Match" : ""));
+        try {
+            originGate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String body = bodies.get(path);
+        String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (etag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Waits until that many readers are parked on the URL's download
+    private void awaitReaders(String url, int count) throws InterruptedException {
+        Map<?, ?> inflight = (Map<?, ?>) ReflectionTestUtils.getField(cache, "inflight");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            synchronized (cache) {
+                Object flight = inflight.get(url);
+                if (flight != null && (int) ReflectionTestUtils.getField(flight, "readers") == count) {
+                    return;
+                }
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("Readers never joined the download of " + url);
+    }
+
+    private String read(String url, long offset, long length) {
+        try (InputStream in = cache.open(url, offset, length)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<Path> cacheFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            return files.toList();
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+}
@@ -0,0 +1,242 @@
+package com.cloudstore.storage;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Talks to an in-process stand-in for S3 that checks signatures the way S3 does, from the request it received
+class S3StorageBackendTest {
+    private static final String ACCESS_KEY = "AKIDEXAMPLE";
+    private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    private static final Pattern AUTHORIZATION = Pattern.compile(
+            "AWS4-HMAC-SHA256 Credential=" + ACCESS_KEY + "/(\\d{8})/eu-west-1/s3/aws4_request, "
+                    + "SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=([0-9a-f]{64})");
+
+    @TempDir
+    Path dir;
+
+    private S3StandIn s3;
+    private S3StorageBackend backend;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        s3 = new S3StandIn();
+        backend = new S3StorageBackend("http://127.0.0.1:" + s3.port() + "/", "eu-west-1", "blobs", ACCESS_KEY, SECRET_KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3.close();
+    }
+
+    @Test
+    void signsRequestsWithSigV4() throws IOException {
+        backend.putFile("ab/cd ef", file("hello"));
+
+        Request put = s3.requests.get(0);
+        assertThat(put.method).isEqualTo("PUT");
+        assertThat(put.path).isEqualTo("/blobs/ab/cd%20ef");
+        assertThat(put.headers.getFirst("x-amz-content-sha256")).isEqualTo("UNSIGNED-PAYLOAD");
+        assertThat(put.signatureValid).isTrue();
+        assertThat(s3.objects.get("/blobs/ab/cd%20ef")).isEqualTo(bytes("hello"));
+    }
+
+    @Test
+    void rejectsAWrongSecret() throws IOException {
+        S3StorageBackend wrong = new S3StorageBackend("http://127.0.0.1:" + s3.port(), "eu-west-1", "blobs", ACCESS_KEY, "not-the-secret");
+
+        assertThatThrownBy(() -> wrong.putFile("key", file("x"))).hasMessageContaining("status 403");
+    }
+
+    @Test
+    void readsRangesWithTheRangeHeader() throws IOException {
+        s3.objects.put("/blobs/key", bytes("0123456789abcdef"));
+
+        assertThat(read(backend.get("key", 10, 4))).isEqualTo("abcd");
+        assertThat(s3.requests.get(0).headers.getFirst("Range")).isEqualTo("bytes=10-13");
+        assertThat(read(backend.get("key", 12, -1))).isEqualTo("cdef");
+        assertThat(s3.requests.get(1).headers.getFirst("Range")).isEqualTo("bytes=12-");
+        assertThat(read(backend.get("key", 0, -1))).isEqualTo("0123456789abcdef");
+        assertThat(s3.requests.get(2).headers.containsKey("Range")).isFalse();
+        assertThat(s3.requests).allMatch(request -> request.signatureValid);
+    }
+
+    @Test
+    void zeroLengthReadsNeverReachTheServer() throws IOException {
+        s3.objects.put("/blobs/key", bytes("0123"));
+
+        assertThat(read(backend.get("key", 2, 0))).isEmpty();
+        assertThat(s3.requests).isEmpty();
+    }
+
+    @Test
+    void putIfAbsentLeavesAnExistingObjectAlone() throws IOException {
+        s3.objects.put("/blobs/key", bytes("first"));
+        Path source = file("second");
+
+        backend.putFileIfAbsent("key", source);
+
+        assertThat(s3.requests).singleElement().satisfies(request -> {
+            assertThat(request.headers.getFirst("If-None-Match")).isEqualTo("*");
+            assertThat(request.signatureValid).isTrue();
+        });
+        assertThat(s3.objects.get("/blobs/key")).isEqualTo(bytes("first"));
+        assertThat(source).doesNotExist();
+    }
+
+    @Test
+    void putIfAbsentStoresAMissingObject() throws IOException {
+        Path source = file("body");
+
+        backend.putFileIfAbsent("key", source);
+
+        assertThat(s3.objects.get("/blobs/key")).isEqualTo(bytes("body"));
+        assertThat(source).doesNotExist();
+    }
+
+    private Path file(String content) throws IOException {
+        return Files.write(Files.createTempFile(dir, "upload", ".bin"), bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private record Request(String method, String path, Headers headers, boolean signatureValid) {
+    }
+
+    // Just enough S3 for the backend: signed PUT (optionally If-None-Match: *) and ranged GET
+    private static final class S3StandIn implements AutoCloseable {
+        final HttpServer server;
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final List<Request> requests = new CopyOnWriteArrayList<>();
+
+        S3StandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            boolean valid = signatureValid(method, path, exchange.getRequestHeaders());
+            requests.add(new Request(method, path, exchange.getRequestHeaders(), valid));
+            if (!valid) {
+                respond(exchange, 403, new byte[0]);
+            } else if (method.equals("PUT")) {
+                boolean exists = objects.containsKey(path);
+                if (exists && "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    respond(exchange, 412, new byte[0]);
+                } else {
+                    objects.put(path, body);
+                    respond(exchange, 200, new byte[0]);
+                }
+            } else if (method.equals("GET") && objects.containsKey(path)) {
+                byte[] object = objects.get(path);
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null) {
+                    respond(exchange, 200, object);
+                } else {
+                    String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                    int start = Integer.parseInt(bounds[0]);
+                    int end = bounds[1].isEmpty() ? object.length - 1 : Integer.parseInt(bounds[1]);
+                    respond(exchange, 206, Arrays.copyOfRange(object, start, end + 1));
+                }
+            } else {
+                respond(exchange, 404, new byte[0]);
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        // Recomputes the SigV4 signature from the request as received
+        private static boolean signatureValid(String method, String path, Headers headers) {
+            String authorization = headers.getFirst("Authorization");
+            Matcher matcher = authorization == null ? null : AUTHORIZATION.matcher(authorization);
+            if (matcher == null || !matcher.matches()) {
+                return false;
+            }
+            String day = matcher.group(1);
+            String amzDate = headers.getFirst("x-amz-date");
+            String canonicalRequest = method + "\n" + path + "\n\n"
+                    + "host:" + headers.getFirst("Host") + "\n"
+                    + "x-amz-content-sha256:" + headers.getFirst("x-amz-content-sha256") + "\n"
+                    + "x-amz-date:" + amzDate + "\n\n"
+                    + "host;x-amz-content-sha256;x-amz-date\n" + headers.getFirst("x-amz-content-sha256");
+            String scope = day + "/eu-west-1/s3/aws4_request";
+            String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+            byte[] key = hmac(("AWS4" + SECRET_KEY).getBytes(StandardCharsets.UTF_8), day);
+            key = hmac(key, "eu-west-1");
+            key = hmac(key, "s3");
+            key = hmac(key, "aws4_request");
+            return HexFormat.of().formatHex(hmac(key, stringToSign)).equals(matcher.group(2));
+        }
+
+        private static byte[] hmac(byte[] key, String data) {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(key, "HmacSHA256"));
+                return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String sha256Hex(String data) {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 import React, { createContext, useState, useEffect, useContext } from 'react';
 import AsyncStorage from '@react-native-async-storage/async-storage';
-import { loginUser } from './api';
+import { loginUser, logout as logoutUser } from './api';
 import { setNotificationHandler } from './notificationHandler';
 
 export const AuthContext = createContext();
@@ -31,7 +31,8 @@ export function AuthProvider({ children }) {
   };
 
   const logout = async () => {
-    await AsyncStorage.removeItem('jwt');
+    if (jwt) await logoutUser(jwt).catch(() => {});
+    await AsyncStorage.multiRemove(['jwt', 'refreshToken']);
     setJwt(null);
   };
 
@@ -119,6 +119,7 @@ export default function AuthScreen({ navigation }) {
         const res = await loginUser({ identifier: email, password });
         if (res.success && res.data.token) {
           await AsyncStorage.setItem('jwt', res.data.token);
+          if (res.data.refreshToken) await AsyncStorage.setItem('refreshToken', res.data.refreshToken);
           setJwt(res.data.token);
           setPromptMessage('Login Successful! Welcome back!');
           setPromptSuccess(true);
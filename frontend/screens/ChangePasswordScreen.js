@@ -46,6 +46,9 @@ export default function ChangePasswordScreen({ navigation }) {
       }
       const res = await changePassword(token, current, next);
       if (res.success) {
+        // The change signs out every session, this one included, so keep the new tokens
+        if (res.data.token) await AsyncStorage.setItem('jwt', res.data.token);
+        if (res.data.refreshToken) await AsyncStorage.setItem('refreshToken', res.data.refreshToken);
         setPromptMessage('Password changed successfully!');
         setPromptVisible(true);
         setTimeout(() => navigation.goBack(), 1200);
@@ -316,10 +316,12 @@ export default function CompressionScreen() {
     for (const file of selectedFileObjs) {
       let dto = {};
       const type = getFileType(file);
+      // One format setting is shared by both pickers; the server rejects a video format for an image and vice versa
+      const format = compressionSettings.format;
       if (type === 'image') {
-        dto = { type: 'image', quality: qualityMap[compressionSettings.quality], format: compressionSettings.format };
+        dto = { type: 'image', quality: qualityMap[compressionSettings.quality], format: ['jpeg', 'png', 'webp'].includes(format) ? format : 'jpeg' };
       } else if (type === 'video') {
-        dto = { type: 'video', bitrate: 1000, format: compressionSettings.format };
+        dto = { type: 'video', bitrate: 1000, format: ['mp4', 'webm'].includes(format) ? format : 'mp4' };
       } else {
         dto = { type: 'archive', format: compressionSettings.archiveFormat };
       }
@@ -21,7 +21,7 @@ import * as FileSystem from 'expo-file-system';
 import * as Sharing from 'expo-sharing';
 import * as MediaLibrary from 'expo-media-library';
 import { WebView } from 'react-native-webview';
-import { getDownloadUrl } from './api';
+import { getDownloadUrl, getPublicDownloadUrl } from './api';
 
 const { width: screenWidth, height: screenHeight } = Dimensions.get('window');
 
@@ -339,7 +339,7 @@ export default function FileViewerScreen({ route, navigation }) {
     <View style={styles.videoContainer}>
       <Video
         ref={setVideoRef}
-        source={{ uri: file.url }}
+        source={{ uri: file.url || getPublicDownloadUrl(file.id) }}
         style={styles.video}
         useNativeControls={false}
         resizeMode={ResizeMode.CONTAIN}
@@ -1,5 +1,6 @@
 import React, { createContext, useContext, useState, useEffect } from 'react';
 import AsyncStorage from '@react-native-async-storage/async-storage';
+import { updatePlan } from './api';
 
 const PremiumContext = createContext();
 
@@ -20,12 +21,15 @@ export function PremiumProvider({ children }) {
   }, []);
 
   const upgradeToPremium = async (plan, network, phone) => {
+    // The backend raises the storage limit itself once the payment is confirmed
     setIsPremium(true);
     setPremiumPlan({ ...plan, network, phone });
     await AsyncStorage.setItem('premiumStatus', JSON.stringify({ isPremium: true, premiumPlan: { ...plan, network, phone } }));
   };
 
   const resetPremium = async () => {
+    const token = await AsyncStorage.getItem('jwt');
+    await updatePlan(token, 'free');
     setIsPremium(false);
     setPremiumPlan(null);
     await AsyncStorage.removeItem('premiumStatus');
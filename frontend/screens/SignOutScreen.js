@@ -3,6 +3,7 @@ import { View, Text, StyleSheet, TouchableOpacity, SafeAreaView, Modal } from 'r
 import Feather from 'react-native-vector-icons/Feather';
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import { AuthContext } from './AuthContext';
+import { logout } from './api';
 import { useTheme } from '../theme/ThemeContext';
 import { LinearGradient } from 'expo-linear-gradient';
 import { BlurView } from 'expo-blur';
@@ -22,7 +23,10 @@ export default function SignOutScreen({ navigation }) {
   if (!fontsLoaded) return null;
 
   const handleSignOut = async () => {
-    await AsyncStorage.removeItem('jwt');
+    // Revokes the tokens on the server too; signing out locally must not depend on it
+    const token = await AsyncStorage.getItem('jwt');
+    if (token) await logout(token).catch(() => {});
+    await AsyncStorage.multiRemove(['jwt', 'refreshToken']);
     setJwt(null);
   };
 
@@ -41,7 +41,8 @@ async function robustFetch(url, options = {}) {
       else if (url.includes('/files/permanent/')) customMessage = 'File deleted permanently.';
       else if (url.includes('/files/favorite/')) customMessage = 'Favorite updated!';
       else if (url.includes('/files/download')) customMessage = 'File downloaded!';
-      else if (url.includes('/files/compress')) customMessage = 'File compressed successfully!';
+      else if (url.includes('/files/compress-jobs')) customMessage = 'Compression cancelled.';
+      else if (url.includes('/files/compress')) customMessage = 'Compression started.';
       else if (url.includes('/folders')) customMessage = 'Folder operation successful!';
       else customMessage = data?.message || 'Operation successful';
       notify(customMessage, customType);
@@ -131,6 +132,75 @@ export async function changePassword(token, currentPassword, newPassword) {
   });
 }
 
+export async function getStorageUsage(token) {
+  return robustFetch(`${API_BASE_URL}/user/storage`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+export async function updatePlan(token, plan) {
+  return robustFetch(`${API_BASE_URL}/user/plan`, {
+    method: 'PUT',
+    headers: {
+      'Authorization': `Bearer ${token}`,
+      'Content-Type': 'application/json',
+    },
+    body: JSON.stringify({ plan }),
+  });
+}
+
+// --- SYNC ---
+// Without a cursor the response has reset: true and a cursor to continue from after a full reload.
+// A 410 means the cursor is too old and the client has to reload everything.
+export async function syncChanges(token, cursor = null, limit = 500) {
+  const params = new URLSearchParams({ limit: String(limit) });
+  if (cursor) params.append('cursor', cursor);
+  return robustFetch(`${API_BASE_URL}/sync?${params.toString()}`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+// --- NOTIFICATIONS ---
+// Newest first; pass nextBefore from the previous page to load older ones.
+export async function listNotifications(token, before = null, unreadOnly = false, limit = 20) {
+  const params = new URLSearchParams({ unreadOnly: String(unreadOnly), limit: String(limit) });
+  if (before) params.append('before', String(before));
+  return robustFetch(`${API_BASE_URL}/notifications?${params.toString()}`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+export async function markNotificationsRead(token, ids) {
+  return robustFetch(`${API_BASE_URL}/notifications/read`, {
+    method: 'POST',
+    headers: {
+      'Authorization': `Bearer ${token}`,
+      'Content-Type': 'application/json',
+    },
+    body: JSON.stringify({ ids }),
+  });
+}
+
+export async function markAllNotificationsRead(token) {
+  return robustFetch(`${API_BASE_URL}/notifications/read-all`, {
+    method: 'POST',
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+export async function deleteNotification(token, id) {
+  return robustFetch(`${API_BASE_URL}/notifications/${id}`, {
+    method: 'DELETE',
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+// Server-Sent Events endpoint for live notifications (needs an EventSource polyfill on React Native).
+// Send the last seen id as the Last-Event-ID header when reconnecting to get what was missed.
+export function notificationStreamUrl() {
+  return `${API_BASE_URL}/notifications/stream`;
+}
+
 // --- FILES ---
 export async function listFiles(token, folderId = '') {
   const url = folderId ? `${API_BASE_URL}/files?folderId=${folderId}` : `${API_BASE_URL}/files`;
@@ -139,6 +209,19 @@ export async function listFiles(token, folderId = '') {
   });
 }
 
+// One page of files; pass the returned nextCursor back to continue. Options: folderId, recursive
+// (include subfolders), deleted, favourite, type, sort (createdAt | name | size), direction (asc | desc), limit
+export async function listFilesPage(token, { cursor, ...options } = {}) {
+  const params = new URLSearchParams();
+  Object.entries(options).forEach(([key, value]) => {
+    if (value !== undefined && value !== null && value !== '') params.append(key, value);
+  });
+  if (cursor) params.append('cursor', cursor);
+  return robustFetch(`${API_BASE_URL}/files/page?${params.toString()}`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
 export async function uploadFile(token, file, folderId = null) {
   const formData = new FormData();
   formData.append('file', file);
@@ -164,6 +247,18 @@ export async function restoreFile(token, fileId) {
   });
 }
 
+// operation: DELETE, RESTORE, FAVOURITE, UNFAVOURITE, MOVE or PERMANENT_DELETE; returns a result per id
+export async function bulkUpdateFiles(token, operation, fileIds, folderId = null) {
+  return robustFetch(`${API_BASE_URL}/files/bulk`, {
+    method: 'POST',
+    headers: {
+      'Authorization': `Bearer ${token}`,
+      'Content-Type': 'application/json',
+    },
+    body: JSON.stringify({ operation, fileIds, folderId }),
+  });
+}
+
 export async function renameFile(token, fileId, newName) {
   return robustFetch(`${API_BASE_URL}/files/rename/${fileId}`, {
     method: 'POST',
@@ -188,12 +283,17 @@ export async function downloadFile(token, fileId) {
   });
 }
 
+// Streams with HTTP Range support, so players can seek without fetching the whole file
+export function getPublicDownloadUrl(fileId) {
+  return `${API_BASE_URL}/files/${fileId}/public-download`;
+}
+
 export async function getDownloadUrl(token, fileId) {
   // No auth required for public-download, so token is not needed
   return {
     success: true,
     data: {
-      url: `${API_BASE_URL}/files/${fileId}/public-download`
+      url: getPublicDownloadUrl(fileId)
     }
   };
 }
@@ -217,16 +317,24 @@ export async function searchFiles(token, query) {
   });
 }
 
+// Searches inside documents; each result is { file, score, snippet, highlights: [[start, end], ...] }
+export async function searchFileContents(token, query, limit = 20) {
+  return robustFetch(`${API_BASE_URL}/files/search/content?query=${encodeURIComponent(query)}&limit=${limit}`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
 // --- FILE COMPRESSION ---
 /**
- * Compress a file using the new backend endpoint.
+ * Compress a file. The backend queues a job; this polls it until it finishes.
  * @param {string} token - JWT auth token
  * @param {string} fileId - The file ID to compress
- * @param {object} compressionData - { type, quality, bitrate, format, ... }
- * @returns {Promise<{success: boolean, data?: any, error?: string}>}
+ * @param {object} compressionData - { type, quality, bitrate, format, priority, ... }
+ * @param {function} [onProgress] - called with the job while it is queued or running
+ * @returns {Promise<{success: boolean, data?: any, error?: string}>} data is the compressed file on success
  */
-export async function compressFile(token, fileId, compressionData) {
-  return robustFetch(`${API_BASE_URL}/files/${fileId}/compress`, {
+export async function compressFile(token, fileId, compressionData, onProgress) {
+  const submitted = await robustFetch(`${API_BASE_URL}/files/${fileId}/compress`, {
     method: 'POST',
     headers: {
       'Authorization': `Bearer ${token}`,
@@ -234,6 +342,52 @@ export async function compressFile(token, fileId, compressionData) {
     },
     body: JSON.stringify(compressionData),
   });
+  if (!submitted.success) return submitted;
+  return waitForCompressionJob(token, submitted.data, onProgress);
+}
+
+/**
+ * Zip several files, or a whole folder, into a new file.
+ * @param {object} archiveData - { fileIds } or { folderId }, plus optional { name, targetFolderId, level, priority }
+ */
+export async function archiveFiles(token, archiveData, onProgress) {
+  const submitted = await robustFetch(`${API_BASE_URL}/files/archive`, {
+    method: 'POST',
+    headers: {
+      'Authorization': `Bearer ${token}`,
+      'Content-Type': 'application/json',
+    },
+    body: JSON.stringify(archiveData),
+  });
+  if (!submitted.success) return submitted;
+  return waitForCompressionJob(token, submitted.data, onProgress);
+}
+
+async function waitForCompressionJob(token, job, onProgress) {
+  let delay = 500;
+  while (job.status === 'QUEUED' || job.status === 'RUNNING') {
+    if (onProgress) onProgress(job);
+    await new Promise(resolve => setTimeout(resolve, delay));
+    delay = Math.min(delay * 2, 5000);
+    const res = await getCompressionJob(token, job.jobId);
+    if (!res.success) return res;
+    job = res.data;
+  }
+  if (job.status === 'COMPLETED') return { success: true, data: job.result };
+  return { success: false, error: job.error || `Compression ${job.status.toLowerCase()}` };
+}
+
+export async function getCompressionJob(token, jobId) {
+  return robustFetch(`${API_BASE_URL}/files/compress-jobs/${jobId}`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+export async function cancelCompressionJob(token, jobId) {
+  return robustFetch(`${API_BASE_URL}/files/compress-jobs/${jobId}`, {
+    method: 'DELETE',
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
 }
 
 /**
@@ -289,6 +443,39 @@ export async function renameFolder(token, folderId, newName) {
   });
 }
 
+// Whole folder hierarchy in one call: [{ id, name, parentId, children: [...] }, ...]
+export async function getFolderTree(token) {
+  return robustFetch(`${API_BASE_URL}/folders/tree`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+// Ancestors from the top level down to the folder itself
+export async function getFolderBreadcrumbs(token, folderId) {
+  return robustFetch(`${API_BASE_URL}/folders/${folderId}/breadcrumbs`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+// Every folder below folderId (flat, parents first)
+export async function listFolderSubtree(token, folderId) {
+  return robustFetch(`${API_BASE_URL}/folders/${folderId}/subtree`, {
+    headers: { 'Authorization': `Bearer ${token}` },
+  });
+}
+
+// parentId null moves the folder to the top level
+export async function moveFolder(token, folderId, parentId = null) {
+  return robustFetch(`${API_BASE_URL}/folders/${folderId}/move`, {
+    method: 'PUT',
+    headers: {
+      'Authorization': `Bearer ${token}`,
+      'Content-Type': 'application/json',
+    },
+    body: JSON.stringify({ parentId }),
+  });
+}
+
 // --- DOCUMENT SCANNER ---
 export async function uploadScannedDocument(token, fileUri, fileName, folderId = null) {
   try {
@@ -356,7 +543,18 @@ export async function uploadScannedDocument(token, fileUri, fileName, folderId =
 
 
 
-// --- LOGOUT (if implemented on backend) ---
+// Exchanges the refresh token for a new token/refreshToken pair. Each refresh token works once,
+// so store the returned one in place of the old; reusing an old one signs the user out everywhere.
+export async function refreshAccessToken(refreshToken) {
+  return robustFetch(`${API_BASE_URL}/auth/refresh`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json' },
+    body: JSON.stringify({ refreshToken }),
+  });
+}
+
+// --- LOGOUT ---
+// Revokes every token of the user on the server, on all devices.
 export async function logout(token) {
   return fetch(`${API_BASE_URL}/auth/logout`, {
     method: 'POST',